@@ -4,7 +4,10 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
+import android.graphics.SurfaceTexture;
 import android.hardware.Sensor;
+import android.net.Uri;
 import android.media.AudioAttributes;
 import android.os.Build;
 import android.os.Bundle;
@@ -12,6 +15,7 @@ import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.view.InputDevice;
 import android.view.MotionEvent;
+import android.view.Surface;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
@@ -21,9 +25,22 @@ import android.widget.Toast;
 
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.FileProvider;
 
+import com.limelight.binding.video.DecodeUnitCapture;
+import com.limelight.binding.video.DecodeUnitReplay;
+import com.limelight.binding.video.MediaCodecDecoderRenderer;
+import com.limelight.binding.video.MediaCodecHelper;
+import com.limelight.binding.video.SessionRecorder;
+import com.limelight.nvstream.jni.MoonBridge;
+import com.limelight.preferences.GlPreferences;
+import com.limelight.preferences.PreferenceConfiguration;
 import com.limelight.utils.DeviceUtils;
+import com.limelight.utils.Dialog;
+import com.limelight.utils.SpinnerDialog;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -150,6 +167,30 @@ public class DebugInfoActivity extends AppCompatActivity implements View.OnClick
             return;
         }
 
+        // Export Session Performance Log
+        if (v.getId() == R.id.bt_export_session_log) {
+            exportSessionLog();
+            return;
+        }
+
+        // Replay Video Capture
+        if (v.getId() == R.id.bt_replay_capture) {
+            File capture = DecodeUnitCapture.findLatestCapture(DecodeUnitCapture.getDirectory(this));
+            if (capture == null) {
+                Toast.makeText(this, getString(R.string.debug_info_no_capture), Toast.LENGTH_LONG).show();
+                return;
+            }
+            String[] titles = new String[]{getString(R.string.debug_info_replay_original_speed), getString(R.string.debug_info_replay_max_speed)};
+            new AlertDialog.Builder(this).setItems(titles, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    dialog.dismiss();
+                    replayCapture(capture, which == 0);
+                }
+            }).setTitle(getString(R.string.debug_info_please_choose)).create().show();
+            return;
+        }
+
         if (v.getId() == R.id.bt_vibrator_value) {
             SeekBar mSeekBar = getSeekBar();
             AlertDialog.Builder editDialog = new AlertDialog.Builder(this);
@@ -159,6 +200,103 @@ public class DebugInfoActivity extends AppCompatActivity implements View.OnClick
         }
     }
 
+    private void exportSessionLog() {
+        // The log can be a few MB, so convert it off the main thread
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                File csvFile;
+                try {
+                    csvFile = SessionRecorder.exportCsv(DebugInfoActivity.this);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    showToast(getString(R.string.debug_info_export_session_log_failed));
+                    return;
+                }
+
+                if (csvFile == null) {
+                    showToast(getString(R.string.debug_info_no_session_log));
+                    return;
+                }
+
+                String summary = SessionRecorder.readSummary(DebugInfoActivity.this);
+                Uri uri = FileProvider.getUriForFile(DebugInfoActivity.this,
+                        getPackageName() + ".fileprovider", csvFile);
+
+                Intent intent = new Intent(Intent.ACTION_SEND);
+                intent.setType("text/csv");
+                intent.putExtra(Intent.EXTRA_STREAM, uri);
+                if (summary != null) {
+                    intent.putExtra(Intent.EXTRA_TEXT, summary);
+                }
+                intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        startActivity(Intent.createChooser(intent, getString(R.string.debug_info_export_session_log)));
+                    }
+                });
+            }
+        }).start();
+    }
+
+    private void replayCapture(File capture, boolean originalSpeed) {
+        final SpinnerDialog spinner = SpinnerDialog.displayDialog(this, getString(R.string.debug_info_replay_capture),
+                getString(R.string.debug_info_replay_running, capture.getName()), false);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                PreferenceConfiguration prefs = PreferenceConfiguration.readPreferences(DebugInfoActivity.this);
+
+                // Don't let the replay overwrite its own capture or the last session's logs
+                prefs.enableDecodeUnitCapture = false;
+                prefs.enablePerfLogging = false;
+
+                GlPreferences glPrefs = GlPreferences.readPreferences(DebugInfoActivity.this);
+                MediaCodecHelper.initialize(DebugInfoActivity.this, glPrefs.glRenderer);
+
+                // Decode to an offscreen surface, so this measures the decoder alone
+                SurfaceTexture outputTexture = new SurfaceTexture(0);
+                Surface outputSurface = new Surface(outputTexture);
+
+                String message;
+                try {
+                    boolean hdr;
+                    try (DecodeUnitCapture.Reader reader = new DecodeUnitCapture.Reader(capture)) {
+                        hdr = (reader.videoFormat & MoonBridge.VIDEO_FORMAT_MASK_10BIT) != 0;
+                    }
+
+                    MediaCodecDecoderRenderer renderer = new MediaCodecDecoderRenderer(DebugInfoActivity.this,
+                            prefs, e -> {}, 0, false, hdr, false, glPrefs.glRenderer, text -> {});
+                    renderer.setRenderTarget(outputSurface);
+
+                    DecodeUnitReplay.Result result = new DecodeUnitReplay(capture, renderer, originalSpeed).run();
+                    message = result + "\n\n" + renderer.getLatencyPercentileSummary();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    message = getString(R.string.debug_info_replay_failed, e.getMessage());
+                } finally {
+                    outputSurface.release();
+                    outputTexture.release();
+                }
+
+                spinner.dismiss();
+                Dialog.displayDialog(DebugInfoActivity.this, getString(R.string.debug_info_replay_capture), message, false);
+            }
+        }).start();
+    }
+
+    private void showToast(String message) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(DebugInfoActivity.this, message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
     private SeekBar getSeekBar() {
         SeekBar mSeekBar = new SeekBar(this);
         mSeekBar.setMax(255);
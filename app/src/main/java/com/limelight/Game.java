@@ -9,6 +9,7 @@ import static com.limelight.utils.ServerHelper.getActiveDisplay;
 import static com.limelight.utils.ServerHelper.getSecondaryDisplay;
 
 import com.limelight.binding.PlatformBinding;
+import com.limelight.binding.audio.AAudioRenderer;
 import com.limelight.binding.audio.AndroidAudioRenderer;
 import com.limelight.binding.input.ControllerHandler;
 import com.limelight.binding.input.GameInputDevice;
@@ -31,6 +32,7 @@ import com.limelight.binding.video.PerfOverlayListener;
 import com.limelight.nvstream.NvConnection;
 import com.limelight.nvstream.NvConnectionListener;
 import com.limelight.nvstream.StreamConfiguration;
+import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.http.ComputerDetails;
 import com.limelight.nvstream.http.NvApp;
 import com.limelight.nvstream.http.NvHTTP;
@@ -51,6 +53,8 @@ import com.limelight.utils.PerformanceDataTracker;
 import com.limelight.utils.ServerHelper;
 import com.limelight.utils.ShortcutHelper;
 import com.limelight.utils.SpinnerDialog;
+import com.limelight.utils.ThermalGovernor;
+import com.limelight.utils.ThermalPolicy;
 import com.limelight.utils.UiHelper;
 
 import android.annotation.SuppressLint;
@@ -83,6 +87,8 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.PersistableBundle;
+import android.os.PowerManager;
+import android.os.SystemClock;
 import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.util.Rational;
@@ -188,11 +194,20 @@ public class Game extends AppCompatActivity implements SurfaceHolder.Callback,
     private boolean surfaceCreated = false;
     private boolean attemptedConnection = false;
     private int suppressPipRefCount = 0;
+
+    // Used to log how long each connection stage takes
+    private long connectionStartTimeMs;
+    private long stageStartTimeMs;
     private String pcName;
     private String appName;
     private NvApp app;
     private float desiredRefreshRate;
 
+    private ThermalGovernor thermalGovernor;
+    private boolean sustainedPerformanceModeEnabled;
+    private boolean thermalFrameRateReduced;
+    private int thermalWarningLevel = ThermalPolicy.LEVEL_NORMAL;
+
     private InputCaptureProvider inputCaptureProvider;
     private int modifierFlags = 0;
     private boolean grabbedInput = true;
@@ -1325,7 +1340,8 @@ public class Game extends AppCompatActivity implements SurfaceHolder.Callback,
     private boolean mayReduceRefreshRate() {
         return prefConfig.framePacing == PreferenceConfiguration.FRAME_PACING_CAP_FPS ||
                 prefConfig.framePacing == PreferenceConfiguration.FRAME_PACING_MAX_SMOOTHNESS ||
-                (prefConfig.framePacing == PreferenceConfiguration.FRAME_PACING_BALANCED && prefConfig.reduceRefreshRate);
+                ((prefConfig.framePacing == PreferenceConfiguration.FRAME_PACING_BALANCED ||
+                        prefConfig.framePacing == PreferenceConfiguration.FRAME_PACING_ADAPTIVE) && prefConfig.reduceRefreshRate);
     }
 
     public boolean isOnExternalDisplay() {
@@ -1723,6 +1739,8 @@ public class Game extends AppCompatActivity implements SurfaceHolder.Callback,
                         displayWidth + "x" + displayHeight,
                         prefConfig.fps + " hz",
                         decoderRenderer.getAverageDecoderLatency() + " ms",
+                        decoderRenderer.getLatencyPercentileSummary(),
+                        thermalGovernor != null ? thermalGovernor.getTimelineSummary() : "",
                         PreferenceConfiguration.getSelectedFramePacingName(getBaseContext()),
                         formatCurrentTime(System.currentTimeMillis())
                 );
@@ -3317,6 +3335,7 @@ public class Game extends AppCompatActivity implements SurfaceHolder.Callback,
 
     @Override
     public void stageStarting(final String stage) {
+        stageStartTimeMs = SystemClock.uptimeMillis();
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
@@ -3329,6 +3348,7 @@ public class Game extends AppCompatActivity implements SurfaceHolder.Callback,
 
     @Override
     public void stageComplete(String stage) {
+        LimeLog.info("Connection stage "+stage+" took "+(SystemClock.uptimeMillis() - stageStartTimeMs)+" ms");
     }
 
     private void stopConnection() {
@@ -3336,6 +3356,11 @@ public class Game extends AppCompatActivity implements SurfaceHolder.Callback,
             connecting = connected = false;
             updatePipAutoEnter();
 
+            if (thermalGovernor != null) {
+                thermalGovernor.stop();
+                LimeLog.info("Thermal timeline: "+thermalGovernor.getTimelineSummary());
+            }
+
             controllerHandler.stop();
 
             // Update GameManager state to indicate we're no longer in game
@@ -3553,6 +3578,7 @@ public class Game extends AppCompatActivity implements SurfaceHolder.Callback,
 
     @Override
     public void connectionStarted() {
+        LimeLog.info("Connection established in "+(SystemClock.uptimeMillis() - connectionStartTimeMs)+" ms");
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
@@ -3581,6 +3607,21 @@ public class Game extends AppCompatActivity implements SurfaceHolder.Callback,
                 // Keep the display on
                 getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
+                if (prefConfig.enableThermalGovernor) {
+                    thermalGovernor = new ThermalGovernor(Game.this, new ThermalGovernor.DecodeTimeSource() {
+                        @Override
+                        public float getRecentDecodeTimeMs() {
+                            return decoderRenderer.getRecentDecodeTimeMs();
+                        }
+                    }, new ThermalGovernor.Listener() {
+                        @Override
+                        public void onThermalLevelChanged(int level) {
+                            handleThermalLevelChange(level);
+                        }
+                    });
+                    thermalGovernor.start();
+                }
+
                 // Update GameManager state to indicate we're in game
                 UiHelper.notifyStreamConnected(Game.this);
 
@@ -3679,8 +3720,21 @@ public class Game extends AppCompatActivity implements SurfaceHolder.Callback,
             UiHelper.notifyStreamConnecting(Game.this);
 
             decoderRenderer.setRenderTarget(holder.getSurface());
-            conn.start(new AndroidAudioRenderer(Game.this, prefConfig.enableAudioFx),
-                    decoderRenderer, Game.this);
+            connectionStartTimeMs = SystemClock.uptimeMillis();
+            AudioRenderer audioRenderer;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1 &&
+                    prefConfig.enableNativeAudio && !prefConfig.enableAudioFx) {
+                // Audio effects need an AudioTrack session, so they keep the Java path
+                AAudioRenderer aaudioRenderer = new AAudioRenderer(Game.this);
+                decoderRenderer.setAudioStatsProvider(aaudioRenderer);
+                audioRenderer = aaudioRenderer;
+            }
+            else {
+                AndroidAudioRenderer androidAudioRenderer = new AndroidAudioRenderer(Game.this, prefConfig.enableAudioFx);
+                decoderRenderer.setAudioStatsProvider(androidAudioRenderer);
+                audioRenderer = androidAudioRenderer;
+            }
+            conn.start(audioRenderer, decoderRenderer, Game.this);
         }
 
         panZoomHandler.handleSurfaceChange();
@@ -3694,10 +3748,15 @@ public class Game extends AppCompatActivity implements SurfaceHolder.Callback,
 
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
-        float desiredFrameRate;
-
         surfaceCreated = true;
 
+        // Tell the OS about our frame rate to allow it to adapt the display refresh rate appropriately
+        setSurfaceFrameRate(holder.getSurface(), getDesiredSurfaceFrameRate(), false);
+    }
+
+    private float getDesiredSurfaceFrameRate() {
+        float desiredFrameRate;
+
         // Android will pick the lowest matching refresh rate for a given frame rate value, so we want
         // to report the true FPS value if refresh rate reduction is enabled. We also report the true
         // FPS value if there's no suitable matching refresh rate. In that case, Android could try to
@@ -3713,21 +3772,69 @@ public class Game extends AppCompatActivity implements SurfaceHolder.Callback,
             desiredFrameRate = desiredRefreshRate;
         }
 
-        // Tell the OS about our frame rate to allow it to adapt the display refresh rate appropriately
+        return desiredFrameRate;
+    }
+
+    private void setSurfaceFrameRate(Surface surface, float frameRate, boolean onlyIfSeamless) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
             // We want to change frame rate even if it's not seamless, since prepareDisplayForRendering()
             // will not set the display mode on S+ if it only differs by the refresh rate. It depends
             // on us to trigger the frame rate switch here.
-            holder.getSurface().setFrameRate(desiredFrameRate,
+            surface.setFrameRate(frameRate,
                     Surface.FRAME_RATE_COMPATIBILITY_FIXED_SOURCE,
-                    Surface.CHANGE_FRAME_RATE_ALWAYS);
+                    onlyIfSeamless ? Surface.CHANGE_FRAME_RATE_ONLY_IF_SEAMLESS : Surface.CHANGE_FRAME_RATE_ALWAYS);
         }
         else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-            holder.getSurface().setFrameRate(desiredFrameRate,
+            surface.setFrameRate(frameRate,
                     Surface.FRAME_RATE_COMPATIBILITY_FIXED_SOURCE);
         }
     }
 
+    private void handleThermalLevelChange(int level) {
+        if (!connected) {
+            return;
+        }
+
+        // Trade peak clocks for ones the device can hold. We leave this on for the rest of
+        // the session, since toggling it would cause clock swings of its own.
+        if (level >= ThermalPolicy.LEVEL_WARM && !sustainedPerformanceModeEnabled &&
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+            if (powerManager != null && powerManager.isSustainedPerformanceModeSupported()) {
+                getWindow().setSustainedPerformanceMode(true);
+                sustainedPerformanceModeEnabled = true;
+                LimeLog.info("Enabled sustained performance mode");
+            }
+        }
+
+        boolean throttling = level >= ThermalPolicy.LEVEL_THROTTLING;
+        decoderRenderer.setThermalThrottling(throttling);
+
+        // If the display is running faster than the stream, drop it down to the stream's frame
+        // rate so composition and our Choreographer callbacks run less often.
+        if (surfaceCreated && throttling != thermalFrameRateReduced &&
+                getDesiredSurfaceFrameRate() > prefConfig.fps) {
+            setSurfaceFrameRate(streamView.getHolder().getSurface(),
+                    throttling ? prefConfig.fps : getDesiredSurfaceFrameRate(), true);
+            thermalFrameRateReduced = throttling;
+        }
+
+        if (throttling && level > thermalWarningLevel) {
+            thermalWarningLevel = level;
+
+            String recommendation;
+            if (prefConfig.fps > 60) {
+                recommendation = getString(R.string.thermal_recommend_fps, 60);
+            }
+            else {
+                recommendation = getString(R.string.thermal_recommend_bitrate,
+                        Math.max(1, prefConfig.bitrate * 7 / 10 / 1000));
+            }
+            displayTransientMessage(getString(level >= ThermalPolicy.LEVEL_SEVERE ?
+                    R.string.thermal_warning_severe : R.string.thermal_warning, recommendation));
+        }
+    }
+
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
         if (!surfaceCreated) {
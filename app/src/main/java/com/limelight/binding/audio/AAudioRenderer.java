@@ -0,0 +1,91 @@
+package com.limelight.binding.audio;
+
+import android.content.Context;
+
+import com.limelight.LimeLog;
+import com.limelight.nvstream.av.audio.AudioRenderer;
+import com.limelight.nvstream.jni.MoonBridge;
+
+// Plays audio through a native AAudio stream. Opus packets are decoded in native code
+// straight into a ring buffer drained by the AAudio callback, so this class only handles
+// setup and teardown. If the stream can't be opened (multichannel audio, or the device
+// can't match the stream format), everything goes to the AudioTrack renderer instead.
+public class AAudioRenderer implements AudioRenderer, AudioStats.Provider {
+    private final AndroidAudioRenderer fallbackRenderer;
+
+    private final long[] nativeStats = new long[4];
+
+    private volatile boolean nativeAudio;
+
+    public AAudioRenderer(Context context) {
+        this.fallbackRenderer = new AndroidAudioRenderer(context, false);
+    }
+
+    @Override
+    public int setup(MoonBridge.AudioConfiguration audioConfiguration, int sampleRate, int samplesPerFrame) {
+        // AAudio has no channel masks until Android 12, so the layout of
+        // surround channels isn't defined. Only use it for stereo.
+        if (audioConfiguration.channelCount == 2 &&
+                MoonBridge.openNativeAudio(audioConfiguration.channelCount, sampleRate, samplesPerFrame)) {
+            LimeLog.info("Using native audio output");
+            nativeAudio = true;
+            return 0;
+        }
+
+        LimeLog.info("Native audio output unavailable, falling back to AudioTrack");
+        return fallbackRenderer.setup(audioConfiguration, sampleRate, samplesPerFrame);
+    }
+
+    @Override
+    public void start() {
+        if (nativeAudio) {
+            MoonBridge.startNativeAudio();
+        }
+        else {
+            fallbackRenderer.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (nativeAudio) {
+            MoonBridge.stopNativeAudio();
+        }
+        else {
+            fallbackRenderer.stop();
+        }
+    }
+
+    @Override
+    public void playDecodedAudio(short[] audioData) {
+        // Only reached on the fallback path, since native audio never calls up into Java
+        fallbackRenderer.playDecodedAudio(audioData);
+    }
+
+    @Override
+    public void getStats(AudioStats totals) {
+        if (!nativeAudio) {
+            fallbackRenderer.getStats(totals);
+            return;
+        }
+
+        MoonBridge.getNativeAudioStats(nativeStats);
+        totals.packetsPlayed = nativeStats[0];
+        totals.packetsDropped = nativeStats[1];
+        totals.underruns = nativeStats[2];
+        totals.outputLatencyMs = MoonBridge.getPendingAudioDuration() + nativeStats[3] / 1000.0f;
+
+        // Nothing blocks on the native path
+        totals.maxWriteBlockUs = 0;
+    }
+
+    @Override
+    public void cleanup() {
+        if (nativeAudio) {
+            MoonBridge.closeNativeAudio();
+        }
+        else {
+            fallbackRenderer.cleanup();
+        }
+    }
+}
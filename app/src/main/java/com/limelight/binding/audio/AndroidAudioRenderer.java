@@ -1,25 +1,68 @@
 package com.limelight.binding.audio;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.Intent;
 import android.media.AudioAttributes;
+import android.media.AudioDeviceInfo;
 import android.media.AudioFormat;
 import android.media.AudioManager;
+import android.media.AudioRouting;
+import android.media.AudioTimestamp;
 import android.media.AudioTrack;
 import android.media.audiofx.AudioEffect;
 import android.os.Build;
+import android.os.Process;
 
 import com.limelight.LimeLog;
 import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.jni.MoonBridge;
+import com.limelight.utils.PerformanceHintSession;
 
-public class AndroidAudioRenderer implements AudioRenderer {
+import java.util.Locale;
+
+public class AndroidAudioRenderer implements AudioRenderer, AudioStats.Provider {
+
+    // Largest buffer the tuner may grow to, in packets
+    private static final int MAX_TUNED_BUFFER_PACKETS = 8;
 
     private final Context context;
     private final boolean enableAudioFx;
 
     private AudioTrack track;
 
+    // Drift and latency control for the output stage
+    private AudioJitterController jitterController;
+    private AudioResampler resampler;
+    private short[] resampleBuffer;
+    private final AudioTimestamp timestamp = new AudioTimestamp();
+    private int channelCount;
+    private int sampleRate;
+    private long framesWritten;
+    private long lastTimestampNanos;
+    private int lastUnderrunCount;
+    private int trackBufferFrames;
+
+    // When the last packet arrived and how much audio was queued once it was written, to tell
+    // underruns caused by the network going quiet apart from ones caused by a small buffer
+    private long lastPacketNanos;
+    private float lastQueuedMs;
+
+    // Buffer size calibration for the current audio route
+    private AudioBufferTuner bufferTuner;
+    private String routeKey;
+    private volatile boolean routeChanged;
+
+    // Written by the audio thread and read by the stats reader
+    private volatile long packetsPlayed;
+    private volatile long packetsDropped;
+    private volatile long underruns;
+    private volatile long maxWriteBlockUs;
+    private volatile float outputLatencyMs;
+
+    private long packetDurationNanos;
+    private PerformanceHintSession hintSession;
+
     public AndroidAudioRenderer(Context context, boolean enableAudioFx) {
         this.context = context;
         this.enableAudioFx = enableAudioFx;
@@ -94,6 +137,7 @@ public class AndroidAudioRenderer implements AudioRenderer {
         LimeLog.info("Audio channel config: "+String.format("0x%X", channelConfig));
 
         bytesPerFrame = audioConfiguration.channelCount * samplesPerFrame * 2;
+        packetDurationNanos = samplesPerFrame * 1000000000L / sampleRate;
 
         // We're not supposed to request less than the minimum
         // buffer size for our buffer, but it appears that we can
@@ -158,12 +202,31 @@ public class AndroidAudioRenderer implements AudioRenderer {
                 continue;
             }
 
+            // On N and later, the buffer can be resized after creation. Allocate room to grow
+            // and let the tuner pick the size actually used, starting from the one we'd ask for.
+            int capacity = bufferSize;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                capacity = Math.max(bufferSize, bytesPerFrame * MAX_TUNED_BUFFER_PACKETS);
+            }
+
             try {
-                track = createAudioTrack(channelConfig, sampleRate, bufferSize, lowLatency);
+                track = createAudioTrack(channelConfig, sampleRate, capacity, lowLatency);
                 track.play();
 
                 // Successfully created working AudioTrack. We're done here.
                 LimeLog.info("Audio track configuration: "+bufferSize+" "+lowLatency);
+                this.sampleRate = sampleRate;
+                trackBufferFrames = bufferSize / (audioConfiguration.channelCount * 2);
+
+                // Aim for a packet queued beyond what the AudioTrack buffers itself
+                float trackBufferMs = trackBufferFrames * 1000.0f / sampleRate;
+                float packetDurationMs = packetDurationNanos / 1000000.0f;
+                jitterController = new AudioJitterController(sampleRate, samplesPerFrame,
+                        trackBufferMs + packetDurationMs, trackBufferMs + packetDurationMs + 60);
+
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                    startBufferTuning(trackBufferFrames, samplesPerFrame);
+                }
                 break;
             } catch (Exception e) {
                 // Try to release the AudioTrack if we got far enough
@@ -182,21 +245,169 @@ public class AndroidAudioRenderer implements AudioRenderer {
             return -2;
         }
 
+        this.channelCount = audioConfiguration.channelCount;
+        resampler = new AudioResampler(channelCount);
+        resampleBuffer = new short[AudioResampler.getMaxOutputFrames(samplesPerFrame,
+                1.0 + AudioJitterController.MAX_CORRECTION) * channelCount];
+
         return 0;
     }
 
     @Override
     public void playDecodedAudio(short[] audioData) {
-        // Only queue up to 40 ms of pending audio data in addition to what AudioTrack is buffering for us.
-        if (MoonBridge.getPendingAudioDuration() < 40) {
+        long workStartNanos = System.nanoTime();
+        long writeBlockNanos = 0;
+
+        updateOutputClock(workStartNanos);
+
+        // The level covers both the packets waiting in native code and what AudioTrack
+        // hasn't played yet.
+        long queuedFrames = Math.max(0, framesWritten - (track.getPlaybackHeadPosition() & 0xFFFFFFFFL));
+        float levelMs = MoonBridge.getPendingAudioDuration() + queuedFrames * 1000.0f / sampleRate;
+
+        int inputFrames = audioData.length / channelCount;
+        if (jitterController.onPacket(inputFrames, levelMs, workStartNanos)) {
+            // Small clock differences are absorbed by stretching or shrinking the packet
+            int outputFrames = resampler.process(audioData, inputFrames, resampleBuffer, jitterController.getRatio());
+
             // This will block until the write is completed. That can cause a backlog
-            // of pending audio data, so we do the above check to be able to bound
-            // latency at 40 ms in that situation.
-            track.write(audioData, 0, audioData.length);
+            // of pending audio data, which the jitter controller bounds by dropping
+            // packets when resampling alone can't keep up.
+            long writeStartNanos = System.nanoTime();
+            track.write(resampleBuffer, 0, outputFrames * channelCount);
+            writeBlockNanos = System.nanoTime() - writeStartNanos;
+            long writeBlockUs = writeBlockNanos / 1000;
+            if (writeBlockUs > maxWriteBlockUs) {
+                maxWriteBlockUs = writeBlockUs;
+            }
+
+            framesWritten += outputFrames;
+            packetsPlayed++;
+            lastQueuedMs = levelMs + outputFrames * 1000.0f / sampleRate;
         }
         else {
-            LimeLog.info("Too much pending audio data: " + MoonBridge.getPendingAudioDuration() +" ms");
+            packetsDropped++;
+            LimeLog.info("Too much pending audio data: " + levelMs +" ms");
+            lastQueuedMs = levelMs;
         }
+        lastPacketNanos = workStartNanos;
+
+        // This is called on the audio decoder thread, which is owned by native code. Time spent
+        // blocked in the write is waiting on the AudioTrack, not work, so it isn't reported.
+        if (hintSession == null) {
+            hintSession = PerformanceHintSession.create(context, "audio",
+                    new int[] {Process.myTid()}, packetDurationNanos);
+        }
+        hintSession.reportActualWorkDuration(System.nanoTime() - workStartNanos - writeBlockNanos);
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void startBufferTuning(int minFrames, int samplesPerFrame) {
+        bufferTuner = new AudioBufferTuner(minFrames, track.getBufferCapacityInFrames(), samplesPerFrame);
+        routeKey = getRouteKey();
+        bufferTuner.reset(AudioBufferTuner.loadBufferFrames(context, routeKey));
+        applyBufferSize(bufferTuner.getBufferFrames());
+
+        // Called on the main thread. The audio thread picks up the new route.
+        track.addOnRoutingChangedListener((AudioRouting router) -> routeChanged = true, null);
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private String getRouteKey() {
+        AudioDeviceInfo device = track.getRoutedDevice();
+        if (device == null) {
+            return "default";
+        }
+        return device.getType() + "|" + device.getProductName();
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void applyBufferSize(int frames) {
+        int actualFrames = track.setBufferSizeInFrames(frames);
+        if (actualFrames <= 0) {
+            return;
+        }
+
+        LimeLog.info("Audio buffer size for "+routeKey+": "+actualFrames+" frames");
+        trackBufferFrames = actualFrames;
+        jitterController.setMinTargetMs(trackBufferFrames * 1000.0f / sampleRate + packetDurationNanos / 1000000.0f);
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void updateBufferTuning(int underrunCount, boolean inputStarved, long nowNanos) {
+        if (routeChanged) {
+            routeChanged = false;
+
+            String newRouteKey = getRouteKey();
+            if (!newRouteKey.equals(routeKey)) {
+                routeKey = newRouteKey;
+                bufferTuner.reset(AudioBufferTuner.loadBufferFrames(context, routeKey));
+                applyBufferSize(bufferTuner.getBufferFrames());
+            }
+        }
+
+        int newFrames = bufferTuner.update(underrunCount, inputStarved, nowNanos);
+        if (newFrames > 0) {
+            applyBufferSize(newFrames);
+        }
+        else if (bufferTuner.shouldSave(nowNanos)) {
+            AudioBufferTuner.saveBufferFrames(context, routeKey, trackBufferFrames);
+        }
+    }
+
+    private void updateOutputClock(long nowNanos) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            int underrunCount = track.getUnderrunCount();
+            if (underrunCount > lastUnderrunCount) {
+                jitterController.onUnderrun(nowNanos);
+                underruns += underrunCount - lastUnderrunCount;
+            }
+            lastUnderrunCount = underrunCount;
+
+            if (bufferTuner != null) {
+                // If the gap since the last packet outlasted everything that was queued, the
+                // track ran dry because no audio arrived, and a bigger buffer wouldn't have helped.
+                boolean inputStarved = lastPacketNanos != 0 &&
+                        nowNanos - lastPacketNanos > (long) (lastQueuedMs * 1000000.0f);
+                updateBufferTuning(underrunCount, inputStarved, nowNanos);
+            }
+        }
+        else if (framesWritten != 0 && track.getPlaybackHeadPosition() == (int) framesWritten) {
+            // Without underrun counts, an empty AudioTrack is the best hint we have
+            jitterController.onUnderrun(nowNanos);
+            underruns++;
+        }
+
+        // The timestamp only needs to be sampled occasionally to follow the output clock
+        if (nowNanos - lastTimestampNanos >= 500000000L) {
+            lastTimestampNanos = nowNanos;
+            long queuedFrames;
+            if (track.getTimestamp(timestamp)) {
+                jitterController.onTimestamp(timestamp.framePosition, timestamp.nanoTime);
+
+                // Frames written but not heard yet, as of now rather than the timestamp
+                long presentedFrames = timestamp.framePosition +
+                        (nowNanos - timestamp.nanoTime) * sampleRate / 1000000000L;
+                queuedFrames = Math.max(0, framesWritten - presentedFrames);
+            }
+            else {
+                // No timestamp yet, so assume the whole buffer is ahead of us
+                queuedFrames = trackBufferFrames;
+            }
+            outputLatencyMs = MoonBridge.getPendingAudioDuration() + queuedFrames * 1000.0f / sampleRate;
+        }
+    }
+
+    @Override
+    public void getStats(AudioStats totals) {
+        totals.packetsPlayed = packetsPlayed;
+        totals.packetsDropped = packetsDropped;
+        totals.underruns = underruns;
+        totals.outputLatencyMs = outputLatencyMs;
+
+        // A write finishing right now may be lost, but it's only a statistic
+        totals.maxWriteBlockUs = maxWriteBlockUs;
+        maxWriteBlockUs = 0;
     }
 
     @Override
@@ -224,10 +435,22 @@ public class AndroidAudioRenderer implements AudioRenderer {
 
     @Override
     public void cleanup() {
+        if (jitterController != null) {
+            LimeLog.info(String.format((Locale)null,
+                    "Audio output: %d underruns, %d drops, level %.1f ms (target %.1f ms), drift %d ppm",
+                    jitterController.getUnderruns(), jitterController.getDrops(),
+                    jitterController.getBufferLevelMs(), jitterController.getTargetMs(),
+                    jitterController.getDriftPpm()));
+        }
+
         // Immediately drop all pending data
         track.pause();
         track.flush();
 
         track.release();
+
+        if (hintSession != null) {
+            hintSession.close();
+        }
     }
 }
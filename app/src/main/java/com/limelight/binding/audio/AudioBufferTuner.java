@@ -0,0 +1,120 @@
+package com.limelight.binding.audio;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import com.limelight.LimeLog;
+
+// Finds the smallest AudioTrack buffer that plays without underruns on this device and audio
+// route. The buffer starts small (or at the size remembered for the route) and grows a step
+// whenever the track underruns even though packets kept arriving. Underruns from the network
+// going quiet are ignored, since no buffer size would have prevented them and growing for
+// them would inflate the saved size for good. Once it has gone long enough without another
+// underrun, the size is remembered for the route, so wired outputs keep their minimal latency
+// while Bluetooth outputs don't crackle through a calibration on every stream. The saved sizes
+// are thrown away after a system update.
+class AudioBufferTuner {
+    private static final String PREF_NAME = "AudioBufferTuner";
+
+    private static final String FINGERPRINT_PREF_STRING = "Fingerprint";
+    private static final String BUFFER_FRAMES_PREF_PREFIX = "BufferFrames|";
+
+    // The track underruns while the stream is starting up, which says nothing about the buffer
+    private static final long STARTUP_GRACE_NS = 1000000000L;
+
+    // How long a size must play cleanly before it is remembered
+    static final long STABLE_NS = 10000000000L;
+
+    private final int minFrames;
+    private final int maxFrames;
+    private final int stepFrames;
+
+    private int bufferFrames;
+    private boolean saved;
+    private long startNs = -1;
+    private long lastChangeNs;
+    private int lastUnderrunCount;
+
+    AudioBufferTuner(int minFrames, int maxFrames, int stepFrames) {
+        this.minFrames = minFrames;
+        this.maxFrames = Math.max(minFrames, maxFrames);
+        this.stepFrames = stepFrames;
+        this.bufferFrames = minFrames;
+    }
+
+    // Starts over with the size remembered for a route, or the minimum if there is none
+    void reset(int savedFrames) {
+        if (savedFrames > 0) {
+            bufferFrames = Math.max(minFrames, Math.min(maxFrames, savedFrames));
+            saved = true;
+        }
+        else {
+            bufferFrames = minFrames;
+            saved = false;
+        }
+        startNs = -1;
+    }
+
+    int getBufferFrames() {
+        return bufferFrames;
+    }
+
+    // Called regularly with the track's underrun count, and whether the input starved the
+    // track since the last call. Returns the new buffer size if it should grow, or 0 to leave
+    // it alone.
+    int update(int underrunCount, boolean inputStarved, long nowNs) {
+        if (startNs < 0) {
+            startNs = nowNs;
+            lastChangeNs = nowNs;
+            lastUnderrunCount = underrunCount;
+            return 0;
+        }
+
+        int newUnderruns = underrunCount - lastUnderrunCount;
+        lastUnderrunCount = underrunCount;
+        if (newUnderruns <= 0 || inputStarved || nowNs - startNs < STARTUP_GRACE_NS) {
+            return 0;
+        }
+
+        lastChangeNs = nowNs;
+        if (bufferFrames >= maxFrames) {
+            return 0;
+        }
+
+        bufferFrames = Math.min(maxFrames, bufferFrames + stepFrames);
+        saved = false;
+        return bufferFrames;
+    }
+
+    // Returns true once when the current size has played cleanly long enough to be saved
+    boolean shouldSave(long nowNs) {
+        if (saved || startNs < 0 || nowNs - lastChangeNs < STABLE_NS) {
+            return false;
+        }
+
+        saved = true;
+        return true;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREF_NAME, 0);
+        if (!Build.FINGERPRINT.equals(prefs.getString(FINGERPRINT_PREF_STRING, ""))) {
+            prefs.edit()
+                    .clear()
+                    .putString(FINGERPRINT_PREF_STRING, Build.FINGERPRINT)
+                    .apply();
+        }
+        return prefs;
+    }
+
+    // Returns the saved buffer size for the route, or 0 if there is none
+    static int loadBufferFrames(Context context, String routeKey) {
+        return getPreferences(context).getInt(BUFFER_FRAMES_PREF_PREFIX + routeKey, 0);
+    }
+
+    static void saveBufferFrames(Context context, String routeKey, int frames) {
+        LimeLog.info("Saving audio buffer size for "+routeKey+": "+frames+" frames");
+        getPreferences(context).edit().putInt(BUFFER_FRAMES_PREF_PREFIX + routeKey, frames).apply();
+    }
+}
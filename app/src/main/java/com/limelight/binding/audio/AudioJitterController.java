@@ -0,0 +1,157 @@
+package com.limelight.binding.audio;
+
+// Keeps the amount of queued audio near a target latency. Slow clock drift between the host
+// and the audio output is measured and absorbed by resampling up to MAX_CORRECTION, instead
+// of letting the queue grow until whole packets have to be dropped. The target itself adapts:
+// it grows a packet on every underrun and slowly shrinks back while playback is clean.
+class AudioJitterController {
+    static final double MAX_CORRECTION = 0.005;
+
+    // Queueing this far beyond the target is more than resampling can drain in a reasonable
+    // time (0.5% takes 8 seconds to remove 40 ms), so a packet is dropped instead.
+    static final int DROP_THRESHOLD_MS = 40;
+
+    // A level error of this size gets the full correction
+    private static final float FULL_CORRECTION_ERROR_MS = 20;
+
+    private static final double LEVEL_SMOOTHING = 0.05;
+    private static final double DRIFT_SMOOTHING = 0.2;
+    private static final long DRIFT_WINDOW_NS = 2000000000L;
+    private static final long TARGET_DECAY_INTERVAL_NS = 10000000000L;
+
+    private final float packetDurationMs;
+    private final float targetRangeMs;
+    private float minTargetMs;
+    private float maxTargetMs;
+
+    private float targetMs;
+    private double smoothedLevelMs = -1;
+    private long lastTargetChangeNs;
+
+    // Output clock, from the frame positions reported by the audio device
+    private long consumerFramePosition = -1;
+    private long consumerTimeNs;
+    private double consumerRate;
+
+    // Input clock, from the packets arriving from the host
+    private long producerWindowStartNs = -1;
+    private long producerWindowFrames;
+    private double producerRate;
+
+    private double ratio = 1.0;
+    private int underruns;
+    private int drops;
+
+    AudioJitterController(int sampleRate, int samplesPerPacket, float minTargetMs, float maxTargetMs) {
+        this.packetDurationMs = samplesPerPacket * 1000.0f / sampleRate;
+        this.minTargetMs = minTargetMs;
+        this.maxTargetMs = Math.max(minTargetMs, maxTargetMs);
+        this.targetRangeMs = this.maxTargetMs - minTargetMs;
+        this.targetMs = minTargetMs;
+    }
+
+    // Moves the target range, such as when the output buffer was resized
+    void setMinTargetMs(float minTargetMs) {
+        this.minTargetMs = minTargetMs;
+        this.maxTargetMs = minTargetMs + targetRangeMs;
+        this.targetMs = Math.max(minTargetMs, Math.min(maxTargetMs, targetMs));
+    }
+
+    // Called with each timestamp from the audio device. framePosition is the number of
+    // frames presented at timeNs, in output frames.
+    void onTimestamp(long framePosition, long timeNs) {
+        if (consumerFramePosition < 0 || framePosition < consumerFramePosition) {
+            consumerFramePosition = framePosition;
+            consumerTimeNs = timeNs;
+            return;
+        }
+
+        long elapsedNs = timeNs - consumerTimeNs;
+        if (elapsedNs < DRIFT_WINDOW_NS) {
+            return;
+        }
+
+        double rate = (framePosition - consumerFramePosition) * 1e9 / elapsedNs;
+        consumerRate = consumerRate == 0 ? rate : consumerRate + (rate - consumerRate) * DRIFT_SMOOTHING;
+        consumerFramePosition = framePosition;
+        consumerTimeNs = timeNs;
+    }
+
+    void onUnderrun(long nowNs) {
+        underruns++;
+        targetMs = Math.min(maxTargetMs, targetMs + packetDurationMs);
+        lastTargetChangeNs = nowNs;
+    }
+
+    // Called for each incoming packet with the audio queued ahead of it, in milliseconds.
+    // Returns false if the packet should be dropped rather than played.
+    boolean onPacket(int packetFrames, float levelMs, long nowNs) {
+        if (producerWindowStartNs < 0) {
+            producerWindowStartNs = nowNs;
+            lastTargetChangeNs = nowNs;
+        }
+        else {
+            producerWindowFrames += packetFrames;
+            long elapsedNs = nowNs - producerWindowStartNs;
+            if (elapsedNs >= DRIFT_WINDOW_NS) {
+                double rate = producerWindowFrames * 1e9 / elapsedNs;
+                producerRate = producerRate == 0 ? rate : producerRate + (rate - producerRate) * DRIFT_SMOOTHING;
+                producerWindowStartNs = nowNs;
+                producerWindowFrames = 0;
+            }
+        }
+
+        if (nowNs - lastTargetChangeNs >= TARGET_DECAY_INTERVAL_NS && targetMs > minTargetMs) {
+            targetMs = Math.max(minTargetMs, targetMs - 1);
+            lastTargetChangeNs = nowNs;
+        }
+
+        if (levelMs > targetMs + DROP_THRESHOLD_MS) {
+            drops++;
+            return false;
+        }
+
+        smoothedLevelMs = smoothedLevelMs < 0 ? levelMs :
+                smoothedLevelMs + (levelMs - smoothedLevelMs) * LEVEL_SMOOTHING;
+
+        // Match the output clock first, then nudge the level toward the target
+        double driftRatio = 1.0;
+        if (producerRate != 0 && consumerRate != 0) {
+            driftRatio = consumerRate / producerRate;
+        }
+        double levelError = (smoothedLevelMs - targetMs) / FULL_CORRECTION_ERROR_MS;
+        double newRatio = driftRatio * (1.0 - levelError * MAX_CORRECTION);
+        ratio = Math.max(1.0 - MAX_CORRECTION, Math.min(1.0 + MAX_CORRECTION, newRatio));
+
+        return true;
+    }
+
+    // Output frames to produce per input frame for the packet accepted by onPacket()
+    double getRatio() {
+        return ratio;
+    }
+
+    // Estimated drift of the output clock against the host, in parts per million
+    int getDriftPpm() {
+        if (producerRate == 0 || consumerRate == 0) {
+            return 0;
+        }
+        return (int) Math.round((consumerRate / producerRate - 1.0) * 1e6);
+    }
+
+    float getBufferLevelMs() {
+        return (float) Math.max(smoothedLevelMs, 0);
+    }
+
+    float getTargetMs() {
+        return targetMs;
+    }
+
+    int getUnderruns() {
+        return underruns;
+    }
+
+    int getDrops() {
+        return drops;
+    }
+}
@@ -0,0 +1,62 @@
+package com.limelight.binding.audio;
+
+// Streaming linear interpolation resampler for interleaved 16-bit PCM. It is only meant for
+// the small corrections needed to absorb clock drift, where linear interpolation is inaudible.
+// The last input frame is carried over between calls, so consecutive packets join smoothly.
+class AudioResampler {
+    private final int channelCount;
+    private final short[] lastFrame;
+
+    // Read position of the next output frame, in input frames. -1 is the carried over frame.
+    private double position;
+
+    AudioResampler(int channelCount) {
+        this.channelCount = channelCount;
+        this.lastFrame = new short[channelCount];
+    }
+
+    // The most output frames process() can produce for a given number of input frames
+    static int getMaxOutputFrames(int inputFrames, double maxRatio) {
+        return (int) Math.ceil(inputFrames * maxRatio) + 2;
+    }
+
+    // Resamples the input so that ratio output frames are produced per input frame on
+    // average. Returns the number of frames written to the output.
+    int process(short[] input, int inputFrames, short[] output, double ratio) {
+        if (inputFrames == 0) {
+            return 0;
+        }
+
+        if (ratio == 1.0 && position == 0) {
+            // Nothing to correct, so skip the interpolation
+            System.arraycopy(input, 0, output, 0, inputFrames * channelCount);
+            System.arraycopy(input, (inputFrames - 1) * channelCount, lastFrame, 0, channelCount);
+            return inputFrames;
+        }
+
+        double step = 1.0 / ratio;
+        int outputFrames = 0;
+        double t = position;
+
+        while (t <= inputFrames - 1) {
+            int index = (int) Math.floor(t);
+            double frac = t - index;
+            int outOffset = outputFrames * channelCount;
+
+            for (int ch = 0; ch < channelCount; ch++) {
+                int s0 = index < 0 ? lastFrame[ch] : input[index * channelCount + ch];
+                int s1 = frac != 0 ? input[(index + 1) * channelCount + ch] : s0;
+                output[outOffset + ch] = (short) Math.round(s0 + (s1 - s0) * frac);
+            }
+
+            outputFrames++;
+            t += step;
+        }
+
+        // Continue from the same point in the next packet
+        position = t - inputFrames;
+        System.arraycopy(input, (inputFrames - 1) * channelCount, lastFrame, 0, channelCount);
+
+        return outputFrames;
+    }
+}
@@ -0,0 +1,46 @@
+package com.limelight.binding.audio;
+
+// Audio counterpart to VideoStats. Audio renderers only keep running totals, since they
+// run on the audio thread and don't know when anyone is looking. A reader turns two sets
+// of totals into a window with windowSince().
+public class AudioStats {
+
+    // Implemented by audio renderers that can report their counters
+    public interface Provider {
+        // Fills in the running totals. maxWriteBlockUs is the longest write since the
+        // previous call, so this should only be called by a single reader.
+        void getStats(AudioStats totals);
+    }
+
+    public long packetsPlayed;
+    public long packetsDropped;
+    public long underruns;
+    public long maxWriteBlockUs;
+
+    // Estimated time from a packet being decoded to it being heard
+    public float outputLatencyMs;
+
+    public void copy(AudioStats other) {
+        this.packetsPlayed = other.packetsPlayed;
+        this.packetsDropped = other.packetsDropped;
+        this.underruns = other.underruns;
+        this.maxWriteBlockUs = other.maxWriteBlockUs;
+        this.outputLatencyMs = other.outputLatencyMs;
+    }
+
+    public void clear() {
+        this.packetsPlayed = 0;
+        this.packetsDropped = 0;
+        this.underruns = 0;
+        this.maxWriteBlockUs = 0;
+        this.outputLatencyMs = 0;
+    }
+
+    // Turns these totals into the counts since the previous totals. The latency and
+    // max write block time already describe the window, so they're kept as is.
+    public void windowSince(AudioStats previous) {
+        this.packetsPlayed -= previous.packetsPlayed;
+        this.packetsDropped -= previous.packetsDropped;
+        this.underruns -= previous.underruns;
+    }
+}
@@ -0,0 +1,166 @@
+package com.limelight.binding.video;
+
+// Chooses the output queue depth for adaptive frame pacing. Frame arrival jitter (variation in
+// the interval between frames reaching the decoder) and decode time variance are tracked online,
+// and the queue holds just enough frames to cover them. How many standard deviations to cover
+// is tuned by feedback, so the rate of visible stutter (repeated or dropped frames) settles
+// around TARGET_STUTTER_RATE. With a steady stream the depth falls to 0, so each frame is shown
+// at the next vsync after it's decoded.
+//
+// onFrameOutput() must only be called by the output thread and onVsync() by the Choreographer
+// thread. The two only share volatile counters with a single writer each.
+class AdaptivePacingController {
+    static final int MAX_DEPTH = 4;
+
+    private static final float TARGET_STUTTER_RATE = 0.01f;
+
+    // Weight of each new sample in the running averages
+    private static final float EWMA_ALPHA = 1 / 32f;
+
+    private static final float MIN_SAFETY_FACTOR = 1.0f;
+    private static final float MAX_SAFETY_FACTOR = 6.0f;
+    private static final float INITIAL_SAFETY_FACTOR = 2.0f;
+
+    // Number of stutter-free windows before we try a smaller safety factor
+    private static final int CLEAN_WINDOWS_BEFORE_SHRINK = 5;
+    private static final long WINDOW_US = 1000000;
+
+    private final long frameIntervalNs;
+
+    // Only touched by the output thread
+    private long lastArrivalUs = -1;
+    private float arrivalJitterUs;
+    private float meanDecodeTimeUs;
+    private float decodeTimeVarianceUs2;
+    private float safetyFactor = INITIAL_SAFETY_FACTOR;
+    private long windowStartUs;
+    private int windowFrames;
+    private int windowStartStutters;
+    private long windowStartEvictions;
+    private int cleanWindows;
+
+    // Only written by the Choreographer thread
+    private long lastVsyncNs;
+    private long lastRenderNs;
+    private volatile long vsyncPeriodNs = Long.MAX_VALUE;
+    private volatile int stutterCount;
+
+    // Only written by the output thread
+    private volatile int depth;
+    private volatile float totalJitterMs;
+
+    AdaptivePacingController(int frameRate) {
+        frameIntervalNs = 1000000000L / Math.max(frameRate, 1);
+    }
+
+    // Called when a decoded frame is about to be queued for pacing. The arrival time is the
+    // time the frame was submitted to the decoder (its presentation timestamp), and both times
+    // are in the SystemClock.uptimeMillis() time base.
+    void onFrameOutput(long arrivalUs, long nowUs, long totalEvictions) {
+        long frameIntervalUs = frameIntervalNs / 1000;
+
+        if (lastArrivalUs >= 0) {
+            long intervalUs = arrivalUs - lastArrivalUs;
+
+            // Ignore large gaps, which are stream pauses rather than jitter
+            if (intervalUs >= 0 && intervalUs < frameIntervalUs * 8) {
+                arrivalJitterUs += (Math.abs(intervalUs - frameIntervalUs) - arrivalJitterUs) * EWMA_ALPHA;
+            }
+        }
+        lastArrivalUs = arrivalUs;
+
+        long decodeTimeUs = nowUs - arrivalUs;
+        if (decodeTimeUs >= 0 && decodeTimeUs < 1000000) {
+            float deviation = decodeTimeUs - meanDecodeTimeUs;
+            meanDecodeTimeUs += deviation * EWMA_ALPHA;
+            decodeTimeVarianceUs2 += (deviation * deviation - decodeTimeVarianceUs2) * EWMA_ALPHA;
+        }
+
+        windowFrames++;
+        if (windowStartUs == 0) {
+            startWindow(nowUs, totalEvictions);
+        }
+        else if (nowUs - windowStartUs >= WINDOW_US) {
+            updateSafetyFactor(totalEvictions);
+            startWindow(nowUs, totalEvictions);
+        }
+
+        // Mean absolute deviation is ~0.8 standard deviations for normally distributed jitter
+        float jitterUs = arrivalJitterUs * 1.25f + (float) Math.sqrt(decodeTimeVarianceUs2);
+        totalJitterMs = jitterUs / 1000;
+        int newDepth = (int) Math.ceil(safetyFactor * jitterUs / frameIntervalUs) - 1;
+        depth = Math.max(0, Math.min(MAX_DEPTH, newDepth));
+    }
+
+    private void startWindow(long nowUs, long totalEvictions) {
+        windowStartUs = nowUs;
+        windowFrames = 0;
+        windowStartStutters = stutterCount;
+        windowStartEvictions = totalEvictions;
+    }
+
+    private void updateSafetyFactor(long totalEvictions) {
+        if (windowFrames == 0) {
+            return;
+        }
+
+        int stutters = stutterCount - windowStartStutters;
+        if (frameIntervalNs >= vsyncPeriodNs - vsyncPeriodNs / 20) {
+            // Evictions are only a sign of trouble when the display can show every frame
+            stutters += (int) (totalEvictions - windowStartEvictions);
+        }
+        if ((float) stutters / windowFrames > TARGET_STUTTER_RATE) {
+            // Too many missed frames for the current depth, so cover more of the jitter
+            safetyFactor = Math.min(MAX_SAFETY_FACTOR, safetyFactor + 0.5f);
+            cleanWindows = 0;
+        }
+        else if (stutters == 0 && ++cleanWindows >= CLEAN_WINDOWS_BEFORE_SHRINK) {
+            // Stable for a while, so try giving back some latency
+            safetyFactor = Math.max(MIN_SAFETY_FACTOR, safetyFactor - 0.25f);
+            cleanWindows = 0;
+        }
+    }
+
+    // Called on every vsync. A frame shown later than its expected slot means the previous
+    // frame was repeated on screen. Much larger gaps are the host pausing the stream.
+    void onVsync(long frameTimeNanos, boolean rendered) {
+        if (lastVsyncNs != 0 && frameTimeNanos > lastVsyncNs) {
+            vsyncPeriodNs = Math.min(vsyncPeriodNs, frameTimeNanos - lastVsyncNs);
+        }
+        lastVsyncNs = frameTimeNanos;
+
+        if (!rendered) {
+            return;
+        }
+
+        if (lastRenderNs != 0) {
+            long expectedGapNs = Math.max(frameIntervalNs, vsyncPeriodNs);
+            long gapNs = frameTimeNanos - lastRenderNs;
+            if (gapNs >= expectedGapNs + expectedGapNs / 2 && gapNs < expectedGapNs * 4) {
+                stutterCount++;
+            }
+        }
+        lastRenderNs = frameTimeNanos;
+    }
+
+    // Returns true if a new frame is due on the vsync at the given time. This gate applies to
+    // balanced pacing and to every adaptive depth, including 0.
+    static boolean isFrameDue(long presentationTimeNanos, long lastRenderedFrameTimeNanos, int frameRate) {
+        long actualFrameTimeDeltaNs = presentationTimeNanos - lastRenderedFrameTimeNanos;
+        long expectedFrameTimeDeltaNs = 800000000 / frameRate; // within 80% of the next frame
+        return actualFrameTimeDeltaNs >= expectedFrameTimeDeltaNs;
+    }
+
+    // The number of frames to hold in addition to the newest one
+    int getDepth() {
+        return depth;
+    }
+
+    float getJitterMs() {
+        return totalJitterMs;
+    }
+
+    int getStutterCount() {
+        return stutterCount;
+    }
+}
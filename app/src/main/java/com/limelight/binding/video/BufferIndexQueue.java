@@ -0,0 +1,56 @@
+package com.limelight.binding.video;
+
+// FIFO of MediaCodec buffer indices that doesn't box or allocate per operation.
+// Used to hand free input buffers from the codec callback thread to the submit thread.
+class BufferIndexQueue {
+    private int[] indices;
+    private int head;
+    private int size;
+
+    BufferIndexQueue(int initialCapacity) {
+        indices = new int[initialCapacity];
+    }
+
+    synchronized void add(int index) {
+        if (size == indices.length) {
+            // The codec owns more buffers than we expected. This should be rare, so just grow.
+            int[] newIndices = new int[indices.length * 2];
+            for (int i = 0; i < size; i++) {
+                newIndices[i] = indices[(head + i) % indices.length];
+            }
+            indices = newIndices;
+            head = 0;
+        }
+
+        indices[(head + size) % indices.length] = index;
+        size++;
+
+        notifyAll();
+    }
+
+    // Returns the oldest index or -1 if none became available within the timeout
+    synchronized int poll(long timeoutMs) throws InterruptedException {
+        if (size == 0 && timeoutMs > 0) {
+            wait(timeoutMs);
+        }
+
+        if (size == 0) {
+            return -1;
+        }
+
+        int index = indices[head];
+        head = (head + 1) % indices.length;
+        size--;
+        return index;
+    }
+
+    // Wakes up any thread waiting in poll() without adding an index
+    synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    synchronized void clear() {
+        head = 0;
+        size = 0;
+    }
+}
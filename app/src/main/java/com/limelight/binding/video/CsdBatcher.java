@@ -0,0 +1,73 @@
+package com.limelight.binding.video;
+
+import java.util.ArrayList;
+
+// Collects the parameter sets of an IDR frame so they can be submitted together in a single
+// codec config buffer, as the AOSP docs ask for.
+class CsdBatcher {
+    private final ArrayList<byte[]> vpsBuffers = new ArrayList<>();
+    private final ArrayList<byte[]> spsBuffers = new ArrayList<>();
+    private final ArrayList<byte[]> ppsBuffers = new ArrayList<>();
+
+    private final ArrayList<byte[]> batchedCsdParts = new ArrayList<>();
+    private byte[] batchedCsd;
+
+    void addVps(byte[] vps) {
+        vpsBuffers.add(vps);
+    }
+
+    void addSps(byte[] sps) {
+        spsBuffers.add(sps);
+    }
+
+    void addPps(byte[] pps) {
+        ppsBuffers.add(pps);
+    }
+
+    // Called for each new IDR frame. The last batch is kept so it can be reused.
+    void clear() {
+        vpsBuffers.clear();
+        spsBuffers.clear();
+        ppsBuffers.clear();
+    }
+
+    // Returns the VPS, SPS, and PPS concatenated in submission order. If the parameter sets
+    // came from the cache unchanged since the last IDR frame, the previous buffer is reused.
+    byte[] getBatchedCsd() {
+        if (batchedCsd != null && batchedCsdParts.size() == vpsBuffers.size() + spsBuffers.size() + ppsBuffers.size()) {
+            int i = 0;
+            boolean matched = true;
+            for (byte[] vpsBuffer : vpsBuffers) {
+                matched &= batchedCsdParts.get(i++) == vpsBuffer;
+            }
+            for (byte[] spsBuffer : spsBuffers) {
+                matched &= batchedCsdParts.get(i++) == spsBuffer;
+            }
+            for (byte[] ppsBuffer : ppsBuffers) {
+                matched &= batchedCsdParts.get(i++) == ppsBuffer;
+            }
+            if (matched) {
+                return batchedCsd;
+            }
+        }
+
+        batchedCsdParts.clear();
+        batchedCsdParts.addAll(vpsBuffers);
+        batchedCsdParts.addAll(spsBuffers);
+        batchedCsdParts.addAll(ppsBuffers);
+
+        int length = 0;
+        for (byte[] part : batchedCsdParts) {
+            length += part.length;
+        }
+
+        batchedCsd = new byte[length];
+        int offset = 0;
+        for (byte[] part : batchedCsdParts) {
+            System.arraycopy(part, 0, batchedCsd, offset, part.length);
+            offset += part.length;
+        }
+
+        return batchedCsd;
+    }
+}
@@ -0,0 +1,55 @@
+package com.limelight.binding.video;
+
+// Small cache of parameter set NALUs keyed by their raw bytes from the host. The host normally
+// sends identical parameter sets with every IDR frame, so this lets us skip re-parsing and
+// re-patching them and reuse the same arrays for CSD submission.
+class CsdCache {
+    private static final int MAX_ENTRIES = 4;
+
+    private final byte[][] rawNalus = new byte[MAX_ENTRIES][];
+    private final byte[][] cachedNalus = new byte[MAX_ENTRIES][];
+    private int nextEntry;
+
+    private static boolean rawNaluEquals(byte[] rawNalu, byte[] data, int length) {
+        if (rawNalu == null || rawNalu.length != length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (rawNalu[i] != data[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Returns the cached NALU for this raw data, or null if we haven't seen it before
+    byte[] get(byte[] data, int length) {
+        for (int i = 0; i < MAX_ENTRIES; i++) {
+            if (rawNaluEquals(rawNalus[i], data, length)) {
+                return cachedNalus[i];
+            }
+        }
+
+        return null;
+    }
+
+    // Caches the (possibly patched) NALU to use when this raw data is seen again
+    void put(byte[] data, int length, byte[] cachedNalu) {
+        byte[] rawNalu = new byte[length];
+        System.arraycopy(data, 0, rawNalu, 0, length);
+
+        rawNalus[nextEntry] = rawNalu;
+        cachedNalus[nextEntry] = cachedNalu;
+        nextEntry = (nextEntry + 1) % MAX_ENTRIES;
+    }
+
+    void clear() {
+        for (int i = 0; i < MAX_ENTRIES; i++) {
+            rawNalus[i] = null;
+            cachedNalus[i] = null;
+        }
+        nextEntry = 0;
+    }
+}
@@ -0,0 +1,310 @@
+package com.limelight.binding.video;
+
+import android.content.Context;
+
+import com.limelight.LimeLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Writes every decode unit handed to the renderer into a capture file, so a stream can be
+// played back through DecodeUnitReplay without a host. The decoder thread only copies each
+// decode unit and queues it. A background thread does the file I/O.
+//
+// The file starts with a header of magic, version, video format, width, height and
+// frame rate. Each decode unit follows as its length, frame number, buffer type, frame type,
+// host processing latency, receive time, enqueue time and then the data itself.
+public class DecodeUnitCapture {
+    private static final String DIRECTORY_NAME = "captures";
+    private static final String FILE_PREFIX = "capture-";
+    private static final String FILE_SUFFIX = ".mldu";
+
+    static final int MAGIC = 0x4D4C4455; // "MLDU"
+    static final int VERSION = 1;
+
+    // Captures are big, so only keep a few of them
+    private static final int MAX_CAPTURES = 3;
+
+    // Stop capturing rather than fill up storage
+    private static final long MAX_CAPTURE_BYTES = 1024L * 1024 * 1024;
+
+    // A few seconds of video if storage is slow
+    private static final int QUEUE_DEPTH = 256;
+
+    // How long close() waits for the writer thread to finish what's queued
+    private static final long CLOSE_TIMEOUT_MS = 2000;
+
+    private static class QueuedUnit {
+        byte[] data;
+        int length;
+        int frameNumber;
+        int decodeUnitType;
+        int frameType;
+        char hostProcessingLatency;
+        long receiveTimeMs;
+        long enqueueTimeMs;
+    }
+
+    private static final QueuedUnit END_OF_CAPTURE = new QueuedUnit();
+
+    private final File file;
+    private final DataOutputStream out;
+    private final ArrayBlockingQueue<QueuedUnit> queue = new ArrayBlockingQueue<>(QUEUE_DEPTH);
+    private final Thread writerThread;
+
+    // Only touched by the decoder thread
+    private long capturedBytes;
+    private boolean full;
+    private int droppedUnits;
+    private boolean closed;
+
+    private volatile IOException writeError;
+
+    public DecodeUnitCapture(File file, int videoFormat, int width, int height, int redrawRate) throws IOException {
+        this.file = file;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 256 * 1024));
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(videoFormat);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(redrawRate);
+
+        writerThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (;;) {
+                        QueuedUnit unit = queue.take();
+                        if (unit == END_OF_CAPTURE) {
+                            break;
+                        }
+
+                        out.writeInt(unit.length);
+                        out.writeInt(unit.frameNumber);
+                        out.writeByte(unit.decodeUnitType);
+                        out.writeByte(unit.frameType);
+                        out.writeChar(unit.hostProcessingLatency);
+                        out.writeLong(unit.receiveTimeMs);
+                        out.writeLong(unit.enqueueTimeMs);
+                        out.write(unit.data, 0, unit.length);
+                    }
+                } catch (IOException e) {
+                    // Nothing drains the queue after this, so write() stops adding to it
+                    writeError = e;
+                    queue.clear();
+                } catch (InterruptedException e) {
+                    // close() will flush what we have
+                }
+            }
+        };
+        writerThread.setName("Video - Capture");
+        writerThread.setPriority(Thread.MIN_PRIORITY);
+        writerThread.start();
+
+        LimeLog.info("Capturing decode units to "+file);
+    }
+
+    public static File getDirectory(Context context) {
+        // Prefer external storage so captures can be pulled off the device
+        File baseDir = context.getExternalFilesDir(null);
+        if (baseDir == null) {
+            baseDir = context.getFilesDir();
+        }
+        return new File(baseDir, DIRECTORY_NAME);
+    }
+
+    // Makes room for a new capture in the directory and returns its file
+    public static File newCaptureFile(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create "+directory);
+        }
+
+        File[] captures = listCaptures(directory);
+        for (int i = 0; i <= captures.length - MAX_CAPTURES; i++) {
+            captures[i].delete();
+        }
+
+        return new File(directory, String.format(Locale.US, "%s%d%s",
+                FILE_PREFIX, System.currentTimeMillis(), FILE_SUFFIX));
+    }
+
+    // Returns the most recent capture in the directory, or null if there isn't one
+    public static File findLatestCapture(File directory) {
+        File[] captures = listCaptures(directory);
+        return captures.length != 0 ? captures[captures.length - 1] : null;
+    }
+
+    // Oldest first
+    private static File[] listCaptures(File directory) {
+        File[] captures = directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+        if (captures == null) {
+            return new File[0];
+        }
+        Arrays.sort(captures, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        return captures;
+    }
+
+    // Called on the decoder thread for each decode unit
+    public void write(byte[] data, int length, int decodeUnitType, int frameNumber, int frameType,
+                      char hostProcessingLatency, long receiveTimeMs, long enqueueTimeMs) {
+        if (full || closed || writeError != null) {
+            return;
+        }
+
+        if (capturedBytes + length > MAX_CAPTURE_BYTES) {
+            LimeLog.warning("Decode unit capture reached its size limit");
+            full = true;
+            return;
+        }
+
+        QueuedUnit unit = new QueuedUnit();
+        unit.data = Arrays.copyOf(data, length);
+        unit.length = length;
+        unit.frameNumber = frameNumber;
+        unit.decodeUnitType = decodeUnitType;
+        unit.frameType = frameType;
+        unit.hostProcessingLatency = hostProcessingLatency;
+        unit.receiveTimeMs = receiveTimeMs;
+        unit.enqueueTimeMs = enqueueTimeMs;
+
+        // Never stall the decoder for the capture. A replay handles the gap like packet loss.
+        if (queue.offer(unit)) {
+            capturedBytes += length;
+        }
+        else {
+            droppedUnits++;
+        }
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            // Never wait on a queue that the writer thread has stopped draining. If it's
+            // still full after the timeout, give up on what's queued so the end still goes in.
+            if (!queue.offer(END_OF_CAPTURE, CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                droppedUnits += queue.size();
+                queue.clear();
+                queue.offer(END_OF_CAPTURE);
+            }
+            writerThread.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+
+            // InterruptedException clears the thread's interrupt status. Since we can't
+            // handle that here, we will re-interrupt the thread to set the interrupt
+            // status back to true.
+            Thread.currentThread().interrupt();
+        }
+
+        if (writerThread.isAlive()) {
+            // The writer is stuck in file I/O and still owns the stream, so leave it be
+            LimeLog.warning("Decode unit capture writer did not finish");
+            writerThread.interrupt();
+            return;
+        }
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (writeError == null) {
+                writeError = e;
+            }
+        }
+
+        if (writeError != null) {
+            LimeLog.warning("Decode unit capture failed: "+writeError.getMessage());
+        }
+        LimeLog.info("Captured "+capturedBytes+" bytes to "+file.getName()+" ("+droppedUnits+" decode units dropped)");
+    }
+
+    // Reads back a capture one decode unit at a time
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+
+        public final int videoFormat;
+        public final int width;
+        public final int height;
+        public final int redrawRate;
+
+        // The current decode unit. The data array is reused between units.
+        public byte[] data = new byte[64 * 1024];
+        public int length;
+        public int frameNumber;
+        public int decodeUnitType;
+        public int frameType;
+        public char hostProcessingLatency;
+        public long receiveTimeMs;
+        public long enqueueTimeMs;
+
+        public Reader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 256 * 1024));
+
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a decode unit capture");
+                }
+                int version = in.readInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported capture version "+version);
+                }
+
+                videoFormat = in.readInt();
+                width = in.readInt();
+                height = in.readInt();
+                redrawRate = in.readInt();
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        // Returns false at the end of the capture. A decode unit cut off by the end
+        // of the file (if the app was killed while capturing) is treated as the end.
+        public boolean next() throws IOException {
+            try {
+                length = in.readInt();
+                if (length < 0) {
+                    throw new IOException("Invalid decode unit length "+length);
+                }
+
+                frameNumber = in.readInt();
+                decodeUnitType = in.readByte();
+                frameType = in.readByte();
+                hostProcessingLatency = in.readChar();
+                receiveTimeMs = in.readLong();
+                enqueueTimeMs = in.readLong();
+
+                if (data.length < length) {
+                    data = new byte[Math.max(length, data.length * 2)];
+                }
+                in.readFully(data, 0, length);
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.limelight.binding.video;
+
+import com.limelight.LimeLog;
+import com.limelight.nvstream.av.video.VideoDecoderRenderer;
+import com.limelight.nvstream.jni.MoonBridge;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+// Feeds a DecodeUnitCapture back into a renderer without a host, either with the original
+// timing or as fast as the renderer accepts it. Receive and enqueue times are moved to the
+// present while keeping their original spacing, so the renderer's own latency stats are
+// comparable to the captured session.
+public class DecodeUnitReplay {
+    public static class Result {
+        public int frames;
+        public int decodeUnits;
+        public int idrRequests;
+        public int skippedFrames;
+        public long durationMs;
+        public float submitP50Ms;
+        public float submitP99Ms;
+        public float submitMaxMs;
+
+        public float getFps() {
+            return durationMs != 0 ? frames * 1000.0f / durationMs : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d frames in %.1f s (%.1f FPS), submit time p50 %.2f ms p99 %.2f ms max %.2f ms, " +
+                            "%d IDR requests, %d frames skipped",
+                    frames, durationMs / 1000.0, getFps(), submitP50Ms, submitP99Ms, submitMaxMs,
+                    idrRequests, skippedFrames);
+        }
+    }
+
+    private final File captureFile;
+    private final VideoDecoderRenderer renderer;
+    private final boolean originalSpeed;
+
+    private volatile boolean cancelled;
+
+    public DecodeUnitReplay(File captureFile, VideoDecoderRenderer renderer, boolean originalSpeed) {
+        this.captureFile = captureFile;
+        this.renderer = renderer;
+        this.originalSpeed = originalSpeed;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // System.nanoTime() uses the same clock as SystemClock.uptimeMillis() on Android,
+    // which is what the renderer expects receive and enqueue times to be in.
+    private static long nowMs() {
+        return System.nanoTime() / 1000000;
+    }
+
+    // Sets up the renderer, plays the whole capture and tears the renderer down again.
+    // Runs on the calling thread, which stands in for the native decoder thread.
+    public Result run() throws IOException {
+        try (DecodeUnitCapture.Reader reader = new DecodeUnitCapture.Reader(captureFile)) {
+            int err = renderer.setup(reader.videoFormat, reader.width, reader.height, reader.redrawRate);
+            if (err != 0) {
+                throw new IOException("Renderer setup failed: "+err);
+            }
+
+            renderer.start();
+            try {
+                return play(reader);
+            } finally {
+                renderer.stop();
+                renderer.cleanup();
+            }
+        }
+    }
+
+    private Result play(DecodeUnitCapture.Reader reader) throws IOException {
+        Result result = new Result();
+        LatencyHistogram submitTimes = new LatencyHistogram();
+
+        long firstEnqueueTimeMs = -1;
+        long startTimeMs = nowMs();
+        int lastFrameNumber = -1;
+        boolean waitingForIdr = false;
+
+        while (!cancelled && reader.next()) {
+            boolean newFrame = reader.frameNumber != lastFrameNumber;
+            lastFrameNumber = reader.frameNumber;
+
+            // There is no host to answer an IDR request, so skip ahead to the next IDR frame
+            if (waitingForIdr) {
+                if (!newFrame || reader.frameType != MoonBridge.FRAME_TYPE_IDR) {
+                    if (newFrame) {
+                        result.skippedFrames++;
+                    }
+                    continue;
+                }
+                waitingForIdr = false;
+            }
+
+            if (firstEnqueueTimeMs < 0) {
+                firstEnqueueTimeMs = reader.enqueueTimeMs;
+            }
+
+            long now = nowMs();
+            if (originalSpeed) {
+                long dueTimeMs = startTimeMs + (reader.enqueueTimeMs - firstEnqueueTimeMs);
+                if (dueTimeMs > now) {
+                    try {
+                        Thread.sleep(dueTimeMs - now);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    now = nowMs();
+                }
+            }
+
+            long enqueueTimeMs = now;
+            long receiveTimeMs = now - (reader.enqueueTimeMs - reader.receiveTimeMs);
+
+            long submitStartNs = System.nanoTime();
+            int ret = renderer.submitDecodeUnit(reader.data, reader.length, reader.decodeUnitType,
+                    reader.frameNumber, reader.frameType, reader.hostProcessingLatency,
+                    receiveTimeMs, enqueueTimeMs);
+            submitTimes.record((System.nanoTime() - submitStartNs) / 1000);
+
+            result.decodeUnits++;
+            if (newFrame) {
+                result.frames++;
+            }
+
+            if (ret == MoonBridge.DR_NEED_IDR) {
+                result.idrRequests++;
+                waitingForIdr = true;
+            }
+        }
+
+        result.durationMs = nowMs() - startTimeMs;
+        result.submitP50Ms = submitTimes.getPercentileMs(50);
+        result.submitP99Ms = submitTimes.getPercentileMs(99);
+        result.submitMaxMs = submitTimes.getMaxMs();
+
+        LimeLog.info("Replay of "+captureFile.getName()+": "+result);
+        return result;
+    }
+}
@@ -0,0 +1,91 @@
+package com.limelight.binding.video;
+
+// Decides when the decoder has fallen so far behind that the stream should be resynchronized.
+// The backlog is the frames waiting in moonlight-common-c's decode unit queue plus how long
+// the oldest frame queued to the codec has been waiting for its output. Once that backlog represents more latency than
+// the budget for a sustained period, playing it out would only show stale video, so the caller
+// should flush the decoder and request an IDR frame instead.
+//
+// This must only be called from the decoder submission thread.
+class DecoderBacklogController {
+    static final int REASON_NONE = 0;
+    static final int REASON_PENDING_FRAMES = 1;  // Mostly waiting in the decode unit queue
+    static final int REASON_CODEC_DEPTH = 2;     // Mostly waiting inside the codec
+
+    // The backlog must stay over budget for this long before we intervene, so a momentary
+    // burst (such as frames arriving together after a network hiccup) doesn't trigger a flush.
+    private static final long SUSTAIN_MS = 250;
+
+    // Time to let the stream settle after an intervention, so we don't flush repeatedly
+    // while the IDR frame we asked for is still on its way.
+    private static final long COOLDOWN_MS = 2000;
+
+    private final long frameIntervalUs;
+    private final long budgetUs;
+
+    private long overBudgetSinceMs = -1;
+    private long lastInterventionMs = -1;
+    private int interventions;
+
+    private int lastPendingFrames;
+    private long lastCodecAgeUs;
+
+    DecoderBacklogController(int frameRate, int budgetMs) {
+        this.frameIntervalUs = 1000000L / Math.max(frameRate, 1);
+        this.budgetUs = budgetMs * 1000L;
+    }
+
+    // Returns the reason to resynchronize now, or REASON_NONE
+    int check(int pendingFrames, long codecAgeUs, long nowMs) {
+        lastPendingFrames = pendingFrames;
+        lastCodecAgeUs = codecAgeUs;
+
+        if (lastInterventionMs >= 0 && nowMs - lastInterventionMs < COOLDOWN_MS) {
+            return REASON_NONE;
+        }
+
+        if (getBacklogUs() <= budgetUs) {
+            overBudgetSinceMs = -1;
+            return REASON_NONE;
+        }
+
+        if (overBudgetSinceMs < 0) {
+            overBudgetSinceMs = nowMs;
+        }
+        if (nowMs - overBudgetSinceMs < SUSTAIN_MS) {
+            return REASON_NONE;
+        }
+
+        overBudgetSinceMs = -1;
+        lastInterventionMs = nowMs;
+        interventions++;
+        return pendingFrames * frameIntervalUs >= codecAgeUs ? REASON_PENDING_FRAMES : REASON_CODEC_DEPTH;
+    }
+
+    long getBacklogUs() {
+        return lastPendingFrames * frameIntervalUs + lastCodecAgeUs;
+    }
+
+    int getLastPendingFrames() {
+        return lastPendingFrames;
+    }
+
+    long getLastCodecAgeUs() {
+        return lastCodecAgeUs;
+    }
+
+    int getInterventions() {
+        return interventions;
+    }
+
+    static String getReasonString(int reason) {
+        switch (reason) {
+            case REASON_PENDING_FRAMES:
+                return "decode unit queue backlog";
+            case REASON_CODEC_DEPTH:
+                return "codec backlog";
+            default:
+                return "none";
+        }
+    }
+}
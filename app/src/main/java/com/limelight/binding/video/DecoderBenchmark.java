@@ -0,0 +1,379 @@
+package com.limelight.binding.video;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.SystemClock;
+import android.view.Surface;
+
+import com.limelight.LimeLog;
+import com.limelight.preferences.GlPreferences;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Measures how quickly each decoder on the device turns a frame around with each set of low
+// latency options, and remembers the fastest combination for each format. Decoder speed and
+// the effect of vendor options vary a lot between firmware versions, so this is more reliable
+// than our static lists. The results live in DecoderCapabilityCache, which is thrown away on
+// a system or app update.
+//
+// We don't ship a test clip, so one is generated with the device's own encoder. Formats the
+// device can't encode (usually AV1) are skipped.
+public class DecoderBenchmark {
+    public interface Listener {
+        void onProgress(String status);
+        void onComplete(String summary);
+    }
+
+    private static final String[] MIME_TYPES = {"video/avc", "video/hevc", "video/av01"};
+
+    private static final int FRAME_RATE = 60;
+    private static final int FRAME_COUNT = 90;
+    private static final int BITRATE = 20000000;
+
+    // The first frames include decoder startup, so they're left out of the results
+    private static final int WARMUP_FRAMES = 10;
+
+    // Gives up on an encoder that hasn't finished the clip by then
+    private static final long ENCODE_TIMEOUT_MS = 20000;
+
+    // Frames that take longer than this count as stuck inside the decoder
+    private static final long FRAME_TIMEOUT_US = 500000;
+    private static final long CODEC_TIMEOUT_US = 10000;
+
+    // A configuration that doesn't hand back at least this many frames is useless for streaming
+    private static final float MIN_OUTPUT_FRACTION = 0.9f;
+
+    private final Context context;
+    private final boolean ultraLowLatency;
+    private final Listener listener;
+
+    private static class TestClip {
+        int width, height;
+        byte[] csd;
+        final List<byte[]> frames = new ArrayList<>();
+    }
+
+    private static class Result {
+        String decoderName;
+        int tryNumber;
+        float averageMs;
+        float p95Ms;
+    }
+
+    public DecoderBenchmark(Context context, boolean ultraLowLatency, Listener listener) {
+        this.context = context;
+        this.ultraLowLatency = ultraLowLatency;
+        this.listener = listener;
+    }
+
+    // Runs the benchmark on the calling thread, which must not be the main thread
+    public void run() {
+        GlPreferences glPrefs = GlPreferences.readPreferences(context);
+        MediaCodecHelper.initialize(context, glPrefs.glRenderer);
+        DecoderCapabilityCache cache = new DecoderCapabilityCache(context, glPrefs.glRenderer);
+
+        SurfaceTexture outputTexture = new SurfaceTexture(0);
+        Surface outputSurface = new Surface(outputTexture);
+        StringBuilder summary = new StringBuilder();
+
+        try {
+            for (String mimeType : MIME_TYPES) {
+                List<MediaCodecInfo> decoders = MediaCodecHelper.findAllDecoders(mimeType);
+                if (decoders.isEmpty()) {
+                    continue;
+                }
+
+                listener.onProgress("Generating "+mimeType+" test clip");
+                TestClip clip = generateClip(mimeType);
+                if (clip == null) {
+                    summary.append(mimeType).append(": no encoder to generate a test clip\n");
+                    continue;
+                }
+
+                Result best = null;
+                for (MediaCodecInfo decoder : decoders) {
+                    for (int tryNumber = 0;; tryNumber++) {
+                        MediaFormat format = MediaFormat.createVideoFormat(mimeType, clip.width, clip.height);
+                        boolean newFormat = MediaCodecHelper.setDecoderLowLatencyOptions(format, decoder, ultraLowLatency, tryNumber);
+
+                        listener.onProgress("Testing "+decoder.getName()+" (options "+tryNumber+")");
+                        Result result = measureDecoder(decoder.getName(), format, clip, outputSurface);
+                        if (result != null) {
+                            result.tryNumber = tryNumber;
+                            LimeLog.info(String.format(Locale.US, "Benchmark %s options %d: average %.2f ms, p95 %.2f ms",
+                                    decoder.getName(), tryNumber, result.averageMs, result.p95Ms));
+                            if (best == null || result.averageMs < best.averageMs) {
+                                best = result;
+                            }
+                        }
+
+                        if (!newFormat) {
+                            // That was the configuration without any low latency options
+                            break;
+                        }
+                    }
+                }
+
+                if (best != null) {
+                    cache.putBenchmarkResult(mimeType, ultraLowLatency, best.decoderName, best.tryNumber,
+                            clip.width, clip.height, FRAME_RATE);
+                    summary.append(String.format(Locale.US, "%s: %s (options %d), average %.2f ms, p95 %.2f ms\n",
+                            mimeType, best.decoderName, best.tryNumber, best.averageMs, best.p95Ms));
+                }
+                else {
+                    summary.append(mimeType).append(": no decoder completed the test\n");
+                }
+            }
+        } finally {
+            outputSurface.release();
+            outputTexture.release();
+        }
+
+        listener.onComplete(summary.toString().trim());
+    }
+
+    private static MediaCodecInfo.VideoCapabilities getVideoCapabilities(MediaCodec codec, String mimeType) {
+        try {
+            return codec.getCodecInfo().getCapabilitiesForType(mimeType).getVideoCapabilities();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static TestClip generateClip(String mimeType) {
+        MediaCodec encoder;
+        try {
+            encoder = MediaCodec.createEncoderByType(mimeType);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+
+        TestClip clip = new TestClip();
+        try {
+            // Use 1080p if the encoder can manage it, since that's closest to a typical stream
+            MediaCodecInfo.VideoCapabilities caps = getVideoCapabilities(encoder, mimeType);
+            if (caps != null && caps.isSizeSupported(1920, 1080)) {
+                clip.width = 1920;
+                clip.height = 1080;
+            }
+            else {
+                clip.width = 1280;
+                clip.height = 720;
+            }
+
+            MediaFormat format = MediaFormat.createVideoFormat(mimeType, clip.width, clip.height);
+            format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+            format.setInteger(MediaFormat.KEY_BIT_RATE, BITRATE);
+            format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
+
+            // Like a stream, only the first frame is a keyframe
+            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 60);
+
+            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            encoder.start();
+
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            long deadlineMs = SystemClock.uptimeMillis() + ENCODE_TIMEOUT_MS;
+            int framesIn = 0;
+            boolean outputDone = false;
+            while (!outputDone) {
+                if (SystemClock.uptimeMillis() > deadlineMs) {
+                    LimeLog.warning("Timed out generating "+mimeType+" test clip");
+                    return null;
+                }
+
+                if (framesIn < FRAME_COUNT) {
+                    int inputIndex = encoder.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        Image image = encoder.getInputImage(inputIndex);
+                        if (image == null) {
+                            return null;
+                        }
+                        fillFrame(image, framesIn);
+
+                        boolean last = framesIn == FRAME_COUNT - 1;
+                        encoder.queueInputBuffer(inputIndex, 0, clip.width * clip.height * 3 / 2,
+                                framesIn * 1000000L / FRAME_RATE, last ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
+                        framesIn++;
+                    }
+                }
+
+                int outputIndex = encoder.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+                if (outputIndex >= 0) {
+                    ByteBuffer buffer = encoder.getOutputBuffer(outputIndex);
+                    byte[] data = new byte[info.size];
+                    buffer.position(info.offset);
+                    buffer.get(data);
+
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                        clip.csd = data;
+                    }
+                    else if (info.size > 0) {
+                        clip.frames.add(data);
+                    }
+
+                    outputDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                    encoder.releaseOutputBuffer(outputIndex, false);
+                }
+            }
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            LimeLog.warning("Failed to generate "+mimeType+" test clip: "+e);
+            return null;
+        } finally {
+            encoder.release();
+        }
+
+        return clip.frames.size() > WARMUP_FRAMES ? clip : null;
+    }
+
+    // Draws a moving pattern with enough detail that the P-frames aren't trivial to decode
+    private static void fillFrame(Image image, int frameNumber) {
+        Image.Plane[] planes = image.getPlanes();
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        Image.Plane lumaPlane = planes[0];
+        ByteBuffer luma = lumaPlane.getBuffer();
+        byte[] row = new byte[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = (x * 3 + y * 2 + frameNumber * 8) ^ ((x + frameNumber) * (y + 7) >> 4);
+                row[x] = (byte) value;
+            }
+
+            if (lumaPlane.getPixelStride() == 1) {
+                luma.position(y * lumaPlane.getRowStride());
+                luma.put(row);
+            }
+            else {
+                for (int x = 0; x < width; x++) {
+                    luma.put(y * lumaPlane.getRowStride() + x * lumaPlane.getPixelStride(), row[x]);
+                }
+            }
+        }
+
+        for (int i = 1; i < 3; i++) {
+            Image.Plane chromaPlane = planes[i];
+            ByteBuffer chroma = chromaPlane.getBuffer();
+            for (int y = 0; y < height / 2; y++) {
+                for (int x = 0; x < width / 2; x++) {
+                    chroma.put(y * chromaPlane.getRowStride() + x * chromaPlane.getPixelStride(),
+                            (byte) (128 + ((x + y + frameNumber * i) & 0x3F) - 32));
+                }
+            }
+        }
+    }
+
+    // Feeds the clip at its frame rate, like a stream, and measures how long each frame takes
+    // to come out of the decoder. Returns null if the decoder couldn't be configured or didn't
+    // return enough frames.
+    private static Result measureDecoder(String decoderName, MediaFormat format, TestClip clip, Surface surface) {
+        MediaCodec decoder;
+        try {
+            decoder = MediaCodec.createByCodecName(decoderName);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+
+        long[] queueTimesNs = new long[clip.frames.size()];
+        LatencyHistogram histogram = new LatencyHistogram();
+        long totalLatencyUs = 0;
+        int framesMeasured = 0;
+        int framesOut = 0;
+
+        try {
+            try {
+                decoder.configure(format, surface, null, 0);
+                decoder.start();
+            } catch (IllegalStateException | IllegalArgumentException e) {
+                LimeLog.info("Benchmark: "+decoderName+" rejected configuration: "+e);
+                return null;
+            }
+
+            if (clip.csd != null && !queueFrame(decoder, clip.csd, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG)) {
+                return null;
+            }
+
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            long frameIntervalNs = 1000000000L / FRAME_RATE;
+            long startNs = System.nanoTime();
+            for (int i = 0; i <= clip.frames.size(); i++) {
+                long deadlineNs;
+                if (i < clip.frames.size()) {
+                    int flags = i == 0 ? MediaCodec.BUFFER_FLAG_SYNC_FRAME : 0;
+                    queueTimesNs[i] = System.nanoTime();
+                    if (!queueFrame(decoder, clip.frames.get(i), i, flags)) {
+                        return null;
+                    }
+                    deadlineNs = startNs + (i + 1) * frameIntervalNs;
+                }
+                else {
+                    // Give the last frames a chance to come out
+                    deadlineNs = System.nanoTime() + FRAME_TIMEOUT_US * 1000;
+                }
+
+                // Collect output until the next frame is due
+                long nowNs;
+                while ((nowNs = System.nanoTime()) < deadlineNs && framesOut < clip.frames.size()) {
+                    int outputIndex = decoder.dequeueOutputBuffer(info, Math.max(1, (deadlineNs - nowNs) / 1000));
+                    if (outputIndex < 0) {
+                        continue;
+                    }
+
+                    int frameIndex = (int) info.presentationTimeUs;
+                    decoder.releaseOutputBuffer(outputIndex, false);
+                    framesOut++;
+
+                    if (frameIndex >= WARMUP_FRAMES && frameIndex < queueTimesNs.length) {
+                        long latencyUs = (System.nanoTime() - queueTimesNs[frameIndex]) / 1000;
+                        histogram.record(latencyUs);
+                        totalLatencyUs += latencyUs;
+                        framesMeasured++;
+                    }
+                }
+            }
+        } catch (IllegalStateException e) {
+            LimeLog.warning("Benchmark: "+decoderName+" failed: "+e);
+            return null;
+        } finally {
+            decoder.release();
+        }
+
+        if (framesOut < clip.frames.size() * MIN_OUTPUT_FRACTION || framesMeasured == 0) {
+            LimeLog.info("Benchmark: "+decoderName+" only returned "+framesOut+" of "+clip.frames.size()+" frames");
+            return null;
+        }
+
+        Result result = new Result();
+        result.decoderName = decoderName;
+        result.averageMs = totalLatencyUs / 1000.0f / framesMeasured;
+        result.p95Ms = histogram.getPercentileMs(95);
+        return result;
+    }
+
+    // The frame index is used as the timestamp, so output can be matched back to its input
+    private static boolean queueFrame(MediaCodec decoder, byte[] data, int frameIndex, int flags) {
+        int inputIndex = decoder.dequeueInputBuffer(FRAME_TIMEOUT_US);
+        if (inputIndex < 0) {
+            return false;
+        }
+
+        ByteBuffer buffer = decoder.getInputBuffer(inputIndex);
+        if (buffer == null || buffer.capacity() < data.length) {
+            return false;
+        }
+
+        buffer.clear();
+        buffer.put(data);
+        decoder.queueInputBuffer(inputIndex, 0, data.length, frameIndex, flags);
+        return true;
+    }
+}
@@ -0,0 +1,163 @@
+package com.limelight.binding.video;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.MediaCodecInfo;
+import android.os.Build;
+
+import com.limelight.BuildConfig;
+import com.limelight.LimeLog;
+
+// Persists the results of decoder probing across stream starts. Walking MediaCodecList,
+// checking performance points, and creating throwaway codec instances to query vendor
+// parameters can take hundreds of milliseconds on some devices, yet the answers only change
+// with a system update (or an app update that changes our decoder quirks). The cache is thrown
+// away whenever the build fingerprint, app version, or GL renderer changes.
+class DecoderCapabilityCache {
+    private static final String PREF_NAME = "DecoderCapabilityCache";
+
+    private static final String FINGERPRINT_PREF_STRING = "Fingerprint";
+    private static final String SELECTION_PREF_PREFIX = "Selection|";
+    private static final String CAPABILITY_PREF_PREFIX = "Capability|";
+    private static final String LOW_LATENCY_TRY_PREF_PREFIX = "LowLatencyTry|";
+    private static final String BENCHMARK_DECODER_PREF_PREFIX = "BenchmarkDecoder|";
+    private static final String BENCHMARK_TRY_PREF_PREFIX = "BenchmarkTry|";
+    private static final String BENCHMARK_LIMITS_PREF_PREFIX = "BenchmarkLimits|";
+
+    static final String CAP_ADAPTIVE_PLAYBACK = "AdaptivePlayback";
+    static final String CAP_FUSED_IDR_FRAME = "FusedIdrFrame";
+    static final String CAP_REF_FRAME_INVALIDATION = "RefFrameInvalidation";
+
+    private final SharedPreferences prefs;
+    private int hits;
+    private int misses;
+
+    DecoderCapabilityCache(Context context, String glRenderer) {
+        prefs = context.getSharedPreferences(PREF_NAME, 0);
+
+        String fingerprint = Build.FINGERPRINT + "|" + BuildConfig.VERSION_CODE + "|" + glRenderer;
+        if (!fingerprint.equals(prefs.getString(FINGERPRINT_PREF_STRING, ""))) {
+            LimeLog.info("Decoder capability cache is out of date");
+            prefs.edit()
+                    .clear()
+                    .putString(FINGERPRINT_PREF_STRING, fingerprint)
+                    .apply();
+        }
+    }
+
+    // Returns the AVC, HEVC, and AV1 decoder names (null if none) or null if not cached
+    String[] getDecoderSelection(String selectionKey) {
+        String selection = prefs.getString(SELECTION_PREF_PREFIX + selectionKey, null);
+        if (selection == null) {
+            misses++;
+            return null;
+        }
+
+        String[] names = selection.split("\n", -1);
+        if (names.length != 3) {
+            misses++;
+            return null;
+        }
+
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].isEmpty()) {
+                names[i] = null;
+            }
+        }
+
+        hits++;
+        return names;
+    }
+
+    void putDecoderSelection(String selectionKey, MediaCodecInfo avcDecoder, MediaCodecInfo hevcDecoder, MediaCodecInfo av1Decoder) {
+        String selection = getDecoderName(avcDecoder) + "\n" + getDecoderName(hevcDecoder) + "\n" + getDecoderName(av1Decoder);
+        prefs.edit().putString(SELECTION_PREF_PREFIX + selectionKey, selection).apply();
+    }
+
+    private static String getDecoderName(MediaCodecInfo decoder) {
+        return decoder != null ? decoder.getName() : "";
+    }
+
+    boolean hasCapability(String capability, String decoderName, String mimeType) {
+        boolean cached = prefs.contains(CAPABILITY_PREF_PREFIX + capability + "|" + decoderName + "|" + mimeType);
+        if (cached) {
+            hits++;
+        }
+        else {
+            misses++;
+        }
+        return cached;
+    }
+
+    boolean getCapability(String capability, String decoderName, String mimeType) {
+        return prefs.getBoolean(CAPABILITY_PREF_PREFIX + capability + "|" + decoderName + "|" + mimeType, false);
+    }
+
+    void putCapability(String capability, String decoderName, String mimeType, boolean supported) {
+        prefs.edit().putBoolean(CAPABILITY_PREF_PREFIX + capability + "|" + decoderName + "|" + mimeType, supported).apply();
+    }
+
+    // Returns the first set of low latency options that the decoder accepted last time
+    int getLowLatencyTryNumber(String decoderName, String mimeType, boolean ultraLowLatency) {
+        return prefs.getInt(LOW_LATENCY_TRY_PREF_PREFIX + decoderName + "|" + mimeType + "|" + ultraLowLatency, 0);
+    }
+
+    void putLowLatencyTryNumber(String decoderName, String mimeType, boolean ultraLowLatency, int tryNumber) {
+        String key = LOW_LATENCY_TRY_PREF_PREFIX + decoderName + "|" + mimeType + "|" + ultraLowLatency;
+        if (prefs.getInt(key, -1) != tryNumber) {
+            prefs.edit().putInt(key, tryNumber).apply();
+        }
+    }
+
+    // Returns the decoder that won the last benchmark for this format, or null if there wasn't one
+    String getBenchmarkDecoder(String mimeType, boolean ultraLowLatency) {
+        return prefs.getString(BENCHMARK_DECODER_PREF_PREFIX + mimeType + "|" + ultraLowLatency, null);
+    }
+
+    // Returns the low latency options that the benchmark winner was fastest with
+    int getBenchmarkTryNumber(String mimeType, boolean ultraLowLatency) {
+        return prefs.getInt(BENCHMARK_TRY_PREF_PREFIX + mimeType + "|" + ultraLowLatency, 0);
+    }
+
+    // Returns true if the last benchmark for this format used a clip at least as large and as
+    // fast as the stream, so its result says something about this stream
+    boolean benchmarkCoversStream(String mimeType, boolean ultraLowLatency, int width, int height, int fps) {
+        String limits = prefs.getString(BENCHMARK_LIMITS_PREF_PREFIX + mimeType + "|" + ultraLowLatency, null);
+        if (limits == null) {
+            // Results saved before the limits were recorded don't count
+            return false;
+        }
+
+        String[] fields = limits.split("\\|");
+        try {
+            int benchmarkWidth = Integer.parseInt(fields[0]);
+            int benchmarkHeight = Integer.parseInt(fields[1]);
+            int benchmarkFps = Integer.parseInt(fields[2]);
+
+            // The clip is landscape, so compare against the stream in either orientation
+            return Math.max(width, height) <= Math.max(benchmarkWidth, benchmarkHeight) &&
+                    Math.min(width, height) <= Math.min(benchmarkWidth, benchmarkHeight) &&
+                    fps <= benchmarkFps;
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+    void putBenchmarkResult(String mimeType, boolean ultraLowLatency, String decoderName, int tryNumber,
+                            int width, int height, int fps) {
+        prefs.edit()
+                .putString(BENCHMARK_DECODER_PREF_PREFIX + mimeType + "|" + ultraLowLatency, decoderName)
+                .putInt(BENCHMARK_TRY_PREF_PREFIX + mimeType + "|" + ultraLowLatency, tryNumber)
+                .putString(BENCHMARK_LIMITS_PREF_PREFIX + mimeType + "|" + ultraLowLatency,
+                        width + "|" + height + "|" + fps)
+                .apply();
+    }
+
+    int getHits() {
+        return hits;
+    }
+
+    int getMisses() {
+        return misses;
+    }
+}
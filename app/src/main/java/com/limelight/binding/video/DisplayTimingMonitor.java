@@ -0,0 +1,58 @@
+package com.limelight.binding.video;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.os.Handler;
+import android.view.Display;
+
+// Caches the display parameters used for frame pacing, so the Choreographer callbacks don't
+// have to query the display on every vsync. The cached values are refreshed whenever the
+// display reports a change (such as a refresh rate switch).
+class DisplayTimingMonitor implements DisplayManager.DisplayListener {
+    private final DisplayManager displayManager;
+    private final Display display;
+
+    private volatile long appVsyncOffsetNanos;
+    private volatile long vsyncPeriodNanos;
+
+    DisplayTimingMonitor(Context context, Display display) {
+        this.displayManager = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+        this.display = display;
+        refresh();
+    }
+
+    // Starts listening for display changes on the specified handler's thread
+    void start(Handler handler) {
+        displayManager.registerDisplayListener(this, handler);
+    }
+
+    void stop() {
+        displayManager.unregisterDisplayListener(this);
+    }
+
+    private void refresh() {
+        appVsyncOffsetNanos = display.getAppVsyncOffsetNanos();
+        vsyncPeriodNanos = (long) (1000000000 / display.getRefreshRate());
+    }
+
+    long getAppVsyncOffsetNanos() {
+        return appVsyncOffsetNanos;
+    }
+
+    long getVsyncPeriodNanos() {
+        return vsyncPeriodNanos;
+    }
+
+    @Override
+    public void onDisplayAdded(int displayId) {}
+
+    @Override
+    public void onDisplayRemoved(int displayId) {}
+
+    @Override
+    public void onDisplayChanged(int displayId) {
+        if (displayId == display.getDisplayId()) {
+            refresh();
+        }
+    }
+}
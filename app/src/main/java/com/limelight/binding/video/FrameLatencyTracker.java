@@ -0,0 +1,224 @@
+package com.limelight.binding.video;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Tracks the timeline of each frame through the video pipeline and feeds per-stage latency
+// histograms. Frames are matched between stages by their presentation timestamp. Each stage
+// is only ever updated by a single thread (submit, output, release, and render), so the ring
+// needs no locks. Slots are published by writing the timestamp last.
+//
+// Render times come from MediaCodec.OnFrameRenderedListener. Some devices deliver these in
+// batches well after the fact, so a frame released for rendering is only counted as dropped by
+// the display once a later frame has been reported as rendered. A late report for a frame we
+// already counted as dropped undoes the drop.
+class FrameLatencyTracker {
+    static final int STAGE_NETWORK = 0;     // First packet received -> frame reassembled
+    static final int STAGE_SUBMIT = 1;      // Frame reassembled -> queued to the decoder
+    static final int STAGE_DECODE = 2;      // Queued to the decoder -> output buffer dequeued
+    static final int STAGE_RENDER = 3;      // Output buffer dequeued -> rendered on the display
+    static final int STAGE_END_TO_END = 4;  // First packet received -> output (or rendered, if known)
+    static final int STAGE_DECODE_TO_DISPLAY = 5; // Queued to the decoder -> rendered on the display
+    static final int STAGE_COUNT = 6;
+
+    private static final int RING_SIZE = 256;
+    private static final int RING_MASK = RING_SIZE - 1;
+
+    // How far back to look for a frame whose render time was reported out of order
+    private static final int LATE_RENDER_SEARCH_LIMIT = 32;
+
+    private static final byte RENDER_STATE_NONE = 0;
+    private static final byte RENDER_STATE_RELEASED = 1;
+    private static final byte RENDER_STATE_DISPLAYED = 2;
+    private static final byte RENDER_STATE_DROPPED = 3;
+
+    private final AtomicLongArray slotPtsUs = new AtomicLongArray(RING_SIZE);
+    private final long[] receiveTimeUs = new long[RING_SIZE];
+    private final long[] queuedTimeUs = new long[RING_SIZE];
+    private final long[] decodedTimeUs = new long[RING_SIZE];
+    private final byte[] renderState = new byte[RING_SIZE];
+
+    private int submitCursor;
+
+    // Read by the submit thread to find the oldest frame still in the decoder
+    private volatile int outputCursor;
+    private int releaseCursor;
+    private int renderCursor;
+    private long lastRenderedPtsUs = -1;
+
+    // When render times are reported, the end-to-end stage extends to the display
+    private volatile boolean renderTimesAvailable;
+
+    private final LatencyHistogram[] sessionHistograms = new LatencyHistogram[STAGE_COUNT];
+    private final LatencyHistogram[] lastSnapshotHistograms = new LatencyHistogram[STAGE_COUNT];
+    private final LatencyHistogram[] windowHistograms = new LatencyHistogram[STAGE_COUNT];
+
+    FrameLatencyTracker() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            sessionHistograms[i] = new LatencyHistogram();
+            lastSnapshotHistograms[i] = new LatencyHistogram();
+            windowHistograms[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < RING_SIZE; i++) {
+            slotPtsUs.set(i, -1);
+        }
+    }
+
+    static long nowUs() {
+        return System.nanoTime() / 1000;
+    }
+
+    // Called on the submit thread when a frame is queued to the decoder
+    void onFrameQueued(long ptsUs, long receiveTimeMs, long enqueueTimeMs) {
+        long nowUs = nowUs();
+        int slot = submitCursor;
+        submitCursor = (submitCursor + 1) & RING_MASK;
+
+        receiveTimeUs[slot] = receiveTimeMs * 1000;
+        queuedTimeUs[slot] = nowUs;
+        decodedTimeUs[slot] = 0;
+        renderState[slot] = RENDER_STATE_NONE;
+        slotPtsUs.lazySet(slot, ptsUs);
+
+        sessionHistograms[STAGE_NETWORK].record((enqueueTimeMs - receiveTimeMs) * 1000);
+        sessionHistograms[STAGE_SUBMIT].record(nowUs - enqueueTimeMs * 1000);
+    }
+
+    // Called on the output thread when a decoded buffer is dequeued
+    void onFrameDecoded(long ptsUs) {
+        int slot = findSlot(outputCursor, ptsUs);
+        if (slot < 0) {
+            return;
+        }
+        outputCursor = (slot + 1) & RING_MASK;
+
+        long nowUs = nowUs();
+        decodedTimeUs[slot] = nowUs;
+        sessionHistograms[STAGE_DECODE].record(nowUs - queuedTimeUs[slot]);
+        if (!renderTimesAvailable) {
+            sessionHistograms[STAGE_END_TO_END].record(nowUs - receiveTimeUs[slot]);
+        }
+    }
+
+    // Called on the submit thread. Returns how long the oldest frame queued to the decoder has
+    // been waiting for its output, or 0 if every queued frame has come out. Frames the decoder
+    // drops without output are skipped once a later frame comes out.
+    long getOldestInDecoderAgeUs(long nowUs) {
+        int slot = outputCursor;
+        if (slot == submitCursor) {
+            return 0;
+        }
+
+        return Math.max(nowUs - queuedTimeUs[slot], 0);
+    }
+
+    // Called with all threads quiesced after the decoder is flushed or reset, since the
+    // frames queued before that will never come out
+    void onDecoderFlushed() {
+        outputCursor = submitCursor;
+    }
+
+    // Called on the thread that releases a decoded buffer to the surface for rendering.
+    // Frames released without rendering are never expected to be displayed.
+    void onFrameReleased(long ptsUs) {
+        if (!renderTimesAvailable) {
+            return;
+        }
+
+        int slot = findSlot(releaseCursor, ptsUs);
+        if (slot < 0) {
+            return;
+        }
+        releaseCursor = (slot + 1) & RING_MASK;
+
+        renderState[slot] = RENDER_STATE_RELEASED;
+    }
+
+    // Called on the render callback thread with the display time of a frame. Returns the
+    // change in the number of frames dropped by the display, which is negative if this
+    // report arrived after we had given up on the frame.
+    int onFrameRendered(long ptsUs, long renderTimeNanos) {
+        if (ptsUs <= lastRenderedPtsUs) {
+            int slot = findSlotBefore(renderCursor, ptsUs);
+            if (slot < 0 || renderState[slot] == RENDER_STATE_DISPLAYED) {
+                return 0;
+            }
+
+            int dropDelta = renderState[slot] == RENDER_STATE_DROPPED ? -1 : 0;
+            recordRenderTime(slot, renderTimeNanos);
+            return dropDelta;
+        }
+
+        int slot = findSlot(renderCursor, ptsUs);
+        if (slot < 0) {
+            return 0;
+        }
+
+        // Anything released for rendering before this frame should have been reported already
+        int dropped = 0;
+        for (int i = renderCursor; i != slot; i = (i + 1) & RING_MASK) {
+            if (renderState[i] == RENDER_STATE_RELEASED) {
+                renderState[i] = RENDER_STATE_DROPPED;
+                dropped++;
+            }
+        }
+        renderCursor = (slot + 1) & RING_MASK;
+        lastRenderedPtsUs = ptsUs;
+
+        recordRenderTime(slot, renderTimeNanos);
+        return dropped;
+    }
+
+    private void recordRenderTime(int slot, long renderTimeNanos) {
+        renderState[slot] = RENDER_STATE_DISPLAYED;
+
+        long renderTimeUs = renderTimeNanos / 1000;
+        if (decodedTimeUs[slot] != 0) {
+            sessionHistograms[STAGE_RENDER].record(renderTimeUs - decodedTimeUs[slot]);
+        }
+        sessionHistograms[STAGE_DECODE_TO_DISPLAY].record(renderTimeUs - queuedTimeUs[slot]);
+        sessionHistograms[STAGE_END_TO_END].record(renderTimeUs - receiveTimeUs[slot]);
+    }
+
+    void setRenderTimesAvailable(boolean available) {
+        renderTimesAvailable = available;
+    }
+
+    // Frames complete in submission order, so the match is almost always at the cursor.
+    // Frames dropped inside the decoder (or by a flush) are skipped over.
+    private int findSlot(int cursor, long ptsUs) {
+        for (int i = 0; i < RING_SIZE; i++) {
+            int slot = (cursor + i) & RING_MASK;
+            if (slotPtsUs.get(slot) == ptsUs) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int findSlotBefore(int cursor, long ptsUs) {
+        for (int i = 1; i <= LATE_RENDER_SEARCH_LIMIT; i++) {
+            int slot = (cursor - i) & RING_MASK;
+            if (slotPtsUs.get(slot) == ptsUs) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    // Computes the histograms for the period since the last call. This must only be
+    // called from one thread.
+    void updateWindow() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            windowHistograms[i].diff(sessionHistograms[i], lastSnapshotHistograms[i]);
+            lastSnapshotHistograms[i].copy(sessionHistograms[i]);
+        }
+    }
+
+    LatencyHistogram getWindowHistogram(int stage) {
+        return windowHistograms[stage];
+    }
+
+    LatencyHistogram getSessionHistogram(int stage) {
+        return sessionHistograms[stage];
+    }
+}
@@ -0,0 +1,102 @@
+package com.limelight.binding.video;
+
+// Log-bucketed latency histogram with 4 buckets per power of two. Values are in microseconds,
+// which gives better than 25% resolution from 4 us up to several seconds. Recording is
+// allocation-free and must only be done by a single thread.
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int OCTAVES = 24;
+    static final int BUCKET_COUNT = OCTAVES * SUB_BUCKETS;
+
+    private final int[] counts = new int[BUCKET_COUNT];
+    private long totalCount;
+    private long maxUs;
+
+    private static int bucketForValue(long us) {
+        if (us < SUB_BUCKETS) {
+            return (int) Math.max(us, 0);
+        }
+
+        int octave = 63 - Long.numberOfLeadingZeros(us);
+        int subBucket = (int) (us >>> (octave - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min((octave - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket, BUCKET_COUNT - 1);
+    }
+
+    // Returns the exclusive upper bound of the bucket in microseconds
+    private static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+
+        int octave = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket + 1) << (octave - SUB_BUCKET_BITS);
+    }
+
+    void record(long us) {
+        counts[bucketForValue(us)]++;
+        totalCount++;
+        if (us > maxUs) {
+            maxUs = us;
+        }
+    }
+
+    long getCount() {
+        return totalCount;
+    }
+
+    // Returns the upper bound of the bucket containing the requested percentile (0-100)
+    float getPercentileMs(float percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(totalCount * (percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= target && seen > 0) {
+                return Math.min(bucketUpperBound(i), maxUs) / 1000f;
+            }
+        }
+
+        return maxUs / 1000f;
+    }
+
+    float getMaxMs() {
+        return maxUs / 1000f;
+    }
+
+    void copy(LatencyHistogram other) {
+        System.arraycopy(other.counts, 0, this.counts, 0, BUCKET_COUNT);
+        this.totalCount = other.totalCount;
+        this.maxUs = other.maxUs;
+    }
+
+    // Sets this histogram to the samples recorded in 'current' since 'previous' was copied from it
+    void diff(LatencyHistogram current, LatencyHistogram previous) {
+        this.totalCount = 0;
+        this.maxUs = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.counts[i] = Math.max(current.counts[i] - previous.counts[i], 0);
+            this.totalCount += this.counts[i];
+            if (this.counts[i] > 0) {
+                this.maxUs = bucketUpperBound(i);
+            }
+        }
+
+        // The exact max is only known if it was hit during this window
+        if (current.maxUs > previous.maxUs) {
+            this.maxUs = current.maxUs;
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+        maxUs = 0;
+    }
+}
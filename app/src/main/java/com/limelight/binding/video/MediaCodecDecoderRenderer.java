@@ -3,23 +3,22 @@ package com.limelight.binding.video;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.jcodec.codecs.h264.H264Utils;
 import org.jcodec.codecs.h264.io.model.SeqParameterSet;
-import org.jcodec.codecs.h264.io.model.VUIParameters;
 
 import com.limelight.BuildConfig;
 import com.limelight.LimeLog;
-import com.limelight.R;
+import com.limelight.binding.audio.AudioStats;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer;
 import com.limelight.nvstream.jni.MoonBridge;
 import com.limelight.preferences.PreferenceConfiguration;
-import com.limelight.utils.TrafficStatsHelper;
+import com.limelight.utils.PerformanceHintSession;
 
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
@@ -30,7 +29,6 @@ import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
 import android.media.MediaCodec.BufferInfo;
 import android.media.MediaCodec.CodecException;
-import android.net.TrafficStats;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -42,19 +40,26 @@ import android.view.Surface;
 
 public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements Choreographer.FrameCallback {
 
-    private static final boolean USE_FRAME_RENDER_TIME = false;
-    private static final boolean FRAME_RENDER_TIME_ONLY = USE_FRAME_RENDER_TIME && false;
-
     // Used on versions < 5.0
     private ByteBuffer[] legacyInputBuffers;
 
     private MediaCodecInfo avcDecoder;
     private MediaCodecInfo hevcDecoder;
     private MediaCodecInfo av1Decoder;
-
-    private final ArrayList<byte[]> vpsBuffers = new ArrayList<>();
-    private final ArrayList<byte[]> spsBuffers = new ArrayList<>();
-    private final ArrayList<byte[]> ppsBuffers = new ArrayList<>();
+    private DecoderCapabilityCache decoderCapabilityCache;
+
+    // Speculative decoder setup performed by prepare() while the connection is being established.
+    // setup() and prepareForStop() race to take the thread. Whichever gets it joins it and owns
+    // the warmed-up decoder, which the join also makes safe to touch from that thread.
+    private final AtomicReference<Thread> decoderWarmupThread = new AtomicReference<>();
+    private int warmupFormat, warmupWidth, warmupHeight, warmupRedrawRate;
+    private boolean warmupSucceeded;
+
+    private final CsdBatcher csdBatcher = new CsdBatcher();
+    private final CsdCache vpsCache = new CsdCache();
+    private final CsdCache spsCache = new CsdCache();
+    private final CsdCache ppsCache = new CsdCache();
+    private final SpsPatcher spsPatcher = new SpsPatcher();
     private boolean submittedCsd;
     private byte[] currentHdrMetadata;
 
@@ -70,6 +75,9 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     private boolean constrainedHighProfile;
     private boolean refFrameInvalidationAvc, refFrameInvalidationHevc, refFrameInvalidationAv1;
     private byte optimalSlicesPerFrame;
+    private boolean partialFrameAvc, partialFrameHevc;
+    private boolean partialFrameSubmission;
+    private final int[] sliceOffsets = new int[MAX_PARTIAL_FRAME_BUFFERS];
     private boolean refFrameInvalidationActive;
     private int initialWidth, initialHeight;
     private boolean invertResolution;
@@ -83,6 +91,10 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     private boolean foreground = true;
     private PerfOverlayListener perfListener;
 
+    // Upper bound on the input buffers used for a single frame with partial frame submission.
+    // Any slices beyond this are submitted together in the last buffer.
+    private static final int MAX_PARTIAL_FRAME_BUFFERS = 8;
+
     private static final int CR_MAX_TRIES = 10;
     private static final int CR_RECOVERY_TYPE_NONE = 0;
     private static final int CR_RECOVERY_TYPE_FLUSH = 1;
@@ -100,12 +112,21 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     private int codecRecoveryThreadQuiescedFlags = 0;
     private int codecRecoveryAttempts = 0;
 
+    // Optional spare codec that a reset can swap in instead of building a new one
+    private StandbyDecoder standbyDecoder;
+    private volatile boolean thermalThrottling;
+    private volatile float recentDecodeTimeMs;
+
+    // Time from the first thread quiescing to the end of the most recent codec recovery
+    private long codecRecoveryStartMs;
+    private int codecRecoveries;
+    private long lastCodecRecoveryTimeMs;
+
     private MediaFormat inputFormat;
     private MediaFormat outputFormat;
     private MediaFormat configuredFormat;
 
     private boolean needsBaselineSpsHack;
-    private SeqParameterSet savedSps;
 
     private RendererException initialException;
     private long initialExceptionTimestamp;
@@ -114,27 +135,66 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     private VideoStats activeWindowVideoStats;
     private VideoStats lastWindowVideoStats;
     private VideoStats globalVideoStats;
+    private final FrameLatencyTracker latencyTracker = new FrameLatencyTracker();
 
     private long lastTimestampUs;
     private int lastFrameNumber;
     private int refreshRate;
     private PreferenceConfiguration prefs;
 
-    private float minDecodeTime = Float.MAX_VALUE;
-    private String minDecodeTimeFullLog = "";
+    private PerfStatsFormatter perfStatsFormatter;
+    private String activeDecoderName = "(unknown)";
 
-    private long lastNetDataNum;
-    private LinkedBlockingQueue<Integer> outputBufferQueue = new LinkedBlockingQueue<>();
+    private final OutputBufferRing outputBufferQueue = new OutputBufferRing(8);
     private static final int OUTPUT_BUFFER_QUEUE_LIMIT = 2;
+    private final OutputBufferRing.EvictionCallback outputBufferEvictionCallback = new OutputBufferRing.EvictionCallback() {
+        @Override
+        public void onEvicted(int index) {
+            videoDecoder.releaseOutputBuffer(index, false);
+            activeWindowVideoStats.framesDroppedByPacing++;
+        }
+    };
+    private AdaptivePacingController adaptivePacing;
+
+    // Presentation times of the buffers waiting in the pacing queue, indexed by output buffer
+    private final long[] pacedBufferPtsUs = new long[64];
+
+    // Created lazily on the threads they cover, since the submit thread is owned by native code
+    private PerformanceHintSession decodeHintSession;
+    private PerformanceHintSession renderHintSession;
+
+    // Time the submit thread spent waiting for input buffers during the current decode unit,
+    // which isn't work and must not be reported to the decode hint session
+    private long inputBufferWaitNanos;
     private long lastRenderedFrameTimeNanos;
     private HandlerThread choreographerHandlerThread;
     private Handler choreographerHandler;
+    private DisplayTimingMonitor displayTiming;
+    private VsyncTimelineScheduler vsyncTimelineScheduler;
+
+    private boolean asyncDecoder;
+    private HandlerThread codecCallbackThread;
+    private Handler codecCallbackHandler;
+    private MediaCodec.Callback codecCallback;
+    private final BufferIndexQueue freeInputBuffers = new BufferIndexQueue(16);
+    private final AtomicBoolean asyncQuiescePending = new AtomicBoolean(false);
+    private static final int ASYNC_INPUT_WAIT_MS = 100;
 
     private int numSpsIn;
     private int numPpsIn;
     private int numVpsIn;
-    private int numFramesIn;
-    private int numFramesOut;
+    // Updated by the submit and output threads and read from others for diagnostics
+    private volatile int numFramesIn;
+    private volatile int numFramesOut;
+
+    private DecoderBacklogController backlogController;
+    private SessionRecorder sessionRecorder;
+    private DecodeUnitCapture decodeUnitCapture;
+
+    // Audio counters are sampled along with the video stats windows
+    private AudioStats.Provider audioStatsProvider;
+    private final AudioStats audioTotals = new AudioStats();
+    private final AudioStats lastAudioTotals = new AudioStats();
 
     private MediaCodecInfo findAvcDecoder() {
         MediaCodecInfo decoder = MediaCodecHelper.findProbableSafeDecoder("video/avc", MediaCodecInfo.CodecProfileLevel.AVCProfileHigh);
@@ -298,10 +358,139 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         return decoderInfo;
     }
 
+    private boolean loadCachedDecoderSelection(String decoderSelectionKey) {
+        String[] decoderNames = decoderCapabilityCache.getDecoderSelection(decoderSelectionKey);
+        if (decoderNames == null) {
+            return false;
+        }
+
+        MediaCodecInfo[] decoders = MediaCodecHelper.findDecodersByName(decoderNames);
+        for (int i = 0; i < decoders.length; i++) {
+            if (decoderNames[i] != null && decoders[i] == null) {
+                LimeLog.warning("Cached decoder is missing: "+decoderNames[i]);
+                return false;
+            }
+        }
+
+        LimeLog.info("Using cached decoder selection");
+        avcDecoder = decoders[0];
+        hevcDecoder = decoders[1];
+        av1Decoder = decoders[2];
+        return true;
+    }
+
+    private static boolean decoderSupportsProfile(MediaCodecInfo decoderInfo, String mimeType, int profile) {
+        try {
+            for (MediaCodecInfo.CodecProfileLevel profileLevel : decoderInfo.getCapabilitiesForType(mimeType).profileLevels) {
+                if (profileLevel.profile == profile) {
+                    return true;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // Some buggy decoders throw from getCapabilitiesForType()
+        }
+
+        return false;
+    }
+
+    // The benchmark only decodes an 8-bit SDR clip, so a faster decoder can only stand in for
+    // the one we picked if it passes the same profile, allow-list and performance point checks
+    // for this stream.
+    private boolean isBenchmarkWinnerEligible(MediaCodecInfo winner, MediaCodecInfo selectedDecoder, String mimeType) {
+        if (!decoderCapabilityCache.benchmarkCoversStream(mimeType, prefs.enableUltraLowLatency,
+                initialWidth, initialHeight, Math.round(prefs.fps))) {
+            LimeLog.info("Decoder benchmark didn't cover this stream's resolution and frame rate");
+            return false;
+        }
+
+        // The winner must support every profile that made us pick the selected decoder
+        int[] profiles;
+        switch (mimeType) {
+            case "video/avc":
+                profiles = new int[] {MediaCodecInfo.CodecProfileLevel.AVCProfileHigh};
+                break;
+            case "video/hevc":
+                profiles = new int[] {MediaCodecInfo.CodecProfileLevel.HEVCProfileMain10,
+                        MediaCodecInfo.CodecProfileLevel.HEVCProfileMain10HDR10};
+                break;
+            case "video/av01":
+                profiles = new int[] {MediaCodecInfo.CodecProfileLevel.AV1ProfileMain10,
+                        MediaCodecInfo.CodecProfileLevel.AV1ProfileMain10HDR10};
+                break;
+            default:
+                profiles = new int[0];
+                break;
+        }
+        for (int profile : profiles) {
+            if (decoderSupportsProfile(selectedDecoder, mimeType, profile) &&
+                    !decoderSupportsProfile(winner, mimeType, profile)) {
+                LimeLog.info("Benchmarked decoder "+winner.getName()+" lacks profile "+profile);
+                return false;
+            }
+        }
+
+        if (mimeType.equals("video/hevc") && MediaCodecHelper.decoderIsWhitelistedForHevc(selectedDecoder) &&
+                !MediaCodecHelper.decoderIsWhitelistedForHevc(winner)) {
+            LimeLog.info("Benchmarked decoder "+winner.getName()+" is not whitelisted for HEVC");
+            return false;
+        }
+        if (mimeType.equals("video/av01") && MediaCodecHelper.isDecoderWhitelistedForAv1(selectedDecoder) &&
+                !MediaCodecHelper.isDecoderWhitelistedForAv1(winner)) {
+            LimeLog.info("Benchmarked decoder "+winner.getName()+" is not whitelisted for AV1");
+            return false;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            MediaCodecInfo.VideoCapabilities caps;
+            try {
+                caps = winner.getCapabilitiesForType(mimeType).getVideoCapabilities();
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+            if (caps == null || !decoderCanMeetPerformancePoint(caps, prefs)) {
+                LimeLog.info("Benchmarked decoder "+winner.getName()+" can't meet the performance point");
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Swaps in the decoder that won the last decoder benchmark for this format, if there is one.
+    // We only do this for formats we've already decided to use.
+    private MediaCodecInfo applyBenchmarkWinner(MediaCodecInfo selectedDecoder, String mimeType) {
+        if (selectedDecoder == null) {
+            return null;
+        }
+
+        String winnerName = decoderCapabilityCache.getBenchmarkDecoder(mimeType, prefs.enableUltraLowLatency);
+        if (winnerName == null || winnerName.equals(selectedDecoder.getName())) {
+            return selectedDecoder;
+        }
+
+        MediaCodecInfo winner = MediaCodecHelper.findDecodersByName(new String[] {winnerName})[0];
+        if (winner == null) {
+            LimeLog.warning("Benchmarked decoder is missing: "+winnerName);
+            return selectedDecoder;
+        }
+
+        if (!isBenchmarkWinnerEligible(winner, selectedDecoder, mimeType)) {
+            LimeLog.info("Keeping "+selectedDecoder.getName()+" instead of benchmarked decoder "+winnerName);
+            return selectedDecoder;
+        }
+
+        LimeLog.info("Using benchmarked decoder "+winnerName+" instead of "+selectedDecoder.getName());
+        return winner;
+    }
+
     public void setRenderTarget(Surface renderTarget) {
         this.renderTarget = renderTarget;
     }
 
+    public void setAudioStatsProvider(AudioStats.Provider audioStatsProvider) {
+        this.audioStatsProvider = audioStatsProvider;
+    }
+
     public MediaCodecDecoderRenderer(Activity activity, PreferenceConfiguration prefs,
                                      CrashListener crashListener, int consecutiveCrashCount,
                                      boolean meteredData, boolean requestedHdr, boolean invertResolution,
@@ -320,8 +509,29 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         this.activeWindowVideoStats = new VideoStats();
         this.lastWindowVideoStats = new VideoStats();
         this.globalVideoStats = new VideoStats();
+        this.perfStatsFormatter = new PerfStatsFormatter(activity, prefs, perfListener);
+
+        // The performance point checks below need the stream size, which setup() will confirm
+        // later. Until then, use the size from the preferences.
+        this.initialWidth = invertResolution ? prefs.height : prefs.width;
+        this.initialHeight = invertResolution ? prefs.width : prefs.height;
+
+        // The decoder choice only depends on these inputs, so we can reuse the result from a
+        // previous stream instead of probing all decoders again
+        this.decoderCapabilityCache = new DecoderCapabilityCache(activity, glRenderer);
+        String decoderSelectionKey = prefs.videoFormat + "|" + initialWidth + "x" + initialHeight + "|" +
+                prefs.fps + "|" + requestedHdr;
+        if (!loadCachedDecoderSelection(decoderSelectionKey)) {
+            avcDecoder = findAvcDecoder();
+            hevcDecoder = findHevcDecoder(prefs, meteredData, requestedHdr);
+            av1Decoder = findAv1Decoder(prefs);
+            decoderCapabilityCache.putDecoderSelection(decoderSelectionKey, avcDecoder, hevcDecoder, av1Decoder);
+        }
+
+        avcDecoder = applyBenchmarkWinner(avcDecoder, "video/avc");
+        hevcDecoder = applyBenchmarkWinner(hevcDecoder, "video/hevc");
+        av1Decoder = applyBenchmarkWinner(av1Decoder, "video/av01");
 
-        avcDecoder = findAvcDecoder();
         if (avcDecoder != null) {
             LimeLog.info("Selected AVC decoder: "+avcDecoder.getName());
         }
@@ -329,7 +539,6 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             LimeLog.warning("No AVC decoder found");
         }
 
-        hevcDecoder = findHevcDecoder(prefs, meteredData, requestedHdr);
         if (hevcDecoder != null) {
             LimeLog.info("Selected HEVC decoder: "+hevcDecoder.getName());
         }
@@ -337,7 +546,6 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             LimeLog.info("No HEVC decoder found");
         }
 
-        av1Decoder = findAv1Decoder(prefs);
         if (av1Decoder != null) {
             LimeLog.info("Selected AV1 decoder: "+av1Decoder.getName());
         }
@@ -354,6 +562,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             directSubmit = MediaCodecHelper.decoderCanDirectSubmit(avcDecoder.getName());
             refFrameInvalidationAvc = MediaCodecHelper.decoderSupportsRefFrameInvalidationAvc(avcDecoder.getName(), initialHeight);
             avcOptimalSlicesPerFrame = MediaCodecHelper.getDecoderOptimalSlicesPerFrame(avcDecoder.getName());
+            partialFrameAvc = prefs.enablePartialFrameSubmission && MediaCodecHelper.decoderSupportsPartialFrames(avcDecoder.getName());
 
             if (directSubmit) {
                 LimeLog.info("Decoder "+avcDecoder.getName()+" will use direct submit");
@@ -361,28 +570,56 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             if (refFrameInvalidationAvc) {
                 LimeLog.info("Decoder "+avcDecoder.getName()+" will use reference frame invalidation for AVC");
             }
+            if (partialFrameAvc) {
+                LimeLog.info("Decoder "+avcDecoder.getName()+" will use partial frame submission for AVC");
+            }
             LimeLog.info("Decoder "+avcDecoder.getName()+" wants "+avcOptimalSlicesPerFrame+" slices per frame");
         }
 
         if (hevcDecoder != null) {
-            refFrameInvalidationHevc = MediaCodecHelper.decoderSupportsRefFrameInvalidationHevc(hevcDecoder);
+            // This may need to create a codec instance to check for vendor low latency options
+            if (decoderCapabilityCache.hasCapability(DecoderCapabilityCache.CAP_REF_FRAME_INVALIDATION, hevcDecoder.getName(), "video/hevc")) {
+                refFrameInvalidationHevc = decoderCapabilityCache.getCapability(DecoderCapabilityCache.CAP_REF_FRAME_INVALIDATION, hevcDecoder.getName(), "video/hevc");
+            }
+            else {
+                refFrameInvalidationHevc = MediaCodecHelper.decoderSupportsRefFrameInvalidationHevc(hevcDecoder);
+                decoderCapabilityCache.putCapability(DecoderCapabilityCache.CAP_REF_FRAME_INVALIDATION, hevcDecoder.getName(), "video/hevc", refFrameInvalidationHevc);
+            }
             hevcOptimalSlicesPerFrame = MediaCodecHelper.getDecoderOptimalSlicesPerFrame(hevcDecoder.getName());
+            partialFrameHevc = prefs.enablePartialFrameSubmission && MediaCodecHelper.decoderSupportsPartialFrames(hevcDecoder.getName());
 
             if (refFrameInvalidationHevc) {
                 LimeLog.info("Decoder "+hevcDecoder.getName()+" will use reference frame invalidation for HEVC");
             }
+            if (partialFrameHevc) {
+                LimeLog.info("Decoder "+hevcDecoder.getName()+" will use partial frame submission for HEVC");
+            }
 
             LimeLog.info("Decoder "+hevcDecoder.getName()+" wants "+hevcOptimalSlicesPerFrame+" slices per frame");
         }
 
         if (av1Decoder != null) {
-            refFrameInvalidationAv1 = MediaCodecHelper.decoderSupportsRefFrameInvalidationAv1(av1Decoder);
+            if (decoderCapabilityCache.hasCapability(DecoderCapabilityCache.CAP_REF_FRAME_INVALIDATION, av1Decoder.getName(), "video/av01")) {
+                refFrameInvalidationAv1 = decoderCapabilityCache.getCapability(DecoderCapabilityCache.CAP_REF_FRAME_INVALIDATION, av1Decoder.getName(), "video/av01");
+            }
+            else {
+                refFrameInvalidationAv1 = MediaCodecHelper.decoderSupportsRefFrameInvalidationAv1(av1Decoder);
+                decoderCapabilityCache.putCapability(DecoderCapabilityCache.CAP_REF_FRAME_INVALIDATION, av1Decoder.getName(), "video/av01", refFrameInvalidationAv1);
+            }
 
             if (refFrameInvalidationAv1) {
                 LimeLog.info("Decoder "+av1Decoder.getName()+" will use reference frame invalidation for AV1");
             }
         }
 
+        // Partial frame submission needs multiple slices per frame to have anything to split
+        if (partialFrameAvc) {
+            avcOptimalSlicesPerFrame = Math.max(avcOptimalSlicesPerFrame, 4);
+        }
+        if (partialFrameHevc) {
+            hevcOptimalSlicesPerFrame = Math.max(hevcOptimalSlicesPerFrame, 4);
+        }
+
         // Use the larger of the two slices per frame preferences
         optimalSlicesPerFrame = (byte)Math.max(avcOptimalSlicesPerFrame, hevcOptimalSlicesPerFrame);
         LimeLog.info("Requesting "+optimalSlicesPerFrame+" slices per frame");
@@ -391,6 +628,12 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             refFrameInvalidationAvc = refFrameInvalidationHevc = false;
             LimeLog.warning("Disabling RFI due to previous crash");
         }
+
+        // Callbacks on a specific Handler require Android 6.0
+        asyncDecoder = prefs.asyncDecoder && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+        if (asyncDecoder) {
+            LimeLog.info("Using asynchronous decoder mode");
+        }
     }
 
     public boolean isHevcSupported() {
@@ -545,15 +788,20 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
         LimeLog.info("Configuring with format: "+format);
 
+        // The callback must be set before configure(). Any input buffer indices we had
+        // from a previous configuration are no longer valid.
+        if (asyncDecoder) {
+            freeInputBuffers.clear();
+            setAsyncCodecCallback();
+        }
+
         videoDecoder.configure(format, renderTarget, null, 0);
 
         configuredFormat = format;
 
         // After reconfiguration, we must resubmit CSD buffers
         submittedCsd = false;
-        vpsBuffers.clear();
-        spsBuffers.clear();
-        ppsBuffers.clear();
+        csdBatcher.clear();
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             // This will contain the actual accepted input format attributes
@@ -569,6 +817,10 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
             legacyInputBuffers = videoDecoder.getInputBuffers();
         }
+
+        if (standbyDecoder != null) {
+            standbyDecoder.rebuild(format, asyncDecoder ? codecCallback : null, codecCallbackHandler);
+        }
     }
 
     private boolean tryConfigureDecoder(MediaCodecInfo selectedDecoderInfo, MediaFormat format, boolean throwOnCodecError) {
@@ -639,6 +891,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             }
 
             refFrameInvalidationActive = refFrameInvalidationAvc;
+            partialFrameSubmission = partialFrameAvc;
         }
         else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H265) != 0) {
             mimeType = "video/hevc";
@@ -650,6 +903,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             }
 
             refFrameInvalidationActive = refFrameInvalidationHevc;
+            partialFrameSubmission = partialFrameHevc;
         }
         else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_AV1) != 0) {
             mimeType = "video/av01";
@@ -661,16 +915,45 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             }
 
             refFrameInvalidationActive = refFrameInvalidationAv1;
+            partialFrameSubmission = false;
         }
         else {
             // Unknown format
             LimeLog.severe("Unknown format");
             return -3;
         }
-        adaptivePlayback = MediaCodecHelper.decoderSupportsAdaptivePlayback(selectedDecoderInfo, mimeType);
-        fusedIdrFrame = MediaCodecHelper.decoderSupportsFusedIdrFrame(selectedDecoderInfo, mimeType);
+        activeDecoderName = selectedDecoderInfo.getName();
+
+        // Patched parameter sets depend on the decoder quirks above
+        vpsCache.clear();
+        spsCache.clear();
+        ppsCache.clear();
+        spsPatcher.clearCache();
+        String decoderName = selectedDecoderInfo.getName();
+        if (decoderCapabilityCache.hasCapability(DecoderCapabilityCache.CAP_ADAPTIVE_PLAYBACK, decoderName, mimeType)) {
+            adaptivePlayback = decoderCapabilityCache.getCapability(DecoderCapabilityCache.CAP_ADAPTIVE_PLAYBACK, decoderName, mimeType);
+        }
+        else {
+            adaptivePlayback = MediaCodecHelper.decoderSupportsAdaptivePlayback(selectedDecoderInfo, mimeType);
+            decoderCapabilityCache.putCapability(DecoderCapabilityCache.CAP_ADAPTIVE_PLAYBACK, decoderName, mimeType, adaptivePlayback);
+        }
+        if (decoderCapabilityCache.hasCapability(DecoderCapabilityCache.CAP_FUSED_IDR_FRAME, decoderName, mimeType)) {
+            fusedIdrFrame = decoderCapabilityCache.getCapability(DecoderCapabilityCache.CAP_FUSED_IDR_FRAME, decoderName, mimeType);
+        }
+        else {
+            fusedIdrFrame = MediaCodecHelper.decoderSupportsFusedIdrFrame(selectedDecoderInfo, mimeType);
+            decoderCapabilityCache.putCapability(DecoderCapabilityCache.CAP_FUSED_IDR_FRAME, decoderName, mimeType, fusedIdrFrame);
+        }
 
-        for (int tryNumber = 0;; tryNumber++) {
+        // Start with the low latency options that this decoder accepted last time, since
+        // each failed configuration attempt is slow.
+        int firstTryNumber = decoderCapabilityCache.getLowLatencyTryNumber(decoderName, mimeType, prefs.enableUltraLowLatency);
+        if (decoderName.equals(decoderCapabilityCache.getBenchmarkDecoder(mimeType, prefs.enableUltraLowLatency))) {
+            // Skip ahead to the options the benchmark found to be fastest
+            firstTryNumber = Math.max(firstTryNumber,
+                    decoderCapabilityCache.getBenchmarkTryNumber(mimeType, prefs.enableUltraLowLatency));
+        }
+        for (int tryNumber = firstTryNumber;; tryNumber++) {
             LimeLog.info("Decoder configuration try: "+tryNumber);
 
             MediaFormat mediaFormat = createBaseMediaFormat(mimeType);
@@ -685,6 +968,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             // Throw the underlying codec exception on the last attempt if the caller requested it
             if (tryConfigureDecoder(selectedDecoderInfo, mediaFormat, !newFormat && throwOnCodecError)) {
                 // Success!
+                decoderCapabilityCache.putLowLatencyTryNumber(decoderName, mimeType, prefs.enableUltraLowLatency, tryNumber);
                 break;
             }
 
@@ -694,33 +978,306 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             }
         }
 
-        if (USE_FRAME_RENDER_TIME && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+        registerFrameRenderedListener();
+
+        if (standbyDecoder == null && prefs.enableStandbyDecoder && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // We need room for the active decoder and the spare
+            int maxInstances = selectedDecoderInfo.getCapabilitiesForType(mimeType).getMaxSupportedInstances();
+            if (maxInstances >= 2) {
+                standbyDecoder = new StandbyDecoder(selectedDecoderInfo.getName());
+                if (thermalThrottling) {
+                    standbyDecoder.suspend();
+                }
+                standbyDecoder.rebuild(configuredFormat, asyncDecoder ? codecCallback : null, codecCallbackHandler);
+            }
+            else {
+                LimeLog.info("Not enough decoder instances for a standby decoder: "+maxInstances);
+            }
+        }
+
+        return 0;
+    }
+
+    private void registerFrameRenderedListener() {
+        if (prefs.enableFrameRenderTime && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             videoDecoder.setOnFrameRenderedListener(new MediaCodec.OnFrameRenderedListener() {
                 @Override
                 public void onFrameRendered(MediaCodec mediaCodec, long presentationTimeUs, long renderTimeNanos) {
-                    long delta = (renderTimeNanos / 1000000L) - (presentationTimeUs / 1000);
-                    if (delta >= 0 && delta < 1000) {
-                        if (USE_FRAME_RENDER_TIME) {
-                            activeWindowVideoStats.totalTimeMs += delta;
-                        }
-                    }
+                    activeWindowVideoStats.framesDroppedByDisplay +=
+                            latencyTracker.onFrameRendered(presentationTimeUs, renderTimeNanos);
                 }
             }, null);
+            latencyTracker.setRenderTimesAvailable(true);
         }
+    }
 
-        return 0;
+    // Replaces the failed decoder with the standby one. Returns false if no standby decoder
+    // was ready or it couldn't be started, in which case the caller must fall back to a reset.
+    @TargetApi(Build.VERSION_CODES.M)
+    private boolean swapInStandbyDecoder() {
+        MediaCodec spare = standbyDecoder.take(configuredFormat);
+        if (spare == null) {
+            LimeLog.info("Standby decoder is not ready");
+            return false;
+        }
+
+        LimeLog.warning("Swapping in standby decoder after CodecException");
+
+        // Releasing the failed decoder disconnects it from our surface
+        videoDecoder.release();
+        videoDecoder = spare;
+
+        try {
+            spare.setOutputSurface(renderTarget);
+            spare.setVideoScalingMode(MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT);
+            registerFrameRenderedListener();
+            spare.start();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        inputFormat = spare.getInputFormat();
+
+        // The new decoder needs the CSD buffers before the IDR frame we'll request
+        submittedCsd = false;
+        csdBatcher.clear();
+
+        // Get the next spare ready
+        standbyDecoder.rebuild(configuredFormat, asyncDecoder ? codecCallback : null, codecCallbackHandler);
+        return true;
+    }
+
+    @Override
+    public void prepare(final int format, final int width, final int height, final int redrawRate) {
+        if (decoderWarmupThread.get() != null || stopping) {
+            return;
+        }
+
+        warmupFormat = format;
+        warmupWidth = width;
+        warmupHeight = height;
+        warmupRedrawRate = redrawRate;
+
+        Thread warmupThread = new Thread() {
+            @Override
+            public void run() {
+                long startTimeMs = SystemClock.uptimeMillis();
+                try {
+                    warmupSucceeded = setupDecoder(format, width, height, redrawRate) == 0;
+                } catch (RuntimeException e) {
+                    // We'll try again in setup() and report any error from there
+                    e.printStackTrace();
+                    warmupSucceeded = false;
+                }
+                LimeLog.info("Decoder warm-up took "+(SystemClock.uptimeMillis() - startTimeMs)+" ms (success: "+warmupSucceeded+")");
+            }
+        };
+        warmupThread.setName("Video - Decoder Warm-up");
+        if (!decoderWarmupThread.compareAndSet(null, warmupThread)) {
+            return;
+        }
+        warmupThread.start();
+
+        // If prepareForStop() ran before the thread was published, it didn't see it, so the
+        // warmed-up decoder is ours to clean up.
+        if (stopping && decoderWarmupThread.compareAndSet(warmupThread, null)) {
+            finishDecoderWarmup(warmupThread);
+            releaseWarmedUpDecoder();
+        }
+    }
+
+    private boolean finishDecoderWarmup(Thread warmupThread) {
+        try {
+            warmupThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+
+            // InterruptedException clears the thread's interrupt status. Since we can't
+            // handle that here, we will re-interrupt the thread to set the interrupt
+            // status back to true.
+            Thread.currentThread().interrupt();
+        }
+        return warmupSucceeded;
+    }
+
+    private void releaseWarmedUpDecoder() {
+        if (videoDecoder != null) {
+            videoDecoder.release();
+            videoDecoder = null;
+        }
+        if (standbyDecoder != null) {
+            standbyDecoder.release();
+            standbyDecoder = null;
+        }
+    }
+
+    // Waits for any decoder warm-up to finish. Returns true if the warmed-up decoder matches
+    // these parameters and can be used as is. Otherwise, it is released.
+    private boolean claimWarmedUpDecoder(int format, int width, int height, int redrawRate) {
+        Thread warmupThread = decoderWarmupThread.getAndSet(null);
+        if (warmupThread == null) {
+            return false;
+        }
+
+        if (finishDecoderWarmup(warmupThread) && format == warmupFormat && width == warmupWidth &&
+                height == warmupHeight && redrawRate == warmupRedrawRate) {
+            return true;
+        }
+
+        if (warmupSucceeded) {
+            LimeLog.info("Discarding warmed-up decoder due to stream parameter mismatch (format "+
+                    warmupFormat+" vs "+format+", "+warmupWidth+"x"+warmupHeight+"x"+warmupRedrawRate+
+                    " vs "+width+"x"+height+"x"+redrawRate+")");
+        }
+        releaseWarmedUpDecoder();
+        return false;
     }
 
     @Override
     public int setup(int format, int width, int height, int redrawRate) {
+        long startTimeMs = SystemClock.uptimeMillis();
+
+        if (prefs.enablePerfLogging && sessionRecorder == null) {
+            try {
+                sessionRecorder = new SessionRecorder(context);
+            } catch (IOException e) {
+                LimeLog.warning("Unable to start session recorder: "+e.getMessage());
+            }
+        }
+
+        if (prefs.enableDecodeUnitCapture && decodeUnitCapture == null) {
+            try {
+                decodeUnitCapture = new DecodeUnitCapture(
+                        DecodeUnitCapture.newCaptureFile(DecodeUnitCapture.getDirectory(context)),
+                        format, width, height, redrawRate);
+            } catch (IOException e) {
+                LimeLog.warning("Unable to start decode unit capture: "+e.getMessage());
+            }
+        }
+
+        boolean claimedWarmedUpDecoder = claimWarmedUpDecoder(format, width, height, redrawRate);
+
+        // prepareForStop() won't release a decoder we've claimed, and cleanup() isn't called
+        // if setup fails, so let go of it here if the stream is already being stopped.
+        if (stopping) {
+            LimeLog.info("Stopping during decoder setup");
+            releaseWarmedUpDecoder();
+            return -1;
+        }
+
+        if (claimedWarmedUpDecoder) {
+            LimeLog.info("Using warmed-up decoder (setup took "+(SystemClock.uptimeMillis() - startTimeMs)+" ms)");
+            return 0;
+        }
+
+        int ret = setupDecoder(format, width, height, redrawRate);
+        LimeLog.info("Decoder setup took "+(SystemClock.uptimeMillis() - startTimeMs)+" ms");
+        return ret;
+    }
+
+    private int setupDecoder(int format, int width, int height, int redrawRate) {
         this.initialWidth = invertResolution ? height : width;
         this.initialHeight = invertResolution ? width : height;
         this.videoFormat = format;
         this.refreshRate = redrawRate;
 
+        if (prefs.framePacing == PreferenceConfiguration.FRAME_PACING_ADAPTIVE) {
+            adaptivePacing = new AdaptivePacingController(redrawRate);
+        }
+
+        if (prefs.decoderBacklogBudgetMs > 0) {
+            backlogController = new DecoderBacklogController(redrawRate, prefs.decoderBacklogBudgetMs);
+        }
+
+        if (asyncDecoder && codecCallbackThread == null) {
+            // Codec callbacks are delivered on their own thread, which takes the place of the
+            // renderer thread for output buffers and codec recovery.
+            codecCallbackThread = new HandlerThread("Video - Codec Callbacks", Process.THREAD_PRIORITY_DEFAULT + Process.THREAD_PRIORITY_MORE_FAVORABLE);
+            codecCallbackThread.start();
+            codecCallbackHandler = new Handler(codecCallbackThread.getLooper());
+        }
+
         return initializeDecoder(false);
     }
 
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setAsyncCodecCallback() {
+        if (codecCallback == null) {
+            codecCallback = new MediaCodec.Callback() {
+                @Override
+                public void onInputBufferAvailable(MediaCodec codec, int index) {
+                    freeInputBuffers.add(index);
+                }
+
+                @Override
+                public void onOutputBufferAvailable(MediaCodec codec, int index, BufferInfo info) {
+                    if (stopping) {
+                        return;
+                    }
+
+                    if (codecRecoveryType.get() != CR_RECOVERY_TYPE_NONE) {
+                        // The buffer will be reclaimed by the flush or restart
+                        requestAsyncCodecQuiesce();
+                        return;
+                    }
+
+                    try {
+                        long workStartNanos = System.nanoTime();
+
+                        numFramesOut++;
+                        latencyTracker.onFrameDecoded(info.presentationTimeUs);
+
+                        if (!usesChoreographerPacing()) {
+                            renderOutputBuffer(index, info.presentationTimeUs);
+                        }
+                        else {
+                            queueOutputBufferForPacing(index, info.presentationTimeUs);
+                        }
+
+                        recordDecoderLatency(info.presentationTimeUs);
+                        reportRenderWork(workStartNanos);
+                    } catch (IllegalStateException e) {
+                        handleDecoderException(e);
+                        requestAsyncCodecQuiesce();
+                    }
+                }
+
+                @Override
+                public void onError(MediaCodec codec, CodecException e) {
+                    handleDecoderException(e);
+
+                    // Wake the submit thread so it notices the pending recovery
+                    freeInputBuffers.wakeUp();
+                    requestAsyncCodecQuiesce();
+                }
+
+                @Override
+                public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+                    LimeLog.info("Output format changed");
+                    outputFormat = format;
+                    LimeLog.info("New output format: " + outputFormat);
+                }
+            };
+        }
+
+        videoDecoder.setCallback(codecCallback, codecCallbackHandler);
+    }
+
+    // In async mode, the codec callback thread only runs when the codec gives us something.
+    // Post a message so it quiesces for codec recovery even if the codec has gone quiet.
+    private void requestAsyncCodecQuiesce() {
+        if (codecCallbackHandler != null && asyncQuiescePending.compareAndSet(false, true)) {
+            codecCallbackHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    asyncQuiescePending.set(false);
+                    doCodecRecoveryIfRequired(CR_FLAG_RENDER_THREAD);
+                }
+            });
+        }
+    }
+
     // All threads that interact with the MediaCodec instance must call this function regularly!
     private boolean doCodecRecoveryIfRequired(int quiescenceFlag) {
         // NB: We cannot check 'stopping' here because we could end up bailing in a partially
@@ -732,6 +1289,12 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
         // We need some sort of recovery, so quiesce all threads before starting that
         synchronized (codecRecoveryMonitor) {
+            // The first thread to get here starts the clock. This must be checked before any
+            // flags are set on behalf of threads that don't exist.
+            if (codecRecoveryThreadQuiescedFlags == 0) {
+                codecRecoveryStartMs = SystemClock.uptimeMillis();
+            }
+
             if (choreographerHandlerThread == null) {
                 // If we have no choreographer thread, we can just mark that as quiesced right now.
                 codecRecoveryThreadQuiescedFlags |= CR_FLAG_CHOREOGRAPHER;
@@ -739,18 +1302,30 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
             codecRecoveryThreadQuiescedFlags |= quiescenceFlag;
 
+            if (asyncDecoder && (codecRecoveryThreadQuiescedFlags & CR_FLAG_RENDER_THREAD) == 0) {
+                requestAsyncCodecQuiesce();
+            }
+
             // This is the final thread to quiesce, so let's perform the codec recovery now.
             if (codecRecoveryThreadQuiescedFlags == CR_FLAG_ALL) {
                 // Input and output buffers are invalidated by stop() and reset().
                 nextInputBuffer = null;
                 nextInputBufferIndex = -1;
                 outputBufferQueue.clear();
+                freeInputBuffers.clear();
+                latencyTracker.onDecoderFlushed();
+                int requestedRecoveryType = codecRecoveryType.get();
 
                 // If we just need a flush, do so now with all threads quiesced.
                 if (codecRecoveryType.get() == CR_RECOVERY_TYPE_FLUSH) {
                     LimeLog.warning("Flushing decoder");
                     try {
                         videoDecoder.flush();
+
+                        // In async mode, the codec won't deliver input buffers again until resumed
+                        if (asyncDecoder) {
+                            videoDecoder.start();
+                        }
                         codecRecoveryType.set(CR_RECOVERY_TYPE_NONE);
                     } catch (IllegalStateException e) {
                         e.printStackTrace();
@@ -789,6 +1364,13 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                     }
                 }
 
+                // If we have a standby decoder, swapping it in is much faster than any kind of reset
+                if (codecRecoveryType.get() == CR_RECOVERY_TYPE_RESET && standbyDecoder != null) {
+                    if (swapInStandbyDecoder()) {
+                        codecRecoveryType.set(CR_RECOVERY_TYPE_NONE);
+                    }
+                }
+
                 // For "non-recoverable" exceptions on L+, we can call reset() to recover
                 // without having to recreate the entire decoder again.
                 if (codecRecoveryType.get() == CR_RECOVERY_TYPE_RESET && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
@@ -839,6 +1421,10 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                     }
                 }
 
+                lastCodecRecoveryTimeMs = SystemClock.uptimeMillis() - codecRecoveryStartMs;
+                codecRecoveries++;
+                LimeLog.info("Codec recovery (type "+requestedRecoveryType+") took "+lastCodecRecoveryTimeMs+" ms");
+
                 // Wake all quiesced threads and allow them to begin work again
                 codecRecoveryThreadQuiescedFlags = 0;
                 codecRecoveryMonitor.notifyAll();
@@ -988,55 +1574,108 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             return;
         }
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            frameTimeNanos -= activity.getWindowManager().getDefaultDisplay().getAppVsyncOffsetNanos();
+        // Count callbacks that arrive too late for this vsync
+        if (System.nanoTime() - frameTimeNanos > displayTiming.getVsyncPeriodNanos()) {
+            activeWindowVideoStats.frameTimingMisses++;
+        }
+
+        releasePacedFrame(frameTimeNanos - displayTiming.getAppVsyncOffsetNanos(), false);
+
+        // Attempt codec recovery even if we have nothing to render right now. Recovery can still
+        // be required even if the codec died before giving any output.
+        doCodecRecoveryIfRequired(CR_FLAG_CHOREOGRAPHER);
+
+        // Request another callback for next frame
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    // Called on the Choreographer thread on Android 13+ instead of doFrame()
+    private boolean onPresentationSlot(long expectedPresentationTimeNanos, boolean missedDeadline) {
+        if (stopping) {
+            return false;
         }
 
+        if (missedDeadline) {
+            activeWindowVideoStats.frameTimingMisses++;
+        }
+
+        releasePacedFrame(expectedPresentationTimeNanos, missedDeadline);
+
+        doCodecRecoveryIfRequired(CR_FLAG_CHOREOGRAPHER);
+        return true;
+    }
+
+    // Releases up to one queued frame for display at the given time. If we've fallen behind
+    // the display, older frames are dropped so the newest one is shown instead.
+    private void releasePacedFrame(long presentationTimeNanos, boolean catchUp) {
         // Don't render unless a new frame is due. This prevents microstutter when streaming
         // at a frame rate that doesn't match the display (such as 60 FPS on 120 Hz).
-        long actualFrameTimeDeltaNs = frameTimeNanos - lastRenderedFrameTimeNanos;
-        long expectedFrameTimeDeltaNs = 800000000 / refreshRate; // within 80% of the next frame
-        if (actualFrameTimeDeltaNs >= expectedFrameTimeDeltaNs) {
-            // Render up to one frame when in frame pacing mode.
-            //
-            // NB: Since the queue limit is 2, we won't starve the decoder of output buffers
-            // by holding onto them for too long. This also ensures we will have that 1 extra
-            // frame of buffer to smooth over network/rendering jitter.
-            Integer nextOutputBuffer = outputBufferQueue.poll();
-            if (nextOutputBuffer != null) {
-                try {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                        videoDecoder.releaseOutputBuffer(nextOutputBuffer, frameTimeNanos);
-                    }
-                    else {
-                        videoDecoder.releaseOutputBuffer(nextOutputBuffer, true);
-                    }
+        if (!AdaptivePacingController.isFrameDue(presentationTimeNanos, lastRenderedFrameTimeNanos, refreshRate)) {
+            return;
+        }
 
-                    lastRenderedFrameTimeNanos = frameTimeNanos;
-                    activeWindowVideoStats.totalFramesRendered++;
-                } catch (IllegalStateException ignored) {
-                    try {
-                        // Try to avoid leaking the output buffer by releasing it without rendering
-                        videoDecoder.releaseOutputBuffer(nextOutputBuffer, false);
-                    } catch (IllegalStateException e) {
-                        // This will leak nextOutputBuffer, but there's really nothing else we can do
-                        e.printStackTrace();
-                        handleDecoderException(e);
-                    }
+        // Render up to one frame when in frame pacing mode.
+        //
+        // NB: Since the queue limit is 2, we won't starve the decoder of output buffers
+        // by holding onto them for too long. This also ensures we will have that 1 extra
+        // frame of buffer to smooth over network/rendering jitter.
+        //
+        // In adaptive mode, the queue limit is chosen by AdaptivePacingController instead.
+        int nextOutputBuffer = outputBufferQueue.poll();
+        while (catchUp && nextOutputBuffer >= 0 && outputBufferQueue.size() > 0) {
+            try {
+                videoDecoder.releaseOutputBuffer(nextOutputBuffer, false);
+                activeWindowVideoStats.framesDroppedByCatchUp++;
+                outputBufferQueue.onCatchUpDropped();
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+                handleDecoderException(e);
+            }
+            nextOutputBuffer = outputBufferQueue.poll();
+        }
+
+        boolean rendered = false;
+        if (nextOutputBuffer >= 0) {
+            try {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                    videoDecoder.releaseOutputBuffer(nextOutputBuffer, presentationTimeNanos);
+                }
+                else {
+                    videoDecoder.releaseOutputBuffer(nextOutputBuffer, true);
+                }
+
+                lastRenderedFrameTimeNanos = presentationTimeNanos;
+                activeWindowVideoStats.totalFramesRendered++;
+                outputBufferQueue.onRendered();
+                rendered = true;
+
+                if (nextOutputBuffer < pacedBufferPtsUs.length) {
+                    latencyTracker.onFrameReleased(pacedBufferPtsUs[nextOutputBuffer]);
+                }
+            } catch (IllegalStateException ignored) {
+                try {
+                    // Try to avoid leaking the output buffer by releasing it without rendering
+                    videoDecoder.releaseOutputBuffer(nextOutputBuffer, false);
+                } catch (IllegalStateException e) {
+                    // This will leak nextOutputBuffer, but there's really nothing else we can do
+                    e.printStackTrace();
+                    handleDecoderException(e);
                 }
             }
         }
 
-        // Attempt codec recovery even if we have nothing to render right now. Recovery can still
-        // be required even if the codec died before giving any output.
-        doCodecRecoveryIfRequired(CR_FLAG_CHOREOGRAPHER);
+        if (adaptivePacing != null) {
+            adaptivePacing.onVsync(presentationTimeNanos, rendered);
+        }
+    }
 
-        // Request another callback for next frame
-        Choreographer.getInstance().postFrameCallback(this);
+    private boolean usesChoreographerPacing() {
+        return prefs.framePacing == PreferenceConfiguration.FRAME_PACING_BALANCED ||
+                prefs.framePacing == PreferenceConfiguration.FRAME_PACING_ADAPTIVE;
     }
 
     private void startChoreographerThread() {
-        if (prefs.framePacing != PreferenceConfiguration.FRAME_PACING_BALANCED) {
+        if (!usesChoreographerPacing()) {
             // Not using Choreographer in this pacing mode
             return;
         }
@@ -1047,14 +1686,104 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
         // Start the frame callbacks
         choreographerHandler = new Handler(choreographerHandlerThread.getLooper());
+        displayTiming = new DisplayTimingMonitor(activity, activity.getWindowManager().getDefaultDisplay());
+        displayTiming.start(choreographerHandler);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            vsyncTimelineScheduler = new VsyncTimelineScheduler(new VsyncTimelineScheduler.Listener() {
+                @Override
+                public boolean onPresentationSlot(long expectedPresentationTimeNanos, boolean missedDeadline) {
+                    return MediaCodecDecoderRenderer.this.onPresentationSlot(expectedPresentationTimeNanos, missedDeadline);
+                }
+            });
+        }
         choreographerHandler.post(new Runnable() {
             @Override
             public void run() {
-                Choreographer.getInstance().postFrameCallback(MediaCodecDecoderRenderer.this);
+                if (vsyncTimelineScheduler != null) {
+                    vsyncTimelineScheduler.start();
+                }
+                else {
+                    Choreographer.getInstance().postFrameCallback(MediaCodecDecoderRenderer.this);
+                }
             }
         });
     }
 
+    private void renderOutputBuffer(int index, long presentationTimeUs) {
+        if (prefs.framePacing == PreferenceConfiguration.FRAME_PACING_MAX_SMOOTHNESS ||
+                prefs.framePacing == PreferenceConfiguration.FRAME_PACING_CAP_FPS) {
+            // In max smoothness or cap FPS mode, we want to never drop frames
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                // Use a PTS that will cause this frame to never be dropped
+                videoDecoder.releaseOutputBuffer(index, 0);
+            }
+            else {
+                videoDecoder.releaseOutputBuffer(index, true);
+            }
+        }
+        else {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                // Use a PTS that will cause this frame to be dropped if another comes in within
+                // the same V-sync period
+                videoDecoder.releaseOutputBuffer(index, System.nanoTime());
+            }
+            else {
+                videoDecoder.releaseOutputBuffer(index, true);
+            }
+        }
+
+        activeWindowVideoStats.totalFramesRendered++;
+        latencyTracker.onFrameReleased(presentationTimeUs);
+    }
+
+    private void queueOutputBufferForPacing(int index, long presentationTimeUs) {
+        // For balanced and adaptive frame pacing, the Choreographer callback will handle rendering.
+        // We just put all frames into the output buffer queue and let it handle things.
+        int queueLimit = OUTPUT_BUFFER_QUEUE_LIMIT;
+        if (adaptivePacing != null) {
+            adaptivePacing.onFrameOutput(presentationTimeUs, SystemClock.uptimeMillis() * 1000,
+                    outputBufferQueue.getEvictedCount());
+            queueLimit = adaptivePacing.getDepth() + 1;
+        }
+
+        if (index < pacedBufferPtsUs.length) {
+            pacedBufferPtsUs[index] = presentationTimeUs;
+        }
+
+        // Discard the oldest buffer if we've exceeded our limit.
+        //
+        // NB: We have to do this on the producer side because the consumer may not
+        // run for a while (if there is a huge mismatch between stream FPS and display
+        // refresh rate).
+        outputBufferQueue.add(index, queueLimit, outputBufferEvictionCallback);
+    }
+
+    private long getFrameBudgetNanos() {
+        return 1000000000L / refreshRate;
+    }
+
+    // Called on the thread that handles output buffers after each one is rendered or queued
+    private void reportRenderWork(long workStartNanos) {
+        if (renderHintSession == null) {
+            // The Choreographer thread shares the session, since it does the rest of the rendering
+            int choreographerTid = choreographerHandlerThread != null ? choreographerHandlerThread.getThreadId() : -1;
+            int[] threadIds = choreographerTid > 0 ?
+                    new int[] {Process.myTid(), choreographerTid} : new int[] {Process.myTid()};
+            renderHintSession = PerformanceHintSession.create(activity, "render", threadIds, getFrameBudgetNanos());
+        }
+
+        renderHintSession.reportActualWorkDuration(System.nanoTime() - workStartNanos);
+    }
+
+    private void recordDecoderLatency(long presentationTimeUs) {
+        // Add delta time to the totals (excluding probable outliers)
+        long delta = SystemClock.uptimeMillis() - (presentationTimeUs / 1000);
+        if (delta >= 0 && delta < 1000) {
+            activeWindowVideoStats.decoderTimeMs += delta;
+            activeWindowVideoStats.totalTimeMs += delta;
+        }
+    }
+
     private void startRendererThread()
     {
         rendererThread = new Thread() {
@@ -1066,13 +1795,15 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                         // Try to output a frame
                         int outIndex = videoDecoder.dequeueOutputBuffer(info, 50000);
                         if (outIndex >= 0) {
+                            long workStartNanos = System.nanoTime();
                             long presentationTimeUs = info.presentationTimeUs;
                             int lastIndex = outIndex;
 
                             numFramesOut++;
+                            latencyTracker.onFrameDecoded(presentationTimeUs);
 
-                            // Render the latest frame now if frame pacing isn't in balanced mode
-                            if (prefs.framePacing != PreferenceConfiguration.FRAME_PACING_BALANCED) {
+                            // Render the latest frame now if frame pacing isn't in balanced or adaptive mode
+                            if (!usesChoreographerPacing()) {
                                 // Get the last output buffer in the queue
                                 while ((outIndex = videoDecoder.dequeueOutputBuffer(info, 0)) >= 0) {
                                     videoDecoder.releaseOutputBuffer(lastIndex, false);
@@ -1081,63 +1812,17 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
                                     lastIndex = outIndex;
                                     presentationTimeUs = info.presentationTimeUs;
+                                    latencyTracker.onFrameDecoded(presentationTimeUs);
                                 }
 
-                                if (prefs.framePacing == PreferenceConfiguration.FRAME_PACING_MAX_SMOOTHNESS ||
-                                        prefs.framePacing == PreferenceConfiguration.FRAME_PACING_CAP_FPS) {
-                                    // In max smoothness or cap FPS mode, we want to never drop frames
-                                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                                        // Use a PTS that will cause this frame to never be dropped
-                                        videoDecoder.releaseOutputBuffer(lastIndex, 0);
-                                    }
-                                    else {
-                                        videoDecoder.releaseOutputBuffer(lastIndex, true);
-                                    }
-                                }
-                                else {
-                                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                                        // Use a PTS that will cause this frame to be dropped if another comes in within
-                                        // the same V-sync period
-                                        videoDecoder.releaseOutputBuffer(lastIndex, System.nanoTime());
-                                    }
-                                    else {
-                                        videoDecoder.releaseOutputBuffer(lastIndex, true);
-                                    }
-                                }
-
-                                activeWindowVideoStats.totalFramesRendered++;
+                                renderOutputBuffer(lastIndex, presentationTimeUs);
                             }
                             else {
-                                // For balanced frame pacing case, the Choreographer callback will handle rendering.
-                                // We just put all frames into the output buffer queue and let it handle things.
-
-                                // Discard the oldest buffer if we've exceeded our limit.
-                                //
-                                // NB: We have to do this on the producer side because the consumer may not
-                                // run for a while (if there is a huge mismatch between stream FPS and display
-                                // refresh rate).
-                                if (outputBufferQueue.size() == OUTPUT_BUFFER_QUEUE_LIMIT) {
-                                    try {
-                                        videoDecoder.releaseOutputBuffer(outputBufferQueue.take(), false);
-                                    } catch (InterruptedException e) {
-                                        // We're shutting down, so we can just drop this buffer on the floor
-                                        // and it will be reclaimed when the codec is released.
-                                        return;
-                                    }
-                                }
-
-                                // Add this buffer
-                                outputBufferQueue.add(lastIndex);
+                                queueOutputBufferForPacing(lastIndex, presentationTimeUs);
                             }
 
-                            // Add delta time to the totals (excluding probable outliers)
-                            long delta = SystemClock.uptimeMillis() - (presentationTimeUs / 1000);
-                            if (delta >= 0 && delta < 1000) {
-                                activeWindowVideoStats.decoderTimeMs += delta;
-                                if (!USE_FRAME_RENDER_TIME) {
-                                    activeWindowVideoStats.totalTimeMs += delta;
-                                }
-                            }
+                            recordDecoderLatency(presentationTimeUs);
+                            reportRenderWork(workStartNanos);
                         } else {
                             switch (outIndex) {
                                 case MediaCodec.INFO_TRY_AGAIN_LATER:
@@ -1174,12 +1859,24 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         }
 
         startTime = SystemClock.uptimeMillis();
+        long waitStartNanos = System.nanoTime();
 
         try {
             // If we don't have an input buffer index yet, fetch one now
             while (nextInputBufferIndex < 0 && !stopping) {
-                nextInputBufferIndex = videoDecoder.dequeueInputBuffer(10000);
+                if (asyncDecoder) {
+                    // The codec callback thread hands us free input buffers as they become
+                    // available, so we just wait to be signalled.
+                    nextInputBufferIndex = freeInputBuffers.poll(ASYNC_INPUT_WAIT_MS);
+                    if (nextInputBufferIndex < 0 && codecRecoveryType.get() != CR_RECOVERY_TYPE_NONE) {
+                        break;
+                    }
+                }
+                else {
+                    nextInputBufferIndex = videoDecoder.dequeueInputBuffer(10000);
+                }
             }
+            inputBufferWaitNanos += System.nanoTime() - waitStartNanos;
 
             // Get the backing ByteBuffer for the input buffer index
             if (nextInputBufferIndex >= 0) {
@@ -1204,6 +1901,12 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         } catch (IllegalStateException e) {
             handleDecoderException(e);
             return false;
+        } catch (InterruptedException e) {
+            // InterruptedException clears the thread's interrupt status. Since we can't
+            // handle that here, we will re-interrupt the thread to set the interrupt
+            // status back to true.
+            Thread.currentThread().interrupt();
+            return false;
         } finally {
             codecRecovered = doCodecRecoveryIfRequired(CR_FLAG_INPUT_THREAD);
         }
@@ -1240,8 +1943,15 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
     @Override
     public void start() {
-        startRendererThread();
+        // In async mode, output buffers are handled by the codec callbacks
+        if (!asyncDecoder) {
+            startRendererThread();
+        }
         startChoreographerThread();
+
+        if (prefs.enablePerfOverlay || prefs.enablePerfLogging) {
+            perfStatsFormatter.start();
+        }
     }
 
     // !!! May be called even if setup()/start() fails !!!
@@ -1254,6 +1964,18 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             rendererThread.interrupt();
         }
 
+        // Wake the submit thread if it's waiting for an input buffer in async mode
+        freeInputBuffers.wakeUp();
+
+        // Release a warmed-up decoder if the connection never got far enough to use it
+        Thread warmupThread = decoderWarmupThread.getAndSet(null);
+        if (warmupThread != null) {
+            finishDecoderWarmup(warmupThread);
+            releaseWarmedUpDecoder();
+        }
+
+        perfStatsFormatter.stop();
+
         // Stop any active codec recovery operations
         synchronized (codecRecoveryMonitor) {
             codecRecoveryType.set(CR_RECOVERY_TYPE_NONE);
@@ -1269,7 +1991,13 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                     choreographerHandlerThread.quit();
 
                     // Deregister the frame callback (if registered)
-                    Choreographer.getInstance().removeFrameCallback(MediaCodecDecoderRenderer.this);
+                    if (vsyncTimelineScheduler != null) {
+                        vsyncTimelineScheduler.stop();
+                    }
+                    else {
+                        Choreographer.getInstance().removeFrameCallback(MediaCodecDecoderRenderer.this);
+                    }
+                    displayTiming.stop();
                 }
             });
         }
@@ -1295,21 +2023,47 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         }
 
         // Wait for the renderer thread to shut down
-        try {
-            rendererThread.join();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        if (rendererThread != null) {
+            try {
+                rendererThread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
 
-            // InterruptedException clears the thread's interrupt status. Since we can't
-            // handle that here, we will re-interrupt the thread to set the interrupt
-            // status back to true.
-            Thread.currentThread().interrupt();
+                // InterruptedException clears the thread's interrupt status. Since we can't
+                // handle that here, we will re-interrupt the thread to set the interrupt
+                // status back to true.
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
     @Override
     public void cleanup() {
         videoDecoder.release();
+
+        if (standbyDecoder != null) {
+            standbyDecoder.release();
+        }
+
+        // No more callbacks can arrive once the codec is released
+        if (codecCallbackThread != null) {
+            codecCallbackThread.quit();
+        }
+
+        if (decodeHintSession != null) {
+            decodeHintSession.close();
+        }
+        if (renderHintSession != null) {
+            renderHintSession.close();
+        }
+
+        if (sessionRecorder != null) {
+            sessionRecorder.close();
+        }
+
+        if (decodeUnitCapture != null) {
+            decodeUnitCapture.close();
+        }
     }
 
     @Override
@@ -1335,6 +2089,11 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             // HACK: Reset codec recovery attempt counter, since this is an expected "recovery"
             codecRecoveryAttempts = 0;
 
+            // The standby decoder was configured with the old HDR metadata
+            if (standbyDecoder != null) {
+                standbyDecoder.invalidate();
+            }
+
             // Promote None/Flush to Restart and leave Reset alone
             if (!codecRecoveryType.compareAndSet(CR_RECOVERY_TYPE_NONE, CR_RECOVERY_TYPE_RESTART)) {
                 codecRecoveryType.compareAndSet(CR_RECOVERY_TYPE_FLUSH, CR_RECOVERY_TYPE_RESTART);
@@ -1386,21 +2145,27 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         return fetchNextInputBuffer();
     }
 
-    private void doProfileSpecificSpsPatching(SeqParameterSet sps) {
-        // Some devices benefit from setting constraint flags 4 & 5 to make this Constrained
-        // High Profile which allows the decoder to assume there will be no B-frames and
-        // reduce delay and buffering accordingly. Some devices (Marvell, Exynos 4) don't
-        // like it so we only set them on devices that are confirmed to benefit from it.
-        if (sps.profileIdc == 100 && constrainedHighProfile) {
-            LimeLog.info("Setting constraint set flags for constrained high profile");
-            sps.constraintSet4Flag = true;
-            sps.constraintSet5Flag = true;
+    @Override
+    public ByteBuffer getDirectSubmitBuffer(int frameType, int decodeUnitLength) {
+        // Only hand out an input buffer that we already own. IDR frames may need a separate
+        // CSD submission (or fused CSD) ahead of the picture data, so those always take the
+        // regular path. We also don't fetch a new buffer here, so the codec recovery handling
+        // in fetchNextInputBuffer() stays on the submitDecodeUnit() path.
+        if (stopping || frameType != MoonBridge.FRAME_TYPE_PFRAME || nextInputBuffer == null) {
+            return null;
         }
-        else {
-            // Force the constraints unset otherwise (some may be set by default)
-            sps.constraintSet4Flag = false;
-            sps.constraintSet5Flag = false;
+
+        // Partial frame submission needs the frame data in our own array to split it,
+        // and so does the capture
+        if (partialFrameSubmission || decodeUnitCapture != null) {
+            return null;
+        }
+
+        if (!nextInputBuffer.isDirect() || nextInputBuffer.remaining() < decodeUnitLength) {
+            return null;
         }
+
+        return nextInputBuffer;
     }
 
     @SuppressWarnings("deprecation")
@@ -1408,26 +2173,67 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     public int submitDecodeUnit(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
                                 int frameNumber, int frameType, char frameHostProcessingLatency,
                                 long receiveTimeMs, long enqueueTimeMs) {
+        long workStartNanos = System.nanoTime();
+        inputBufferWaitNanos = 0;
+
+        if (decodeUnitCapture != null && decodeUnitData != null) {
+            decodeUnitCapture.write(decodeUnitData, decodeUnitLength, decodeUnitType, frameNumber, frameType,
+                    frameHostProcessingLatency, receiveTimeMs, enqueueTimeMs);
+        }
+
+        int ret = submitDecodeUnitInternal(decodeUnitData, decodeUnitLength, decodeUnitType,
+                frameNumber, frameType, frameHostProcessingLatency, receiveTimeMs, enqueueTimeMs);
+
+        if (decodeHintSession == null) {
+            decodeHintSession = PerformanceHintSession.create(activity, "decode",
+                    new int[] {Process.myTid()}, getFrameBudgetNanos());
+        }
+        decodeHintSession.reportActualWorkDuration(System.nanoTime() - workStartNanos - inputBufferWaitNanos);
+
+        return ret;
+    }
+
+    private int submitDecodeUnitInternal(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
+                                         int frameNumber, int frameType, char frameHostProcessingLatency,
+                                         long receiveTimeMs, long enqueueTimeMs) {
         if (stopping) {
             // Don't bother if we're stopping
             return MoonBridge.DR_OK;
         }
 
+        int framesLost = 0;
         if (lastFrameNumber == 0) {
             activeWindowVideoStats.measurementStartTimestamp = SystemClock.uptimeMillis();
         } else if (frameNumber != lastFrameNumber && frameNumber != lastFrameNumber + 1) {
             // We can receive the same "frame" multiple times if it's an IDR frame.
             // In that case, each frame start NALU is submitted independently.
+            framesLost = frameNumber - lastFrameNumber - 1;
             activeWindowVideoStats.framesLost += frameNumber - lastFrameNumber - 1;
             activeWindowVideoStats.totalFrames += frameNumber - lastFrameNumber - 1;
             activeWindowVideoStats.frameLossEvents++;
         }
 
+        if (backlogController != null && frameNumber != lastFrameNumber && frameType != MoonBridge.FRAME_TYPE_IDR) {
+            int reason = backlogController.check(MoonBridge.getPendingVideoFrames(),
+                    latencyTracker.getOldestInDecoderAgeUs(FrameLatencyTracker.nowUs()), SystemClock.uptimeMillis());
+            if (reason != DecoderBacklogController.REASON_NONE) {
+                LimeLog.warning("Resynchronizing video due to "+DecoderBacklogController.getReasonString(reason)+
+                        ": "+backlogController.getLastPendingFrames()+" frames pending, "+
+                        backlogController.getLastCodecAgeUs() / 1000+" ms oldest in codec ("+
+                        backlogController.getBacklogUs() / 1000+" ms, budget "+prefs.decoderBacklogBudgetMs+" ms)");
+
+                // Throw away everything in the codec, then skip ahead to a new IDR frame
+                if (codecRecoveryType.compareAndSet(CR_RECOVERY_TYPE_NONE, CR_RECOVERY_TYPE_FLUSH)) {
+                    doCodecRecoveryIfRequired(CR_FLAG_INPUT_THREAD);
+                }
+                activeWindowVideoStats.backlogResyncs++;
+                return MoonBridge.DR_NEED_IDR;
+            }
+        }
+
         // Reset CSD data for each IDR frame
         if (lastFrameNumber != frameNumber && frameType == MoonBridge.FRAME_TYPE_IDR) {
-            vpsBuffers.clear();
-            spsBuffers.clear();
-            ppsBuffers.clear();
+            csdBatcher.clear();
         }
 
         lastFrameNumber = frameNumber;
@@ -1435,92 +2241,45 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         // Flip stats windows roughly every second
         if (SystemClock.uptimeMillis() >= activeWindowVideoStats.measurementStartTimestamp + 1000) {
             if (prefs.enablePerfOverlay || prefs.enablePerfLogging) {
-                VideoStats lastTwo = new VideoStats();
-                lastTwo.add(lastWindowVideoStats);
-                lastTwo.add(activeWindowVideoStats);
-                VideoStatsFps fps = lastTwo.getFps();
-                String decoder;
-
-                if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
-                    decoder = avcDecoder.getName();
-                } else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H265) != 0) {
-                    decoder = hevcDecoder.getName();
-                } else if ((videoFormat & MoonBridge.VIDEO_FORMAT_MASK_AV1) != 0) {
-                    decoder = av1Decoder.getName();
-                } else {
-                    decoder = "(unknown)";
+                // Only copy the counters here. The text is formatted on a separate thread
+                // to keep this path fast and allocation-free.
+                latencyTracker.updateWindow();
+
+                PerfStatsSnapshot snapshot = perfStatsFormatter.getWriteSnapshot();
+                snapshot.stats.clear();
+                snapshot.stats.add(lastWindowVideoStats);
+                snapshot.stats.add(activeWindowVideoStats);
+                snapshot.decodeLatency.copy(latencyTracker.getWindowHistogram(FrameLatencyTracker.STAGE_DECODE));
+                snapshot.endToEndLatency.copy(latencyTracker.getWindowHistogram(FrameLatencyTracker.STAGE_END_TO_END));
+                snapshot.displayLatency.copy(latencyTracker.getWindowHistogram(FrameLatencyTracker.STAGE_DECODE_TO_DISPLAY));
+                snapshot.timestampMs = SystemClock.uptimeMillis();
+                snapshot.rttInfo = MoonBridge.getEstimatedRttInfo();
+                snapshot.decoderName = activeDecoderName;
+                snapshot.width = initialWidth;
+                snapshot.height = initialHeight;
+                snapshot.decodeHintActive = decodeHintSession != null && decodeHintSession.isActive();
+                snapshot.renderHintActive = renderHintSession != null && renderHintSession.isActive();
+                snapshot.codecRecoveries = codecRecoveries;
+                snapshot.lastCodecRecoveryTimeMs = lastCodecRecoveryTimeMs;
+                if (adaptivePacing != null) {
+                    snapshot.pacingDepth = adaptivePacing.getDepth();
+                    snapshot.pacingJitterMs = adaptivePacing.getJitterMs();
                 }
-
-                float decodeTimeMs = (float)lastTwo.decoderTimeMs / lastTwo.totalFramesReceived;
-                long rttInfo = MoonBridge.getEstimatedRttInfo();
-                StringBuilder sb = new StringBuilder();
-                if(prefs.enablePerfOverlayLite){
-                    if(TrafficStatsHelper.getPackageRxBytes(Process.myUid()) != TrafficStats.UNSUPPORTED){
-                        long netData=TrafficStatsHelper.getPackageRxBytes(Process.myUid())+TrafficStatsHelper.getPackageTxBytes(Process.myUid());
-                        if(lastNetDataNum!=0){
-                            sb.append(context.getString(R.string.perf_overlay_lite_bandwidth) + ": ");
-                            float realtimeNetData=(netData-lastNetDataNum)/1024f;
-                            if(realtimeNetData>=1000){
-                                sb.append(String.format("%.2f", realtimeNetData/1024f) +"M/s\t ");
-                            }else{
-                                sb.append(String.format("%.2f", realtimeNetData) +"K/s\t ");
-                            }
-                        }
-                        lastNetDataNum=netData;
-                    }
-//                    sb.append("分辨率：");
-//                    sb.append(initialWidth + "x" + initialHeight);
-                    sb.append(context.getString(R.string.perf_overlay_lite_network_decoding_delay) + ": ");
-                    sb.append(context.getString(R.string.perf_overlay_lite_net,(int)(rttInfo >> 32)));
-                    sb.append(" / ");
-                    sb.append(context.getString(R.string.perf_overlay_lite_dectime,decodeTimeMs));
-                    sb.append("\t");
-                    sb.append(context.getString(R.string.perf_overlay_lite_packet_loss) + ": ");
-                    sb.append(context.getString(R.string.perf_overlay_lite_netdrops,(float)lastTwo.framesLost / lastTwo.totalFrames * 100));
-                    sb.append("\t FPS：");
-                    sb.append(context.getString(R.string.perf_overlay_lite_fps,fps.totalFps));
-//                    sb.append("\n");
-//                    sb.append(context.getString(R.string.perf_overlay_lite_decoder,decoder));
-                }else{
-                    sb.append(context.getString(R.string.perf_overlay_streamdetails, initialWidth + "x" + initialHeight, fps.totalFps)).append('\n');
-                    sb.append(context.getString(R.string.perf_overlay_decoder, decoder)).append('\n');
-                    sb.append(context.getString(R.string.perf_overlay_incomingfps, fps.receivedFps)).append('\n');
-                    sb.append(context.getString(R.string.perf_overlay_renderingfps, fps.renderedFps)).append('\n');
-                    sb.append(context.getString(R.string.perf_overlay_netdrops,
-                            (float)lastTwo.framesLost / lastTwo.totalFrames * 100)).append('\n');
-                    if(TrafficStatsHelper.getPackageRxBytes(Process.myUid()) != TrafficStats.UNSUPPORTED){
-                        long netData=TrafficStatsHelper.getPackageRxBytes(Process.myUid())+TrafficStatsHelper.getPackageTxBytes(Process.myUid());
-                        if(lastNetDataNum!=0){
-                            sb.append(context.getString(R.string.perf_overlay_lite_bandwidth) + ": ");
-                            float realtimeNetData=(netData-lastNetDataNum)/1024f;
-                            if(realtimeNetData>=1000){
-                                sb.append(String.format("%.2f", realtimeNetData/1024f) +"M/s\n");
-                            }else{
-                                sb.append(String.format("%.2f", realtimeNetData) +"K/s\n");
-                            }
-                        }
-                        lastNetDataNum=netData;
-                    }
-                    sb.append(context.getString(R.string.perf_overlay_netlatency,
-                            (int)(rttInfo >> 32), (int)rttInfo)).append('\n');
-                    if (lastTwo.framesWithHostProcessingLatency > 0) {
-                        sb.append(context.getString(R.string.perf_overlay_hostprocessinglatency,
-                                (float)lastTwo.minHostProcessingLatency / 10,
-                                (float)lastTwo.maxHostProcessingLatency / 10,
-                                (float)lastTwo.totalHostProcessingLatency / 10 / lastTwo.framesWithHostProcessingLatency)).append('\n');
+                snapshot.hasAudioStats = audioStatsProvider != null;
+                if (audioStatsProvider != null) {
+                    audioStatsProvider.getStats(audioTotals);
+                    snapshot.audioStats.copy(audioTotals);
+                    snapshot.audioStats.windowSince(lastAudioTotals);
+                    lastAudioTotals.copy(audioTotals);
+
+                    if (sessionRecorder != null) {
+                        sessionRecorder.recordAudio(snapshot.audioStats);
                     }
-                    sb.append(context.getString(R.string.perf_overlay_dectime, decodeTimeMs));
-                }
-                String fullLog = sb.toString();
-                if(prefs.enablePerfOverlay) {
-                    perfListener.onPerfUpdate(fullLog);
-                }
-                // Best latency is only met at requested highest fps, rest can be ignored
-                Boolean targetFpsMatched = ((int) fps.totalFps == (int) prefs.fps);
-                if(minDecodeTime > decodeTimeMs && targetFpsMatched) {
-                    minDecodeTime = decodeTimeMs;
-                    minDecodeTimeFullLog = fullLog;
                 }
+                perfStatsFormatter.publish();
+            }
+            if (activeWindowVideoStats.totalFramesReceived != 0) {
+                recentDecodeTimeMs = (float)activeWindowVideoStats.decoderTimeMs / activeWindowVideoStats.totalFramesReceived;
             }
             globalVideoStats.add(activeWindowVideoStats);
             lastWindowVideoStats.copy(activeWindowVideoStats);
@@ -1536,144 +2295,40 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             if (decodeUnitType == MoonBridge.BUFFER_TYPE_SPS && (videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H264) != 0) {
                 numSpsIn++;
 
-                ByteBuffer spsBuf = ByteBuffer.wrap(decodeUnitData);
-                int startSeqLen = decodeUnitData[2] == 0x01 ? 3 : 4;
-
-                // Skip to the start of the NALU data
-                spsBuf.position(startSeqLen + 1);
-
-                // The H264Utils.readSPS function safely handles
-                // Annex B NALUs (including NALUs with escape sequences)
-                SeqParameterSet sps = H264Utils.readSPS(spsBuf);
-
-                // Some decoders rely on H264 level to decide how many buffers are needed
-                // Since we only need one frame buffered, we'll set the level as low as we can
-                // for known resolution combinations. Reference frame invalidation may need
-                // these, so leave them be for those decoders.
-                if (!refFrameInvalidationActive) {
-                    if (initialWidth <= 720 && initialHeight <= 480 && refreshRate <= 60) {
-                        // Max 5 buffered frames at 720x480x60
-                        LimeLog.info("Patching level_idc to 31");
-                        sps.levelIdc = 31;
-                    }
-                    else if (initialWidth <= 1280 && initialHeight <= 720 && refreshRate <= 60) {
-                        // Max 5 buffered frames at 1280x720x60
-                        LimeLog.info("Patching level_idc to 32");
-                        sps.levelIdc = 32;
-                    }
-                    else if (initialWidth <= 1920 && initialHeight <= 1080 && refreshRate <= 60) {
-                        // Max 4 buffered frames at 1920x1080x64
-                        LimeLog.info("Patching level_idc to 42");
-                        sps.levelIdc = 42;
-                    }
-                    else {
-                        // Leave the profile alone (currently 5.0)
-                    }
-                }
-
-                // TI OMAP4 requires a reference frame count of 1 to decode successfully. Exynos 4
-                // also requires this fixup.
-                //
-                // I'm doing this fixup for all devices because I haven't seen any devices that
-                // this causes issues for. At worst, it seems to do nothing and at best it fixes
-                // issues with video lag, hangs, and crashes.
-                //
-                // It does break reference frame invalidation, so we will not do that for decoders
-                // where we've enabled reference frame invalidation.
-                if (!refFrameInvalidationActive) {
-                    LimeLog.info("Patching num_ref_frames in SPS");
-                    sps.numRefFrames = 1;
+                // Reuse the patched SPS if the host sent the same one again. The baseline SPS
+                // hack needs the parsed SPS for replay, so it always takes the slow path.
+                byte[] cachedSps = needsBaselineSpsHack ? null : spsPatcher.getCachedNalu(decodeUnitData, decodeUnitLength);
+                if (cachedSps != null) {
+                    activeWindowVideoStats.csdCacheHits++;
+                    csdBatcher.addSps(cachedSps);
+                    return MoonBridge.DR_OK;
                 }
-
-                // GFE 2.5.11 changed the SPS to add additional extensions. Some devices don't like these
-                // so we remove them here on old devices unless these devices also support HEVC.
-                // See getPreferredColorSpace() for further information.
-                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O &&
-                        sps.vuiParams != null &&
-                        hevcDecoder == null &&
-                        av1Decoder == null) {
-                    sps.vuiParams.videoSignalTypePresentFlag = false;
-                    sps.vuiParams.colourDescriptionPresentFlag = false;
-                    sps.vuiParams.chromaLocInfoPresentFlag = false;
-                }
-
-                // Some older devices used to choke on a bitstream restrictions, so we won't provide them
-                // unless explicitly whitelisted. For newer devices, leave the bitstream restrictions present.
-                if (needsSpsBitstreamFixup || isExynos4 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    // The SPS that comes in the current H264 bytestream doesn't set bitstream_restriction_flag
-                    // or max_dec_frame_buffering which increases decoding latency on Tegra.
-
-                    // If the encoder didn't include VUI parameters in the SPS, add them now
-                    if (sps.vuiParams == null) {
-                        LimeLog.info("Adding VUI parameters");
-                        sps.vuiParams = new VUIParameters();
-                    }
-
-                    // GFE 2.5.11 started sending bitstream restrictions
-                    if (sps.vuiParams.bitstreamRestriction == null) {
-                        LimeLog.info("Adding bitstream restrictions");
-                        sps.vuiParams.bitstreamRestriction = new VUIParameters.BitstreamRestriction();
-                        sps.vuiParams.bitstreamRestriction.motionVectorsOverPicBoundariesFlag = true;
-                        sps.vuiParams.bitstreamRestriction.maxBytesPerPicDenom = 2;
-                        sps.vuiParams.bitstreamRestriction.maxBitsPerMbDenom = 1;
-                        sps.vuiParams.bitstreamRestriction.log2MaxMvLengthHorizontal = 16;
-                        sps.vuiParams.bitstreamRestriction.log2MaxMvLengthVertical = 16;
-                        sps.vuiParams.bitstreamRestriction.numReorderFrames = 0;
-                    }
-                    else {
-                        LimeLog.info("Patching bitstream restrictions");
-                    }
-
-                    // Some devices throw errors if maxDecFrameBuffering < numRefFrames
-                    sps.vuiParams.bitstreamRestriction.maxDecFrameBuffering = sps.numRefFrames;
-
-                    // These values are the defaults for the fields, but they are more aggressive
-                    // than what GFE sends in 2.5.11, but it doesn't seem to cause picture problems.
-                    // We'll leave these alone for "modern" devices just in case they care.
-                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
-                        sps.vuiParams.bitstreamRestriction.maxBytesPerPicDenom = 2;
-                        sps.vuiParams.bitstreamRestriction.maxBitsPerMbDenom = 1;
-                    }
-
-                    // log2_max_mv_length_horizontal and log2_max_mv_length_vertical are set to more
-                    // conservative values by GFE 2.5.11. We'll let those values stand.
-                }
-                else if (sps.vuiParams != null) {
-                    // Devices that didn't/couldn't get bitstream restrictions before GFE 2.5.11
-                    // will continue to not receive them now
-                    sps.vuiParams.bitstreamRestriction = null;
-                }
-
-                // If we need to hack this SPS to say we're baseline, do so now
-                if (needsBaselineSpsHack) {
-                    LimeLog.info("Hacking SPS to baseline");
-                    sps.profileIdc = 66;
-                    savedSps = sps;
-                }
-
-                // Patch the SPS constraint flags
-                doProfileSpecificSpsPatching(sps);
-
-                // The H264Utils.writeSPS function safely handles
-                // Annex B NALUs (including NALUs with escape sequences)
-                ByteBuffer escapedNalu = H264Utils.writeSPS(sps, decodeUnitLength);
-
-                // Construct the patched SPS
-                byte[] naluBuffer = new byte[startSeqLen + 1 + escapedNalu.limit()];
-                System.arraycopy(decodeUnitData, 0, naluBuffer, 0, startSeqLen + 1);
-                escapedNalu.get(naluBuffer, startSeqLen + 1, escapedNalu.limit());
+                activeWindowVideoStats.csdCacheMisses++;
+
+                spsPatcher.width = initialWidth;
+                spsPatcher.height = initialHeight;
+                spsPatcher.refreshRate = refreshRate;
+                spsPatcher.refFrameInvalidationActive = refFrameInvalidationActive;
+                spsPatcher.stripVideoSignalInfo = Build.VERSION.SDK_INT < Build.VERSION_CODES.O &&
+                        hevcDecoder == null && av1Decoder == null;
+                spsPatcher.addBitstreamRestrictions = needsSpsBitstreamFixup || isExynos4 ||
+                        Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+                spsPatcher.defaultBitstreamDenominators = Build.VERSION.SDK_INT < Build.VERSION_CODES.O;
+                spsPatcher.constrainedHighProfile = constrainedHighProfile;
+
+                // Construct the patched SPS. The Baseline SPS from the hack isn't cached, so
+                // later IDR frames get the real profile once the SPS has been replayed.
+                byte[] naluBuffer = spsPatcher.patchNalu(decodeUnitData, decodeUnitLength, needsBaselineSpsHack);
 
                 // Batch this to submit together with other CSD per AOSP docs
-                spsBuffers.add(naluBuffer);
+                csdBatcher.addSps(naluBuffer);
                 return MoonBridge.DR_OK;
             }
             else if (decodeUnitType == MoonBridge.BUFFER_TYPE_VPS) {
                 numVpsIn++;
 
                 // Batch this to submit together with other CSD per AOSP docs
-                byte[] naluBuffer = new byte[decodeUnitLength];
-                System.arraycopy(decodeUnitData, 0, naluBuffer, 0, decodeUnitLength);
-                vpsBuffers.add(naluBuffer);
+                csdBatcher.addVps(getCachedCsd(vpsCache, decodeUnitData, decodeUnitLength));
                 return MoonBridge.DR_OK;
             }
             // Only the HEVC SPS hits this path (H.264 is handled above)
@@ -1681,18 +2336,14 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                 numSpsIn++;
 
                 // Batch this to submit together with other CSD per AOSP docs
-                byte[] naluBuffer = new byte[decodeUnitLength];
-                System.arraycopy(decodeUnitData, 0, naluBuffer, 0, decodeUnitLength);
-                spsBuffers.add(naluBuffer);
+                csdBatcher.addSps(getCachedCsd(spsCache, decodeUnitData, decodeUnitLength));
                 return MoonBridge.DR_OK;
             }
             else if (decodeUnitType == MoonBridge.BUFFER_TYPE_PPS) {
                 numPpsIn++;
 
                 // Batch this to submit together with other CSD per AOSP docs
-                byte[] naluBuffer = new byte[decodeUnitLength];
-                System.arraycopy(decodeUnitData, 0, naluBuffer, 0, decodeUnitLength);
-                ppsBuffers.add(naluBuffer);
+                csdBatcher.addPps(getCachedCsd(ppsCache, decodeUnitData, decodeUnitLength));
                 return MoonBridge.DR_OK;
             }
             else if ((videoFormat & (MoonBridge.VIDEO_FORMAT_MASK_H264 | MoonBridge.VIDEO_FORMAT_MASK_H265)) != 0) {
@@ -1704,15 +2355,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
                     }
 
                     // Submit all CSD when we receive the first non-CSD blob in an IDR frame
-                    for (byte[] vpsBuffer : vpsBuffers) {
-                        nextInputBuffer.put(vpsBuffer);
-                    }
-                    for (byte[] spsBuffer : spsBuffers) {
-                        nextInputBuffer.put(spsBuffer);
-                    }
-                    for (byte[] ppsBuffer : ppsBuffers) {
-                        nextInputBuffer.put(ppsBuffer);
-                    }
+                    nextInputBuffer.put(csdBatcher.getBatchedCsd());
 
                     if (!queueNextInputBuffer(0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG)) {
                         return MoonBridge.DR_NEED_IDR;
@@ -1752,11 +2395,14 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         activeWindowVideoStats.totalFramesReceived++;
         activeWindowVideoStats.totalFrames++;
 
-        if (!FRAME_RENDER_TIME_ONLY) {
-            // Count time from first packet received to enqueue time as receive time
-            // We will count DU queue time as part of decoding, because it is directly
-            // caused by a slow decoder.
-            activeWindowVideoStats.totalTimeMs += enqueueTimeMs - receiveTimeMs;
+        // Count time from first packet received to enqueue time as receive time
+        // We will count DU queue time as part of decoding, because it is directly
+        // caused by a slow decoder.
+        activeWindowVideoStats.totalTimeMs += enqueueTimeMs - receiveTimeMs;
+
+        if (sessionRecorder != null) {
+            sessionRecorder.record(frameNumber, receiveTimeMs, enqueueTimeMs, SystemClock.uptimeMillis(),
+                    decodeUnitLength, frameType, framesLost, frameHostProcessingLatency);
         }
 
         if (!fetchNextInputBuffer()) {
@@ -1770,15 +2416,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
 
             // If we are using fused IDR frames, submit the CSD with each IDR frame
             if (fusedIdrFrame && !csdSubmittedForThisFrame) {
-                for (byte[] vpsBuffer : vpsBuffers) {
-                    nextInputBuffer.put(vpsBuffer);
-                }
-                for (byte[] spsBuffer : spsBuffers) {
-                    nextInputBuffer.put(spsBuffer);
-                }
-                for (byte[] ppsBuffer : ppsBuffers) {
-                    nextInputBuffer.put(ppsBuffer);
-                }
+                nextInputBuffer.put(csdBatcher.getBatchedCsd());
             }
         }
 
@@ -1802,8 +2440,29 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             throw new RendererException(this, exception);
         }
 
-        // Copy data from our buffer list into the input buffer
-        nextInputBuffer.put(decodeUnitData, 0, decodeUnitLength);
+        if (partialFrameSubmission && decodeUnitData != null) {
+            latencyTracker.onFrameQueued(timestampUs, receiveTimeMs, enqueueTimeMs);
+
+            // The native code already copied this frame once into the Java array
+            activeWindowVideoStats.bytesCopied += 2L * decodeUnitLength;
+
+            return submitPartialFrames(decodeUnitData, decodeUnitLength, timestampUs, codecFlags);
+        }
+        else if (decodeUnitData != null) {
+            // Copy data from our buffer list into the input buffer
+            nextInputBuffer.put(decodeUnitData, 0, decodeUnitLength);
+
+            // The native code already copied this frame once into the Java array
+            activeWindowVideoStats.bytesCopied += 2L * decodeUnitLength;
+        }
+        else {
+            // The native code wrote the frame directly into the input buffer
+            nextInputBuffer.position(nextInputBuffer.position() + decodeUnitLength);
+            activeWindowVideoStats.bytesCopied += decodeUnitLength;
+            activeWindowVideoStats.directSubmitFrames++;
+        }
+
+        latencyTracker.onFrameQueued(timestampUs, receiveTimeMs, enqueueTimeMs);
 
         if (!queueNextInputBuffer(timestampUs, codecFlags)) {
             return MoonBridge.DR_NEED_IDR;
@@ -1812,6 +2471,51 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         return MoonBridge.DR_OK;
     }
 
+    // moonlight-common-c hands us complete frames, so this can't overlap decoding with network
+    // receive. It does let the decoder start on the first slices while we're still copying in
+    // the rest, and lets a multi-threaded decoder spread the slices across its threads sooner.
+    private int submitPartialFrames(byte[] decodeUnitData, int decodeUnitLength, long timestampUs, int codecFlags) {
+        int sliceCount = SliceSplitter.findSliceOffsets(decodeUnitData, decodeUnitLength,
+                (videoFormat & MoonBridge.VIDEO_FORMAT_MASK_H265) != 0, sliceOffsets);
+
+        activeWindowVideoStats.partialFrames++;
+        activeWindowVideoStats.partialFrameBuffers += sliceCount;
+
+        for (int i = 0; i < sliceCount; i++) {
+            int start = sliceOffsets[i];
+            int end = i + 1 < sliceCount ? sliceOffsets[i + 1] : decodeUnitLength;
+
+            nextInputBuffer.put(decodeUnitData, start, end - start);
+
+            if (i + 1 < sliceCount) {
+                // Every buffer of the frame carries the same timestamp. queueNextInputBuffer()
+                // fetches the buffer for the next slice.
+                if (!queueNextInputBuffer(timestampUs, codecFlags | MediaCodec.BUFFER_FLAG_PARTIAL_FRAME)) {
+                    return MoonBridge.DR_NEED_IDR;
+                }
+            }
+            else if (!queueNextInputBuffer(timestampUs, codecFlags)) {
+                return MoonBridge.DR_NEED_IDR;
+            }
+        }
+
+        return MoonBridge.DR_OK;
+    }
+
+    private byte[] getCachedCsd(CsdCache cache, byte[] decodeUnitData, int decodeUnitLength) {
+        byte[] naluBuffer = cache.get(decodeUnitData, decodeUnitLength);
+        if (naluBuffer != null) {
+            activeWindowVideoStats.csdCacheHits++;
+            return naluBuffer;
+        }
+
+        activeWindowVideoStats.csdCacheMisses++;
+        naluBuffer = new byte[decodeUnitLength];
+        System.arraycopy(decodeUnitData, 0, naluBuffer, 0, decodeUnitLength);
+        cache.put(decodeUnitData, decodeUnitLength, naluBuffer);
+        return naluBuffer;
+    }
+
     private boolean replaySps() {
         if (!fetchNextInputBuffer()) {
             return false;
@@ -1820,11 +2524,13 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         // Write the Annex B header
         nextInputBuffer.put(new byte[]{0x00, 0x00, 0x00, 0x01, 0x67});
 
+        SeqParameterSet savedSps = spsPatcher.baselineSps;
+
         // Switch the H264 profile back to high
         savedSps.profileIdc = 100;
 
         // Patch the SPS constraint flags
-        doProfileSpecificSpsPatching(savedSps);
+        spsPatcher.patchProfileConstraints(savedSps);
 
         // The H264Utils.writeSPS function safely handles
         // Annex B NALUs (including NALUs with escape sequences)
@@ -1832,7 +2538,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         nextInputBuffer.put(escapedNalu);
 
         // No need for the SPS anymore
-        savedSps = null;
+        spsPatcher.baselineSps = null;
 
         // Queue the new SPS
         return queueNextInputBuffer(0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
@@ -1871,6 +2577,30 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
         return (int)(globalVideoStats.totalTimeMs / globalVideoStats.totalFramesReceived);
     }
 
+    // Average decode time over the last stats window (about a second)
+    public float getRecentDecodeTimeMs() {
+        return recentDecodeTimeMs;
+    }
+
+    // Sheds optional work while the device is thermally throttling. A standby decoder is a
+    // second codec instance competing for the same hardware, so it's dropped until we recover.
+    public void setThermalThrottling(boolean throttling) {
+        if (thermalThrottling == throttling) {
+            return;
+        }
+        thermalThrottling = throttling;
+
+        StandbyDecoder standby = standbyDecoder;
+        if (standby != null) {
+            if (throttling) {
+                standby.suspend();
+            }
+            else {
+                standby.resume();
+            }
+        }
+    }
+
     public int getAverageDecoderLatency() {
         if (globalVideoStats.totalFramesReceived == 0) {
             return 0;
@@ -1879,16 +2609,46 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
     }
 
     public Boolean performanceWasTracked() {
-        return minDecodeTime < Float.MAX_VALUE;
+        return perfStatsFormatter.performanceWasTracked();
     }
 
     @SuppressLint("DefaultLocale")
     public String getMinDecoderLatency() {
-        return String.format("%1$.2f", minDecodeTime);
+        return String.format("%1$.2f", perfStatsFormatter.getMinDecodeTime());
+    }
+
+    // Session-wide tail latency in the form "p50/p95/p99/max" for each stage
+    public String getLatencyPercentileSummary() {
+        StringBuilder sb = new StringBuilder();
+        appendPercentiles(sb, "Network", FrameLatencyTracker.STAGE_NETWORK);
+        appendPercentiles(sb, "Submit", FrameLatencyTracker.STAGE_SUBMIT);
+        appendPercentiles(sb, "Decode", FrameLatencyTracker.STAGE_DECODE);
+        appendPercentiles(sb, "Render", FrameLatencyTracker.STAGE_RENDER);
+        appendPercentiles(sb, "End-to-end", FrameLatencyTracker.STAGE_END_TO_END);
+        appendPercentiles(sb, "Decode to display", FrameLatencyTracker.STAGE_DECODE_TO_DISPLAY);
+        if (latencyTracker.getSessionHistogram(FrameLatencyTracker.STAGE_DECODE_TO_DISPLAY).getCount() > 0) {
+            sb.append(", Frames dropped by display: ").append(globalVideoStats.framesDroppedByDisplay);
+        }
+        return sb.toString();
+    }
+
+    @SuppressLint("DefaultLocale")
+    private void appendPercentiles(StringBuilder sb, String name, int stage) {
+        LatencyHistogram histogram = latencyTracker.getSessionHistogram(stage);
+        if (histogram.getCount() == 0) {
+            return;
+        }
+
+        if (sb.length() > 0) {
+            sb.append(", ");
+        }
+        sb.append(String.format("%s p50/p95/p99/max: %.1f/%.1f/%.1f/%.1f ms", name,
+                histogram.getPercentileMs(50), histogram.getPercentileMs(95),
+                histogram.getPercentileMs(99), histogram.getMaxMs()));
     }
 
     public String getMinDecoderLatencyFullLog() {
-        return minDecodeTimeFullLog;
+        return perfStatsFormatter.getMinDecodeTimeFullLog();
     }
 
     static class DecoderHungException extends RuntimeException {
@@ -1991,7 +2751,18 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             str += "Input format: "+renderer.inputFormat+DELIMITER;
             str += "Output format: "+renderer.outputFormat+DELIMITER;
             str += "Adaptive playback: "+renderer.adaptivePlayback+DELIMITER;
+            str += "Async decoder: "+renderer.asyncDecoder+DELIMITER;
+            str += "Partial frame submission: "+renderer.partialFrameSubmission+DELIMITER;
             str += "GL Renderer: "+renderer.glRenderer+DELIMITER;
+            str += "Codec recoveries: "+renderer.codecRecoveries+" (last took "+renderer.lastCodecRecoveryTimeMs+" ms)"+DELIMITER;
+            if (renderer.standbyDecoder != null) {
+                str += "Standby decoder ready: "+renderer.standbyDecoder.isReady()+DELIMITER;
+            }
+            str += "Thermal throttling: "+renderer.thermalThrottling+DELIMITER;
+            if (renderer.backlogController != null) {
+                str += "Backlog resyncs: "+renderer.backlogController.getInterventions()+DELIMITER;
+            }
+            str += "Decoder capability cache hits/misses: "+renderer.decoderCapabilityCache.getHits()+", "+renderer.decoderCapabilityCache.getMisses()+DELIMITER;
             //str += "Build fingerprint: "+Build.FINGERPRINT+DELIMITER;
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
                 str += "SOC: "+Build.SOC_MANUFACTURER+" - "+Build.SOC_MODEL+DELIMITER;
@@ -2016,6 +2787,7 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             str += "FPS target: "+renderer.refreshRate+DELIMITER;
             str += "Bitrate: "+renderer.prefs.bitrate+" Kbps"+DELIMITER;
             str += "CSD stats: "+renderer.numVpsIn+", "+renderer.numSpsIn+", "+renderer.numPpsIn+DELIMITER;
+            str += "CSD cache hits/misses: "+renderer.globalVideoStats.csdCacheHits+", "+renderer.globalVideoStats.csdCacheMisses+DELIMITER;
             str += "Frames in-out: "+renderer.numFramesIn+", "+renderer.numFramesOut+DELIMITER;
             str += "Total frames received: "+renderer.globalVideoStats.totalFramesReceived+DELIMITER;
             str += "Total frames rendered: "+renderer.globalVideoStats.totalFramesRendered+DELIMITER;
@@ -2023,6 +2795,14 @@ public class MediaCodecDecoderRenderer extends VideoDecoderRenderer implements C
             str += "Average end-to-end client latency: "+renderer.getAverageEndToEndLatency()+"ms"+DELIMITER;
             str += "Average hardware decoder latency: "+renderer.getAverageDecoderLatency()+"ms"+DELIMITER;
             str += "Frame pacing mode: "+renderer.prefs.framePacing+DELIMITER;
+            str += "Performance hints (decode/render): "+
+                    (renderer.decodeHintSession != null && renderer.decodeHintSession.isActive())+", "+
+                    (renderer.renderHintSession != null && renderer.renderHintSession.isActive())+DELIMITER;
+            str += "Frame pacing queue rendered/evicted/caught up: "+renderer.outputBufferQueue.getRenderedCount()+", "+
+                    renderer.outputBufferQueue.getEvictedCount()+", "+renderer.outputBufferQueue.getCatchUpDroppedCount()+DELIMITER;
+            if (renderer.adaptivePacing != null) {
+                str += "Adaptive pacing depth/jitter/stutters: "+renderer.adaptivePacing.getDepth()+", "+renderer.adaptivePacing.getJitterMs()+"ms, "+renderer.adaptivePacing.getStutterCount()+DELIMITER;
+            }
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
                 if (originalException instanceof CodecException) {
@@ -39,6 +39,7 @@ public class MediaCodecHelper {
     private static final List<String> refFrameInvalidationAvcPrefixes;
     private static final List<String> refFrameInvalidationHevcPrefixes;
     private static final List<String> useFourSlicesPrefixes;
+    private static final List<String> partialFramePrefixes;
     private static final List<String> qualcommDecoderPrefixes;
     private static final List<String> kirinDecoderPrefixes;
     private static final List<String> exynosDecoderPrefixes;
@@ -214,6 +215,16 @@ public class MediaCodecHelper {
         // Old Qualcomm decoders are detected at runtime
     }
 
+    static {
+        partialFramePrefixes = new LinkedList<>();
+
+        // Decoders that accept a frame split across multiple input buffers with
+        // BUFFER_FLAG_PARTIAL_FRAME, so they can start decoding the first slices
+        // while we're still copying in the rest of the frame. None have been
+        // verified on real hardware yet, so this is empty for now and the setting
+        // stays hidden in StreamSettings until a decoder is added here.
+    }
+
     static {
         knownVendorLowLatencyOptions = new LinkedList<>();
 
@@ -650,6 +661,15 @@ public class MediaCodecHelper {
         return isDecoderInList(directSubmitPrefixes, decoderName) && !isExynos4Device();
     }
     
+    public static boolean decoderSupportsPartialFrames(String decoderName) {
+        // BUFFER_FLAG_PARTIAL_FRAME was added in Android O
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return false;
+        }
+
+        return isDecoderInList(partialFramePrefixes, decoderName);
+    }
+
     public static boolean decoderNeedsSpsBitstreamRestrictions(String decoderName) {
         return isDecoderInList(spsFixupBitstreamFixupDecoderPrefixes, decoderName);
     }
@@ -855,6 +875,26 @@ public class MediaCodecHelper {
         return false;
     }
     
+    // Looks up decoders by name with a single pass over MediaCodecList. The result has
+    // the same length as the names array, with null for names that weren't found.
+    public static MediaCodecInfo[] findDecodersByName(String[] decoderNames) {
+        MediaCodecInfo[] decoders = new MediaCodecInfo[decoderNames.length];
+        for (MediaCodecInfo codecInfo : getMediaCodecList()) {
+            // Skip encoders
+            if (codecInfo.isEncoder()) {
+                continue;
+            }
+
+            for (int i = 0; i < decoderNames.length; i++) {
+                if (codecInfo.getName().equals(decoderNames[i])) {
+                    decoders[i] = codecInfo;
+                }
+            }
+        }
+
+        return decoders;
+    }
+
     public static MediaCodecInfo findFirstDecoder(String mimeType) {
         for (MediaCodecInfo codecInfo : getMediaCodecList()) {
             // Skip encoders
@@ -886,6 +926,35 @@ public class MediaCodecHelper {
         return null;
     }
     
+    // Returns every usable decoder for this format in MediaCodecList order
+    public static List<MediaCodecInfo> findAllDecoders(String mimeType) {
+        List<MediaCodecInfo> decoders = new LinkedList<>();
+        for (MediaCodecInfo codecInfo : getMediaCodecList()) {
+            // Skip encoders
+            if (codecInfo.isEncoder()) {
+                continue;
+            }
+
+            // Skip compatibility aliases on Q+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                if (codecInfo.isAlias()) {
+                    continue;
+                }
+            }
+
+            for (String mime : codecInfo.getSupportedTypes()) {
+                if (mime.equalsIgnoreCase(mimeType)) {
+                    if (!isCodecBlacklisted(codecInfo)) {
+                        decoders.add(codecInfo);
+                    }
+                    break;
+                }
+            }
+        }
+
+        return decoders;
+    }
+
     public static MediaCodecInfo findProbableSafeDecoder(String mimeType, int requiredProfile) {
         // First look for a preferred decoder by name
         MediaCodecInfo info = findPreferredDecoder();
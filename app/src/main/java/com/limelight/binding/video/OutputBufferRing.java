@@ -0,0 +1,109 @@
+package com.limelight.binding.video;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Fixed-capacity ring of decoded output buffer indices passed from the thread that dequeues
+// them (renderer thread or codec callbacks) to the Choreographer thread for frame pacing.
+// There is a single producer and a single consumer, but the producer may also evict the
+// oldest entry when the ring is over its limit, so the head is advanced with CAS.
+// Nothing here allocates or locks.
+class OutputBufferRing {
+    private final int[] indices;
+    private final int mask;
+
+    // Monotonic positions. Only the producer writes the tail.
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    // [0] = entries evicted by the producer, [1] = entries the consumer rendered,
+    // [2] = entries the consumer dropped to catch up with the display
+    private final AtomicLongArray counters = new AtomicLongArray(3);
+
+    OutputBufferRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of 2: " + capacity);
+        }
+
+        indices = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    int capacity() {
+        return indices.length;
+    }
+
+    // Producer only. Adds an index, first evicting the oldest entries until fewer than 'limit'
+    // remain. Evicted indices are passed to the callback so the caller can release them.
+    void add(int index, int limit, EvictionCallback evictionCallback) {
+        // Always leave one free slot so we never overwrite an entry the consumer may be reading
+        limit = Math.max(1, Math.min(limit, indices.length - 1));
+
+        while (size() >= limit) {
+            int evicted = takeOldest();
+            if (evicted < 0) {
+                break;
+            }
+
+            counters.incrementAndGet(0);
+            evictionCallback.onEvicted(evicted);
+        }
+
+        long t = tail.get();
+        indices[(int) (t & mask)] = index;
+        tail.lazySet(t + 1);
+    }
+
+    // Consumer only. Returns the oldest index or -1 if the ring is empty.
+    int poll() {
+        return takeOldest();
+    }
+
+    // Consumer only. Records what happened to an entry returned by poll().
+    void onRendered() {
+        counters.incrementAndGet(1);
+    }
+
+    void onCatchUpDropped() {
+        counters.incrementAndGet(2);
+    }
+
+    private int takeOldest() {
+        for (;;) {
+            long h = head.get();
+            if (h == tail.get()) {
+                return -1;
+            }
+
+            int index = indices[(int) (h & mask)];
+            if (head.compareAndSet(h, h + 1)) {
+                return index;
+            }
+        }
+    }
+
+    int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    // Must only be called while both the producer and consumer are quiesced
+    void clear() {
+        head.set(tail.get());
+    }
+
+    long getEvictedCount() {
+        return counters.get(0);
+    }
+
+    long getRenderedCount() {
+        return counters.get(1);
+    }
+
+    long getCatchUpDroppedCount() {
+        return counters.get(2);
+    }
+
+    interface EvictionCallback {
+        void onEvicted(int index);
+    }
+}
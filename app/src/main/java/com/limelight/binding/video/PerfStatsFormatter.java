@@ -0,0 +1,268 @@
+package com.limelight.binding.video;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.net.TrafficStats;
+import android.os.Build;
+import android.os.Process;
+
+import com.limelight.LimeLog;
+import com.limelight.R;
+import com.limelight.binding.audio.AudioStats;
+import com.limelight.preferences.PreferenceConfiguration;
+import com.limelight.utils.TrafficStatsHelper;
+
+// Formats the performance overlay text on a low priority thread. The decoder submission thread
+// fills in a preallocated snapshot and publishes it. Snapshots are swapped between the writer,
+// the published slot, and the formatter, so publishing never allocates or waits on formatting.
+class PerfStatsFormatter {
+    private final Context context;
+    private final PreferenceConfiguration prefs;
+    private final PerfOverlayListener perfListener;
+
+    private PerfStatsSnapshot writeSnapshot = new PerfStatsSnapshot();
+    private PerfStatsSnapshot publishedSnapshot = new PerfStatsSnapshot();
+    private PerfStatsSnapshot formatSnapshot = new PerfStatsSnapshot();
+    private boolean snapshotPending;
+
+    private Thread formatterThread;
+
+    // Only touched by the formatter thread
+    private long lastNetDataNum;
+
+    private volatile float minDecodeTime = Float.MAX_VALUE;
+    private volatile String minDecodeTimeFullLog = "";
+
+    PerfStatsFormatter(Context context, PreferenceConfiguration prefs, PerfOverlayListener perfListener) {
+        this.context = context;
+        this.prefs = prefs;
+        this.perfListener = perfListener;
+    }
+
+    void start() {
+        formatterThread = new Thread() {
+            @Override
+            public void run() {
+                while (!isInterrupted()) {
+                    synchronized (PerfStatsFormatter.this) {
+                        while (!snapshotPending) {
+                            try {
+                                PerfStatsFormatter.this.wait();
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+
+                        PerfStatsSnapshot snapshot = formatSnapshot;
+                        formatSnapshot = publishedSnapshot;
+                        publishedSnapshot = snapshot;
+                        snapshotPending = false;
+                    }
+
+                    try {
+                        format(formatSnapshot);
+                    } catch (RuntimeException e) {
+                        // Don't let a formatting bug take the stream down with it
+                        LimeLog.warning("Failed to format performance stats: " + e);
+                    }
+                }
+            }
+        };
+        formatterThread.setName("Video - Stats Formatter");
+        formatterThread.setPriority(Thread.MIN_PRIORITY);
+        formatterThread.start();
+    }
+
+    void stop() {
+        if (formatterThread != null) {
+            formatterThread.interrupt();
+        }
+    }
+
+    // Returns the snapshot to fill in. This must only be called by the submission thread.
+    PerfStatsSnapshot getWriteSnapshot() {
+        return writeSnapshot;
+    }
+
+    // Publishes the snapshot returned by getWriteSnapshot(), replacing any snapshot
+    // that the formatter hasn't picked up yet.
+    synchronized void publish() {
+        PerfStatsSnapshot snapshot = publishedSnapshot;
+        publishedSnapshot = writeSnapshot;
+        writeSnapshot = snapshot;
+        snapshotPending = true;
+        notify();
+    }
+
+    boolean performanceWasTracked() {
+        return minDecodeTime < Float.MAX_VALUE;
+    }
+
+    float getMinDecodeTime() {
+        return minDecodeTime;
+    }
+
+    String getMinDecodeTimeFullLog() {
+        return minDecodeTimeFullLog;
+    }
+
+    @SuppressLint("DefaultLocale")
+    private void format(PerfStatsSnapshot snapshot) {
+        VideoStats lastTwo = snapshot.stats;
+        VideoStatsFps fps = lastTwo.getFps(snapshot.timestampMs);
+        float decodeTimeMs = (float)lastTwo.decoderTimeMs / lastTwo.totalFramesReceived;
+        long rttInfo = snapshot.rttInfo;
+
+        StringBuilder sb = new StringBuilder();
+        if(prefs.enablePerfOverlayLite){
+            if(TrafficStatsHelper.getPackageRxBytes(Process.myUid()) != TrafficStats.UNSUPPORTED){
+                long netData=TrafficStatsHelper.getPackageRxBytes(Process.myUid())+TrafficStatsHelper.getPackageTxBytes(Process.myUid());
+                if(lastNetDataNum!=0){
+                    sb.append(context.getString(R.string.perf_overlay_lite_bandwidth) + ": ");
+                    float realtimeNetData=(netData-lastNetDataNum)/1024f;
+                    if(realtimeNetData>=1000){
+                        sb.append(String.format("%.2f", realtimeNetData/1024f) +"M/s\t ");
+                    }else{
+                        sb.append(String.format("%.2f", realtimeNetData) +"K/s\t ");
+                    }
+                }
+                lastNetDataNum=netData;
+            }
+            sb.append(context.getString(R.string.perf_overlay_lite_network_decoding_delay) + ": ");
+            sb.append(context.getString(R.string.perf_overlay_lite_net,(int)(rttInfo >> 32)));
+            sb.append(" / ");
+            sb.append(context.getString(R.string.perf_overlay_lite_dectime,decodeTimeMs));
+            sb.append("\t");
+            sb.append(context.getString(R.string.perf_overlay_lite_packet_loss) + ": ");
+            sb.append(context.getString(R.string.perf_overlay_lite_netdrops,(float)lastTwo.framesLost / lastTwo.totalFrames * 100));
+            sb.append("\t FPS：");
+            sb.append(context.getString(R.string.perf_overlay_lite_fps,fps.totalFps));
+        }else{
+            sb.append(context.getString(R.string.perf_overlay_streamdetails, snapshot.width + "x" + snapshot.height, fps.totalFps)).append('\n');
+            sb.append(context.getString(R.string.perf_overlay_decoder, snapshot.decoderName)).append('\n');
+            sb.append(context.getString(R.string.perf_overlay_incomingfps, fps.receivedFps)).append('\n');
+            sb.append(context.getString(R.string.perf_overlay_renderingfps, fps.renderedFps)).append('\n');
+            if (prefs.framePacing == PreferenceConfiguration.FRAME_PACING_BALANCED ||
+                    prefs.framePacing == PreferenceConfiguration.FRAME_PACING_ADAPTIVE) {
+                sb.append(context.getString(R.string.perf_overlay_pacingdrops,
+                        lastTwo.totalFramesRendered, lastTwo.framesDroppedByPacing,
+                        lastTwo.framesDroppedByCatchUp)).append('\n');
+                sb.append(context.getString(R.string.perf_overlay_frametimingmisses, lastTwo.frameTimingMisses)).append('\n');
+            }
+            if (prefs.framePacing == PreferenceConfiguration.FRAME_PACING_ADAPTIVE) {
+                sb.append(context.getString(R.string.perf_overlay_adaptivepacing,
+                        snapshot.pacingDepth, snapshot.pacingJitterMs)).append('\n');
+            }
+            sb.append(context.getString(R.string.perf_overlay_netdrops,
+                    (float)lastTwo.framesLost / lastTwo.totalFrames * 100)).append('\n');
+            if (snapshot.codecRecoveries > 0) {
+                sb.append(context.getString(R.string.perf_overlay_codecrecoveries,
+                        snapshot.codecRecoveries, snapshot.lastCodecRecoveryTimeMs)).append('\n');
+            }
+            if (lastTwo.backlogResyncs > 0) {
+                sb.append(context.getString(R.string.perf_overlay_backlogresyncs, lastTwo.backlogResyncs)).append('\n');
+            }
+            if(TrafficStatsHelper.getPackageRxBytes(Process.myUid()) != TrafficStats.UNSUPPORTED){
+                long netData=TrafficStatsHelper.getPackageRxBytes(Process.myUid())+TrafficStatsHelper.getPackageTxBytes(Process.myUid());
+                if(lastNetDataNum!=0){
+                    sb.append(context.getString(R.string.perf_overlay_lite_bandwidth) + ": ");
+                    float realtimeNetData=(netData-lastNetDataNum)/1024f;
+                    if(realtimeNetData>=1000){
+                        sb.append(String.format("%.2f", realtimeNetData/1024f) +"M/s\n");
+                    }else{
+                        sb.append(String.format("%.2f", realtimeNetData) +"K/s\n");
+                    }
+                }
+                lastNetDataNum=netData;
+            }
+            sb.append(context.getString(R.string.perf_overlay_netlatency,
+                    (int)(rttInfo >> 32), (int)rttInfo)).append('\n');
+            if (lastTwo.framesWithHostProcessingLatency > 0) {
+                sb.append(context.getString(R.string.perf_overlay_hostprocessinglatency,
+                        (float)lastTwo.minHostProcessingLatency / 10,
+                        (float)lastTwo.maxHostProcessingLatency / 10,
+                        (float)lastTwo.totalHostProcessingLatency / 10 / lastTwo.framesWithHostProcessingLatency)).append('\n');
+            }
+            sb.append(context.getString(R.string.perf_overlay_dectime, decodeTimeMs));
+            if (snapshot.decodeLatency.getCount() > 0) {
+                sb.append('\n');
+                sb.append(context.getString(R.string.perf_overlay_dectime_percentiles,
+                        snapshot.decodeLatency.getPercentileMs(50), snapshot.decodeLatency.getPercentileMs(95),
+                        snapshot.decodeLatency.getPercentileMs(99), snapshot.decodeLatency.getMaxMs()));
+            }
+            if (snapshot.endToEndLatency.getCount() > 0) {
+                sb.append('\n');
+                sb.append(context.getString(R.string.perf_overlay_e2e_percentiles,
+                        snapshot.endToEndLatency.getPercentileMs(50), snapshot.endToEndLatency.getPercentileMs(95),
+                        snapshot.endToEndLatency.getPercentileMs(99), snapshot.endToEndLatency.getMaxMs()));
+            }
+            if (snapshot.displayLatency.getCount() > 0) {
+                sb.append('\n');
+                sb.append(context.getString(R.string.perf_overlay_display_percentiles,
+                        snapshot.displayLatency.getPercentileMs(50), snapshot.displayLatency.getPercentileMs(95),
+                        snapshot.displayLatency.getPercentileMs(99), snapshot.displayLatency.getMaxMs()));
+                sb.append('\n');
+                sb.append(context.getString(R.string.perf_overlay_displaydrops, lastTwo.framesDroppedByDisplay));
+            }
+            if (lastTwo.totalFramesReceived > 0) {
+                sb.append('\n');
+                sb.append(context.getString(R.string.perf_overlay_bytescopied,
+                        (float)lastTwo.bytesCopied / 1024 / lastTwo.totalFramesReceived,
+                        (float)lastTwo.directSubmitFrames / lastTwo.totalFramesReceived * 100));
+            }
+            if (lastTwo.partialFrames > 0) {
+                sb.append('\n');
+                sb.append(context.getString(R.string.perf_overlay_partialframes,
+                        (float)lastTwo.partialFrameBuffers / lastTwo.partialFrames));
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                sb.append('\n');
+                sb.append(context.getString(R.string.perf_overlay_perfhints,
+                        context.getString(snapshot.decodeHintActive ? R.string.perf_overlay_perfhint_on : R.string.perf_overlay_perfhint_off),
+                        context.getString(snapshot.renderHintActive ? R.string.perf_overlay_perfhint_on : R.string.perf_overlay_perfhint_off)));
+            }
+            if (lastTwo.csdCacheHits + lastTwo.csdCacheMisses > 0) {
+                sb.append('\n');
+                sb.append(context.getString(R.string.perf_overlay_csdcache, lastTwo.csdCacheHits, lastTwo.csdCacheMisses));
+            }
+            if (snapshot.hasAudioStats) {
+                AudioStats audio = snapshot.audioStats;
+                sb.append('\n');
+                sb.append(context.getString(R.string.perf_overlay_audio,
+                        audio.outputLatencyMs, audio.packetsPlayed, audio.packetsDropped, audio.underruns,
+                        audio.maxWriteBlockUs / 1000.0f));
+            }
+        }
+        String fullLog = sb.toString();
+        if(prefs.enablePerfOverlay) {
+            perfListener.onPerfUpdate(fullLog);
+        }
+        // Best latency is only met at requested highest fps, rest can be ignored
+        boolean targetFpsMatched = ((int) fps.totalFps == (int) prefs.fps);
+        if(minDecodeTime > decodeTimeMs && targetFpsMatched) {
+            minDecodeTimeFullLog = fullLog;
+            minDecodeTime = decodeTimeMs;
+        }
+    }
+}
+
+class PerfStatsSnapshot {
+
+    final VideoStats stats = new VideoStats();
+    final LatencyHistogram decodeLatency = new LatencyHistogram();
+    final LatencyHistogram endToEndLatency = new LatencyHistogram();
+    final LatencyHistogram displayLatency = new LatencyHistogram();
+    final AudioStats audioStats = new AudioStats();
+    boolean hasAudioStats;
+    long timestampMs;
+    long rttInfo;
+    String decoderName;
+    int width;
+    int height;
+    int pacingDepth;
+    float pacingJitterMs;
+    boolean decodeHintActive;
+    boolean renderHintActive;
+    int codecRecoveries;
+    long lastCodecRecoveryTimeMs;
+}
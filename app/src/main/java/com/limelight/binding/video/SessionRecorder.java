@@ -0,0 +1,395 @@
+package com.limelight.binding.video;
+
+import android.content.Context;
+
+import com.limelight.LimeLog;
+import com.limelight.binding.audio.AudioStats;
+import com.limelight.nvstream.jni.MoonBridge;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+// Records a fixed-size entry for every frame of a stream to memory-mapped segment files.
+// The decoder thread only copies the values into an in-memory ring. A background thread
+// moves them into the mapped file and keeps the running totals for the session summary.
+//
+// The log is split into segments of bounded size. When the last segment is full, the
+// oldest one is deleted, so a long session keeps only its most recent frames on disk.
+// Only the last session is kept.
+public class SessionRecorder {
+    private static final String DIRECTORY_NAME = "perf_sessions";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".bin";
+    private static final String SUMMARY_NAME = "summary.txt";
+    private static final String CSV_NAME = "perf_session.csv";
+
+    private static final int MAGIC = 0x4D4C5052; // "MLPR"
+    private static final short VERSION = 1;
+
+    // Header: magic, version, record size, start wall time, start uptime, record count, sequence
+    static final int HEADER_SIZE = 32;
+    private static final int HEADER_RECORD_COUNT_OFFSET = 24;
+    private static final int HEADER_SEQUENCE_OFFSET = 28;
+
+    // Record: frame number, receive time, enqueue delay, queue delay, size,
+    // host latency, frames lost, frame type, padding
+    static final int RECORD_SIZE = 32;
+
+    // 4 segments of 4 MB hold about 2 hours at 60 FPS
+    private static final int DEFAULT_SEGMENT_RECORDS = (4 * 1024 * 1024 - HEADER_SIZE) / RECORD_SIZE;
+    private static final int DEFAULT_MAX_SEGMENTS = 4;
+
+    // Enough for a few seconds at high frame rates if the writer is delayed
+    private static final int RING_RECORDS = 1024;
+    private static final long WRITER_INTERVAL_MS = 250;
+
+    private final File directory;
+    private final int segmentRecords;
+    private final int maxSegments;
+
+    // Written by the decoder thread and read by the writer thread
+    private final ByteBuffer ring = ByteBuffer.allocate(RING_RECORDS * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private volatile long ringWriteCount;
+    private volatile long ringReadCount;
+    private volatile long droppedRecords;
+
+    // Only touched by the writer thread after start
+    private RandomAccessFile segmentFile;
+    private MappedByteBuffer segmentBuffer;
+    private int segmentSequence;
+    private int segmentRecordCount;
+    private final long startWallTimeMs = System.currentTimeMillis();
+    private long startUptimeMs = -1;
+
+    private long totalRecords;
+    private long totalFramesLost;
+    private long totalBytes;
+    private long totalHostLatency;
+    private int maxHostLatency;
+    private int idrFrames;
+    private long lastReceiveTimeMs;
+
+    // Audio totals, accumulated from the per-second audio stats windows
+    private long audioPackets;
+    private long audioPacketsDropped;
+    private long audioUnderruns;
+    private long audioMaxWriteBlockUs;
+    private double audioTotalLatencyMs;
+    private float audioMaxLatencyMs;
+    private int audioWindows;
+
+    private final Thread writerThread;
+    private volatile boolean stopping;
+    private boolean closed;
+
+    public SessionRecorder(Context context) throws IOException {
+        this(getDirectory(context), DEFAULT_SEGMENT_RECORDS, DEFAULT_MAX_SEGMENTS);
+    }
+
+    SessionRecorder(File directory, int segmentRecords, int maxSegments) throws IOException {
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        this.maxSegments = maxSegments;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create "+directory);
+        }
+
+        // Throw away the previous session
+        File[] oldFiles = directory.listFiles();
+        if (oldFiles != null) {
+            for (File file : oldFiles) {
+                file.delete();
+            }
+        }
+
+        openSegment();
+
+        writerThread = new Thread() {
+            @Override
+            public void run() {
+                while (!stopping) {
+                    drain();
+                    try {
+                        Thread.sleep(WRITER_INTERVAL_MS);
+                    } catch (InterruptedException e) {
+                        // close() wakes us up to do the final drain
+                        break;
+                    }
+                }
+            }
+        };
+        writerThread.setName("Video - Session Recorder");
+        writerThread.setPriority(Thread.MIN_PRIORITY);
+        writerThread.start();
+    }
+
+    private static File getDirectory(Context context) {
+        return new File(context.getFilesDir(), DIRECTORY_NAME);
+    }
+
+    // Called on the decoder thread for each frame. This never blocks or allocates. If the
+    // writer can't keep up, the record is dropped.
+    public void record(int frameNumber, long receiveTimeMs, long enqueueTimeMs, long submitTimeMs,
+                       int frameSize, int frameType, int framesLost, char hostProcessingLatency) {
+        long writeCount = ringWriteCount;
+        if (writeCount - ringReadCount >= RING_RECORDS) {
+            droppedRecords++;
+            return;
+        }
+
+        int offset = (int) (writeCount % RING_RECORDS) * RECORD_SIZE;
+        ring.putInt(offset, frameNumber);
+        ring.putLong(offset + 4, receiveTimeMs);
+        ring.putInt(offset + 12, (int) (enqueueTimeMs - receiveTimeMs));
+        ring.putInt(offset + 16, (int) (submitTimeMs - enqueueTimeMs));
+        ring.putInt(offset + 20, frameSize);
+        ring.putChar(offset + 24, hostProcessingLatency);
+        ring.putShort(offset + 26, (short) Math.min(framesLost, Short.MAX_VALUE));
+        ring.put(offset + 28, (byte) frameType);
+
+        // Publishes the record to the writer thread
+        ringWriteCount = writeCount + 1;
+    }
+
+    private void drain() {
+        long readCount = ringReadCount;
+        long writeCount = ringWriteCount;
+
+        while (readCount < writeCount) {
+            int offset = (int) (readCount % RING_RECORDS) * RECORD_SIZE;
+
+            if (segmentRecordCount == segmentRecords) {
+                try {
+                    rotateSegment();
+                } catch (IOException e) {
+                    LimeLog.warning("Session recorder failed to rotate: "+e.getMessage());
+                    stopping = true;
+                    return;
+                }
+            }
+
+            accumulate(offset);
+
+            // The mapped buffer shares the ring's layout, so the record is copied as-is
+            int position = HEADER_SIZE + segmentRecordCount * RECORD_SIZE;
+            for (int i = 0; i < RECORD_SIZE; i += 8) {
+                segmentBuffer.putLong(position + i, ring.getLong(offset + i));
+            }
+            segmentRecordCount++;
+
+            readCount++;
+        }
+
+        ringReadCount = readCount;
+        segmentBuffer.putInt(HEADER_RECORD_COUNT_OFFSET, segmentRecordCount);
+    }
+
+    private void accumulate(int offset) {
+        long receiveTimeMs = ring.getLong(offset + 4);
+        int hostLatency = ring.getChar(offset + 24);
+
+        if (startUptimeMs < 0) {
+            startUptimeMs = receiveTimeMs;
+            segmentBuffer.putLong(16, startUptimeMs);
+        }
+        lastReceiveTimeMs = receiveTimeMs;
+
+        totalRecords++;
+        totalBytes += ring.getInt(offset + 20);
+        totalFramesLost += ring.getShort(offset + 26);
+        totalHostLatency += hostLatency;
+        maxHostLatency = Math.max(maxHostLatency, hostLatency);
+        if (ring.get(offset + 28) == MoonBridge.FRAME_TYPE_IDR) {
+            idrFrames++;
+        }
+    }
+
+    private void openSegment() throws IOException {
+        File file = new File(directory, String.format(Locale.US, "%s%05d%s", SEGMENT_PREFIX, segmentSequence, SEGMENT_SUFFIX));
+        segmentFile = new RandomAccessFile(file, "rw");
+        segmentBuffer = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_SIZE + (long) segmentRecords * RECORD_SIZE);
+        segmentBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        segmentRecordCount = 0;
+
+        segmentBuffer.putInt(0, MAGIC);
+        segmentBuffer.putShort(4, VERSION);
+        segmentBuffer.putShort(6, (short) RECORD_SIZE);
+        segmentBuffer.putLong(8, startWallTimeMs);
+        segmentBuffer.putLong(16, startUptimeMs);
+        segmentBuffer.putInt(HEADER_RECORD_COUNT_OFFSET, 0);
+        segmentBuffer.putInt(HEADER_SEQUENCE_OFFSET, segmentSequence);
+    }
+
+    private void closeSegment() {
+        segmentBuffer.putInt(HEADER_RECORD_COUNT_OFFSET, segmentRecordCount);
+        segmentBuffer.force();
+        try {
+            segmentFile.close();
+        } catch (IOException ignored) {}
+    }
+
+    private void rotateSegment() throws IOException {
+        closeSegment();
+
+        // Delete the oldest segment to stay within our size bound
+        File oldest = new File(directory, String.format(Locale.US, "%s%05d%s",
+                SEGMENT_PREFIX, segmentSequence + 1 - maxSegments, SEGMENT_SUFFIX));
+        if (oldest.exists()) {
+            oldest.delete();
+        }
+
+        segmentSequence++;
+        openSegment();
+    }
+
+    // Stops the writer, flushes the remaining records, and writes the session summary
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        stopping = true;
+        writerThread.interrupt();
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+
+            // InterruptedException clears the thread's interrupt status. Since we can't
+            // handle that here, we will re-interrupt the thread to set the interrupt
+            // status back to true.
+            Thread.currentThread().interrupt();
+        }
+
+        drain();
+        closeSegment();
+
+        String summary = getSummary();
+        LimeLog.info(summary);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, SUMMARY_NAME)), StandardCharsets.UTF_8)) {
+            writer.write(summary);
+        } catch (IOException e) {
+            LimeLog.warning("Unable to write session summary: "+e.getMessage());
+        }
+    }
+
+    // Called on the decoder thread with each audio stats window
+    synchronized void recordAudio(AudioStats window) {
+        audioPackets += window.packetsPlayed;
+        audioPacketsDropped += window.packetsDropped;
+        audioUnderruns += window.underruns;
+        audioMaxWriteBlockUs = Math.max(audioMaxWriteBlockUs, window.maxWriteBlockUs);
+        audioTotalLatencyMs += window.outputLatencyMs;
+        audioMaxLatencyMs = Math.max(audioMaxLatencyMs, window.outputLatencyMs);
+        audioWindows++;
+    }
+
+    synchronized String getSummary() {
+        String summary = getVideoSummary();
+        if (audioWindows != 0) {
+            summary += String.format(Locale.US,
+                    "\nAudio: %d packets, %d dropped, %d underruns, max write block %.1f ms, " +
+                            "output latency average %.1f ms max %.1f ms",
+                    audioPackets, audioPacketsDropped, audioUnderruns, audioMaxWriteBlockUs / 1000.0,
+                    audioTotalLatencyMs / audioWindows, audioMaxLatencyMs);
+        }
+        return summary;
+    }
+
+    private String getVideoSummary() {
+        long durationMs = totalRecords != 0 ? lastReceiveTimeMs - startUptimeMs : 0;
+        return String.format(Locale.US,
+                "Session: %d frames over %.1f s, %d lost, %d IDR, average size %d bytes, " +
+                        "host latency average %.1f ms max %.1f ms, %d records dropped, %d segments",
+                totalRecords, durationMs / 1000.0, totalFramesLost, idrFrames,
+                totalRecords != 0 ? totalBytes / totalRecords : 0,
+                totalRecords != 0 ? totalHostLatency / 10.0 / totalRecords : 0,
+                maxHostLatency / 10.0, droppedRecords, Math.min(segmentSequence + 1, maxSegments));
+    }
+
+    // Returns the summary of the last session, or null if there is none
+    public static String readSummary(Context context) {
+        File file = new File(getDirectory(context), SUMMARY_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            return new String(data, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Converts the last session's log to CSV in the cache directory. Returns null if there
+    // is no log to export.
+    public static File exportCsv(Context context) throws IOException {
+        File csvFile = new File(context.getCacheDir(), CSV_NAME);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(csvFile), StandardCharsets.UTF_8)) {
+            if (writeCsv(getDirectory(context), writer) == 0) {
+                csvFile.delete();
+                return null;
+            }
+        }
+        return csvFile;
+    }
+
+    // Returns the number of records written
+    static int writeCsv(File directory, Writer writer) throws IOException {
+        File[] segments = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (segments == null || segments.length == 0) {
+            return 0;
+        }
+
+        // Segment names sort in sequence order
+        Arrays.sort(segments);
+
+        writer.write("frame,receive_time_ms,enqueue_delay_ms,queue_delay_ms,size_bytes,host_latency_ms,frames_lost,frame_type\n");
+
+        int records = 0;
+        for (File segment : segments) {
+            try (RandomAccessFile raf = new RandomAccessFile(segment, "r")) {
+                ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+                if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getShort(6) != RECORD_SIZE) {
+                    LimeLog.warning("Skipping invalid session segment: "+segment.getName());
+                    continue;
+                }
+
+                int count = Math.min(buffer.getInt(HEADER_RECORD_COUNT_OFFSET),
+                        (buffer.limit() - HEADER_SIZE) / RECORD_SIZE);
+                for (int i = 0; i < count; i++) {
+                    int offset = HEADER_SIZE + i * RECORD_SIZE;
+                    writer.write(String.format(Locale.US, "%d,%d,%d,%d,%d,%.1f,%d,%s\n",
+                            buffer.getInt(offset),
+                            buffer.getLong(offset + 4),
+                            buffer.getInt(offset + 12),
+                            buffer.getInt(offset + 16),
+                            buffer.getInt(offset + 20),
+                            buffer.getChar(offset + 24) / 10.0,
+                            buffer.getShort(offset + 26),
+                            buffer.get(offset + 28) == MoonBridge.FRAME_TYPE_IDR ? "IDR" : "P"));
+                    records++;
+                }
+            }
+        }
+
+        return records;
+    }
+}
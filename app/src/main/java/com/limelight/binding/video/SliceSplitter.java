@@ -0,0 +1,55 @@
+package com.limelight.binding.video;
+
+// Finds where each slice starts in an Annex B H.264 or HEVC access unit, so the slices can be
+// submitted to the decoder as separate partial frame buffers. Non-slice NAL units (AUD, SEI)
+// stay attached to the slice that follows them. Emulation prevention guarantees that a start
+// code never appears inside a NAL unit, so a plain scan is enough.
+class SliceSplitter {
+    private SliceSplitter() {}
+
+    // Fills offsets with the start of each chunk to submit and returns the number of chunks.
+    // The first chunk always starts at offset 0. Chunks past the size of offsets are merged
+    // into the last one.
+    static int findSliceOffsets(byte[] data, int length, boolean hevc, int[] offsets) {
+        int count = 0;
+        boolean seenSlice = false;
+
+        offsets[count++] = 0;
+        for (int i = 0; i + 3 < length; i++) {
+            // Look for a 3-byte start code (a 4-byte start code ends with one)
+            if (data[i] != 0 || data[i + 1] != 0 || data[i + 2] != 1) {
+                continue;
+            }
+
+            int nalStart = i;
+            if (i > 0 && data[i - 1] == 0) {
+                nalStart = i - 1;
+            }
+
+            if (isSliceNal(data[i + 3], hevc)) {
+                // Split before every slice except the first one
+                if (seenSlice && count < offsets.length) {
+                    offsets[count++] = nalStart;
+                }
+                seenSlice = true;
+            }
+
+            i += 2;
+        }
+
+        return count;
+    }
+
+    private static boolean isSliceNal(byte header, boolean hevc) {
+        if (hevc) {
+            // VCL NAL unit types are 0-31
+            int type = (header >> 1) & 0x3F;
+            return type < 32;
+        }
+        else {
+            // Non-IDR and IDR coded slices
+            int type = header & 0x1F;
+            return type == 1 || type == 5;
+        }
+    }
+}
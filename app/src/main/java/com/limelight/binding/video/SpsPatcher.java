@@ -0,0 +1,213 @@
+package com.limelight.binding.video;
+
+import com.limelight.LimeLog;
+
+import org.jcodec.codecs.h264.H264Utils;
+import org.jcodec.codecs.h264.io.model.SeqParameterSet;
+import org.jcodec.codecs.h264.io.model.VUIParameters;
+
+import java.nio.ByteBuffer;
+
+// Rewrites the H.264 SPS from the host so the decoder buffers as little as possible. The
+// renderer fills in what it knows about the stream and the decoder before each use.
+class SpsPatcher {
+    int width;
+    int height;
+    int refreshRate;
+
+    // Reference frame invalidation needs the host's level and reference frame count
+    boolean refFrameInvalidationActive;
+
+    // Drop the colour info added by GFE 2.5.11 for old devices that choke on it
+    boolean stripVideoSignalInfo;
+
+    // Add bitstream restrictions to tell the decoder it doesn't need to buffer frames
+    boolean addBitstreamRestrictions;
+
+    // Use the most aggressive max_bytes_per_pic_denom and max_bits_per_mb_denom
+    boolean defaultBitstreamDenominators;
+
+    boolean constrainedHighProfile;
+
+    // The SPS hacked to Baseline profile by patchNalu(), kept for the renderer to replay
+    // with the real profile once the decoder has been configured
+    SeqParameterSet baselineSps;
+
+    private final CsdCache cache = new CsdCache();
+
+    // Parses the SPS NALU that follows a start sequence of the given length
+    static SeqParameterSet parse(byte[] nalu, int startSeqLen) {
+        ByteBuffer spsBuf = ByteBuffer.wrap(nalu);
+
+        // Skip to the start of the NALU data
+        spsBuf.position(startSeqLen + 1);
+
+        // The H264Utils.readSPS function safely handles
+        // Annex B NALUs (including NALUs with escape sequences)
+        return H264Utils.readSPS(spsBuf);
+    }
+
+    // Serializes the SPS behind the original start sequence and NALU header
+    static byte[] write(SeqParameterSet sps, byte[] originalNalu, int startSeqLen, int originalLength) {
+        // The H264Utils.writeSPS function safely handles
+        // Annex B NALUs (including NALUs with escape sequences)
+        ByteBuffer escapedNalu = H264Utils.writeSPS(sps, originalLength);
+
+        byte[] naluBuffer = new byte[startSeqLen + 1 + escapedNalu.limit()];
+        System.arraycopy(originalNalu, 0, naluBuffer, 0, startSeqLen + 1);
+        escapedNalu.get(naluBuffer, startSeqLen + 1, escapedNalu.limit());
+        return naluBuffer;
+    }
+
+    // Returns the patched NALU from an earlier patchNalu() call for the same SPS from the
+    // host, or null if it has to be patched
+    byte[] getCachedNalu(byte[] nalu, int length) {
+        return cache.get(nalu, length);
+    }
+
+    // Parses, patches and serializes an SPS NALU from the host. With baselineSpsHack, the
+    // SPS claims Baseline profile and is saved in baselineSps instead of being cached, since
+    // every SPS after the replay must keep the host's real profile.
+    byte[] patchNalu(byte[] nalu, int length, boolean baselineSpsHack) {
+        int startSeqLen = nalu[2] == 0x01 ? 3 : 4;
+        SeqParameterSet sps = parse(nalu, startSeqLen);
+
+        patch(sps);
+
+        // If we need to hack this SPS to say we're baseline, do so now
+        if (baselineSpsHack) {
+            LimeLog.info("Hacking SPS to baseline");
+            sps.profileIdc = 66;
+            baselineSps = sps;
+        }
+
+        // Patch the SPS constraint flags
+        patchProfileConstraints(sps);
+
+        byte[] naluBuffer = write(sps, nalu, startSeqLen, length);
+        if (!baselineSpsHack) {
+            cache.put(nalu, length, naluBuffer);
+        }
+        return naluBuffer;
+    }
+
+    // Forgets cached SPS NALUs, since they depend on the patch settings
+    void clearCache() {
+        cache.clear();
+        baselineSps = null;
+    }
+
+    void patch(SeqParameterSet sps) {
+        // Some decoders rely on H264 level to decide how many buffers are needed
+        // Since we only need one frame buffered, we'll set the level as low as we can
+        // for known resolution combinations. Reference frame invalidation may need
+        // these, so leave them be for those decoders.
+        if (!refFrameInvalidationActive) {
+            if (width <= 720 && height <= 480 && refreshRate <= 60) {
+                // Max 5 buffered frames at 720x480x60
+                LimeLog.info("Patching level_idc to 31");
+                sps.levelIdc = 31;
+            }
+            else if (width <= 1280 && height <= 720 && refreshRate <= 60) {
+                // Max 5 buffered frames at 1280x720x60
+                LimeLog.info("Patching level_idc to 32");
+                sps.levelIdc = 32;
+            }
+            else if (width <= 1920 && height <= 1080 && refreshRate <= 60) {
+                // Max 4 buffered frames at 1920x1080x64
+                LimeLog.info("Patching level_idc to 42");
+                sps.levelIdc = 42;
+            }
+            else {
+                // Leave the profile alone (currently 5.0)
+            }
+        }
+
+        // TI OMAP4 requires a reference frame count of 1 to decode successfully. Exynos 4
+        // also requires this fixup.
+        //
+        // I'm doing this fixup for all devices because I haven't seen any devices that
+        // this causes issues for. At worst, it seems to do nothing and at best it fixes
+        // issues with video lag, hangs, and crashes.
+        //
+        // It does break reference frame invalidation, so we will not do that for decoders
+        // where we've enabled reference frame invalidation.
+        if (!refFrameInvalidationActive) {
+            LimeLog.info("Patching num_ref_frames in SPS");
+            sps.numRefFrames = 1;
+        }
+
+        // GFE 2.5.11 changed the SPS to add additional extensions. Some devices don't like these
+        // so we remove them here on old devices unless these devices also support HEVC.
+        // See getPreferredColorSpace() for further information.
+        if (stripVideoSignalInfo && sps.vuiParams != null) {
+            sps.vuiParams.videoSignalTypePresentFlag = false;
+            sps.vuiParams.colourDescriptionPresentFlag = false;
+            sps.vuiParams.chromaLocInfoPresentFlag = false;
+        }
+
+        // Some older devices used to choke on a bitstream restrictions, so we won't provide them
+        // unless explicitly whitelisted. For newer devices, leave the bitstream restrictions present.
+        if (addBitstreamRestrictions) {
+            // The SPS that comes in the current H264 bytestream doesn't set bitstream_restriction_flag
+            // or max_dec_frame_buffering which increases decoding latency on Tegra.
+
+            // If the encoder didn't include VUI parameters in the SPS, add them now
+            if (sps.vuiParams == null) {
+                LimeLog.info("Adding VUI parameters");
+                sps.vuiParams = new VUIParameters();
+            }
+
+            // GFE 2.5.11 started sending bitstream restrictions
+            if (sps.vuiParams.bitstreamRestriction == null) {
+                LimeLog.info("Adding bitstream restrictions");
+                sps.vuiParams.bitstreamRestriction = new VUIParameters.BitstreamRestriction();
+                sps.vuiParams.bitstreamRestriction.motionVectorsOverPicBoundariesFlag = true;
+                sps.vuiParams.bitstreamRestriction.maxBytesPerPicDenom = 2;
+                sps.vuiParams.bitstreamRestriction.maxBitsPerMbDenom = 1;
+                sps.vuiParams.bitstreamRestriction.log2MaxMvLengthHorizontal = 16;
+                sps.vuiParams.bitstreamRestriction.log2MaxMvLengthVertical = 16;
+                sps.vuiParams.bitstreamRestriction.numReorderFrames = 0;
+            }
+            else {
+                LimeLog.info("Patching bitstream restrictions");
+            }
+
+            // Some devices throw errors if maxDecFrameBuffering < numRefFrames
+            sps.vuiParams.bitstreamRestriction.maxDecFrameBuffering = sps.numRefFrames;
+
+            // These values are the defaults for the fields, but they are more aggressive
+            // than what GFE sends in 2.5.11, but it doesn't seem to cause picture problems.
+            // We'll leave these alone for "modern" devices just in case they care.
+            if (defaultBitstreamDenominators) {
+                sps.vuiParams.bitstreamRestriction.maxBytesPerPicDenom = 2;
+                sps.vuiParams.bitstreamRestriction.maxBitsPerMbDenom = 1;
+            }
+
+            // log2_max_mv_length_horizontal and log2_max_mv_length_vertical are set to more
+            // conservative values by GFE 2.5.11. We'll let those values stand.
+        }
+        else if (sps.vuiParams != null) {
+            // Devices that didn't/couldn't get bitstream restrictions before GFE 2.5.11
+            // will continue to not receive them now
+            sps.vuiParams.bitstreamRestriction = null;
+        }
+    }
+
+    void patchProfileConstraints(SeqParameterSet sps) {
+        // Some devices benefit from setting constraint flags 4 & 5 to make this Constrained
+        // High Profile which allows the decoder to assume there will be no B-frames and
+        // reduce delay and buffering accordingly. Some devices (Marvell, Exynos 4) don't
+        // like it so we only set them on devices that are confirmed to benefit from it.
+        if (sps.profileIdc == 100 && constrainedHighProfile) {
+            LimeLog.info("Setting constraint set flags for constrained high profile");
+            sps.constraintSet4Flag = true;
+            sps.constraintSet5Flag = true;
+        }
+        else {
+            // Force the constraints unset otherwise (some may be set by default)
+            sps.constraintSet4Flag = false;
+            sps.constraintSet5Flag = false;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.limelight.binding.video;
+
+import android.annotation.TargetApi;
+import android.graphics.SurfaceTexture;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.Surface;
+
+import com.limelight.LimeLog;
+
+import java.io.IOException;
+
+// Keeps a spare decoder instance configured and ready to replace the active one. Creating and
+// configuring a codec from scratch can stall video for over 500 ms on some devices, so a codec
+// reset can instead swap in the spare, point it at the real surface, and start it.
+//
+// A surface can only be connected to one codec at a time, so the spare is configured against a
+// placeholder surface and moved to the real one with setOutputSurface() when it's swapped in.
+// The spare is built on a background thread and is never started until it's taken.
+@TargetApi(Build.VERSION_CODES.M)
+class StandbyDecoder {
+    private final String decoderName;
+    private final SurfaceTexture placeholderTexture;
+    private final Surface placeholderSurface;
+
+    // Guarded by this
+    private MediaCodec spareCodec;
+    private MediaFormat spareFormat;
+    private MediaFormat pendingFormat;
+    private int generation;
+    private boolean released;
+    private boolean suspended;
+
+    // The last build request, so a suspended spare can be rebuilt on resume
+    private MediaFormat lastFormat;
+    private MediaCodec.Callback lastCallback;
+    private Handler lastHandler;
+
+    StandbyDecoder(String decoderName) {
+        this.decoderName = decoderName;
+
+        // Nothing is ever drawn to this texture, so it doesn't need a GL context
+        this.placeholderTexture = new SurfaceTexture(0);
+        this.placeholderSurface = new Surface(placeholderTexture);
+    }
+
+    // Builds a new spare with this format in the background, replacing any existing spare.
+    // The callback (if any) must be set before configure(), so it's passed in here.
+    synchronized void rebuild(final MediaFormat format, final MediaCodec.Callback callback, final Handler handler) {
+        lastFormat = format;
+        lastCallback = callback;
+        lastHandler = handler;
+
+        if (released || suspended || format == spareFormat || format == pendingFormat) {
+            // Already built or building for this format
+            return;
+        }
+
+        releaseSpare();
+        pendingFormat = format;
+        final int buildGeneration = ++generation;
+
+        Thread buildThread = new Thread() {
+            @Override
+            public void run() {
+                long startTimeMs = SystemClock.uptimeMillis();
+                MediaCodec codec = null;
+                try {
+                    codec = MediaCodec.createByCodecName(decoderName);
+                    if (callback != null) {
+                        codec.setCallback(callback, handler);
+                    }
+                    codec.configure(format, placeholderSurface, null, 0);
+                } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+                    LimeLog.warning("Failed to build standby decoder: " + e);
+                    if (codec != null) {
+                        codec.release();
+                    }
+                    codec = null;
+                }
+
+                synchronized (StandbyDecoder.this) {
+                    if (buildGeneration == generation) {
+                        pendingFormat = null;
+                    }
+
+                    if (codec == null) {
+                        return;
+                    }
+                    else if (released || buildGeneration != generation) {
+                        // Superseded while we were building it
+                        codec.release();
+                        return;
+                    }
+
+                    spareCodec = codec;
+                    spareFormat = format;
+                }
+
+                LimeLog.info("Standby decoder ready in " + (SystemClock.uptimeMillis() - startTimeMs) + " ms");
+            }
+        };
+        buildThread.setName("Video - Standby Decoder");
+        buildThread.start();
+    }
+
+    // Returns the spare if it was built with this format, or null if none is ready. The caller
+    // owns the returned codec and must move it to the real surface before starting it.
+    synchronized MediaCodec take(MediaFormat format) {
+        if (spareCodec == null || spareFormat != format) {
+            return null;
+        }
+
+        MediaCodec codec = spareCodec;
+        spareCodec = null;
+        spareFormat = null;
+        return codec;
+    }
+
+    synchronized boolean isReady() {
+        return spareCodec != null;
+    }
+
+    private void releaseSpare() {
+        if (spareCodec != null) {
+            spareCodec.release();
+            spareCodec = null;
+            spareFormat = null;
+        }
+    }
+
+    // Discards the spare (and any build in progress), such as when the format it was
+    // built with has been modified
+    synchronized void invalidate() {
+        generation++;
+        pendingFormat = null;
+        releaseSpare();
+    }
+
+    // Drops the spare and stops building new ones until resumed, such as while the device
+    // is thermally throttling and can't afford to keep a second codec instance around
+    synchronized void suspend() {
+        suspended = true;
+        invalidate();
+    }
+
+    synchronized void resume() {
+        if (!suspended) {
+            return;
+        }
+
+        suspended = false;
+        if (lastFormat != null) {
+            rebuild(lastFormat, lastCallback, lastHandler);
+        }
+    }
+
+    synchronized void release() {
+        released = true;
+        invalidate();
+        placeholderSurface.release();
+        placeholderTexture.release();
+    }
+}
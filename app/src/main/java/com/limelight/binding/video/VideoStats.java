@@ -15,6 +15,17 @@ class VideoStats {
     char maxHostProcessingLatency;
     int totalHostProcessingLatency;
     int framesWithHostProcessingLatency;
+    long bytesCopied;
+    int directSubmitFrames;
+    int partialFrames;
+    int partialFrameBuffers;
+    int csdCacheHits;
+    int csdCacheMisses;
+    int framesDroppedByPacing;
+    int framesDroppedByCatchUp;
+    int framesDroppedByDisplay;
+    int frameTimingMisses;
+    int backlogResyncs;
     long measurementStartTimestamp;
 
     void add(VideoStats other) {
@@ -34,6 +45,17 @@ class VideoStats {
         this.maxHostProcessingLatency = (char) Math.max(this.maxHostProcessingLatency, other.maxHostProcessingLatency);
         this.totalHostProcessingLatency += other.totalHostProcessingLatency;
         this.framesWithHostProcessingLatency += other.framesWithHostProcessingLatency;
+        this.bytesCopied += other.bytesCopied;
+        this.directSubmitFrames += other.directSubmitFrames;
+        this.partialFrames += other.partialFrames;
+        this.partialFrameBuffers += other.partialFrameBuffers;
+        this.csdCacheHits += other.csdCacheHits;
+        this.csdCacheMisses += other.csdCacheMisses;
+        this.framesDroppedByPacing += other.framesDroppedByPacing;
+        this.framesDroppedByCatchUp += other.framesDroppedByCatchUp;
+        this.framesDroppedByDisplay += other.framesDroppedByDisplay;
+        this.frameTimingMisses += other.frameTimingMisses;
+        this.backlogResyncs += other.backlogResyncs;
 
         if (this.measurementStartTimestamp == 0) {
             this.measurementStartTimestamp = other.measurementStartTimestamp;
@@ -54,6 +76,17 @@ class VideoStats {
         this.maxHostProcessingLatency = other.maxHostProcessingLatency;
         this.totalHostProcessingLatency = other.totalHostProcessingLatency;
         this.framesWithHostProcessingLatency = other.framesWithHostProcessingLatency;
+        this.bytesCopied = other.bytesCopied;
+        this.directSubmitFrames = other.directSubmitFrames;
+        this.partialFrames = other.partialFrames;
+        this.partialFrameBuffers = other.partialFrameBuffers;
+        this.csdCacheHits = other.csdCacheHits;
+        this.csdCacheMisses = other.csdCacheMisses;
+        this.framesDroppedByPacing = other.framesDroppedByPacing;
+        this.framesDroppedByCatchUp = other.framesDroppedByCatchUp;
+        this.framesDroppedByDisplay = other.framesDroppedByDisplay;
+        this.frameTimingMisses = other.frameTimingMisses;
+        this.backlogResyncs = other.backlogResyncs;
         this.measurementStartTimestamp = other.measurementStartTimestamp;
     }
 
@@ -69,11 +102,26 @@ class VideoStats {
         this.maxHostProcessingLatency = 0;
         this.totalHostProcessingLatency = 0;
         this.framesWithHostProcessingLatency = 0;
+        this.bytesCopied = 0;
+        this.directSubmitFrames = 0;
+        this.partialFrames = 0;
+        this.partialFrameBuffers = 0;
+        this.csdCacheHits = 0;
+        this.csdCacheMisses = 0;
+        this.framesDroppedByPacing = 0;
+        this.framesDroppedByCatchUp = 0;
+        this.framesDroppedByDisplay = 0;
+        this.frameTimingMisses = 0;
+        this.backlogResyncs = 0;
         this.measurementStartTimestamp = 0;
     }
 
     VideoStatsFps getFps() {
-        float elapsed = (SystemClock.uptimeMillis() - this.measurementStartTimestamp) / (float) 1000;
+        return getFps(SystemClock.uptimeMillis());
+    }
+
+    VideoStatsFps getFps(long nowMs) {
+        float elapsed = (nowMs - this.measurementStartTimestamp) / (float) 1000;
 
         VideoStatsFps fps = new VideoStatsFps();
         if (elapsed > 0) {
@@ -0,0 +1,56 @@
+package com.limelight.binding.video;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+
+// Drives frame pacing from Choreographer's predicted frame timelines on Android 13+. Each
+// timeline has a deadline for the frame to be queued and the time it's expected to be shown.
+// If we're woken up after the preferred timeline's deadline, the frame would miss its slot,
+// so we target the earliest timeline that can still be met and report the miss.
+@TargetApi(Build.VERSION_CODES.TIRAMISU)
+class VsyncTimelineScheduler implements Choreographer.VsyncCallback {
+    interface Listener {
+        // Returns false to stop receiving callbacks
+        boolean onPresentationSlot(long expectedPresentationTimeNanos, boolean missedDeadline);
+    }
+
+    private final Listener listener;
+
+    VsyncTimelineScheduler(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Must be called on a thread with a Looper
+    void start() {
+        Choreographer.getInstance().postVsyncCallback(this);
+    }
+
+    void stop() {
+        Choreographer.getInstance().removeVsyncCallback(this);
+    }
+
+    @Override
+    public void onVsync(Choreographer.FrameData data) {
+        long nowNanos = System.nanoTime();
+        Choreographer.FrameTimeline chosenTimeline = data.getPreferredFrameTimeline();
+        boolean missedDeadline = false;
+
+        if (nowNanos >= chosenTimeline.getDeadlineNanos()) {
+            missedDeadline = true;
+
+            // Timelines are in chronological order
+            for (Choreographer.FrameTimeline timeline : data.getFrameTimelines()) {
+                if (timeline.getDeadlineNanos() > nowNanos &&
+                        timeline.getExpectedPresentationTimeNanos() > chosenTimeline.getExpectedPresentationTimeNanos()) {
+                    chosenTimeline = timeline;
+                    break;
+                }
+            }
+        }
+
+        if (listener.onPresentationSlot(chosenTimeline.getExpectedPresentationTimeNanos(), missedDeadline)) {
+            Choreographer.getInstance().postVsyncCallback(this);
+        }
+    }
+}
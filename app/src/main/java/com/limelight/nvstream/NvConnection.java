@@ -40,10 +40,17 @@ import com.limelight.nvstream.http.LimelightCryptoProvider;
 import com.limelight.nvstream.http.NvApp;
 import com.limelight.nvstream.http.NvHTTP;
 import com.limelight.nvstream.http.PairingManager;
+import com.limelight.nvstream.input.InputDispatcher;
 import com.limelight.nvstream.input.MouseButtonPacket;
 import com.limelight.nvstream.jni.MoonBridge;
 
 public class NvConnection {
+    // Server codec mode support flags (SCM_* in moonlight-common-c)
+    private static final int SCM_HEVC = 0x00100;
+    private static final int SCM_HEVC_MAIN10 = 0x00200;
+    private static final int SCM_AV1_MAIN8 = 0x10000;
+    private static final int SCM_AV1_MAIN10 = 0x20000;
+
     // Context parameters
     private LimelightCryptoProvider cryptoProvider;
     private String uniqueId;
@@ -52,9 +59,13 @@ public class NvConnection {
     private final boolean isMonkey;
     private final Context appContext;
 
+    // Input is sent from this thread, so callers on the UI thread never wait on moonlight-core
+    private final InputDispatcher inputDispatcher;
+
     public NvConnection(Context appContext, ComputerDetails.AddressTuple host, int httpsPort, String uniqueId, StreamConfiguration config, LimelightCryptoProvider cryptoProvider, X509Certificate serverCert)
     {
         this.appContext = appContext;
+        this.inputDispatcher = new InputDispatcher(appContext);
         this.cryptoProvider = cryptoProvider;
         this.uniqueId = uniqueId;
 
@@ -90,6 +101,9 @@ public class NvConnection {
     }
 
     public void stop() {
+        // Send any input that's still queued and stop the dispatch thread
+        inputDispatcher.stop();
+
         // Interrupt any pending connection. This is thread-safe.
         MoonBridge.interruptConnection();
 
@@ -385,8 +399,34 @@ public class NvConnection {
         return true;
     }
 
+    // Predicts the video format that will be chosen during the RTSP handshake. This follows the
+    // same order of preference as moonlight-common-c, but it's only a hint for warming up the
+    // decoder, so it's fine if the prediction is wrong.
+    private int predictVideoFormat() {
+        int clientFormats = context.streamConfig.getSupportedVideoFormats();
+        int serverModes = context.serverCodecModeSupport;
+
+        if ((clientFormats & MoonBridge.VIDEO_FORMAT_AV1_MAIN10) != 0 && (serverModes & SCM_AV1_MAIN10) != 0) {
+            return MoonBridge.VIDEO_FORMAT_AV1_MAIN10;
+        }
+        else if ((clientFormats & MoonBridge.VIDEO_FORMAT_AV1_MAIN8) != 0 && (serverModes & SCM_AV1_MAIN8) != 0) {
+            return MoonBridge.VIDEO_FORMAT_AV1_MAIN8;
+        }
+        else if ((clientFormats & MoonBridge.VIDEO_FORMAT_H265_MAIN10) != 0 && (serverModes & SCM_HEVC_MAIN10) != 0) {
+            return MoonBridge.VIDEO_FORMAT_H265_MAIN10;
+        }
+        else if ((clientFormats & MoonBridge.VIDEO_FORMAT_H265) != 0 && (serverModes & SCM_HEVC) != 0) {
+            return MoonBridge.VIDEO_FORMAT_H265;
+        }
+        else {
+            return MoonBridge.VIDEO_FORMAT_H264;
+        }
+    }
+
     public void start(final AudioRenderer audioRenderer, final VideoDecoderRenderer videoDecoderRenderer, final NvConnectionListener connectionListener)
     {
+        inputDispatcher.start();
+
         new Thread(new Runnable() {
             public void run() {
                 context.connListener = connectionListener;
@@ -439,6 +479,11 @@ public class NvConnection {
                     return;
                 }
 
+                // Give the decoder a head start while we perform the RTSP handshake
+                videoDecoderRenderer.prepare(predictVideoFormat(),
+                        context.negotiatedWidth, context.negotiatedHeight,
+                        context.streamConfig.getRefreshRate());
+
                 ByteBuffer ib = ByteBuffer.allocate(16);
                 ib.putInt(context.riKeyId);
 
@@ -483,42 +528,42 @@ public class NvConnection {
 
     public void sendExecServerCmd(final int cmdId) {
         if (!isMonkey) {
-            MoonBridge.sendExecServerCmd(cmdId);
+            inputDispatcher.sendExecServerCmd(cmdId);
         }
     }
     
     public void sendMouseMove(final short deltaX, final short deltaY)
     {
         if (!isMonkey) {
-            MoonBridge.sendMouseMove(deltaX, deltaY);
+            inputDispatcher.sendMouseMove(deltaX, deltaY);
         }
     }
 
     public void sendMousePosition(short x, short y, short referenceWidth, short referenceHeight)
     {
         if (!isMonkey) {
-            MoonBridge.sendMousePosition(x, y, referenceWidth, referenceHeight);
+            inputDispatcher.sendMousePosition(x, y, referenceWidth, referenceHeight);
         }
     }
 
     public void sendMouseMoveAsMousePosition(short deltaX, short deltaY, short referenceWidth, short referenceHeight)
     {
         if (!isMonkey) {
-            MoonBridge.sendMouseMoveAsMousePosition(deltaX, deltaY, referenceWidth, referenceHeight);
+            inputDispatcher.sendMouseMoveAsMousePosition(deltaX, deltaY, referenceWidth, referenceHeight);
         }
     }
 
     public void sendMouseButtonDown(final byte mouseButton)
     {
         if (!isMonkey) {
-            MoonBridge.sendMouseButton(MouseButtonPacket.PRESS_EVENT, mouseButton);
+            inputDispatcher.sendMouseButton(MouseButtonPacket.PRESS_EVENT, mouseButton);
         }
     }
     
     public void sendMouseButtonUp(final byte mouseButton)
     {
         if (!isMonkey) {
-            MoonBridge.sendMouseButton(MouseButtonPacket.RELEASE_EVENT, mouseButton);
+            inputDispatcher.sendMouseButton(MouseButtonPacket.RELEASE_EVENT, mouseButton);
         }
     }
     
@@ -529,44 +574,48 @@ public class NvConnection {
             final short rightStickX, final short rightStickY)
     {
         if (!isMonkey) {
-            MoonBridge.sendMultiControllerInput(controllerNumber, activeGamepadMask, buttonFlags,
+            inputDispatcher.sendMultiControllerInput(controllerNumber, activeGamepadMask, buttonFlags,
                     leftTrigger, rightTrigger, leftStickX, leftStickY, rightStickX, rightStickY);
         }
     }
 
     public void sendKeyboardInput(final short keyMap, final byte keyDirection, final byte modifier, final byte flags) {
         if (!isMonkey) {
-            MoonBridge.sendKeyboardInput(keyMap, keyDirection, modifier, flags);
+            inputDispatcher.sendKeyboardInput(keyMap, keyDirection, modifier, flags);
         }
     }
     
     public void sendMouseScroll(final byte scrollClicks) {
         if (!isMonkey) {
-            MoonBridge.sendMouseHighResScroll((short)(scrollClicks * 120)); // WHEEL_DELTA
+            inputDispatcher.sendMouseHighResScroll((short)(scrollClicks * 120)); // WHEEL_DELTA
         }
     }
 
     public void sendMouseHScroll(final byte scrollClicks) {
         if (!isMonkey) {
-            MoonBridge.sendMouseHighResHScroll((short)(scrollClicks * 120)); // WHEEL_DELTA
+            inputDispatcher.sendMouseHighResHScroll((short)(scrollClicks * 120)); // WHEEL_DELTA
         }
     }
 
     public void sendMouseHighResScroll(final short scrollAmount) {
         if (!isMonkey) {
-            MoonBridge.sendMouseHighResScroll(scrollAmount);
+            inputDispatcher.sendMouseHighResScroll(scrollAmount);
         }
     }
 
     public void sendMouseHighResHScroll(final short scrollAmount) {
         if (!isMonkey) {
-            MoonBridge.sendMouseHighResHScroll(scrollAmount);
+            inputDispatcher.sendMouseHighResHScroll(scrollAmount);
         }
     }
 
+    // The events below are sent synchronously rather than through the input dispatcher,
+    // since callers check the result to fall back when the host doesn't support them. They
+    // flush the dispatcher first so they can't overtake input that's still queued.
     public int sendTouchEvent(byte eventType, int pointerId, float x, float y, float pressureOrDistance,
                               float contactAreaMajor, float contactAreaMinor, short rotation) {
         if (!isMonkey) {
+            inputDispatcher.flush();
             return MoonBridge.sendTouchEvent(eventType, pointerId, x, y, pressureOrDistance,
                     contactAreaMajor, contactAreaMinor, rotation);
         }
@@ -579,6 +628,7 @@ public class NvConnection {
                             float pressureOrDistance, float contactAreaMajor, float contactAreaMinor,
                             short rotation, byte tilt) {
         if (!isMonkey) {
+            inputDispatcher.flush();
             return MoonBridge.sendPenEvent(eventType, toolType, penButtons, x, y, pressureOrDistance,
                     contactAreaMajor, contactAreaMinor, rotation, tilt);
         }
@@ -589,12 +639,14 @@ public class NvConnection {
 
     public int sendControllerArrivalEvent(byte controllerNumber, short activeGamepadMask, byte type,
                                           int supportedButtonFlags, short capabilities) {
+        inputDispatcher.flush();
         return MoonBridge.sendControllerArrivalEvent(controllerNumber, activeGamepadMask, type, supportedButtonFlags, capabilities);
     }
 
     public int sendControllerTouchEvent(byte controllerNumber, byte eventType, int pointerId,
                                         float x, float y, float pressure) {
         if (!isMonkey) {
+            inputDispatcher.flush();
             return MoonBridge.sendControllerTouchEvent(controllerNumber, eventType, pointerId, x, y, pressure);
         }
         else {
@@ -605,6 +657,7 @@ public class NvConnection {
     public int sendControllerMotionEvent(byte controllerNumber, byte motionType,
                                          float x, float y, float z) {
         if (!isMonkey) {
+            inputDispatcher.flush();
             return MoonBridge.sendControllerMotionEvent(controllerNumber, motionType, x, y, z);
         }
         else {
@@ -613,12 +666,12 @@ public class NvConnection {
     }
 
     public void sendControllerBatteryEvent(byte controllerNumber, byte batteryState, byte batteryPercentage) {
-        MoonBridge.sendControllerBatteryEvent(controllerNumber, batteryState, batteryPercentage);
+        inputDispatcher.sendControllerBatteryEvent(controllerNumber, batteryState, batteryPercentage);
     }
 
     public void sendUtf8Text(final String text) {
         if (!isMonkey) {
-            MoonBridge.sendUtf8Text(text);
+            inputDispatcher.sendUtf8Text(text);
         }
     }
 
@@ -1,8 +1,16 @@
 package com.limelight.nvstream.av.video;
 
+import java.nio.ByteBuffer;
+
 public abstract class VideoDecoderRenderer {
     public abstract int setup(int format, int width, int height, int redrawRate);
 
+    // This may be called before setup() with the stream parameters that the host is expected
+    // to choose, so the renderer can get its decoder ready while the connection is being
+    // established. setup() is still called afterwards with the actual parameters.
+    public void prepare(int format, int width, int height, int redrawRate) {
+    }
+
     public abstract void start();
 
     public abstract void stop();
@@ -12,7 +20,15 @@ public abstract class VideoDecoderRenderer {
     public abstract int submitDecodeUnit(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
                                          int frameNumber, int frameType, char frameHostProcessingLatency,
                                          long receiveTimeMs, long enqueueTimeMs);
-    
+
+    // This is called before the picture data of a frame is submitted. If the renderer returns
+    // a direct ByteBuffer with enough space remaining, the native code will write the picture
+    // data directly at its current position and then call submitDecodeUnit() with a null array.
+    // Returning null selects the regular byte[] path for this frame.
+    public ByteBuffer getDirectSubmitBuffer(int frameType, int decodeUnitLength) {
+        return null;
+    }
+
     public abstract void cleanup();
 
     public abstract int getCapabilities();
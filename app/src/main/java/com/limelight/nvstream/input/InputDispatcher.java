@@ -0,0 +1,359 @@
+package com.limelight.nvstream.input;
+
+import android.content.Context;
+import android.os.Process;
+
+import com.limelight.LimeLog;
+import com.limelight.nvstream.jni.MoonBridge;
+import com.limelight.utils.PerformanceHintSession;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Sends input to moonlight-core from a dedicated high priority thread, so input handlers on
+// the UI thread only have to drop the event into a lock-free queue. Events are sent in the
+// order they were queued. Queueing delay is tracked and logged when the dispatcher stops.
+// Events that have to be sent synchronously call flush() first, so they can't overtake
+// events that are still queued.
+public class InputDispatcher {
+    private static final int QUEUE_CAPACITY = 1024;
+
+    // How long a producer waits for room when the queue is full before giving up on an event
+    private static final long FULL_WAIT_TIMEOUT_NS = 100000000L;
+
+    // Queueing delay above this counts as a late event in the stats. It's also the budget
+    // for sending a batch of queued events that the performance hint session works against.
+    private static final long LATE_THRESHOLD_NS = 1000000L;
+
+    private static final int EVENT_EXEC_SERVER_CMD = 0;
+    private static final int EVENT_MOUSE_MOVE = 1;
+    private static final int EVENT_MOUSE_POSITION = 2;
+    private static final int EVENT_MOUSE_MOVE_AS_POSITION = 3;
+    private static final int EVENT_MOUSE_BUTTON = 4;
+    private static final int EVENT_MULTI_CONTROLLER = 5;
+    private static final int EVENT_KEYBOARD = 6;
+    private static final int EVENT_HIGH_RES_SCROLL = 7;
+    private static final int EVENT_HIGH_RES_HSCROLL = 8;
+    private static final int EVENT_CONTROLLER_BATTERY = 9;
+    private static final int EVENT_UTF8_TEXT = 10;
+
+    private final Context context;
+    private final InputEventQueue queue = new InputEventQueue(QUEUE_CAPACITY);
+    private final InputEventQueue.Event event = new InputEventQueue.Event();
+
+    private volatile Thread dispatchThread;
+    private volatile boolean running;
+    private volatile boolean parked;
+
+    // Written by the dispatch thread and read when logging
+    private volatile long eventsSent;
+    private volatile long totalDelayNs;
+    private volatile long maxDelayNs;
+    private volatile long lateEvents;
+
+    // Updated by any producer
+    private final AtomicLong fullWaits = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong flushTimeouts = new AtomicLong();
+
+    public InputDispatcher(Context context) {
+        this.context = context;
+    }
+
+    public synchronized void start() {
+        if (dispatchThread != null) {
+            return;
+        }
+
+        running = true;
+        dispatchThread = new Thread() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_DISPLAY);
+
+                PerformanceHintSession hintSession = PerformanceHintSession.create(context, "input",
+                        new int[] {Process.myTid()}, LATE_THRESHOLD_NS);
+                dispatchLoop(hintSession);
+                hintSession.close();
+            }
+        };
+        dispatchThread.setName("Input - Dispatch");
+        dispatchThread.start();
+    }
+
+    // Sends anything still queued, then stops the dispatch thread
+    public synchronized void stop() {
+        if (dispatchThread == null) {
+            return;
+        }
+
+        running = false;
+        LockSupport.unpark(dispatchThread);
+        try {
+            dispatchThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+
+            // InterruptedException clears the thread's interrupt status. Since we can't
+            // handle that here, we will re-interrupt the thread to set the interrupt
+            // status back to true.
+            Thread.currentThread().interrupt();
+        }
+        dispatchThread = null;
+
+        logStats();
+    }
+
+    private void dispatchLoop(PerformanceHintSession hintSession) {
+        long batchStartNs = 0;
+        for (;;) {
+            if (queue.poll(event)) {
+                long now = System.nanoTime();
+                if (batchStartNs == 0) {
+                    batchStartNs = now;
+                }
+                sendEvent(event);
+                queue.complete();
+                recordDelay(now - event.enqueueTimeNs);
+                continue;
+            }
+
+            // Only the time spent sending counts as work, not the time parked between batches
+            if (batchStartNs != 0) {
+                hintSession.reportActualWorkDuration(System.nanoTime() - batchStartNs);
+                batchStartNs = 0;
+            }
+
+            if (!running) {
+                // The queue is drained and nothing else is coming
+                break;
+            }
+
+            // Tell producers to wake us up, then check again in case an event was published
+            // before they could see the flag.
+            parked = true;
+            if (queue.isEmpty() && running) {
+                LockSupport.park(this);
+            }
+            parked = false;
+        }
+    }
+
+    private void recordDelay(long delayNs) {
+        eventsSent++;
+        totalDelayNs += delayNs;
+        if (delayNs > maxDelayNs) {
+            maxDelayNs = delayNs;
+        }
+        if (delayNs > LATE_THRESHOLD_NS) {
+            lateEvents++;
+        }
+    }
+
+    private static void sendEvent(InputEventQueue.Event event) {
+        int[] args = event.args;
+        switch (event.type) {
+            case EVENT_EXEC_SERVER_CMD:
+                MoonBridge.sendExecServerCmd(args[0]);
+                break;
+            case EVENT_MOUSE_MOVE:
+                MoonBridge.sendMouseMove((short) args[0], (short) args[1]);
+                break;
+            case EVENT_MOUSE_POSITION:
+                MoonBridge.sendMousePosition((short) args[0], (short) args[1],
+                        (short) args[2], (short) args[3]);
+                break;
+            case EVENT_MOUSE_MOVE_AS_POSITION:
+                MoonBridge.sendMouseMoveAsMousePosition((short) args[0], (short) args[1],
+                        (short) args[2], (short) args[3]);
+                break;
+            case EVENT_MOUSE_BUTTON:
+                MoonBridge.sendMouseButton((byte) args[0], (byte) args[1]);
+                break;
+            case EVENT_MULTI_CONTROLLER:
+                MoonBridge.sendMultiControllerInput((short) args[0], (short) args[1], args[2],
+                        (byte) args[3], (byte) args[4],
+                        (short) args[5], (short) args[6], (short) args[7], (short) args[8]);
+                break;
+            case EVENT_KEYBOARD:
+                MoonBridge.sendKeyboardInput((short) args[0], (byte) args[1], (byte) args[2], (byte) args[3]);
+                break;
+            case EVENT_HIGH_RES_SCROLL:
+                MoonBridge.sendMouseHighResScroll((short) args[0]);
+                break;
+            case EVENT_HIGH_RES_HSCROLL:
+                MoonBridge.sendMouseHighResHScroll((short) args[0]);
+                break;
+            case EVENT_CONTROLLER_BATTERY:
+                MoonBridge.sendControllerBatteryEvent((byte) args[0], (byte) args[1], (byte) args[2]);
+                break;
+            case EVENT_UTF8_TEXT:
+                MoonBridge.sendUtf8Text(event.text);
+                break;
+        }
+    }
+
+    // Claims a queue slot, waiting briefly if the dispatch thread has fallen behind. Returns
+    // -1 if the event has to be dropped.
+    private long claim(int type) {
+        long now = System.nanoTime();
+        long pos = queue.claim(type, now);
+        if (pos >= 0) {
+            return pos;
+        }
+
+        // Dropping input risks stuck keys and buttons, so give the dispatch thread a
+        // chance to catch up first.
+        fullWaits.incrementAndGet();
+        long deadline = now + FULL_WAIT_TIMEOUT_NS;
+        do {
+            if (!running) {
+                break;
+            }
+            Thread.yield();
+            pos = queue.claim(type, System.nanoTime());
+        } while (pos < 0 && System.nanoTime() < deadline);
+
+        if (pos < 0) {
+            droppedEvents.incrementAndGet();
+        }
+        return pos;
+    }
+
+    // Waits until every event queued before this call has been sent. Gives up after a short
+    // timeout rather than stall the caller if the dispatch thread is stuck.
+    public void flush() {
+        long pos = queue.getTail();
+        if (queue.isCompleted(pos) || dispatchThread == null) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + FULL_WAIT_TIMEOUT_NS;
+        do {
+            Thread.yield();
+            if (queue.isCompleted(pos)) {
+                return;
+            }
+        } while (System.nanoTime() < deadline);
+
+        flushTimeouts.incrementAndGet();
+    }
+
+    private void publish(long pos) {
+        queue.publish(pos);
+        if (parked) {
+            LockSupport.unpark(dispatchThread);
+        }
+    }
+
+    private void queueEvent(int type, int arg0) {
+        long pos = claim(type);
+        if (pos >= 0) {
+            queue.putArg(pos, 0, arg0);
+            publish(pos);
+        }
+    }
+
+    private void queueEvent(int type, int arg0, int arg1) {
+        long pos = claim(type);
+        if (pos >= 0) {
+            queue.putArg(pos, 0, arg0);
+            queue.putArg(pos, 1, arg1);
+            publish(pos);
+        }
+    }
+
+    private void queueEvent(int type, int arg0, int arg1, int arg2) {
+        long pos = claim(type);
+        if (pos >= 0) {
+            queue.putArg(pos, 0, arg0);
+            queue.putArg(pos, 1, arg1);
+            queue.putArg(pos, 2, arg2);
+            publish(pos);
+        }
+    }
+
+    private void queueEvent(int type, int arg0, int arg1, int arg2, int arg3) {
+        long pos = claim(type);
+        if (pos >= 0) {
+            queue.putArg(pos, 0, arg0);
+            queue.putArg(pos, 1, arg1);
+            queue.putArg(pos, 2, arg2);
+            queue.putArg(pos, 3, arg3);
+            publish(pos);
+        }
+    }
+
+    public void sendExecServerCmd(int cmdId) {
+        queueEvent(EVENT_EXEC_SERVER_CMD, cmdId);
+    }
+
+    public void sendMouseMove(short deltaX, short deltaY) {
+        queueEvent(EVENT_MOUSE_MOVE, deltaX, deltaY);
+    }
+
+    public void sendMousePosition(short x, short y, short referenceWidth, short referenceHeight) {
+        queueEvent(EVENT_MOUSE_POSITION, x, y, referenceWidth, referenceHeight);
+    }
+
+    public void sendMouseMoveAsMousePosition(short deltaX, short deltaY, short referenceWidth, short referenceHeight) {
+        queueEvent(EVENT_MOUSE_MOVE_AS_POSITION, deltaX, deltaY, referenceWidth, referenceHeight);
+    }
+
+    public void sendMouseButton(byte buttonEvent, byte mouseButton) {
+        queueEvent(EVENT_MOUSE_BUTTON, buttonEvent, mouseButton);
+    }
+
+    public void sendMultiControllerInput(short controllerNumber, short activeGamepadMask, int buttonFlags,
+                                         byte leftTrigger, byte rightTrigger,
+                                         short leftStickX, short leftStickY,
+                                         short rightStickX, short rightStickY) {
+        long pos = claim(EVENT_MULTI_CONTROLLER);
+        if (pos >= 0) {
+            queue.putArg(pos, 0, controllerNumber);
+            queue.putArg(pos, 1, activeGamepadMask);
+            queue.putArg(pos, 2, buttonFlags);
+            queue.putArg(pos, 3, leftTrigger);
+            queue.putArg(pos, 4, rightTrigger);
+            queue.putArg(pos, 5, leftStickX);
+            queue.putArg(pos, 6, leftStickY);
+            queue.putArg(pos, 7, rightStickX);
+            queue.putArg(pos, 8, rightStickY);
+            publish(pos);
+        }
+    }
+
+    public void sendKeyboardInput(short keyMap, byte keyDirection, byte modifier, byte flags) {
+        queueEvent(EVENT_KEYBOARD, keyMap, keyDirection, modifier, flags);
+    }
+
+    public void sendMouseHighResScroll(short scrollAmount) {
+        queueEvent(EVENT_HIGH_RES_SCROLL, scrollAmount);
+    }
+
+    public void sendMouseHighResHScroll(short scrollAmount) {
+        queueEvent(EVENT_HIGH_RES_HSCROLL, scrollAmount);
+    }
+
+    public void sendControllerBatteryEvent(byte controllerNumber, byte batteryState, byte batteryPercentage) {
+        queueEvent(EVENT_CONTROLLER_BATTERY, controllerNumber, batteryState, batteryPercentage);
+    }
+
+    public void sendUtf8Text(String text) {
+        long pos = claim(EVENT_UTF8_TEXT);
+        if (pos >= 0) {
+            queue.putText(pos, text);
+            publish(pos);
+        }
+    }
+
+    private void logStats() {
+        long sent = eventsSent;
+        LimeLog.info(String.format((Locale)null,
+                "Input dispatcher: %d events, queueing delay average %.3f ms max %.3f ms, %d over %d ms, %d full waits, %d dropped, %d flush timeouts",
+                sent, sent > 0 ? totalDelayNs / (double) sent / 1000000.0 : 0.0, maxDelayNs / 1000000.0,
+                lateEvents, LATE_THRESHOLD_NS / 1000000, fullWaits.get(), droppedEvents.get(),
+                flushTimeouts.get()));
+    }
+}
@@ -0,0 +1,133 @@
+package com.limelight.nvstream.input;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Bounded multi-producer, single-consumer ring of input events. All slots are allocated up
+// front and events are stored as primitive arguments, so queueing an event never allocates.
+// Producers claim a slot with a CAS on the tail, fill it in, then publish it by bumping the
+// slot's sequence number. The consumer only reads a slot once it has been published.
+class InputEventQueue {
+    static final int MAX_ARGS = 9;
+
+    // Reusable holder the consumer polls events into
+    static class Event {
+        int type;
+        final int[] args = new int[MAX_ARGS];
+        String text;
+        long enqueueTimeNs;
+    }
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final int[] types;
+    private final int[] args;
+    private final String[] texts;
+    private final long[] enqueueTimesNs;
+
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    // Position up to which the consumer has finished handling events
+    private volatile long completed;
+
+    InputEventQueue(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: "+capacity);
+        }
+
+        this.mask = capacity - 1;
+        this.sequences = new AtomicLongArray(capacity);
+        this.types = new int[capacity];
+        this.args = new int[capacity * MAX_ARGS];
+        this.texts = new String[capacity];
+        this.enqueueTimesNs = new long[capacity];
+
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // Claims the next slot for an event. Returns the slot position to fill in and publish,
+    // or -1 if the queue is full.
+    long claim(int type, long enqueueTimeNs) {
+        long pos = tail.get();
+        for (;;) {
+            long diff = sequences.get((int) pos & mask) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            }
+            else if (diff < 0) {
+                // The consumer hasn't freed this slot from the previous lap yet
+                return -1;
+            }
+            else {
+                // Another producer claimed it first
+                pos = tail.get();
+            }
+        }
+
+        int index = (int) pos & mask;
+        types[index] = type;
+        enqueueTimesNs[index] = enqueueTimeNs;
+        return pos;
+    }
+
+    void putArg(long pos, int arg, int value) {
+        args[((int) pos & mask) * MAX_ARGS + arg] = value;
+    }
+
+    void putText(long pos, String text) {
+        texts[(int) pos & mask] = text;
+    }
+
+    // Makes a claimed slot visible to the consumer
+    void publish(long pos) {
+        // This must be a full volatile write, since producers check whether the consumer is
+        // parked right after publishing.
+        sequences.set((int) pos & mask, pos + 1);
+    }
+
+    // Returns the position the next claim will get. Every event claimed before this call has
+    // a lower position.
+    long getTail() {
+        return tail.get();
+    }
+
+    // Returns true once every event before the position has been polled and completed
+    boolean isCompleted(long pos) {
+        return completed >= pos;
+    }
+
+    // Marks every event polled so far as handled. Must only be called by the consumer thread.
+    void complete() {
+        completed = head;
+    }
+
+    // Must only be called by the consumer thread
+    boolean isEmpty() {
+        return sequences.get((int) head & mask) != head + 1;
+    }
+
+    // Copies the oldest published event into the holder and frees its slot. Returns false if
+    // there's no event ready. Must only be called by the consumer thread.
+    boolean poll(Event event) {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return false;
+        }
+
+        event.type = types[index];
+        event.enqueueTimeNs = enqueueTimesNs[index];
+        System.arraycopy(args, index * MAX_ARGS, event.args, 0, MAX_ARGS);
+        event.text = texts[index];
+        texts[index] = null;
+
+        sequences.lazySet(index, head + mask + 1);
+        head++;
+        return true;
+    }
+}
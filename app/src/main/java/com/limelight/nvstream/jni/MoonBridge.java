@@ -4,6 +4,8 @@ import com.limelight.nvstream.NvConnectionListener;
 import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer;
 
+import java.nio.ByteBuffer;
+
 public class MoonBridge {
     /* See documentation in Limelight.h for information about these functions and constants */
 
@@ -215,6 +217,15 @@ public class MoonBridge {
         }
     }
 
+    public static ByteBuffer bridgeDrGetDirectSubmitBuffer(int frameType, int decodeUnitLength) {
+        if (videoRenderer != null) {
+            return videoRenderer.getDirectSubmitBuffer(frameType, decodeUnitLength);
+        }
+        else {
+            return null;
+        }
+    }
+
     //todo 不显示画面
     public static int bridgeDrSubmitDecodeUnit(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
                                                int frameNumber, int frameType, char frameHostProcessingLatency,
@@ -399,6 +410,18 @@ public class MoonBridge {
 
     public static native int getPendingAudioDuration();
 
+    // Native AAudio output. While open, decoded audio bypasses bridgeArPlaySample().
+    public static native boolean openNativeAudio(int channelCount, int sampleRate, int samplesPerFrame);
+
+    public static native void startNativeAudio();
+
+    public static native void stopNativeAudio();
+
+    // Fills in packets played, packets dropped, underruns, and queued audio in microseconds
+    public static native void getNativeAudioStats(long[] stats);
+
+    public static native void closeNativeAudio();
+
     public static native int getPendingVideoFrames();
 
     public static native int testClientConnectivity(String testServerHostName, int referencePort, int testFlags);
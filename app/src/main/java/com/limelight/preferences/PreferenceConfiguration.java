@@ -71,6 +71,12 @@ public class PreferenceConfiguration {
     private static final String ENABLE_PIP_PREF_STRING = "checkbox_enable_pip";
     private static final String ENABLE_PERF_OVERLAY_STRING = "checkbox_enable_perf_overlay";
     private static final String ENABLE_PERF_LOGGING = "checkbox_enable_perf_logging";
+    private static final String FRAME_RENDER_TIME_PREF_STRING = "checkbox_frame_render_time";
+    private static final String DECODER_BACKLOG_BUDGET_PREF_STRING = "seekbar_decoder_backlog_budget_ms";
+    private static final String STANDBY_DECODER_PREF_STRING = "checkbox_standby_decoder";
+    private static final String PARTIAL_FRAME_SUBMISSION_PREF_STRING = "checkbox_partial_frame_submission";
+    private static final String THERMAL_GOVERNOR_PREF_STRING = "checkbox_thermal_governor";
+    private static final String DECODE_UNIT_CAPTURE_PREF_STRING = "checkbox_decode_unit_capture";
     private static final String BIND_ALL_USB_STRING = "checkbox_usb_bind_all";
     private static final String MOUSE_EMULATION_STRING = "checkbox_mouse_emulation";
     private static final String ANALOG_SCROLLING_PREF_STRING = "analog_scrolling";
@@ -85,8 +91,10 @@ public class PreferenceConfiguration {
     private static final String FRAME_PACING_PREF_STRING = "frame_pacing";
     private static final String ABSOLUTE_MOUSE_MODE_PREF_STRING = "checkbox_absolute_mouse_mode";
     private static final String ENABLE_AUDIO_FX_PREF_STRING = "checkbox_enable_audiofx";
+    private static final String NATIVE_AUDIO_PREF_STRING = "checkbox_native_audio";
     private static final String REDUCE_REFRESH_RATE_PREF_STRING = "checkbox_reduce_refresh_rate";
     private static final String FULL_RANGE_PREF_STRING = "checkbox_full_range";
+    private static final String ASYNC_DECODER_PREF_STRING = "checkbox_async_decoder";
     private static final String GAMEPAD_TOUCHPAD_AS_MOUSE_PREF_STRING = "checkbox_gamepad_touchpad_as_mouse";
     private static final String GAMEPAD_MOTION_SENSORS_PREF_STRING = "checkbox_gamepad_motion_sensors";
     private static final String GAMEPAD_MOTION_FALLBACK_PREF_STRING = "checkbox_gamepad_motion_fallback";
@@ -160,6 +168,12 @@ public class PreferenceConfiguration {
     private static final boolean DEFAULT_ENABLE_PERF_OVERLAY = false;
     private static final boolean DEFAULT_PERF_OVERLAY_BOTTOM = false;
     private static final boolean DEFAULT_ENABLE_PERF_LOGGING = false;
+    private static final boolean DEFAULT_FRAME_RENDER_TIME = false;
+    private static final int DEFAULT_DECODER_BACKLOG_BUDGET_MS = 300;
+    private static final boolean DEFAULT_STANDBY_DECODER = false;
+    private static final boolean DEFAULT_PARTIAL_FRAME_SUBMISSION = false;
+    private static final boolean DEFAULT_THERMAL_GOVERNOR = true;
+    private static final boolean DEFAULT_DECODE_UNIT_CAPTURE = false;
     private static final boolean DEFAULT_BIND_ALL_USB = false;
     private static final boolean DEFAULT_MOUSE_EMULATION = true;
     private static final String DEFAULT_ANALOG_STICK_FOR_SCROLLING = "right";
@@ -175,8 +189,10 @@ public class PreferenceConfiguration {
     private static final String DEFAULT_FRAME_PACING = "latency";
     private static final boolean DEFAULT_ABSOLUTE_MOUSE_MODE = false;
     private static final boolean DEFAULT_ENABLE_AUDIO_FX = false;
+    private static final boolean DEFAULT_NATIVE_AUDIO = false;
     private static final boolean DEFAULT_REDUCE_REFRESH_RATE = false;
     private static final boolean DEFAULT_FULL_RANGE = false;
+    private static final boolean DEFAULT_ASYNC_DECODER = false;
     private static final boolean DEFAULT_GAMEPAD_TOUCHPAD_AS_MOUSE = false;
     private static final boolean DEFAULT_GAMEPAD_MOTION_SENSORS = true;
     private static final boolean DEFAULT_GAMEPAD_MOTION_FALLBACK = false;
@@ -208,6 +224,7 @@ public class PreferenceConfiguration {
     public static final int FRAME_PACING_BALANCED = 1;
     public static final int FRAME_PACING_CAP_FPS = 2;
     public static final int FRAME_PACING_MAX_SMOOTHNESS = 3;
+    public static final int FRAME_PACING_ADAPTIVE = 4;
 
     public static final String RES_360P = "640x360";
     public static final String RES_480P = "854x480";
@@ -254,6 +271,12 @@ public class PreferenceConfiguration {
     public boolean enablePip;
     public boolean enablePerfOverlay;
     public boolean enablePerfLogging;
+    public boolean enableFrameRenderTime;
+    public int decoderBacklogBudgetMs;
+    public boolean enableStandbyDecoder;
+    public boolean enablePartialFrameSubmission;
+    public boolean enableThermalGovernor;
+    public boolean enableDecodeUnitCapture;
     //简化版性能信息
     public boolean enablePerfOverlayLite;
 
@@ -348,8 +371,10 @@ public class PreferenceConfiguration {
     public int framePacing;
     public boolean absoluteMouseMode;
     public boolean enableAudioFx;
+    public boolean enableNativeAudio;
     public boolean reduceRefreshRate;
     public boolean fullRange;
+    public boolean asyncDecoder;
     public boolean gamepadMotionSensors;
     public boolean gamepadTouchpadAsMouse;
     public boolean gamepadMotionSensorsFallbackToDevice;
@@ -626,6 +651,9 @@ public class PreferenceConfiguration {
         else if (str.equals("smoothness")) {
             return FRAME_PACING_MAX_SMOOTHNESS;
         }
+        else if (str.equals("adaptive")) {
+            return FRAME_PACING_ADAPTIVE;
+        }
         else {
             // Should never get here
             return FRAME_PACING_MIN_LATENCY;
@@ -882,6 +910,12 @@ public class PreferenceConfiguration {
         config.enablePip = prefs.getBoolean(ENABLE_PIP_PREF_STRING, DEFAULT_ENABLE_PIP);
         config.enablePerfOverlay = prefs.getBoolean(ENABLE_PERF_OVERLAY_STRING, DEFAULT_ENABLE_PERF_OVERLAY);
         config.enablePerfLogging = prefs.getBoolean(ENABLE_PERF_LOGGING, DEFAULT_ENABLE_PERF_LOGGING);
+        config.enableFrameRenderTime = prefs.getBoolean(FRAME_RENDER_TIME_PREF_STRING, DEFAULT_FRAME_RENDER_TIME);
+        config.decoderBacklogBudgetMs = prefs.getInt(DECODER_BACKLOG_BUDGET_PREF_STRING, DEFAULT_DECODER_BACKLOG_BUDGET_MS);
+        config.enableStandbyDecoder = prefs.getBoolean(STANDBY_DECODER_PREF_STRING, DEFAULT_STANDBY_DECODER);
+        config.enablePartialFrameSubmission = prefs.getBoolean(PARTIAL_FRAME_SUBMISSION_PREF_STRING, DEFAULT_PARTIAL_FRAME_SUBMISSION);
+        config.enableThermalGovernor = prefs.getBoolean(THERMAL_GOVERNOR_PREF_STRING, DEFAULT_THERMAL_GOVERNOR);
+        config.enableDecodeUnitCapture = prefs.getBoolean(DECODE_UNIT_CAPTURE_PREF_STRING, DEFAULT_DECODE_UNIT_CAPTURE);
         config.enablePerfOverlayLite = prefs.getBoolean("checkbox_enable_perf_overlay_lite",DEFAULT_ENABLE_PERF_OVERLAY);
         config.enablePerfOverlayBottom = prefs.getBoolean("checkbox_enable_perf_overlay_bottom",DEFAULT_PERF_OVERLAY_BOTTOM);
         config.bindAllUsb = prefs.getBoolean(BIND_ALL_USB_STRING, DEFAULT_BIND_ALL_USB);
@@ -972,8 +1006,10 @@ public class PreferenceConfiguration {
         config.hideClipboardContent = prefs.getBoolean(CHECKBOX_HIDE_CLIPBOARD_CONTENT, DEFAULT_HIDE_CLIPBOARD_CONTENT);
         config.stickyModifierKey = prefs.getBoolean(CHECKBOX_ENABLE_STICKY_MODIFIER_KEY_VIRTUAL_KEYBOARD, DEFAULT_ENABLE_STICKY_MODIFIER_KEY_VIRTUAL_KEYBOARD);
         config.enableAudioFx = prefs.getBoolean(ENABLE_AUDIO_FX_PREF_STRING, DEFAULT_ENABLE_AUDIO_FX);
+        config.enableNativeAudio = prefs.getBoolean(NATIVE_AUDIO_PREF_STRING, DEFAULT_NATIVE_AUDIO);
         config.reduceRefreshRate = prefs.getBoolean(REDUCE_REFRESH_RATE_PREF_STRING, DEFAULT_REDUCE_REFRESH_RATE);
         config.fullRange = prefs.getBoolean(FULL_RANGE_PREF_STRING, DEFAULT_FULL_RANGE);
+        config.asyncDecoder = prefs.getBoolean(ASYNC_DECODER_PREF_STRING, DEFAULT_ASYNC_DECODER);
         config.gamepadTouchpadAsMouse = prefs.getBoolean(GAMEPAD_TOUCHPAD_AS_MOUSE_PREF_STRING, DEFAULT_GAMEPAD_TOUCHPAD_AS_MOUSE);
         config.gamepadMotionSensors = prefs.getBoolean(GAMEPAD_MOTION_SENSORS_PREF_STRING, DEFAULT_GAMEPAD_MOTION_SENSORS);
         config.gamepadMotionSensorsFallbackToDevice = prefs.getBoolean(GAMEPAD_MOTION_FALLBACK_PREF_STRING, DEFAULT_GAMEPAD_MOTION_FALLBACK);
@@ -56,10 +56,13 @@ import com.limelight.LimeLog;
 import com.limelight.PcView;
 import com.limelight.R;
 import com.limelight.binding.input.virtual_controller.keyboard.KeyBoardControllerConfigurationLoader;
+import com.limelight.binding.video.DecoderBenchmark;
 import com.limelight.binding.video.MediaCodecHelper;
 import com.limelight.utils.Dialog;
 import com.limelight.utils.FileUriUtils;
 import com.limelight.utils.PerformanceDataTracker;
+import com.limelight.utils.PerformanceHistoryDatabase;
+import com.limelight.utils.SpinnerDialog;
 import com.limelight.utils.UiHelper;
 import org.json.JSONObject;
 import java.io.File;
@@ -68,6 +71,8 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public class StreamSettings extends AppCompatActivity implements SearchPreferenceResultListener {
@@ -338,6 +343,64 @@ public class StreamSettings extends AppCompatActivity implements SearchPreferenc
             return super.onCreateView(inflater, container, savedInstanceState);
         }
 
+        private void runDecoderBenchmark() {
+            final Activity activity = requireActivity();
+            final SpinnerDialog spinner = SpinnerDialog.displayDialog(activity,
+                    getString(R.string.title_decoder_benchmark), getString(R.string.decoder_benchmark_running), false);
+            final boolean ultraLowLatency = PreferenceConfiguration.readPreferences(activity).enableUltraLowLatency;
+
+            // Each decoder configuration takes a couple of seconds to test
+            new Thread() {
+                @Override
+                public void run() {
+                    new DecoderBenchmark(activity, ultraLowLatency, new DecoderBenchmark.Listener() {
+                        @Override
+                        public void onProgress(String status) {
+                            spinner.setMessage(status);
+                        }
+
+                        @Override
+                        public void onComplete(String summary) {
+                            spinner.dismiss();
+                            Dialog.displayDialog(activity, activity.getString(R.string.title_decoder_benchmark),
+                                    summary.isEmpty() ? activity.getString(R.string.decoder_benchmark_no_results) : summary, false);
+                        }
+                    }).run();
+                }
+            }.start();
+        }
+
+        private void updatePerformanceSuggestions(final Preference pref) {
+            final Activity activity = requireActivity();
+
+            new Thread() {
+                @Override
+                public void run() {
+                    List<PerformanceHistoryDatabase.Entry> best =
+                            new PerformanceDataTracker().getBestEntryPerCodec(activity, Build.MODEL);
+
+                    StringBuilder summary = new StringBuilder();
+                    for (PerformanceHistoryDatabase.Entry entry : best) {
+                        if (summary.length() != 0) {
+                            summary.append('\n');
+                        }
+                        summary.append(String.format(Locale.getDefault(),
+                                activity.getString(R.string.performance_suggestion_format),
+                                entry.codec, entry.decodeTimeMs, entry.resolution, entry.frameRate,
+                                entry.bitrate, entry.framePacing));
+                    }
+
+                    activity.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            pref.setSummary(summary.length() != 0 ? summary.toString() :
+                                    activity.getString(R.string.summary_performance_suggestions_none));
+                        }
+                    });
+                }
+            }.start();
+        }
+
         @Override
         public void onCreatePreferences(Bundle bundle, String s) {
             initializePreferences();
@@ -412,6 +475,21 @@ public class StreamSettings extends AppCompatActivity implements SearchPreferenc
                 category.removePreference(findPreference("checkbox_enable_pip"));
             }
 
+            // The native audio path needs AAudio, which is only reliable from Android 8.1
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O_MR1) {
+                PreferenceCategory category =
+                        (PreferenceCategory) findPreference("category_audio_settings");
+                category.removePreference(findPreference("checkbox_native_audio"));
+            }
+
+            // Partial frame submission needs BUFFER_FLAG_PARTIAL_FRAME from Android 8.0. Newer
+            // devices also need a decoder known to support it, which is checked below.
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+                PreferenceCategory category =
+                        (PreferenceCategory) findPreference("category_video_settings");
+                category.removePreference(findPreference("checkbox_partial_frame_submission"));
+            }
+
             // Fire TV apps are not allowed to use WebViews or browsers, so hide the Help category
             /*if (getActivity().getPackageManager().hasSystemFeature("amazon.hardware.fire_tv")) {
                 PreferenceCategory category =
@@ -553,6 +631,15 @@ public class StreamSettings extends AppCompatActivity implements SearchPreferenc
                 MediaCodecInfo avcDecoder = MediaCodecHelper.findProbableSafeDecoder("video/avc", -1);
                 MediaCodecInfo hevcDecoder = MediaCodecHelper.findProbableSafeDecoder("video/hevc", -1);
 
+                // Don't offer partial frame submission if neither decoder would use it
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O &&
+                        (avcDecoder == null || !MediaCodecHelper.decoderSupportsPartialFrames(avcDecoder.getName())) &&
+                        (hevcDecoder == null || !MediaCodecHelper.decoderSupportsPartialFrames(hevcDecoder.getName()))) {
+                    PreferenceCategory category =
+                            (PreferenceCategory) findPreference("category_video_settings");
+                    category.removePreference(findPreference("checkbox_partial_frame_submission"));
+                }
+
                 if (avcDecoder != null) {
                     Range<Integer> avcWidthRange = avcDecoder.getCapabilitiesForType("video/avc").getVideoCapabilities().getSupportedWidths();
 
@@ -749,6 +836,11 @@ public class StreamSettings extends AppCompatActivity implements SearchPreferenc
 
                     if(!loggingEnabled) {
                         new PerformanceDataTracker().clearLogs(preference.getContext());
+
+                        Preference suggestions = findPreference("performance_suggestions");
+                        if (suggestions != null) {
+                            suggestions.setSummary(R.string.summary_performance_suggestions_none);
+                        }
                     }
 
                     // Allow the original preference change to take place
@@ -875,6 +967,22 @@ public class StreamSettings extends AppCompatActivity implements SearchPreferenc
                 });
             }
 
+            _pref = findPreference("pref_decoder_benchmark");
+            if (_pref != null) {
+                _pref.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+                    @Override
+                    public boolean onPreferenceClick(@NonNull Preference preference) {
+                        runDecoderBenchmark();
+                        return false;
+                    }
+                });
+            }
+
+            _pref = findPreference("performance_suggestions");
+            if (_pref != null) {
+                updatePerformanceSuggestions(_pref);
+            }
+
             EditTextPreference bitrateEditPref = findPreference(PreferenceConfiguration.CUSTOM_BITRATE_PREF_STRING);
             if (bitrateEditPref != null) {
                 bitrateEditPref.setOnBindEditTextListener((EditText editText) -> {
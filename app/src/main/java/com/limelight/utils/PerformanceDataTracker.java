@@ -6,13 +6,17 @@ import android.preference.PreferenceManager;
 import android.util.Log;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class PerformanceDataTracker {
 
+    // Only read to migrate old logs into PerformanceHistoryDatabase
     private static final String PREF_KEY_LOG = "performance_log";
 
     // Constants for field names
@@ -26,10 +30,17 @@ public class PerformanceDataTracker {
     private static final String FIELD_RESOLUTION = "Resolution";
     private static final String FIELD_FRAME_RATE = "Frame Rate (FPS)";
     private static final String FIELD_AVERAGE = "Average Latency";
+    private static final String FIELD_TAIL_LATENCY = "Tail Latency";
+    private static final String FIELD_THERMAL = "Thermal Headroom";
     private static final String FIELD_FRAME_PACING = "Frame Pacing";
     private static final String FIELD_DATETIME = "Date/Time";
 
-    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    // Shared by every tracker so writes to the database happen one at a time, off the UI thread
+    private static final ExecutorService executorService = Executors.newSingleThreadExecutor();
+
+    // One connection for the whole app. Separate connections to the same file from different
+    // threads can fail with SQLITE_BUSY.
+    private static PerformanceHistoryDatabase sharedDatabase;
 
     public void savePerformanceStatistics(
             Context context,
@@ -43,88 +54,98 @@ public class PerformanceDataTracker {
             String resolution,
             String frameRateFps,
             String average,
+            String tailLatency,
+            String thermal,
             String framePacing,
             String dateTime) {
 
-        executorService.execute(() -> saveToPreferences(context, device, osVersion, appVersion, codec,
-                decodingTimeMs, stats, bitrateMbps, resolution, frameRateFps, average, framePacing, dateTime));
+        executorService.execute(() -> saveToDatabase(context, device, osVersion, appVersion, codec,
+                decodingTimeMs, stats, bitrateMbps, resolution, frameRateFps, average, tailLatency, thermal,
+                framePacing, dateTime));
     }
 
-    private void saveToPreferences(Context context, String device, String osVersion, String appVersion, String codec,
-                                   String decodingTimeMs, String stats, String bitrateMbps, String resolution,
-                                   String frameRateFps, String average, String framePacing, String dateTime) {
+    private static synchronized void saveToDatabase(Context context, String device, String osVersion, String appVersion, String codec,
+                                String decodingTimeMs, String stats, String bitrateMbps, String resolution,
+                                String frameRateFps, String average, String tailLatency, String thermal,
+                                String framePacing, String dateTime) {
+        PerformanceHistoryDatabase.Entry entry = new PerformanceHistoryDatabase.Entry();
+        entry.device = device;
+        entry.osVersion = osVersion;
+        entry.appVersion = appVersion;
+        entry.codec = codec;
+        entry.decodeTime = decodingTimeMs;
+        entry.decodeTimeMs = parseDecodingTime(decodingTimeMs);
+        entry.statsLog = stats;
+        entry.bitrate = bitrateMbps;
+        entry.resolution = resolution;
+        entry.frameRate = frameRateFps;
+        entry.averageLatency = average;
+        entry.tailLatency = tailLatency;
+        entry.thermal = thermal;
+        entry.framePacing = framePacing;
+        entry.dateTime = dateTime;
 
         try {
-            JSONObject newEntry = new JSONObject();
-            newEntry.put(FIELD_DEVICE, device);
-            newEntry.put(FIELD_OS_VERSION, osVersion);
-            newEntry.put(FIELD_APP_VERSION, appVersion);
-            newEntry.put(FIELD_CODEC, codec);
-            newEntry.put(FIELD_DECODING_TIME, decodingTimeMs);
-            newEntry.put(FIELD_STATS_LOG, stats);
-            newEntry.put(FIELD_BITRATE, bitrateMbps);
-            newEntry.put(FIELD_RESOLUTION, resolution);
-            newEntry.put(FIELD_FRAME_RATE, frameRateFps);
-            newEntry.put(FIELD_AVERAGE, average);
-            newEntry.put(FIELD_FRAME_PACING, framePacing);
-            newEntry.put(FIELD_DATETIME, dateTime);
-
-            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-            String existingLogsRaw = prefs.getString(PREF_KEY_LOG, "");
-
-            JSONArray logsArray;
-
-            try {
-                logsArray = new JSONArray(existingLogsRaw);
-            } catch (Exception e) {
-                logsArray = new JSONArray();
-                Log.w("PerformanceDataTracker", "Invalid old logs cleared.");
+            if (getDatabase(context).saveIfBetter(entry)) {
+                Log.d("PerformanceDataTracker", "New performance data saved.");
+            } else {
+                Log.d("PerformanceDataTracker", "Duplicate with equal or better decoding time. Skipping.");
             }
+        } catch (Exception e) {
+            Log.e("PerformanceDataTracker", "Failed to save to database: " + e.getMessage());
+        }
+    }
 
-            float newDecodingTime = parseDecodingTime(decodingTimeMs);
-            int duplicateIndex = -1;
-            float worstDecodingTime = Float.MAX_VALUE;
+    // Callers hold the lock on the class while using the database, so a save and a read
+    // never interleave
+    private static synchronized PerformanceHistoryDatabase getDatabase(Context context) {
+        if (sharedDatabase == null) {
+            sharedDatabase = new PerformanceHistoryDatabase(context.getApplicationContext());
+            migrateLegacyLog(context, sharedDatabase);
+        }
+        return sharedDatabase;
+    }
 
-            for (int i = 0; i < logsArray.length(); i++) {
-                JSONObject entry = logsArray.getJSONObject(i);
-
-                boolean isSameConfig =
-                        device.equals(entry.optString(FIELD_DEVICE)) &&
-                                osVersion.equals(entry.optString(FIELD_OS_VERSION)) &&
-                                appVersion.equals(entry.optString(FIELD_APP_VERSION)) &&
-                                codec.equals(entry.optString(FIELD_CODEC)) &&
-                                bitrateMbps.equals(entry.optString(FIELD_BITRATE)) &&
-                                resolution.equals(entry.optString(FIELD_RESOLUTION)) &&
-                                frameRateFps.equals(entry.optString(FIELD_FRAME_RATE)) &&
-                                framePacing.equals(entry.optString(FIELD_FRAME_PACING));
-
-                if (isSameConfig) {
-                    float existingDecodingTime = parseDecodingTime(entry.optString(FIELD_DECODING_TIME));
-                    if (existingDecodingTime <= newDecodingTime) {
-                        Log.d("PerformanceDataTracker", "Duplicate with equal or better decoding time. Skipping.");
-                        return;
-                    } else {
-                        duplicateIndex = i;
-                        worstDecodingTime = existingDecodingTime;
-                    }
-                }
-            }
+    // Older versions kept the whole history as a JSON array in the default preferences
+    private static void migrateLegacyLog(Context context, PerformanceHistoryDatabase db) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String existingLogsRaw = prefs.getString(PREF_KEY_LOG, null);
+        if (existingLogsRaw == null) {
+            return;
+        }
 
-            if (duplicateIndex != -1) {
-                logsArray.remove(duplicateIndex);
-                Log.d("PerformanceDataTracker", "Replaced older entry with decoding time: " + worstDecodingTime);
+        try {
+            JSONArray logsArray = new JSONArray(existingLogsRaw);
+            for (int i = 0; i < logsArray.length(); i++) {
+                JSONObject json = logsArray.getJSONObject(i);
+
+                PerformanceHistoryDatabase.Entry entry = new PerformanceHistoryDatabase.Entry();
+                entry.device = json.optString(FIELD_DEVICE);
+                entry.osVersion = json.optString(FIELD_OS_VERSION);
+                entry.appVersion = json.optString(FIELD_APP_VERSION);
+                entry.codec = json.optString(FIELD_CODEC);
+                entry.decodeTime = json.optString(FIELD_DECODING_TIME);
+                entry.decodeTimeMs = parseDecodingTime(entry.decodeTime);
+                entry.statsLog = json.optString(FIELD_STATS_LOG);
+                entry.bitrate = json.optString(FIELD_BITRATE);
+                entry.resolution = json.optString(FIELD_RESOLUTION);
+                entry.frameRate = json.optString(FIELD_FRAME_RATE);
+                entry.averageLatency = json.optString(FIELD_AVERAGE);
+                entry.tailLatency = json.optString(FIELD_TAIL_LATENCY);
+                entry.thermal = json.optString(FIELD_THERMAL);
+                entry.framePacing = json.optString(FIELD_FRAME_PACING);
+                entry.dateTime = json.optString(FIELD_DATETIME);
+                db.saveIfBetter(entry);
             }
-
-            logsArray.put(newEntry);
-            prefs.edit().putString(PREF_KEY_LOG, logsArray.toString()).apply();
-            Log.d("PerformanceDataTracker", "New performance data saved.");
-
+            Log.d("PerformanceDataTracker", "Migrated " + logsArray.length() + " entries from preferences.");
         } catch (Exception e) {
-            Log.e("PerformanceDataTracker", "Failed to save to preferences: " + e.getMessage());
+            Log.w("PerformanceDataTracker", "Invalid old logs cleared.");
         }
+
+        prefs.edit().remove(PREF_KEY_LOG).apply();
     }
 
-    private float parseDecodingTime(String decodingTimeString) {
+    private static float parseDecodingTime(String decodingTimeString) {
         if (decodingTimeString == null) return Float.MAX_VALUE;
         try {
             String numericPart = decodingTimeString.replaceAll("[^0-9.]", "");
@@ -134,14 +155,75 @@ public class PerformanceDataTracker {
         }
     }
 
+    // Returns the history in the same JSON format as the old preferences log, or an
+    // empty string if there is none
     public String getLog(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString(PREF_KEY_LOG, "");
+        synchronized (PerformanceDataTracker.class) {
+            return getLogLocked(context);
+        }
+    }
+
+    private static String getLogLocked(Context context) {
+        try {
+            List<PerformanceHistoryDatabase.Entry> entries = getDatabase(context).getAllEntries();
+            if (entries.isEmpty()) {
+                return "";
+            }
+
+            JSONArray logsArray = new JSONArray();
+            for (PerformanceHistoryDatabase.Entry entry : entries) {
+                JSONObject json = new JSONObject();
+                json.put(FIELD_DEVICE, entry.device);
+                json.put(FIELD_OS_VERSION, entry.osVersion);
+                json.put(FIELD_APP_VERSION, entry.appVersion);
+                json.put(FIELD_CODEC, entry.codec);
+                json.put(FIELD_DECODING_TIME, entry.decodeTime);
+                json.put(FIELD_STATS_LOG, entry.statsLog);
+                json.put(FIELD_BITRATE, entry.bitrate);
+                json.put(FIELD_RESOLUTION, entry.resolution);
+                json.put(FIELD_FRAME_RATE, entry.frameRate);
+                json.put(FIELD_AVERAGE, entry.averageLatency);
+                json.put(FIELD_TAIL_LATENCY, entry.tailLatency);
+                json.put(FIELD_THERMAL, entry.thermal);
+                json.put(FIELD_FRAME_PACING, entry.framePacing);
+                json.put(FIELD_DATETIME, entry.dateTime);
+                logsArray.put(json);
+            }
+            return logsArray.toString();
+        } catch (JSONException | RuntimeException e) {
+            Log.e("PerformanceDataTracker", "Failed to export logs: " + e.getMessage());
+            return "";
+        }
+    }
+
+    // The best configuration measured for each codec on this device, lowest decode time first
+    // Returns an empty list if the database can't be read
+    public List<PerformanceHistoryDatabase.Entry> getBestEntryPerCodec(Context context, String device) {
+        synchronized (PerformanceDataTracker.class) {
+            try {
+                return getDatabase(context).getBestEntryPerCodec(device);
+            } catch (RuntimeException e) {
+                Log.e("PerformanceDataTracker", "Failed to read best entries: " + e.getMessage());
+                return Collections.emptyList();
+            }
+        }
     }
 
+    // Clears the history in the background
     public void clearLogs(Context context) {
+        executorService.execute(() -> clearDatabase(context));
+    }
+
+    private static synchronized void clearDatabase(Context context) {
+        // Drop any old preferences log first, so it isn't migrated back in
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         prefs.edit().remove(PREF_KEY_LOG).apply();
-        Log.d("PerformanceDataTracker", "All logs cleared.");
+
+        try {
+            getDatabase(context).clear();
+            Log.d("PerformanceDataTracker", "All logs cleared.");
+        } catch (RuntimeException e) {
+            Log.e("PerformanceDataTracker", "Failed to clear logs: " + e.getMessage());
+        }
     }
 }
@@ -0,0 +1,74 @@
+package com.limelight.utils;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.PerformanceHintManager;
+
+import com.limelight.LimeLog;
+
+// Wraps an ADPF performance hint session for a group of threads that do a fixed amount of work
+// per frame. Reporting how long each frame actually took against the frame budget lets the CPU
+// governor keep these threads on fast cores at a suitable clock, instead of ramping down between
+// frames. On devices before Android 12 (or without hint support) this does nothing.
+public class PerformanceHintSession {
+    private final Object session;
+
+    private PerformanceHintSession(Object session) {
+        this.session = session;
+    }
+
+    public static PerformanceHintSession create(Context context, String name, int[] threadIds, long targetWorkDurationNanos) {
+        Object session = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            try {
+                session = createHintSession(context, threadIds, targetWorkDurationNanos);
+            } catch (RuntimeException e) {
+                // Some devices throw for threads that don't belong to the app's cgroup
+                LimeLog.warning("Unable to create performance hint session for "+name+": "+e);
+            }
+
+            if (session != null) {
+                LimeLog.info("Created performance hint session for "+name+" (target "+
+                        targetWorkDurationNanos / 1000+" us)");
+            }
+            else {
+                LimeLog.info("Performance hints are not supported for "+name);
+            }
+        }
+
+        return new PerformanceHintSession(session);
+    }
+
+    @TargetApi(Build.VERSION_CODES.S)
+    private static Object createHintSession(Context context, int[] threadIds, long targetWorkDurationNanos) {
+        PerformanceHintManager hintManager = context.getSystemService(PerformanceHintManager.class);
+        if (hintManager == null || hintManager.getPreferredUpdateRateNanos() < 0) {
+            return null;
+        }
+
+        return hintManager.createHintSession(threadIds, targetWorkDurationNanos);
+    }
+
+    public boolean isActive() {
+        return session != null;
+    }
+
+    // Must be called from one of the threads in the session
+    public void reportActualWorkDuration(long actualWorkDurationNanos) {
+        if (actualWorkDurationNanos <= 0) {
+            // The framework rejects durations that aren't positive
+            return;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S && session != null) {
+            ((PerformanceHintManager.Session) session).reportActualWorkDuration(actualWorkDurationNanos);
+        }
+    }
+
+    public void close() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S && session != null) {
+            ((PerformanceHintManager.Session) session).close();
+        }
+    }
+}
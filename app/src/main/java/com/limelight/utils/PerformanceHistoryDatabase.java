@@ -0,0 +1,197 @@
+package com.limelight.utils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Keeps the best result measured for each streaming configuration. A configuration is
+// identified by the device, codec, resolution, frame rate, bitrate and frame pacing mode,
+// and a new result only replaces the stored one if its decode time is lower.
+public class PerformanceHistoryDatabase {
+    private static final String DB_NAME = "performance_history.db";
+    private static final String TABLE_NAME = "PerformanceHistory";
+    private static final String CONFIG_INDEX_NAME = "PerformanceHistoryConfig";
+
+    private static final String DEVICE_COLUMN_NAME = "Device";
+    private static final String OS_VERSION_COLUMN_NAME = "OsVersion";
+    private static final String APP_VERSION_COLUMN_NAME = "AppVersion";
+    private static final String CODEC_COLUMN_NAME = "Codec";
+    private static final String RESOLUTION_COLUMN_NAME = "Resolution";
+    private static final String FRAME_RATE_COLUMN_NAME = "FrameRate";
+    private static final String BITRATE_COLUMN_NAME = "Bitrate";
+    private static final String FRAME_PACING_COLUMN_NAME = "FramePacing";
+    private static final String DECODE_TIME_COLUMN_NAME = "DecodeTimeMs";
+    private static final String DECODE_TIME_TEXT_COLUMN_NAME = "DecodeTime";
+    private static final String STATS_LOG_COLUMN_NAME = "StatsLog";
+    private static final String AVERAGE_LATENCY_COLUMN_NAME = "AverageLatency";
+    private static final String TAIL_LATENCY_COLUMN_NAME = "TailLatency";
+    private static final String THERMAL_COLUMN_NAME = "Thermal";
+    private static final String DATE_TIME_COLUMN_NAME = "DateTime";
+    private static final String UPDATED_COLUMN_NAME = "UpdatedAt";
+
+    private static final String CONFIG_WHERE_CLAUSE =
+            DEVICE_COLUMN_NAME+"=? AND "+CODEC_COLUMN_NAME+"=? AND "+RESOLUTION_COLUMN_NAME+"=? AND "+
+            FRAME_RATE_COLUMN_NAME+"=? AND "+BITRATE_COLUMN_NAME+"=? AND "+FRAME_PACING_COLUMN_NAME+"=?";
+
+    // The least recently updated configurations are dropped beyond this
+    static final int MAX_ENTRIES = 200;
+
+    public static class Entry {
+        public String device;
+        public String osVersion;
+        public String appVersion;
+        public String codec;
+        public String resolution;
+        public String frameRate;
+        public String bitrate;
+        public String framePacing;
+        public float decodeTimeMs;
+        public String decodeTime;
+        public String statsLog;
+        public String averageLatency;
+        public String tailLatency;
+        public String thermal;
+        public String dateTime;
+    }
+
+    private SQLiteDatabase db;
+
+    public PerformanceHistoryDatabase(Context c) {
+        try {
+            // Create or open an existing DB
+            db = c.openOrCreateDatabase(DB_NAME, 0, null);
+        } catch (SQLiteException e) {
+            // Delete the DB and try again
+            c.deleteDatabase(DB_NAME);
+            db = c.openOrCreateDatabase(DB_NAME, 0, null);
+        }
+        initializeDb();
+    }
+
+    public void close() {
+        db.close();
+    }
+
+    private void initializeDb() {
+        db.execSQL(String.format((Locale)null,
+                "CREATE TABLE IF NOT EXISTS %s(%s TEXT NOT NULL, %s TEXT, %s TEXT, %s TEXT NOT NULL, %s TEXT NOT NULL, " +
+                        "%s TEXT NOT NULL, %s TEXT NOT NULL, %s TEXT NOT NULL, %s REAL NOT NULL, %s TEXT, %s TEXT, " +
+                        "%s TEXT, %s TEXT, %s TEXT, %s TEXT, %s INTEGER NOT NULL)",
+                TABLE_NAME, DEVICE_COLUMN_NAME, OS_VERSION_COLUMN_NAME, APP_VERSION_COLUMN_NAME, CODEC_COLUMN_NAME,
+                RESOLUTION_COLUMN_NAME, FRAME_RATE_COLUMN_NAME, BITRATE_COLUMN_NAME, FRAME_PACING_COLUMN_NAME,
+                DECODE_TIME_COLUMN_NAME, DECODE_TIME_TEXT_COLUMN_NAME, STATS_LOG_COLUMN_NAME,
+                AVERAGE_LATENCY_COLUMN_NAME, TAIL_LATENCY_COLUMN_NAME, THERMAL_COLUMN_NAME,
+                DATE_TIME_COLUMN_NAME, UPDATED_COLUMN_NAME));
+        db.execSQL(String.format((Locale)null,
+                "CREATE UNIQUE INDEX IF NOT EXISTS %s ON %s(%s, %s, %s, %s, %s, %s)",
+                CONFIG_INDEX_NAME, TABLE_NAME, DEVICE_COLUMN_NAME, CODEC_COLUMN_NAME, RESOLUTION_COLUMN_NAME,
+                FRAME_RATE_COLUMN_NAME, BITRATE_COLUMN_NAME, FRAME_PACING_COLUMN_NAME));
+    }
+
+    // Stores the entry unless the same configuration already has an equal or better decode time.
+    // Returns true if the entry was stored.
+    public boolean saveIfBetter(Entry entry) {
+        ContentValues values = new ContentValues();
+        values.put(DEVICE_COLUMN_NAME, entry.device);
+        values.put(OS_VERSION_COLUMN_NAME, entry.osVersion);
+        values.put(APP_VERSION_COLUMN_NAME, entry.appVersion);
+        values.put(CODEC_COLUMN_NAME, entry.codec);
+        values.put(RESOLUTION_COLUMN_NAME, entry.resolution);
+        values.put(FRAME_RATE_COLUMN_NAME, entry.frameRate);
+        values.put(BITRATE_COLUMN_NAME, entry.bitrate);
+        values.put(FRAME_PACING_COLUMN_NAME, entry.framePacing);
+        values.put(DECODE_TIME_COLUMN_NAME, entry.decodeTimeMs);
+        values.put(DECODE_TIME_TEXT_COLUMN_NAME, entry.decodeTime);
+        values.put(STATS_LOG_COLUMN_NAME, entry.statsLog);
+        values.put(AVERAGE_LATENCY_COLUMN_NAME, entry.averageLatency);
+        values.put(TAIL_LATENCY_COLUMN_NAME, entry.tailLatency);
+        values.put(THERMAL_COLUMN_NAME, entry.thermal);
+        values.put(DATE_TIME_COLUMN_NAME, entry.dateTime);
+        values.put(UPDATED_COLUMN_NAME, System.currentTimeMillis());
+
+        boolean stored;
+        db.beginTransaction();
+        try {
+            // Insert a new configuration, or replace the existing one only if we beat it.
+            // The unique index makes both of these a single index lookup.
+            if (db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE) != -1) {
+                stored = true;
+            }
+            else {
+                stored = db.update(TABLE_NAME, values,
+                        CONFIG_WHERE_CLAUSE+" AND "+DECODE_TIME_COLUMN_NAME+">?",
+                        new String[]{entry.device, entry.codec, entry.resolution, entry.frameRate,
+                                entry.bitrate, entry.framePacing, Double.toString(entry.decodeTimeMs)}) != 0;
+            }
+
+            if (stored) {
+                trimToSize();
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return stored;
+    }
+
+    private void trimToSize() {
+        db.execSQL(String.format((Locale)null,
+                "DELETE FROM %s WHERE rowid NOT IN (SELECT rowid FROM %s ORDER BY %s DESC, rowid DESC LIMIT %d)",
+                TABLE_NAME, TABLE_NAME, UPDATED_COLUMN_NAME, MAX_ENTRIES));
+    }
+
+    // All stored configurations, most recently updated first
+    public List<Entry> getAllEntries() {
+        return queryEntries(db.query(TABLE_NAME, null, null, null, null, null,
+                UPDATED_COLUMN_NAME+" DESC"));
+    }
+
+    // The configuration with the lowest decode time for each codec on this device
+    public List<Entry> getBestEntryPerCodec(String device) {
+        // SQLite takes the other columns from the row that has the minimum
+        return queryEntries(db.rawQuery(String.format((Locale)null,
+                "SELECT *, MIN(%s) FROM %s WHERE %s=? GROUP BY %s ORDER BY %s",
+                DECODE_TIME_COLUMN_NAME, TABLE_NAME, DEVICE_COLUMN_NAME, CODEC_COLUMN_NAME, DECODE_TIME_COLUMN_NAME),
+                new String[]{device}));
+    }
+
+    private List<Entry> queryEntries(Cursor c) {
+        List<Entry> entries = new ArrayList<>();
+        try {
+            while (c.moveToNext()) {
+                Entry entry = new Entry();
+                entry.device = c.getString(c.getColumnIndexOrThrow(DEVICE_COLUMN_NAME));
+                entry.osVersion = c.getString(c.getColumnIndexOrThrow(OS_VERSION_COLUMN_NAME));
+                entry.appVersion = c.getString(c.getColumnIndexOrThrow(APP_VERSION_COLUMN_NAME));
+                entry.codec = c.getString(c.getColumnIndexOrThrow(CODEC_COLUMN_NAME));
+                entry.resolution = c.getString(c.getColumnIndexOrThrow(RESOLUTION_COLUMN_NAME));
+                entry.frameRate = c.getString(c.getColumnIndexOrThrow(FRAME_RATE_COLUMN_NAME));
+                entry.bitrate = c.getString(c.getColumnIndexOrThrow(BITRATE_COLUMN_NAME));
+                entry.framePacing = c.getString(c.getColumnIndexOrThrow(FRAME_PACING_COLUMN_NAME));
+                entry.decodeTimeMs = c.getFloat(c.getColumnIndexOrThrow(DECODE_TIME_COLUMN_NAME));
+                entry.decodeTime = c.getString(c.getColumnIndexOrThrow(DECODE_TIME_TEXT_COLUMN_NAME));
+                entry.statsLog = c.getString(c.getColumnIndexOrThrow(STATS_LOG_COLUMN_NAME));
+                entry.averageLatency = c.getString(c.getColumnIndexOrThrow(AVERAGE_LATENCY_COLUMN_NAME));
+                entry.tailLatency = c.getString(c.getColumnIndexOrThrow(TAIL_LATENCY_COLUMN_NAME));
+                entry.thermal = c.getString(c.getColumnIndexOrThrow(THERMAL_COLUMN_NAME));
+                entry.dateTime = c.getString(c.getColumnIndexOrThrow(DATE_TIME_COLUMN_NAME));
+                entries.add(entry);
+            }
+        } finally {
+            c.close();
+        }
+        return entries;
+    }
+
+    public void clear() {
+        db.delete(TABLE_NAME, null, null);
+    }
+}
@@ -0,0 +1,133 @@
+package com.limelight.utils;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import com.limelight.LimeLog;
+
+// Watches the device's thermal state during a stream and tells the listener when it should
+// react, before the device reaches severe throttling. The thermal status is available on
+// Android 10 and the headroom forecast on Android 11. On older devices only the decode time
+// trend is used.
+public class ThermalGovernor {
+    public interface Listener {
+        // Called on the main thread with one of the ThermalPolicy levels
+        void onThermalLevelChanged(int level);
+    }
+
+    public interface DecodeTimeSource {
+        float getRecentDecodeTimeMs();
+    }
+
+    // getThermalHeadroom() returns NaN if it's called more than once per second,
+    // so we poll well below that.
+    private static final long POLL_INTERVAL_MS = 10000;
+    private static final int HEADROOM_FORECAST_SECONDS = 10;
+
+    private final PowerManager powerManager;
+    private final DecodeTimeSource decodeTimeSource;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ThermalPolicy policy = new ThermalPolicy();
+
+    private Object thermalStatusListener;
+    private boolean running;
+
+    private final Runnable pollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            evaluate();
+            handler.postDelayed(this, POLL_INTERVAL_MS);
+        }
+    };
+
+    public ThermalGovernor(Context context, DecodeTimeSource decodeTimeSource, Listener listener) {
+        this.powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        this.decodeTimeSource = decodeTimeSource;
+        this.listener = listener;
+    }
+
+    public void start() {
+        if (running || powerManager == null) {
+            return;
+        }
+        running = true;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            addThermalStatusListener();
+        }
+
+        handler.postDelayed(pollRunnable, POLL_INTERVAL_MS);
+    }
+
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+
+        handler.removeCallbacks(pollRunnable);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            removeThermalStatusListener();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.Q)
+    private void addThermalStatusListener() {
+        PowerManager.OnThermalStatusChangedListener statusListener = new PowerManager.OnThermalStatusChangedListener() {
+            @Override
+            public void onThermalStatusChanged(int status) {
+                LimeLog.info("Thermal status changed: "+status);
+                evaluate();
+            }
+        };
+        powerManager.addThermalStatusListener(handler::post, statusListener);
+        thermalStatusListener = statusListener;
+    }
+
+    @TargetApi(Build.VERSION_CODES.Q)
+    private void removeThermalStatusListener() {
+        if (thermalStatusListener != null) {
+            powerManager.removeThermalStatusListener((PowerManager.OnThermalStatusChangedListener) thermalStatusListener);
+            thermalStatusListener = null;
+        }
+    }
+
+    private void evaluate() {
+        if (!running) {
+            return;
+        }
+
+        int status = 0;
+        float headroom = Float.NaN;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            status = powerManager.getCurrentThermalStatus();
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            headroom = powerManager.getThermalHeadroom(HEADROOM_FORECAST_SECONDS);
+        }
+
+        int oldLevel = policy.getLevel();
+        int newLevel = policy.update(status, headroom, decodeTimeSource.getRecentDecodeTimeMs(),
+                SystemClock.uptimeMillis());
+        if (newLevel != oldLevel) {
+            LimeLog.info("Thermal level changed from "+oldLevel+" to "+newLevel+
+                    " (status "+status+", headroom "+headroom+
+                    ", decode time creeping: "+policy.isDecodeTimeCreeping()+")");
+            listener.onThermalLevelChanged(newLevel);
+        }
+    }
+
+    public int getLevel() {
+        return policy.getLevel();
+    }
+
+    public String getTimelineSummary() {
+        return policy.getTimelineSummary();
+    }
+}
@@ -0,0 +1,195 @@
+package com.limelight.utils;
+
+import java.util.Locale;
+
+// Decides how hard to react to the device heating up during a stream. The platform thermal
+// status only changes once throttling has already started, so we also look at the thermal
+// headroom forecast and at decode time creeping up over the session's best, which is usually
+// the first visible symptom of the SoC being clocked down.
+//
+// Levels go up as soon as a signal crosses a threshold, but only come back down after
+// conditions have stayed better for a while, so we don't flap between them.
+public class ThermalPolicy {
+    public static final int LEVEL_NORMAL = 0;
+    public static final int LEVEL_WARM = 1;         // Worth trading peak clocks for stable ones
+    public static final int LEVEL_THROTTLING = 2;   // Shed optional work and suggest a lighter profile
+    public static final int LEVEL_SEVERE = 3;       // The device is throttling hard
+
+    // Mirrors PowerManager.THERMAL_STATUS_*
+    static final int STATUS_LIGHT = 1;
+    static final int STATUS_MODERATE = 2;
+    static final int STATUS_SEVERE = 3;
+
+    // getThermalHeadroom() reaches 1.0 at the point the device starts severe throttling
+    private static final float HEADROOM_WARM = 0.75f;
+    private static final float HEADROOM_THROTTLING = 0.9f;
+
+    // Smoothed decode time has to be this far over the session's best to count as a trend
+    private static final float DECODE_CREEP_RATIO = 1.5f;
+    private static final float DECODE_CREEP_MIN_MS = 2.0f;
+    private static final float DECODE_SMOOTHING = 0.2f;
+
+    // Decode time samples to skip before taking a baseline, since the stream is still settling
+    private static final int DECODE_WARMUP_SAMPLES = 3;
+
+    private static final long STEP_DOWN_MS = 30000;
+
+    private static final int MAX_TIMELINE_SAMPLES = 60;
+    private static final long INITIAL_TIMELINE_INTERVAL_MS = 60000;
+
+    private int level = LEVEL_NORMAL;
+    private long lastAtLevelMs;
+
+    private float smoothedDecodeTimeMs = -1;
+    private float baselineDecodeTimeMs = -1;
+    private int decodeSamples;
+
+    // Peak headroom and status for each interval of the session. When the timeline fills up,
+    // neighbouring intervals are merged so it always covers the whole session.
+    private final float[] timelineHeadroom = new float[MAX_TIMELINE_SAMPLES];
+    private final int[] timelineStatus = new int[MAX_TIMELINE_SAMPLES];
+    private int timelineCount;
+    private long timelineIntervalMs = INITIAL_TIMELINE_INTERVAL_MS;
+    private long startMs = -1;
+
+    private int peakStatus;
+    private float peakHeadroom = Float.NaN;
+
+    // The headroom is NaN if it's not available, and decodeTimeMs is 0 or less if there
+    // were no frames to measure. Returns the new level.
+    public int update(int thermalStatus, float headroom, float decodeTimeMs, long nowMs) {
+        recordTimeline(thermalStatus, headroom, nowMs);
+
+        int target;
+        if (thermalStatus >= STATUS_SEVERE) {
+            target = LEVEL_SEVERE;
+        }
+        else if (thermalStatus >= STATUS_MODERATE || headroom >= HEADROOM_THROTTLING) {
+            target = LEVEL_THROTTLING;
+        }
+        else if (thermalStatus >= STATUS_LIGHT || headroom >= HEADROOM_WARM) {
+            target = LEVEL_WARM;
+        }
+        else {
+            target = LEVEL_NORMAL;
+        }
+
+        // Decode time creeping up on its own is an early warning. Together with
+        // another sign of heat, it means throttling has started.
+        if (updateDecodeTrend(decodeTimeMs) && target < LEVEL_THROTTLING) {
+            target++;
+        }
+
+        if (target >= level) {
+            level = target;
+            lastAtLevelMs = nowMs;
+        }
+        else if (nowMs - lastAtLevelMs >= STEP_DOWN_MS) {
+            level = target;
+            lastAtLevelMs = nowMs;
+        }
+
+        return level;
+    }
+
+    private boolean updateDecodeTrend(float decodeTimeMs) {
+        if (decodeTimeMs <= 0) {
+            return isDecodeTimeCreeping();
+        }
+
+        if (smoothedDecodeTimeMs < 0) {
+            smoothedDecodeTimeMs = decodeTimeMs;
+        }
+        else {
+            smoothedDecodeTimeMs += (decodeTimeMs - smoothedDecodeTimeMs) * DECODE_SMOOTHING;
+        }
+
+        if (++decodeSamples > DECODE_WARMUP_SAMPLES &&
+                (baselineDecodeTimeMs < 0 || smoothedDecodeTimeMs < baselineDecodeTimeMs)) {
+            baselineDecodeTimeMs = smoothedDecodeTimeMs;
+        }
+
+        return isDecodeTimeCreeping();
+    }
+
+    public boolean isDecodeTimeCreeping() {
+        return baselineDecodeTimeMs > 0 &&
+                smoothedDecodeTimeMs >= baselineDecodeTimeMs * DECODE_CREEP_RATIO &&
+                smoothedDecodeTimeMs - baselineDecodeTimeMs >= DECODE_CREEP_MIN_MS;
+    }
+
+    private static float maxHeadroom(float a, float b) {
+        if (Float.isNaN(a)) {
+            return b;
+        }
+        else if (Float.isNaN(b)) {
+            return a;
+        }
+        return Math.max(a, b);
+    }
+
+    private void recordTimeline(int thermalStatus, float headroom, long nowMs) {
+        if (startMs < 0) {
+            startMs = nowMs;
+        }
+
+        peakStatus = Math.max(peakStatus, thermalStatus);
+        peakHeadroom = maxHeadroom(peakHeadroom, headroom);
+
+        int index = (int) ((nowMs - startMs) / timelineIntervalMs);
+        while (index >= MAX_TIMELINE_SAMPLES) {
+            // Merge pairs of intervals to make room
+            for (int i = 0; i < MAX_TIMELINE_SAMPLES / 2; i++) {
+                timelineHeadroom[i] = maxHeadroom(timelineHeadroom[2 * i], timelineHeadroom[2 * i + 1]);
+                timelineStatus[i] = Math.max(timelineStatus[2 * i], timelineStatus[2 * i + 1]);
+            }
+            timelineCount = (timelineCount + 1) / 2;
+            timelineIntervalMs *= 2;
+            index = (int) ((nowMs - startMs) / timelineIntervalMs);
+        }
+
+        while (timelineCount <= index) {
+            timelineHeadroom[timelineCount] = Float.NaN;
+            timelineStatus[timelineCount] = 0;
+            timelineCount++;
+        }
+
+        timelineHeadroom[index] = maxHeadroom(timelineHeadroom[index], headroom);
+        timelineStatus[index] = Math.max(timelineStatus[index], thermalStatus);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getPeakStatus() {
+        return peakStatus;
+    }
+
+    public float getPeakHeadroom() {
+        return peakHeadroom;
+    }
+
+    public int getTimelineCount() {
+        return timelineCount;
+    }
+
+    public long getTimelineIntervalMs() {
+        return timelineIntervalMs;
+    }
+
+    // Peak headroom and thermal status for each interval, in the form "headroom/status"
+    public String getTimelineSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "Peak status %d, peak headroom %s, every %d min:",
+                peakStatus, formatHeadroom(peakHeadroom), timelineIntervalMs / 60000));
+        for (int i = 0; i < timelineCount; i++) {
+            sb.append(' ').append(formatHeadroom(timelineHeadroom[i])).append('/').append(timelineStatus[i]);
+        }
+        return sb.toString();
+    }
+
+    private static String formatHeadroom(float headroom) {
+        return Float.isNaN(headroom) ? "-" : String.format(Locale.US, "%.2f", headroom);
+    }
+}
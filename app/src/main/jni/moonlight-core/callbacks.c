@@ -10,6 +10,8 @@
 
 #include <cpu-features.h>
 
+#include "nativeaudio.h"
+
 static OpusMSDecoder* Decoder;
 static OPUS_MULTISTREAM_CONFIGURATION OpusConfig;
 
@@ -22,6 +24,8 @@ static jmethodID BridgeDrStartMethod;
 static jmethodID BridgeDrStopMethod;
 static jmethodID BridgeDrCleanupMethod;
 static jmethodID BridgeDrSubmitDecodeUnitMethod;
+static jmethodID BridgeDrGetDirectSubmitBufferMethod;
+static jmethodID BufferPositionMethod;
 static jmethodID BridgeArInitMethod;
 static jmethodID BridgeArStartMethod;
 static jmethodID BridgeArStopMethod;
@@ -86,6 +90,8 @@ Java_com_limelight_nvstream_jni_MoonBridge_init(JNIEnv *env, jclass clazz) {
     BridgeDrStopMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrStop", "()V");
     BridgeDrCleanupMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrCleanup", "()V");
     BridgeDrSubmitDecodeUnitMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrSubmitDecodeUnit", "([BIIIICJJ)I");
+    BridgeDrGetDirectSubmitBufferMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeDrGetDirectSubmitBuffer", "(II)Ljava/nio/ByteBuffer;");
+    BufferPositionMethod = (*env)->GetMethodID(env, (*env)->FindClass(env, "java/nio/Buffer"), "position", "()I");
     BridgeArInitMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArInit", "(III)I");
     BridgeArStartMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArStart", "()V");
     BridgeArStopMethod = (*env)->GetStaticMethodID(env, clazz, "bridgeArStop", "()V");
@@ -143,8 +149,52 @@ void BridgeDrCleanup(void) {
     (*env)->CallStaticVoidMethod(env, GlobalBridgeClass, BridgeDrCleanupMethod);
 }
 
+// Writes the picture data of the decode unit straight into the direct ByteBuffer provided
+// by the renderer (normally a dequeued MediaCodec input buffer). Returns the number of bytes
+// written, or -1 if the renderer didn't provide a usable buffer.
+static int WriteDirectPicData(JNIEnv* env, PDECODE_UNIT decodeUnit, int picDataLength) {
+    jobject buffer;
+    char* address;
+    jlong capacity;
+    int position;
+    PLENTRY currentEntry;
+
+    buffer = (*env)->CallStaticObjectMethod(env, GlobalBridgeClass, BridgeDrGetDirectSubmitBufferMethod,
+                                            decodeUnit->frameType, picDataLength);
+    if ((*env)->ExceptionCheck(env)) {
+        // Let the byte[] path handle this frame
+        (*env)->ExceptionClear(env);
+        return -1;
+    }
+    else if (buffer == NULL) {
+        return -1;
+    }
+
+    address = (*env)->GetDirectBufferAddress(env, buffer);
+    capacity = (*env)->GetDirectBufferCapacity(env, buffer);
+    position = (*env)->CallIntMethod(env, buffer, BufferPositionMethod);
+    (*env)->DeleteLocalRef(env, buffer);
+    if (address == NULL || capacity < 0 || (*env)->ExceptionCheck(env) ||
+            (jlong)position + picDataLength > capacity) {
+        (*env)->ExceptionClear(env);
+        return -1;
+    }
+
+    address += position;
+    for (currentEntry = decodeUnit->bufferList; currentEntry != NULL; currentEntry = currentEntry->next) {
+        if (currentEntry->bufferType == BUFFER_TYPE_PICDATA) {
+            memcpy(address, currentEntry->data, currentEntry->length);
+            address += currentEntry->length;
+        }
+    }
+
+    return picDataLength;
+}
+
 int BridgeDrSubmitDecodeUnit(PDECODE_UNIT decodeUnit) {
     JNIEnv* env = GetThreadEnv();
+    jbyteArray picDataArray;
+    int picDataLength;
     int ret;
 
     // Increase the size of our frame data buffer if our frame won't fit
@@ -158,6 +208,7 @@ int BridgeDrSubmitDecodeUnit(PDECODE_UNIT decodeUnit) {
 
     currentEntry = decodeUnit->bufferList;
     offset = 0;
+    picDataLength = 0;
     while (currentEntry != NULL) {
         // Submit parameter set NALUs separately from picture data
         if (currentEntry->bufferType != BUFFER_TYPE_PICDATA) {
@@ -179,15 +230,32 @@ int BridgeDrSubmitDecodeUnit(PDECODE_UNIT decodeUnit) {
             }
         }
         else {
-            (*env)->SetByteArrayRegion(env, DecodedFrameBuffer, offset, currentEntry->length, (jbyte*)currentEntry->data);
-            offset += currentEntry->length;
+            picDataLength += currentEntry->length;
         }
 
         currentEntry = currentEntry->next;
     }
 
+    // Try to write the picture data directly into the decoder's input buffer first. In that
+    // case we pass a null array to tell the renderer the data is already in place.
+    offset = WriteDirectPicData(env, decodeUnit, picDataLength);
+    if (offset >= 0) {
+        picDataArray = NULL;
+    }
+    else {
+        // Fall back to copying the picture data into our Java array
+        offset = 0;
+        for (currentEntry = decodeUnit->bufferList; currentEntry != NULL; currentEntry = currentEntry->next) {
+            if (currentEntry->bufferType == BUFFER_TYPE_PICDATA) {
+                (*env)->SetByteArrayRegion(env, DecodedFrameBuffer, offset, currentEntry->length, (jbyte*)currentEntry->data);
+                offset += currentEntry->length;
+            }
+        }
+        picDataArray = DecodedFrameBuffer;
+    }
+
     ret = (*env)->CallStaticIntMethod(env, GlobalBridgeClass, BridgeDrSubmitDecodeUnitMethod,
-                                       DecodedFrameBuffer, offset, BUFFER_TYPE_PICDATA,
+                                       picDataArray, offset, BUFFER_TYPE_PICDATA,
                                        decodeUnit->frameNumber, decodeUnit->frameType, (jchar)decodeUnit->frameHostProcessingLatency,
                                        (jlong)decodeUnit->receiveTimeMs, (jlong)decodeUnit->enqueueTimeMs);
     if ((*env)->ExceptionCheck(env)) {
@@ -252,6 +320,23 @@ void BridgeArCleanup() {
 }
 
 void BridgeArDecodeAndPlaySample(char* sampleData, int sampleLength) {
+    if (NativeAudioIsActive()) {
+        // Decode straight into the AAudio ring without going through Java at all
+        opus_int16* slot = NativeAudioBeginWrite();
+        if (slot != NULL) {
+            int decodeLen = opus_multistream_decode(Decoder,
+                                                    (const unsigned char*)sampleData,
+                                                    sampleLength,
+                                                    slot,
+                                                    OpusConfig.samplesPerFrame,
+                                                    0);
+            if (decodeLen > 0) {
+                NativeAudioCommitWrite(decodeLen);
+            }
+        }
+        return;
+    }
+
     JNIEnv* env = GetThreadEnv();
 
     jshort* decodedData = (*env)->GetPrimitiveArrayCritical(env, DecodedAudioBuffer, NULL);
@@ -0,0 +1,450 @@
+#include <jni.h>
+
+#include <dlfcn.h>
+#include <pthread.h>
+#include <stdatomic.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+#include <aaudio/AAudio.h>
+#include <android/log.h>
+
+#include "nativeaudio.h"
+
+#define LOG_TAG "NativeAudio"
+
+// Must be a power of two. Each slot holds one decoded Opus packet.
+#define RING_SLOTS 32
+#define RING_MASK (RING_SLOTS - 1)
+
+// Same bound as the AudioTrack path: packets beyond this much queued audio are dropped
+#define MAX_QUEUED_MS 40
+
+// Backoff between attempts to reopen a stream after a failed reopen
+#define REOPEN_MIN_BACKOFF_MS 100
+#define REOPEN_MAX_BACKOFF_MS 2000
+
+// AAudio is loaded at runtime, since our minimum API level predates libaaudio.so
+static struct {
+    void* handle;
+    aaudio_result_t (*createStreamBuilder)(AAudioStreamBuilder** builder);
+    void (*setPerformanceMode)(AAudioStreamBuilder* builder, aaudio_performance_mode_t mode);
+    void (*setSharingMode)(AAudioStreamBuilder* builder, aaudio_sharing_mode_t sharingMode);
+    void (*setFormat)(AAudioStreamBuilder* builder, aaudio_format_t format);
+    void (*setChannelCount)(AAudioStreamBuilder* builder, int32_t channelCount);
+    void (*setSampleRate)(AAudioStreamBuilder* builder, int32_t sampleRate);
+    void (*setDataCallback)(AAudioStreamBuilder* builder, AAudioStream_dataCallback callback, void* userData);
+    void (*setErrorCallback)(AAudioStreamBuilder* builder, AAudioStream_errorCallback callback, void* userData);
+    void (*setUsage)(AAudioStreamBuilder* builder, aaudio_usage_t usage);
+    aaudio_result_t (*openStream)(AAudioStreamBuilder* builder, AAudioStream** stream);
+    aaudio_result_t (*deleteBuilder)(AAudioStreamBuilder* builder);
+    aaudio_result_t (*requestStart)(AAudioStream* stream);
+    aaudio_result_t (*requestStop)(AAudioStream* stream);
+    aaudio_result_t (*close)(AAudioStream* stream);
+    aaudio_result_t (*setBufferSizeInFrames)(AAudioStream* stream, int32_t numFrames);
+    int32_t (*getFramesPerBurst)(AAudioStream* stream);
+    int32_t (*getSampleRate)(AAudioStream* stream);
+    int32_t (*getChannelCount)(AAudioStream* stream);
+    aaudio_format_t (*getFormat)(AAudioStream* stream);
+    aaudio_sharing_mode_t (*getSharingMode)(AAudioStream* stream);
+    int32_t (*getXRunCount)(AAudioStream* stream);
+    int64_t (*getFramesWritten)(AAudioStream* stream);
+    aaudio_result_t (*getTimestamp)(AAudioStream* stream, clockid_t clockid, int64_t* framePosition, int64_t* timeNanoseconds);
+    const char* (*convertResultToText)(aaudio_result_t result);
+} AAudio;
+
+static pthread_mutex_t StreamLock = PTHREAD_MUTEX_INITIALIZER;
+static AAudioStream* Stream;
+static bool StreamStarted;
+static atomic_bool StreamDisconnected;
+static atomic_bool Active;
+
+static int ChannelCount;
+static int SampleRate;
+static int SamplesPerFrame;
+static int MaxQueuedSlots;
+
+// Single producer (the audio decoder thread), single consumer (the AAudio callback)
+static int16_t* RingBuffer;
+static int RingSlotFrames[RING_SLOTS];
+static atomic_uint RingWriteIndex;
+static atomic_uint RingReadIndex;
+static int RingReadOffset;
+static bool RingPlaying;
+
+static atomic_int Underruns;
+static atomic_int Drops;
+static atomic_int Packets;
+static int XRunsBeforeReopen;
+static int ReopenFailures;
+static int64_t NextReopenNs;
+
+static bool LoadAAudio(void) {
+    if (AAudio.handle != NULL) {
+        return true;
+    }
+
+    void* handle = dlopen("libaaudio.so", RTLD_NOW);
+    if (handle == NULL) {
+        return false;
+    }
+
+#define LOAD(field, name) \
+    if ((*(void**)&AAudio.field = dlsym(handle, name)) == NULL) { \
+        __android_log_print(ANDROID_LOG_WARN, LOG_TAG, "Missing AAudio symbol: %s", name); \
+        dlclose(handle); \
+        return false; \
+    }
+
+    LOAD(createStreamBuilder, "AAudio_createStreamBuilder");
+    LOAD(setPerformanceMode, "AAudioStreamBuilder_setPerformanceMode");
+    LOAD(setSharingMode, "AAudioStreamBuilder_setSharingMode");
+    LOAD(setFormat, "AAudioStreamBuilder_setFormat");
+    LOAD(setChannelCount, "AAudioStreamBuilder_setChannelCount");
+    LOAD(setSampleRate, "AAudioStreamBuilder_setSampleRate");
+    LOAD(setDataCallback, "AAudioStreamBuilder_setDataCallback");
+    LOAD(setErrorCallback, "AAudioStreamBuilder_setErrorCallback");
+    LOAD(openStream, "AAudioStreamBuilder_openStream");
+    LOAD(deleteBuilder, "AAudioStreamBuilder_delete");
+    LOAD(requestStart, "AAudioStream_requestStart");
+    LOAD(requestStop, "AAudioStream_requestStop");
+    LOAD(close, "AAudioStream_close");
+    LOAD(setBufferSizeInFrames, "AAudioStream_setBufferSizeInFrames");
+    LOAD(getFramesPerBurst, "AAudioStream_getFramesPerBurst");
+    LOAD(getSampleRate, "AAudioStream_getSampleRate");
+    LOAD(getChannelCount, "AAudioStream_getChannelCount");
+    LOAD(getFormat, "AAudioStream_getFormat");
+    LOAD(getSharingMode, "AAudioStream_getSharingMode");
+    LOAD(getXRunCount, "AAudioStream_getXRunCount");
+    LOAD(getFramesWritten, "AAudioStream_getFramesWritten");
+    LOAD(getTimestamp, "AAudioStream_getTimestamp");
+    LOAD(convertResultToText, "AAudio_convertResultToText");
+
+#undef LOAD
+
+    // Usage was added in API 28, so it's optional
+    *(void**)&AAudio.setUsage = dlsym(handle, "AAudioStreamBuilder_setUsage");
+
+    AAudio.handle = handle;
+    return true;
+}
+
+static aaudio_data_callback_result_t DataCallback(AAudioStream* stream, void* userData, void* audioData, int32_t numFrames) {
+    int16_t* out = audioData;
+
+    while (numFrames > 0) {
+        unsigned int readIndex = atomic_load_explicit(&RingReadIndex, memory_order_relaxed);
+        unsigned int writeIndex = atomic_load_explicit(&RingWriteIndex, memory_order_acquire);
+
+        if (readIndex == writeIndex) {
+            // Nothing queued, so play silence for the rest of this burst
+            if (RingPlaying) {
+                atomic_fetch_add_explicit(&Underruns, 1, memory_order_relaxed);
+                RingPlaying = false;
+            }
+            memset(out, 0, numFrames * ChannelCount * sizeof(int16_t));
+            break;
+        }
+
+        RingPlaying = true;
+
+        int slot = readIndex & RING_MASK;
+        int frames = RingSlotFrames[slot] - RingReadOffset;
+        if (frames > numFrames) {
+            frames = numFrames;
+        }
+
+        memcpy(out,
+               &RingBuffer[(slot * SamplesPerFrame + RingReadOffset) * ChannelCount],
+               frames * ChannelCount * sizeof(int16_t));
+        out += frames * ChannelCount;
+        numFrames -= frames;
+
+        RingReadOffset += frames;
+        if (RingReadOffset == RingSlotFrames[slot]) {
+            // Hand the slot back to the decoder thread
+            RingReadOffset = 0;
+            atomic_store_explicit(&RingReadIndex, readIndex + 1, memory_order_release);
+        }
+    }
+
+    return AAUDIO_CALLBACK_RESULT_CONTINUE;
+}
+
+static void ErrorCallback(AAudioStream* stream, void* userData, aaudio_result_t error) {
+    // The stream can't be closed from this callback, so the decoder thread
+    // reopens it on the next packet (usually after an audio route change).
+    __android_log_print(ANDROID_LOG_WARN, LOG_TAG, "Stream error: %s", AAudio.convertResultToText(error));
+    atomic_store(&StreamDisconnected, true);
+}
+
+// Called with StreamLock held
+static aaudio_result_t OpenStream(void) {
+    AAudioStreamBuilder* builder;
+    aaudio_result_t result;
+
+    result = AAudio.createStreamBuilder(&builder);
+    if (result != AAUDIO_OK) {
+        return result;
+    }
+
+    AAudio.setPerformanceMode(builder, AAUDIO_PERFORMANCE_MODE_LOW_LATENCY);
+    AAudio.setSharingMode(builder, AAUDIO_SHARING_MODE_EXCLUSIVE);
+    AAudio.setFormat(builder, AAUDIO_FORMAT_PCM_I16);
+    AAudio.setChannelCount(builder, ChannelCount);
+    AAudio.setSampleRate(builder, SampleRate);
+    AAudio.setDataCallback(builder, DataCallback, NULL);
+    AAudio.setErrorCallback(builder, ErrorCallback, NULL);
+    if (AAudio.setUsage != NULL) {
+        AAudio.setUsage(builder, AAUDIO_USAGE_GAME);
+    }
+
+    result = AAudio.openStream(builder, &Stream);
+    AAudio.deleteBuilder(builder);
+    if (result != AAUDIO_OK) {
+        Stream = NULL;
+        return result;
+    }
+
+    // We don't convert anything in the callback, so the stream must match the decoder
+    if (AAudio.getSampleRate(Stream) != SampleRate ||
+            AAudio.getChannelCount(Stream) != ChannelCount ||
+            AAudio.getFormat(Stream) != AAUDIO_FORMAT_PCM_I16) {
+        AAudio.close(Stream);
+        Stream = NULL;
+        return AAUDIO_ERROR_INVALID_FORMAT;
+    }
+
+    // Keep two bursts queued in the device, which is the usual low latency setting
+    int32_t framesPerBurst = AAudio.getFramesPerBurst(Stream);
+    AAudio.setBufferSizeInFrames(Stream, framesPerBurst * 2);
+
+    __android_log_print(ANDROID_LOG_INFO, LOG_TAG, "Opened %s stream: %d Hz, %d channels, %d frames per burst",
+                        AAudio.getSharingMode(Stream) == AAUDIO_SHARING_MODE_EXCLUSIVE ? "exclusive" : "shared",
+                        SampleRate, ChannelCount, framesPerBurst);
+
+    return AAUDIO_OK;
+}
+
+// Called with StreamLock held
+static void CloseStream(void) {
+    if (Stream != NULL) {
+        XRunsBeforeReopen += AAudio.getXRunCount(Stream);
+        AAudio.requestStop(Stream);
+        AAudio.close(Stream);
+        Stream = NULL;
+    }
+}
+
+static int64_t NowNs(void) {
+    struct timespec now;
+    clock_gettime(CLOCK_MONOTONIC, &now);
+    return now.tv_sec * 1000000000LL + now.tv_nsec;
+}
+
+// Reopens the stream after a disconnect. If that fails, StreamDisconnected stays set and
+// the reopen is retried with backoff on later writes until a stream comes back.
+static void ReopenStream(void) {
+    pthread_mutex_lock(&StreamLock);
+
+    if (!atomic_load(&Active) || !atomic_load(&StreamDisconnected) || NowNs() < NextReopenNs) {
+        pthread_mutex_unlock(&StreamLock);
+        return;
+    }
+
+    atomic_store(&StreamDisconnected, false);
+    CloseStream();
+
+    // Nothing is consuming the ring without a stream, so start the new one from empty
+    // rather than playing stale audio.
+    atomic_store(&RingReadIndex, atomic_load(&RingWriteIndex));
+    RingReadOffset = 0;
+    RingPlaying = false;
+
+    aaudio_result_t result = OpenStream();
+    if (result == AAUDIO_OK && StreamStarted) {
+        result = AAudio.requestStart(Stream);
+    }
+    if (result != AAUDIO_OK) {
+        CloseStream();
+
+        int backoffMs = REOPEN_MIN_BACKOFF_MS << (ReopenFailures < 5 ? ReopenFailures : 5);
+        if (backoffMs > REOPEN_MAX_BACKOFF_MS) {
+            backoffMs = REOPEN_MAX_BACKOFF_MS;
+        }
+        ReopenFailures++;
+        NextReopenNs = NowNs() + backoffMs * 1000000LL;
+        atomic_store(&StreamDisconnected, true);
+
+        __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, "Failed to reopen stream (attempt %d, retrying in %d ms): %s",
+                            ReopenFailures, backoffMs, AAudio.convertResultToText(result));
+    }
+    else {
+        if (ReopenFailures > 0) {
+            __android_log_print(ANDROID_LOG_INFO, LOG_TAG, "Reopened stream after %d failed attempts",
+                                ReopenFailures);
+        }
+        ReopenFailures = 0;
+        NextReopenNs = 0;
+    }
+
+    pthread_mutex_unlock(&StreamLock);
+}
+
+bool NativeAudioIsActive(void) {
+    return atomic_load_explicit(&Active, memory_order_relaxed);
+}
+
+int16_t* NativeAudioBeginWrite(void) {
+    if (atomic_load_explicit(&StreamDisconnected, memory_order_relaxed)) {
+        ReopenStream();
+    }
+
+    unsigned int writeIndex = atomic_load_explicit(&RingWriteIndex, memory_order_relaxed);
+    unsigned int readIndex = atomic_load_explicit(&RingReadIndex, memory_order_acquire);
+
+    if (writeIndex - readIndex >= (unsigned int)MaxQueuedSlots) {
+        atomic_fetch_add_explicit(&Drops, 1, memory_order_relaxed);
+        return NULL;
+    }
+
+    return &RingBuffer[(writeIndex & RING_MASK) * SamplesPerFrame * ChannelCount];
+}
+
+void NativeAudioCommitWrite(int frames) {
+    unsigned int writeIndex = atomic_load_explicit(&RingWriteIndex, memory_order_relaxed);
+
+    RingSlotFrames[writeIndex & RING_MASK] = frames;
+    atomic_store_explicit(&RingWriteIndex, writeIndex + 1, memory_order_release);
+    atomic_fetch_add_explicit(&Packets, 1, memory_order_relaxed);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_openNativeAudio(JNIEnv *env, jclass clazz,
+                                                          jint channelCount, jint sampleRate, jint samplesPerFrame) {
+    aaudio_result_t result;
+
+    if (!LoadAAudio()) {
+        return JNI_FALSE;
+    }
+
+    pthread_mutex_lock(&StreamLock);
+
+    ChannelCount = channelCount;
+    SampleRate = sampleRate;
+    SamplesPerFrame = samplesPerFrame;
+
+    MaxQueuedSlots = (MAX_QUEUED_MS * sampleRate) / (1000 * samplesPerFrame);
+    if (MaxQueuedSlots < 2) {
+        MaxQueuedSlots = 2;
+    }
+    else if (MaxQueuedSlots > RING_SLOTS) {
+        MaxQueuedSlots = RING_SLOTS;
+    }
+
+    RingBuffer = malloc(RING_SLOTS * samplesPerFrame * channelCount * sizeof(int16_t));
+    if (RingBuffer == NULL) {
+        pthread_mutex_unlock(&StreamLock);
+        return JNI_FALSE;
+    }
+
+    atomic_store(&RingWriteIndex, 0);
+    atomic_store(&RingReadIndex, 0);
+    RingReadOffset = 0;
+    RingPlaying = false;
+    atomic_store(&Underruns, 0);
+    atomic_store(&Drops, 0);
+    atomic_store(&Packets, 0);
+    XRunsBeforeReopen = 0;
+    ReopenFailures = 0;
+    NextReopenNs = 0;
+    atomic_store(&StreamDisconnected, false);
+    StreamStarted = false;
+
+    result = OpenStream();
+    if (result != AAUDIO_OK) {
+        __android_log_print(ANDROID_LOG_WARN, LOG_TAG, "Failed to open stream: %s",
+                            AAudio.convertResultToText(result));
+        free(RingBuffer);
+        RingBuffer = NULL;
+        pthread_mutex_unlock(&StreamLock);
+        return JNI_FALSE;
+    }
+
+    atomic_store(&Active, true);
+    pthread_mutex_unlock(&StreamLock);
+    return JNI_TRUE;
+}
+
+JNIEXPORT void JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_startNativeAudio(JNIEnv *env, jclass clazz) {
+    pthread_mutex_lock(&StreamLock);
+    if (Stream != NULL) {
+        AAudio.requestStart(Stream);
+    }
+    StreamStarted = true;
+    pthread_mutex_unlock(&StreamLock);
+}
+
+JNIEXPORT void JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_stopNativeAudio(JNIEnv *env, jclass clazz) {
+    pthread_mutex_lock(&StreamLock);
+    if (Stream != NULL) {
+        AAudio.requestStop(Stream);
+    }
+    StreamStarted = false;
+    pthread_mutex_unlock(&StreamLock);
+}
+
+JNIEXPORT void JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_getNativeAudioStats(JNIEnv *env, jclass clazz, jlongArray stats) {
+    jlong values[4];
+
+    pthread_mutex_lock(&StreamLock);
+
+    values[0] = atomic_load(&Packets);
+    values[1] = atomic_load(&Drops);
+    values[2] = atomic_load(&Underruns) + XRunsBeforeReopen;
+    values[3] = 0;
+
+    // Everything in the ring plus what the device has been given but not played yet
+    unsigned int queuedSlots = atomic_load(&RingWriteIndex) - atomic_load(&RingReadIndex);
+    int64_t queuedFrames = (int64_t)queuedSlots * SamplesPerFrame;
+    if (Stream != NULL) {
+        int64_t framePosition, timeNs;
+
+        values[2] += AAudio.getXRunCount(Stream);
+        if (AAudio.getTimestamp(Stream, CLOCK_MONOTONIC, &framePosition, &timeNs) == AAUDIO_OK) {
+            int64_t presentedFrames = framePosition + (NowNs() - timeNs) * SampleRate / 1000000000LL;
+            int64_t deviceFrames = AAudio.getFramesWritten(Stream) - presentedFrames;
+            if (deviceFrames > 0) {
+                queuedFrames += deviceFrames;
+            }
+        }
+    }
+    if (SampleRate != 0) {
+        values[3] = queuedFrames * 1000000LL / SampleRate;
+    }
+
+    pthread_mutex_unlock(&StreamLock);
+
+    (*env)->SetLongArrayRegion(env, stats, 0, 4, values);
+}
+
+JNIEXPORT void JNICALL
+Java_com_limelight_nvstream_jni_MoonBridge_closeNativeAudio(JNIEnv *env, jclass clazz) {
+    pthread_mutex_lock(&StreamLock);
+
+    atomic_store(&Active, false);
+
+    CloseStream();
+
+    __android_log_print(ANDROID_LOG_INFO, LOG_TAG, "Native audio: %d underruns, %d device xruns, %d drops",
+                        atomic_load(&Underruns), XRunsBeforeReopen, atomic_load(&Drops));
+
+    free(RingBuffer);
+    RingBuffer = NULL;
+
+    pthread_mutex_unlock(&StreamLock);
+}
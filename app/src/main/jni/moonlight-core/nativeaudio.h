@@ -0,0 +1,16 @@
+#pragma once
+
+#include <stdbool.h>
+#include <stdint.h>
+
+// Native AAudio output path. When it's active, decoded audio goes straight into a ring
+// buffer drained by the AAudio data callback instead of up through JNI to AudioTrack.
+
+bool NativeAudioIsActive(void);
+
+// Returns the ring slot to decode the next packet into, or NULL if the packet should be
+// dropped because too much audio is already queued.
+int16_t* NativeAudioBeginWrite(void);
+
+// Publishes the slot returned by NativeAudioBeginWrite() with the decoded frame count
+void NativeAudioCommitWrite(int frames);
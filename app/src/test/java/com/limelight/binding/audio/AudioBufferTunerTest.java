@@ -0,0 +1,70 @@
+package com.limelight.binding.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AudioBufferTunerTest {
+    private static final long SECOND_NS = 1000000000L;
+
+    @Test
+    public void growsOnUnderrunsUntilStable() {
+        AudioBufferTuner tuner = new AudioBufferTuner(480, 1440, 240);
+        tuner.reset(0);
+        assertEquals(480, tuner.getBufferFrames());
+
+        // Underruns while the stream starts are ignored
+        assertEquals(0, tuner.update(5, false, 0));
+        assertEquals(0, tuner.update(8, false, SECOND_NS / 2));
+
+        assertEquals(720, tuner.update(9, false, 2 * SECOND_NS));
+        assertEquals(0, tuner.update(9, false, 3 * SECOND_NS));
+        assertEquals(960, tuner.update(11, false, 4 * SECOND_NS));
+
+        assertFalse(tuner.shouldSave(4 * SECOND_NS + AudioBufferTuner.STABLE_NS - 1));
+        assertTrue(tuner.shouldSave(4 * SECOND_NS + AudioBufferTuner.STABLE_NS));
+        assertFalse(tuner.shouldSave(5 * SECOND_NS + AudioBufferTuner.STABLE_NS));
+    }
+
+    @Test
+    public void neverGrowsPastCapacity() {
+        AudioBufferTuner tuner = new AudioBufferTuner(480, 800, 240);
+        tuner.reset(0);
+        tuner.update(0, false, 0);
+
+        assertEquals(720, tuner.update(1, false, 2 * SECOND_NS));
+        assertEquals(800, tuner.update(2, false, 3 * SECOND_NS));
+        assertEquals(0, tuner.update(3, false, 4 * SECOND_NS));
+        assertEquals(800, tuner.getBufferFrames());
+    }
+
+    @Test
+    public void ignoresUnderrunsFromStarvedInput() {
+        AudioBufferTuner tuner = new AudioBufferTuner(480, 1440, 240);
+        tuner.reset(0);
+        tuner.update(0, false, 0);
+
+        // The network went quiet, so a bigger buffer wouldn't have helped
+        assertEquals(0, tuner.update(3, true, 2 * SECOND_NS));
+        assertEquals(480, tuner.getBufferFrames());
+        assertTrue(tuner.shouldSave(AudioBufferTuner.STABLE_NS));
+
+        // Only underruns after the starvation count
+        assertEquals(0, tuner.update(3, false, AudioBufferTuner.STABLE_NS + SECOND_NS));
+        assertEquals(720, tuner.update(4, false, AudioBufferTuner.STABLE_NS + 2 * SECOND_NS));
+    }
+
+    @Test
+    public void savedSizeIsNotSavedAgain() {
+        AudioBufferTuner tuner = new AudioBufferTuner(480, 1440, 240);
+        tuner.reset(960);
+        assertEquals(960, tuner.getBufferFrames());
+
+        tuner.update(0, false, 0);
+        assertFalse(tuner.shouldSave(AudioBufferTuner.STABLE_NS * 2));
+
+        // Sizes saved with a larger capacity are clamped
+        tuner.reset(4800);
+        assertEquals(1440, tuner.getBufferFrames());
+    }
+}
@@ -0,0 +1,64 @@
+package com.limelight.binding.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AudioJitterControllerTest {
+    private static final long PACKET_NS = 5000000L;
+
+    @Test
+    public void correctsLevelTowardTarget() {
+        AudioJitterController controller = new AudioJitterController(48000, 240, 20, 80);
+
+        assertTrue(controller.onPacket(240, 50, 0));
+        assertEquals(1.0 - AudioJitterController.MAX_CORRECTION, controller.getRatio(), 1e-9);
+
+        controller = new AudioJitterController(48000, 240, 20, 80);
+        assertTrue(controller.onPacket(240, 0, 0));
+        assertEquals(1.0 + AudioJitterController.MAX_CORRECTION, controller.getRatio(), 1e-9);
+    }
+
+    @Test
+    public void dropsOnlyFarAboveTarget() {
+        AudioJitterController controller = new AudioJitterController(48000, 240, 20, 80);
+
+        assertTrue(controller.onPacket(240, 20 + AudioJitterController.DROP_THRESHOLD_MS, 0));
+        assertFalse(controller.onPacket(240, 21 + AudioJitterController.DROP_THRESHOLD_MS, PACKET_NS));
+        assertEquals(1, controller.getDrops());
+    }
+
+    @Test
+    public void underrunsRaiseTargetUntilPlaybackSettles() {
+        AudioJitterController controller = new AudioJitterController(48000, 240, 20, 30);
+        controller.onPacket(240, 20, 0);
+
+        controller.onUnderrun(0);
+        assertEquals(25, controller.getTargetMs(), 0.01);
+        controller.onUnderrun(0);
+        controller.onUnderrun(0);
+        assertEquals(30, controller.getTargetMs(), 0.01);
+        assertEquals(3, controller.getUnderruns());
+
+        // Clean playback slowly lowers the target again
+        controller.onPacket(240, 20, 10000000000L);
+        assertEquals(29, controller.getTargetMs(), 0.01);
+    }
+
+    @Test
+    public void estimatesDriftFromOutputClock() {
+        AudioJitterController controller = new AudioJitterController(48000, 240, 20, 80);
+
+        // The output plays 0.1% faster than the host sends audio
+        for (long packet = 0; packet <= 2000; packet++) {
+            long now = packet * PACKET_NS;
+            if (packet % 100 == 0) {
+                controller.onTimestamp((long) (now * 48.048 / 1000000), now);
+            }
+            controller.onPacket(240, 20, now);
+        }
+
+        assertEquals(1000, controller.getDriftPpm(), 20);
+        assertEquals(1.001, controller.getRatio(), 0.0001);
+    }
+}
@@ -0,0 +1,62 @@
+package com.limelight.binding.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AudioResamplerTest {
+    private static short[] ramp(int frames, int channels, int start) {
+        short[] data = new short[frames * channels];
+        for (int i = 0; i < frames; i++) {
+            for (int ch = 0; ch < channels; ch++) {
+                data[i * channels + ch] = (short) ((start + i) * (ch + 1));
+            }
+        }
+        return data;
+    }
+
+    @Test
+    public void unityRatioPassesThrough() {
+        AudioResampler resampler = new AudioResampler(2);
+        short[] input = ramp(240, 2, 0);
+        short[] output = new short[AudioResampler.getMaxOutputFrames(240, 1.005) * 2];
+
+        assertEquals(240, resampler.process(input, 240, output, 1.0));
+        for (int i = 0; i < input.length; i++) {
+            assertEquals(input[i], output[i]);
+        }
+    }
+
+    @Test
+    public void frameCountFollowsRatioAcrossPackets() {
+        AudioResampler resampler = new AudioResampler(2);
+        short[] output = new short[AudioResampler.getMaxOutputFrames(240, 1.005) * 2];
+
+        for (double ratio : new double[] {1.005, 0.995}) {
+            long totalOutput = 0;
+            for (int packet = 0; packet < 200; packet++) {
+                int frames = resampler.process(ramp(240, 2, packet * 240), 240, output, ratio);
+                assertTrue(frames <= output.length / 2);
+                totalOutput += frames;
+            }
+            assertEquals(200 * 240 * ratio, totalOutput, 2);
+        }
+    }
+
+    @Test
+    public void interpolatesAcrossPacketBoundaries() {
+        AudioResampler resampler = new AudioResampler(2);
+        short[] output = new short[AudioResampler.getMaxOutputFrames(240, 1.005) * 2];
+
+        // A continuous ramp must stay continuous when split into packets
+        int expectedFrame = 0;
+        double step = 1 / 0.995;
+        for (int packet = 0; packet < 10; packet++) {
+            int frames = resampler.process(ramp(240, 2, packet * 240), 240, output, 0.995);
+            for (int i = 0; i < frames; i++, expectedFrame++) {
+                assertEquals(expectedFrame * step, output[i * 2], 1);
+                assertEquals(expectedFrame * step * 2, output[i * 2 + 1], 1);
+            }
+        }
+    }
+}
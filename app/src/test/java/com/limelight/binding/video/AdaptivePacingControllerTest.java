@@ -0,0 +1,136 @@
+package com.limelight.binding.video;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptivePacingControllerTest {
+    private static final int FRAME_RATE = 60;
+    private static final long FRAME_INTERVAL_US = 1000000 / FRAME_RATE;
+    private static final long FRAME_INTERVAL_NS = 1000000000L / FRAME_RATE;
+    private static final long DECODE_TIME_US = 5000;
+
+    // Feeds a stream into the controller one second at a time. Arrival intervals alternate
+    // between early and late by the jitter, and a stutter is a frame repeated on screen.
+    private static class Stream {
+        final AdaptivePacingController controller = new AdaptivePacingController(FRAME_RATE);
+        long arrivalUs = 1000000;
+        long vsyncNs = 1000000000L;
+        boolean early;
+
+        void runSecond(long jitterUs, boolean stutter) {
+            if (stutter) {
+                controller.onVsync(vsyncNs, true);
+                controller.onVsync(vsyncNs + FRAME_INTERVAL_NS, false);
+                controller.onVsync(vsyncNs + 2 * FRAME_INTERVAL_NS, true);
+                vsyncNs += 3 * FRAME_INTERVAL_NS;
+            }
+
+            for (int i = 0; i < FRAME_RATE; i++) {
+                arrivalUs += FRAME_INTERVAL_US + (early ? -jitterUs : jitterUs);
+                early = !early;
+                controller.onFrameOutput(arrivalUs, arrivalUs + DECODE_TIME_US, 0);
+            }
+        }
+
+        void run(int seconds, long jitterUs) {
+            for (int i = 0; i < seconds; i++) {
+                runSecond(jitterUs, false);
+            }
+        }
+    }
+
+    @Test
+    public void steadyStreamUsesDepthZero() {
+        Stream stream = new Stream();
+        stream.run(10, 0);
+        assertEquals(0, stream.controller.getDepth());
+        assertEquals(0, stream.controller.getJitterMs(), 0.01);
+    }
+
+    @Test
+    public void depthFollowsJitterBothWays() {
+        Stream stream = new Stream();
+        stream.run(2, 0);
+        assertEquals(0, stream.controller.getDepth());
+
+        // Most of a frame of jitter needs one frame held back
+        stream.run(10, 12000);
+        assertEquals(1, stream.controller.getDepth());
+
+        stream.run(10, 0);
+        assertEquals(0, stream.controller.getDepth());
+    }
+
+    @Test
+    public void stutterRaisesDepthAndOnlyCleanWindowsLowerIt() {
+        Stream stream = new Stream();
+        stream.run(10, 8000);
+        assertEquals(1, stream.controller.getDepth());
+
+        for (int i = 0; i < 4; i++) {
+            stream.runSecond(8000, true);
+        }
+        stream.runSecond(8000, false);
+        int raisedDepth = stream.controller.getDepth();
+        assertTrue(raisedDepth > 1);
+
+        // A few clean windows aren't enough to give the latency back
+        stream.run(3, 8000);
+        assertEquals(raisedDepth, stream.controller.getDepth());
+
+        stream.run(30, 8000);
+        assertEquals(1, stream.controller.getDepth());
+    }
+
+    @Test
+    public void neverExceedsMaxDepth() {
+        Stream stream = new Stream();
+        for (int i = 0; i < 20; i++) {
+            stream.runSecond(FRAME_INTERVAL_US * 3, true);
+        }
+        assertEquals(AdaptivePacingController.MAX_DEPTH, stream.controller.getDepth());
+    }
+
+    @Test
+    public void countsRepeatedFramesAsStutter() {
+        AdaptivePacingController controller = new AdaptivePacingController(FRAME_RATE);
+        long vsyncNs = FRAME_INTERVAL_NS;
+
+        controller.onVsync(vsyncNs, true);
+        controller.onVsync(vsyncNs += FRAME_INTERVAL_NS, true);
+        assertEquals(0, controller.getStutterCount());
+
+        controller.onVsync(vsyncNs += FRAME_INTERVAL_NS, false);
+        controller.onVsync(vsyncNs += FRAME_INTERVAL_NS, true);
+        assertEquals(1, controller.getStutterCount());
+
+        // A long pause is the host, not a stutter
+        controller.onVsync(vsyncNs + 60 * FRAME_INTERVAL_NS, true);
+        assertEquals(1, controller.getStutterCount());
+    }
+
+    @Test
+    public void depthZeroStillWaitsForTheNextFrameSlot() {
+        Stream stream = new Stream();
+        stream.run(10, 0);
+        assertEquals(0, stream.controller.getDepth());
+
+        // 60 FPS on a 120 Hz display only releases a frame on every other vsync
+        long vsyncPeriodNs = 1000000000L / 120;
+        long lastRenderedNs = 0;
+        int released = 0;
+        for (long vsyncNs = vsyncPeriodNs; vsyncNs <= 1000000000L; vsyncNs += vsyncPeriodNs) {
+            if (AdaptivePacingController.isFrameDue(vsyncNs, lastRenderedNs, FRAME_RATE)) {
+                lastRenderedNs = vsyncNs;
+                released++;
+            }
+        }
+        assertEquals(60, released);
+
+        // A vsync that comes early still counts once 80% of a frame interval has passed
+        long slackNs = 800000000L / FRAME_RATE;
+        assertTrue(AdaptivePacingController.isFrameDue(slackNs, 0, FRAME_RATE));
+        assertFalse(AdaptivePacingController.isFrameDue(slackNs - 1, 0, FRAME_RATE));
+    }
+}
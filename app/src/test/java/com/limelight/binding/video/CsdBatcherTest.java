@@ -0,0 +1,47 @@
+package com.limelight.binding.video;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CsdBatcherTest {
+    @Test
+    public void batchesInVpsSpsPpsOrder() {
+        CsdBatcher batcher = new CsdBatcher();
+        batcher.addPps(new byte[]{3});
+        batcher.addSps(new byte[]{2, 2});
+        batcher.addVps(new byte[]{1});
+
+        assertArrayEquals(new byte[]{1, 2, 2, 3}, batcher.getBatchedCsd());
+    }
+
+    @Test
+    public void reusesBatchForUnchangedParameterSets() {
+        byte[] sps = {2};
+        byte[] pps = {3};
+
+        CsdBatcher batcher = new CsdBatcher();
+        batcher.addSps(sps);
+        batcher.addPps(pps);
+        byte[] first = batcher.getBatchedCsd();
+
+        // The next IDR frame gets the same arrays back from the CSD cache
+        batcher.clear();
+        batcher.addSps(sps);
+        batcher.addPps(pps);
+        assertSame(first, batcher.getBatchedCsd());
+
+        // A changed parameter set needs a new batch, even with the same contents
+        batcher.clear();
+        batcher.addSps(sps);
+        batcher.addPps(new byte[]{3});
+        byte[] second = batcher.getBatchedCsd();
+        assertNotSame(first, second);
+        assertArrayEquals(first, second);
+
+        // As does a different number of parameter sets
+        batcher.clear();
+        batcher.addSps(sps);
+        assertArrayEquals(new byte[]{2}, batcher.getBatchedCsd());
+    }
+}
@@ -0,0 +1,162 @@
+package com.limelight.binding.video;
+
+import com.limelight.nvstream.av.video.VideoDecoderRenderer;
+import com.limelight.nvstream.jni.MoonBridge;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DecodeUnitReplayTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class FakeRenderer extends VideoDecoderRenderer {
+        int setupFormat, setupWidth, setupHeight, setupRedrawRate;
+        boolean started, stopped, cleanedUp;
+        final List<Integer> frameNumbers = new ArrayList<>();
+        final List<Long> receiveToEnqueueMs = new ArrayList<>();
+        int failFrameNumber = -1;
+
+        @Override
+        public int setup(int format, int width, int height, int redrawRate) {
+            setupFormat = format;
+            setupWidth = width;
+            setupHeight = height;
+            setupRedrawRate = redrawRate;
+            return 0;
+        }
+
+        @Override
+        public void start() {
+            started = true;
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public int submitDecodeUnit(byte[] decodeUnitData, int decodeUnitLength, int decodeUnitType,
+                                    int frameNumber, int frameType, char frameHostProcessingLatency,
+                                    long receiveTimeMs, long enqueueTimeMs) {
+            assertEquals(frameNumber, decodeUnitData[0]);
+            assertEquals(decodeUnitLength, decodeUnitData[1]);
+
+            frameNumbers.add(frameNumber);
+            receiveToEnqueueMs.add(enqueueTimeMs - receiveTimeMs);
+            return frameNumber == failFrameNumber ? MoonBridge.DR_NEED_IDR : MoonBridge.DR_OK;
+        }
+
+        @Override
+        public void cleanup() {
+            cleanedUp = true;
+        }
+
+        @Override
+        public int getCapabilities() {
+            return 0;
+        }
+
+        @Override
+        public void setHdrMode(boolean enabled, byte[] hdrMetadata) {
+        }
+    }
+
+    private static void writeFrame(DecodeUnitCapture capture, int frameNumber, int frameType, int length) {
+        byte[] data = new byte[length];
+        data[0] = (byte) frameNumber;
+        data[1] = (byte) length;
+        capture.write(data, length, MoonBridge.BUFFER_TYPE_PICDATA, frameNumber, frameType,
+                (char) 10, 1000 + frameNumber * 16, 1003 + frameNumber * 16);
+    }
+
+    // Frames 1-8, with IDR frames at 1 and 6
+    private File writeCapture() throws Exception {
+        File file = new File(folder.getRoot(), "test.mldu");
+        DecodeUnitCapture capture = new DecodeUnitCapture(file, MoonBridge.VIDEO_FORMAT_H264, 1280, 720, 60);
+        for (int frame = 1; frame <= 8; frame++) {
+            writeFrame(capture, frame, frame == 1 || frame == 6 ? MoonBridge.FRAME_TYPE_IDR : MoonBridge.FRAME_TYPE_PFRAME, 20 + frame);
+        }
+        capture.close();
+        return file;
+    }
+
+    @Test
+    public void captureRoundTrip() throws Exception {
+        try (DecodeUnitCapture.Reader reader = new DecodeUnitCapture.Reader(writeCapture())) {
+            assertEquals(MoonBridge.VIDEO_FORMAT_H264, reader.videoFormat);
+            assertEquals(1280, reader.width);
+            assertEquals(720, reader.height);
+            assertEquals(60, reader.redrawRate);
+
+            for (int frame = 1; frame <= 8; frame++) {
+                assertTrue(reader.next());
+                assertEquals(frame, reader.frameNumber);
+                assertEquals(20 + frame, reader.length);
+                assertEquals(frame, reader.data[0]);
+                assertEquals(MoonBridge.BUFFER_TYPE_PICDATA, reader.decodeUnitType);
+                assertEquals(10, reader.hostProcessingLatency);
+                assertEquals(1000 + frame * 16, reader.receiveTimeMs);
+                assertEquals(1003 + frame * 16, reader.enqueueTimeMs);
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void truncatedCaptureEndsCleanly() throws Exception {
+        File file = writeCapture();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+
+        int units = 0;
+        try (DecodeUnitCapture.Reader reader = new DecodeUnitCapture.Reader(file)) {
+            while (reader.next()) {
+                units++;
+            }
+        }
+        assertEquals(7, units);
+    }
+
+    @Test
+    public void replayFeedsEveryDecodeUnit() throws Exception {
+        FakeRenderer renderer = new FakeRenderer();
+        DecodeUnitReplay.Result result = new DecodeUnitReplay(writeCapture(), renderer, false).run();
+
+        assertEquals(MoonBridge.VIDEO_FORMAT_H264, renderer.setupFormat);
+        assertEquals(1280, renderer.setupWidth);
+        assertEquals(720, renderer.setupHeight);
+        assertEquals(60, renderer.setupRedrawRate);
+        assertTrue(renderer.started && renderer.stopped && renderer.cleanedUp);
+
+        assertEquals(8, result.frames);
+        assertEquals(8, result.decodeUnits);
+        assertEquals(0, result.idrRequests);
+
+        // Timestamps are moved to the present but keep their receive to enqueue spacing
+        for (long delta : renderer.receiveToEnqueueMs) {
+            assertEquals(3, delta);
+        }
+    }
+
+    @Test
+    public void idrRequestSkipsToNextIdrFrame() throws Exception {
+        FakeRenderer renderer = new FakeRenderer();
+        renderer.failFrameNumber = 2;
+        DecodeUnitReplay.Result result = new DecodeUnitReplay(writeCapture(), renderer, false).run();
+
+        assertEquals(1, result.idrRequests);
+        assertEquals(3, result.skippedFrames);
+        assertEquals(List.of(1, 2, 6, 7, 8), renderer.frameNumbers);
+    }
+}
@@ -0,0 +1,73 @@
+package com.limelight.binding.video;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DecoderBacklogControllerTest {
+    // Age of the oldest frame in the codec when it's this many 60 FPS frames behind
+    private static long frames(int count) {
+        return count * 1000000L / 60;
+    }
+
+    @Test
+    public void ignoresBacklogWithinBudget() {
+        // 60 FPS with a 100 ms budget allows 6 frames of backlog
+        DecoderBacklogController controller = new DecoderBacklogController(60, 100);
+
+        for (long now = 0; now < 5000; now += 16) {
+            assertEquals(DecoderBacklogController.REASON_NONE, controller.check(3, 3, now));
+        }
+        assertEquals(0, controller.getInterventions());
+    }
+
+    @Test
+    public void ignoresShortBurstOverBudget() {
+        DecoderBacklogController controller = new DecoderBacklogController(60, 100);
+
+        assertEquals(DecoderBacklogController.REASON_NONE, controller.check(10, frames(2), 0));
+        assertEquals(DecoderBacklogController.REASON_NONE, controller.check(10, frames(2), 100));
+        assertEquals(DecoderBacklogController.REASON_NONE, controller.check(1, frames(2), 200));
+        assertEquals(DecoderBacklogController.REASON_NONE, controller.check(10, frames(2), 300));
+        assertEquals(0, controller.getInterventions());
+    }
+
+    @Test
+    public void intervenesOnSustainedBacklog() {
+        DecoderBacklogController controller = new DecoderBacklogController(60, 100);
+
+        assertEquals(DecoderBacklogController.REASON_NONE, controller.check(2, frames(10), 0));
+        assertEquals(DecoderBacklogController.REASON_CODEC_DEPTH, controller.check(2, frames(10), 300));
+        assertEquals(1, controller.getInterventions());
+    }
+
+    @Test
+    public void waitsForCooldownAfterIntervention() {
+        DecoderBacklogController controller = new DecoderBacklogController(60, 100);
+
+        controller.check(10, frames(2), 0);
+        assertEquals(DecoderBacklogController.REASON_PENDING_FRAMES, controller.check(10, frames(2), 300));
+
+        // Still backlogged while the IDR frame is on its way
+        assertEquals(DecoderBacklogController.REASON_NONE, controller.check(10, frames(2), 1000));
+        assertEquals(DecoderBacklogController.REASON_NONE, controller.check(10, frames(2), 2299));
+
+        controller.check(10, frames(2), 2300);
+        assertEquals(DecoderBacklogController.REASON_PENDING_FRAMES, controller.check(10, frames(2), 2600));
+        assertEquals(2, controller.getInterventions());
+    }
+
+    @Test
+    public void codecBacklogIsBasedOnOldestFrameAge() {
+        DecoderBacklogController controller = new DecoderBacklogController(60, 100);
+
+        // A frame stuck in the codec for 150 ms is over budget with nothing pending
+        controller.check(0, 150000, 0);
+        assertEquals(DecoderBacklogController.REASON_CODEC_DEPTH, controller.check(0, 400000, 300));
+        assertEquals(400, controller.getBacklogUs() / 1000);
+
+        // Once frames come out again, the codec contributes nothing
+        assertEquals(DecoderBacklogController.REASON_NONE, controller.check(0, 0, 2300));
+        assertEquals(0, controller.getBacklogUs());
+    }
+}
@@ -0,0 +1,91 @@
+package com.limelight.binding.video;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameLatencyTrackerTest {
+    private FrameLatencyTracker tracker;
+
+    @Before
+    public void setUp() {
+        tracker = new FrameLatencyTracker();
+        tracker.setRenderTimesAvailable(true);
+    }
+
+    private void releaseFrames(int count) {
+        for (int i = 1; i <= count; i++) {
+            tracker.onFrameQueued(i, 0, 0);
+            tracker.onFrameDecoded(i);
+            tracker.onFrameReleased(i);
+        }
+    }
+
+    private static long renderTimeNanos() {
+        return System.nanoTime();
+    }
+
+    @Test
+    public void noDropsWhenEveryFrameIsRendered() {
+        releaseFrames(4);
+
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(0, tracker.onFrameRendered(i, renderTimeNanos()));
+        }
+
+        tracker.updateWindow();
+        assertEquals(4, tracker.getWindowHistogram(FrameLatencyTracker.STAGE_DECODE_TO_DISPLAY).getCount());
+    }
+
+    @Test
+    public void skippedFramesAreCountedOnceALaterFrameIsRendered() {
+        releaseFrames(4);
+
+        // Batched callbacks that never mention frames 2 and 3
+        assertEquals(0, tracker.onFrameRendered(1, renderTimeNanos()));
+        assertEquals(2, tracker.onFrameRendered(4, renderTimeNanos()));
+    }
+
+    @Test
+    public void lateReportUndoesDrop() {
+        releaseFrames(3);
+
+        assertEquals(1, tracker.onFrameRendered(2, renderTimeNanos()));
+        assertEquals(-1, tracker.onFrameRendered(1, renderTimeNanos()));
+
+        // A duplicate report changes nothing
+        assertEquals(0, tracker.onFrameRendered(1, renderTimeNanos()));
+        assertEquals(0, tracker.onFrameRendered(3, renderTimeNanos()));
+    }
+
+    @Test
+    public void framesNotReleasedForRenderingAreNotDrops() {
+        tracker.onFrameQueued(1, 0, 0);
+        tracker.onFrameDecoded(1);
+        tracker.onFrameQueued(2, 0, 0);
+        tracker.onFrameDecoded(2);
+        tracker.onFrameReleased(2);
+
+        assertEquals(0, tracker.onFrameRendered(2, renderTimeNanos()));
+    }
+
+    @Test
+    public void oldestInDecoderAgeSkipsFramesDroppedByTheDecoder() {
+        assertEquals(0, tracker.getOldestInDecoderAgeUs(FrameLatencyTracker.nowUs()));
+
+        tracker.onFrameQueued(1, 0, 0);
+        tracker.onFrameQueued(2, 0, 0);
+        long queuedUs = FrameLatencyTracker.nowUs();
+        assertTrue(tracker.getOldestInDecoderAgeUs(queuedUs + 50000) >= 50000);
+
+        // Frame 1 never comes out, but frame 2 does, so nothing is left in the decoder
+        tracker.onFrameDecoded(2);
+        assertEquals(0, tracker.getOldestInDecoderAgeUs(queuedUs + 50000));
+
+        // Frames queued before a flush never come out
+        tracker.onFrameQueued(3, 0, 0);
+        tracker.onDecoderFlushed();
+        assertEquals(0, tracker.getOldestInDecoderAgeUs(FrameLatencyTracker.nowUs() + 50000));
+    }
+}
@@ -0,0 +1,58 @@
+package com.limelight.binding.video;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0f, histogram.getPercentileMs(50), 0f);
+        assertEquals(0f, histogram.getMaxMs(), 0f);
+    }
+
+    @Test
+    public void percentilesAreWithinBucketResolution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50f, histogram.getPercentileMs(50), 50f * 0.25f);
+        assertEquals(95f, histogram.getPercentileMs(95), 95f * 0.25f);
+        assertEquals(99f, histogram.getPercentileMs(99), 99f * 0.25f);
+        assertEquals(100f, histogram.getMaxMs(), 0f);
+    }
+
+    @Test
+    public void singleOutlierShowsUpInTail() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(5000);
+        }
+        histogram.record(80000);
+
+        assertTrue(histogram.getPercentileMs(50) < 7f);
+        assertEquals(80f, histogram.getMaxMs(), 0f);
+        assertEquals(80f, histogram.getPercentileMs(100), 0f);
+    }
+
+    @Test
+    public void diffOnlyContainsNewSamples() {
+        LatencyHistogram session = new LatencyHistogram();
+        LatencyHistogram snapshot = new LatencyHistogram();
+        LatencyHistogram window = new LatencyHistogram();
+
+        session.record(100000);
+        snapshot.copy(session);
+        session.record(2000);
+        session.record(3000);
+
+        window.diff(session, snapshot);
+        assertEquals(2, window.getCount());
+        assertTrue(window.getMaxMs() < 5f);
+    }
+}
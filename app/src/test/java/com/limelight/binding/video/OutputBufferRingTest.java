@@ -0,0 +1,108 @@
+package com.limelight.binding.video;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OutputBufferRingTest {
+    private static class RecordingCallback implements OutputBufferRing.EvictionCallback {
+        final List<Integer> evicted = new ArrayList<>();
+
+        @Override
+        public void onEvicted(int index) {
+            evicted.add(index);
+        }
+    }
+
+    @Test
+    public void pollsInOrder() {
+        OutputBufferRing ring = new OutputBufferRing(8);
+        RecordingCallback callback = new RecordingCallback();
+
+        ring.add(3, 4, callback);
+        ring.add(1, 4, callback);
+        ring.add(7, 4, callback);
+
+        assertEquals(3, ring.poll());
+        assertEquals(1, ring.poll());
+        assertEquals(7, ring.poll());
+        assertEquals(-1, ring.poll());
+        assertTrue(callback.evicted.isEmpty());
+        assertEquals(0, ring.getRenderedCount());
+    }
+
+    @Test
+    public void evictsOldestWhenOverLimit() {
+        OutputBufferRing ring = new OutputBufferRing(8);
+        RecordingCallback callback = new RecordingCallback();
+
+        for (int i = 0; i < 5; i++) {
+            ring.add(i, 2, callback);
+        }
+
+        assertEquals(2, ring.size());
+        assertEquals(3, ring.getEvictedCount());
+        assertEquals(0, (int) callback.evicted.get(0));
+        assertEquals(2, (int) callback.evicted.get(2));
+        assertEquals(3, ring.poll());
+        assertEquals(4, ring.poll());
+    }
+
+    @Test
+    public void limitIsClampedToCapacity() {
+        OutputBufferRing ring = new OutputBufferRing(4);
+        RecordingCallback callback = new RecordingCallback();
+
+        for (int i = 0; i < 10; i++) {
+            ring.add(i, 100, callback);
+        }
+
+        assertEquals(3, ring.size());
+        assertEquals(7, ring.getEvictedCount());
+    }
+
+    @Test
+    public void clearDropsPendingEntries() {
+        OutputBufferRing ring = new OutputBufferRing(8);
+        RecordingCallback callback = new RecordingCallback();
+
+        ring.add(1, 4, callback);
+        ring.add(2, 4, callback);
+        ring.clear();
+
+        assertEquals(0, ring.size());
+        assertEquals(-1, ring.poll());
+        ring.add(5, 4, callback);
+        assertEquals(5, ring.poll());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPowerOfTwoCapacity() {
+        new OutputBufferRing(6);
+    }
+
+    @Test
+    public void countsRenderedAndCatchUpDropsSeparately() {
+        OutputBufferRing ring = new OutputBufferRing(8);
+        RecordingCallback callback = new RecordingCallback();
+
+        ring.add(0, 4, callback);
+        ring.add(1, 4, callback);
+        ring.add(2, 4, callback);
+
+        // Catch up by dropping everything but the newest frame, then render it
+        ring.poll();
+        ring.onCatchUpDropped();
+        ring.poll();
+        ring.onCatchUpDropped();
+        assertEquals(2, ring.poll());
+        ring.onRendered();
+
+        assertEquals(1, ring.getRenderedCount());
+        assertEquals(2, ring.getCatchUpDroppedCount());
+        assertEquals(0, ring.getEvictedCount());
+    }
+}
@@ -0,0 +1,105 @@
+package com.limelight.binding.video;
+
+import com.limelight.binding.audio.AudioStats;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class SessionRecorderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsAreExportedInOrder() throws Exception {
+        File dir = folder.newFolder();
+        SessionRecorder recorder = new SessionRecorder(dir, 100, 4);
+
+        recorder.record(1, 1000, 1002, 1003, 50000, 1, 0, (char) 15);
+        recorder.record(2, 1016, 1017, 1019, 8000, 0, 0, (char) 12);
+        recorder.record(5, 1066, 1067, 1067, 9000, 0, 2, (char) 40);
+        recorder.close();
+
+        StringWriter csv = new StringWriter();
+        assertEquals(3, SessionRecorder.writeCsv(dir, csv));
+
+        String[] lines = csv.toString().split("\n");
+        assertEquals(4, lines.length);
+        assertEquals("1,1000,2,1,50000,1.5,0,IDR", lines[1]);
+        assertEquals("2,1016,1,2,8000,1.2,0,P", lines[2]);
+        assertEquals("5,1066,1,0,9000,4.0,2,P", lines[3]);
+
+        assertTrue(recorder.getSummary().startsWith("Session: 3 frames over 0.1 s, 2 lost, 1 IDR"));
+    }
+
+    @Test
+    public void rotationKeepsTheNewestSegments() throws Exception {
+        File dir = folder.newFolder();
+        SessionRecorder recorder = new SessionRecorder(dir, 10, 3);
+
+        for (int frame = 1; frame <= 100; frame++) {
+            recorder.record(frame, frame, frame, frame, 1000, 0, 0, (char) 0);
+        }
+        recorder.close();
+
+        StringWriter csv = new StringWriter();
+        assertEquals(30, SessionRecorder.writeCsv(dir, csv));
+        assertTrue(csv.toString().split("\n")[1].startsWith("71,"));
+
+        File[] segments = dir.listFiles((d, name) -> name.endsWith(".bin"));
+        assertEquals(3, segments.length);
+        for (File segment : segments) {
+            assertEquals(SessionRecorder.HEADER_SIZE + 10 * SessionRecorder.RECORD_SIZE, segment.length());
+        }
+    }
+
+    @Test
+    public void summaryIncludesAudioWindows() throws Exception {
+        SessionRecorder recorder = new SessionRecorder(folder.newFolder(), 100, 4);
+
+        AudioStats previous = new AudioStats();
+        AudioStats totals = new AudioStats();
+        totals.packetsPlayed = 200;
+        totals.underruns = 1;
+        totals.maxWriteBlockUs = 4000;
+        totals.outputLatencyMs = 30;
+
+        AudioStats window = new AudioStats();
+        window.copy(totals);
+        window.windowSince(previous);
+        recorder.recordAudio(window);
+        previous.copy(totals);
+
+        totals.packetsPlayed = 398;
+        totals.packetsDropped = 2;
+        totals.maxWriteBlockUs = 1000;
+        totals.outputLatencyMs = 50;
+        window.copy(totals);
+        window.windowSince(previous);
+        assertEquals(198, window.packetsPlayed);
+        assertEquals(0, window.underruns);
+        recorder.recordAudio(window);
+        recorder.close();
+
+        assertTrue(recorder.getSummary().endsWith("\nAudio: 398 packets, 2 dropped, 1 underruns, " +
+                "max write block 4.0 ms, output latency average 40.0 ms max 50.0 ms"));
+    }
+
+    @Test
+    public void newSessionReplacesOldLog() throws Exception {
+        File dir = folder.newFolder();
+        SessionRecorder recorder = new SessionRecorder(dir, 10, 3);
+        for (int frame = 1; frame <= 5; frame++) {
+            recorder.record(frame, frame, frame, frame, 1000, 0, 0, (char) 0);
+        }
+        recorder.close();
+
+        new SessionRecorder(dir, 10, 3).close();
+        assertEquals(0, SessionRecorder.writeCsv(dir, new StringWriter()));
+    }
+}
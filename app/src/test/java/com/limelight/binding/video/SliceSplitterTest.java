@@ -0,0 +1,75 @@
+package com.limelight.binding.video;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+public class SliceSplitterTest {
+    private static void appendNal(ByteArrayOutputStream out, int header, int payloadLength) {
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(1);
+        out.write(header);
+        for (int i = 0; i < payloadLength; i++) {
+            out.write(0x80 + i % 16);
+        }
+    }
+
+    @Test
+    public void singleSliceIsOneChunk() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        appendNal(out, 0x65, 100);
+        byte[] data = out.toByteArray();
+
+        int[] offsets = new int[4];
+        assertEquals(1, SliceSplitter.findSliceOffsets(data, data.length, false, offsets));
+        assertEquals(0, offsets[0]);
+    }
+
+    @Test
+    public void splitsAvcSlicesKeepingSeiWithFirstSlice() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        appendNal(out, 0x06, 10);  // SEI
+        appendNal(out, 0x41, 50);  // Slice
+        int secondSlice = out.size();
+        appendNal(out, 0x41, 50);
+        int thirdSlice = out.size();
+        appendNal(out, 0x41, 50);
+        byte[] data = out.toByteArray();
+
+        int[] offsets = new int[4];
+        assertEquals(3, SliceSplitter.findSliceOffsets(data, data.length, false, offsets));
+        assertEquals(0, offsets[0]);
+        assertEquals(secondSlice, offsets[1]);
+        assertEquals(thirdSlice, offsets[2]);
+    }
+
+    @Test
+    public void splitsHevcSlices() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        appendNal(out, 1 << 1, 50);  // TRAIL_R
+        int secondSlice = out.size();
+        appendNal(out, 1 << 1, 50);
+        appendNal(out, 39 << 1, 10);  // Suffix SEI stays with the slice before it
+        byte[] data = out.toByteArray();
+
+        int[] offsets = new int[4];
+        assertEquals(2, SliceSplitter.findSliceOffsets(data, data.length, true, offsets));
+        assertEquals(secondSlice, offsets[1]);
+    }
+
+    @Test
+    public void extraSlicesMergeIntoLastChunk() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 6; i++) {
+            appendNal(out, 0x41, 20);
+        }
+        byte[] data = out.toByteArray();
+
+        int[] offsets = new int[4];
+        assertEquals(4, SliceSplitter.findSliceOffsets(data, data.length, false, offsets));
+    }
+}
@@ -0,0 +1,121 @@
+package com.limelight.binding.video;
+
+import org.jcodec.codecs.h264.io.model.SeqParameterSet;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SpsPatcherTest {
+    // 1920x1080 High profile, level 4.0, 4 reference frames and no VUI
+    private static final byte[] SPS_1080P = {
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x01, (byte) 0x67,
+            (byte) 0x64, (byte) 0x00, (byte) 0x28, (byte) 0xAC, (byte) 0xB2, (byte) 0x80,
+            (byte) 0xF0, (byte) 0x04, (byte) 0x4F, (byte) 0xCA, (byte) 0x80
+    };
+
+    private static SpsPatcher newPatcher() {
+        SpsPatcher patcher = new SpsPatcher();
+        patcher.width = 1920;
+        patcher.height = 1080;
+        patcher.refreshRate = 60;
+        return patcher;
+    }
+
+    private static SeqParameterSet roundTrip(SeqParameterSet sps) {
+        byte[] patched = SpsPatcher.write(sps, SPS_1080P, 4, SPS_1080P.length);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(SPS_1080P[i], patched[i]);
+        }
+        return SpsPatcher.parse(patched, 4);
+    }
+
+    @Test
+    public void patchesForMinimalBuffering() {
+        SpsPatcher patcher = newPatcher();
+        patcher.addBitstreamRestrictions = true;
+
+        SeqParameterSet sps = SpsPatcher.parse(SPS_1080P, 4);
+        assertEquals(40, sps.levelIdc);
+        assertEquals(4, sps.numRefFrames);
+        assertNull(sps.vuiParams);
+
+        patcher.patch(sps);
+        sps = roundTrip(sps);
+
+        assertEquals(42, sps.levelIdc);
+        assertEquals(1, sps.numRefFrames);
+        assertNotNull(sps.vuiParams);
+        assertNotNull(sps.vuiParams.bitstreamRestriction);
+        assertEquals(1, sps.vuiParams.bitstreamRestriction.maxDecFrameBuffering);
+        assertEquals(0, sps.vuiParams.bitstreamRestriction.numReorderFrames);
+    }
+
+    @Test
+    public void levelDependsOnStreamSize() {
+        SpsPatcher patcher = newPatcher();
+        patcher.width = 1280;
+        patcher.height = 720;
+
+        SeqParameterSet sps = SpsPatcher.parse(SPS_1080P, 4);
+        patcher.patch(sps);
+        assertEquals(32, sps.levelIdc);
+
+        patcher.refreshRate = 120;
+        sps = SpsPatcher.parse(SPS_1080P, 4);
+        patcher.patch(sps);
+        assertEquals(40, sps.levelIdc);
+    }
+
+    @Test
+    public void referenceFrameInvalidationKeepsHostValues() {
+        SpsPatcher patcher = newPatcher();
+        patcher.refFrameInvalidationActive = true;
+
+        SeqParameterSet sps = SpsPatcher.parse(SPS_1080P, 4);
+        patcher.patch(sps);
+        sps = roundTrip(sps);
+
+        assertEquals(40, sps.levelIdc);
+        assertEquals(4, sps.numRefFrames);
+        assertNull(sps.vuiParams);
+    }
+
+    @Test
+    public void constrainedHighProfileOnlyForHighProfile() {
+        SpsPatcher patcher = newPatcher();
+        patcher.constrainedHighProfile = true;
+
+        SeqParameterSet sps = SpsPatcher.parse(SPS_1080P, 4);
+        patcher.patchProfileConstraints(sps);
+        sps = roundTrip(sps);
+        assertTrue(sps.constraintSet4Flag);
+        assertTrue(sps.constraintSet5Flag);
+
+        // The baseline SPS hack must not be marked constrained high
+        sps.profileIdc = 66;
+        patcher.patchProfileConstraints(sps);
+        assertFalse(sps.constraintSet4Flag);
+        assertFalse(sps.constraintSet5Flag);
+    }
+
+    @Test
+    public void baselineHackSpsIsNotReusedAfterReplay() {
+        SpsPatcher patcher = newPatcher();
+
+        // The first SPS is hacked to Baseline and kept for the replay
+        byte[] hacked = patcher.patchNalu(SPS_1080P, SPS_1080P.length, true);
+        assertEquals(66, SpsPatcher.parse(hacked, 4).profileIdc);
+        assertNotNull(patcher.baselineSps);
+        assertNull(patcher.getCachedNalu(SPS_1080P, SPS_1080P.length));
+
+        // After the replay, the same SPS from the host must keep its real profile
+        patcher.baselineSps = null;
+        byte[] patched = patcher.patchNalu(SPS_1080P, SPS_1080P.length, false);
+        assertEquals(100, SpsPatcher.parse(patched, 4).profileIdc);
+        assertNull(patcher.baselineSps);
+
+        byte[] cached = patcher.getCachedNalu(SPS_1080P, SPS_1080P.length);
+        assertSame(patched, cached);
+        assertEquals(100, SpsPatcher.parse(cached, 4).profileIdc);
+    }
+}
@@ -0,0 +1,187 @@
+package com.limelight.nvstream.input;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InputEventQueueTest {
+    private static void offer(InputEventQueue queue, int type, int arg) {
+        long pos = queue.claim(type, 100);
+        assertTrue(pos >= 0);
+        queue.putArg(pos, 0, arg);
+        queue.publish(pos);
+    }
+
+    @Test
+    public void pollsInOrder() {
+        InputEventQueue queue = new InputEventQueue(4);
+        InputEventQueue.Event event = new InputEventQueue.Event();
+
+        offer(queue, 1, 10);
+        offer(queue, 2, 20);
+
+        assertTrue(queue.poll(event));
+        assertEquals(1, event.type);
+        assertEquals(10, event.args[0]);
+        assertEquals(100, event.enqueueTimeNs);
+
+        assertTrue(queue.poll(event));
+        assertEquals(2, event.type);
+        assertEquals(20, event.args[0]);
+
+        assertFalse(queue.poll(event));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void rejectsWhenFullAndReusesSlots() {
+        InputEventQueue queue = new InputEventQueue(2);
+        InputEventQueue.Event event = new InputEventQueue.Event();
+
+        offer(queue, 1, 1);
+        offer(queue, 1, 2);
+        assertEquals(-1, queue.claim(1, 0));
+
+        assertTrue(queue.poll(event));
+        assertEquals(1, event.args[0]);
+
+        // The freed slot is available for the next lap
+        offer(queue, 1, 3);
+        assertTrue(queue.poll(event));
+        assertEquals(2, event.args[0]);
+        assertTrue(queue.poll(event));
+        assertEquals(3, event.args[0]);
+    }
+
+    @Test
+    public void unpublishedSlotIsNotPolled() {
+        InputEventQueue queue = new InputEventQueue(4);
+        InputEventQueue.Event event = new InputEventQueue.Event();
+
+        long pos = queue.claim(5, 0);
+        queue.putText(pos, "text");
+        assertFalse(queue.poll(event));
+
+        queue.publish(pos);
+        assertTrue(queue.poll(event));
+        assertEquals("text", event.text);
+    }
+
+    @Test
+    public void completesOnlyEventsBeforeTheTail() {
+        InputEventQueue queue = new InputEventQueue(4);
+        InputEventQueue.Event event = new InputEventQueue.Event();
+
+        assertTrue(queue.isCompleted(queue.getTail()));
+
+        offer(queue, 1, 1);
+        offer(queue, 1, 2);
+        long pos = queue.getTail();
+        assertFalse(queue.isCompleted(pos));
+
+        // Polled but not handled yet
+        assertTrue(queue.poll(event));
+        assertFalse(queue.isCompleted(pos));
+        queue.complete();
+        assertFalse(queue.isCompleted(pos));
+
+        // Events queued after the tail was read don't hold it up
+        offer(queue, 1, 3);
+        assertTrue(queue.poll(event));
+        queue.complete();
+        assertTrue(queue.isCompleted(pos));
+        assertFalse(queue.isCompleted(queue.getTail()));
+    }
+
+    @Test
+    public void waitingForTheTailSeesEarlierEventsHandled() throws InterruptedException {
+        final int events = 100000;
+        final InputEventQueue queue = new InputEventQueue(64);
+        final int[] handled = new int[1];
+
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                InputEventQueue.Event event = new InputEventQueue.Event();
+                int received = 0;
+                while (received < events) {
+                    if (queue.poll(event)) {
+                        handled[0] = event.args[0] + 1;
+                        queue.complete();
+                        received++;
+                    }
+                    else {
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+        consumer.start();
+
+        for (int seq = 0; seq < events; seq++) {
+            long pos;
+            while ((pos = queue.claim(0, 0)) < 0) {
+                Thread.yield();
+            }
+            queue.putArg(pos, 0, seq);
+            queue.publish(pos);
+
+            // This is what a synchronous event waits for before it's sent
+            if (seq % 100 == 0) {
+                long tail = queue.getTail();
+                while (!queue.isCompleted(tail)) {
+                    Thread.yield();
+                }
+                assertEquals(seq + 1, handled[0]);
+            }
+        }
+
+        consumer.join();
+        assertTrue(queue.isCompleted(queue.getTail()));
+    }
+
+    @Test
+    public void concurrentProducersKeepPerThreadOrder() throws InterruptedException {
+        final int producers = 4;
+        final int eventsPerProducer = 20000;
+        final InputEventQueue queue = new InputEventQueue(64);
+
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            final int producer = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int seq = 0; seq < eventsPerProducer; seq++) {
+                        long pos;
+                        while ((pos = queue.claim(producer, 0)) < 0) {
+                            Thread.yield();
+                        }
+                        queue.putArg(pos, 0, seq);
+                        queue.publish(pos);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        InputEventQueue.Event event = new InputEventQueue.Event();
+        int[] nextSeq = new int[producers];
+        int received = 0;
+        while (received < producers * eventsPerProducer) {
+            if (queue.poll(event)) {
+                assertEquals(nextSeq[event.type], event.args[0]);
+                nextSeq[event.type]++;
+                received++;
+            }
+            else {
+                Thread.yield();
+            }
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,91 @@
+package com.limelight.utils;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@Config(sdk = {33})
+@RunWith(RobolectricTestRunner.class)
+public class PerformanceHistoryDatabaseTest {
+    private PerformanceHistoryDatabase db;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        db = new PerformanceHistoryDatabase(context);
+        db.clear();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    private static PerformanceHistoryDatabase.Entry entry(String codec, String bitrate, float decodeTimeMs) {
+        PerformanceHistoryDatabase.Entry entry = new PerformanceHistoryDatabase.Entry();
+        entry.device = "Pixel";
+        entry.codec = codec;
+        entry.resolution = "1920x1080";
+        entry.frameRate = "60 hz";
+        entry.bitrate = bitrate;
+        entry.framePacing = "Balanced";
+        entry.decodeTimeMs = decodeTimeMs;
+        entry.decodeTime = decodeTimeMs + " ms";
+        return entry;
+    }
+
+    @Test
+    public void onlyBetterResultsReplaceAConfiguration() {
+        assertTrue(db.saveIfBetter(entry("H.265", "20", 4.0f)));
+        assertFalse(db.saveIfBetter(entry("H.265", "20", 4.0f)));
+        assertFalse(db.saveIfBetter(entry("H.265", "20", 5.0f)));
+        assertTrue(db.saveIfBetter(entry("H.265", "20", 3.5f)));
+
+        List<PerformanceHistoryDatabase.Entry> entries = db.getAllEntries();
+        assertEquals(1, entries.size());
+        assertEquals(3.5f, entries.get(0).decodeTimeMs, 0.001f);
+    }
+
+    @Test
+    public void bestEntryPerCodec() {
+        db.saveIfBetter(entry("H.264", "20", 6.0f));
+        db.saveIfBetter(entry("H.264", "40", 5.0f));
+        db.saveIfBetter(entry("H.265", "20", 3.0f));
+        db.saveIfBetter(entry("H.265", "40", 4.0f));
+
+        List<PerformanceHistoryDatabase.Entry> best = db.getBestEntryPerCodec("Pixel");
+        assertEquals(2, best.size());
+        assertEquals("H.265", best.get(0).codec);
+        assertEquals("20", best.get(0).bitrate);
+        assertEquals("H.264", best.get(1).codec);
+        assertEquals("40", best.get(1).bitrate);
+
+        assertTrue(db.getBestEntryPerCodec("Other").isEmpty());
+    }
+
+    @Test
+    public void retentionIsBounded() {
+        for (int i = 0; i < PerformanceHistoryDatabase.MAX_ENTRIES + 10; i++) {
+            db.saveIfBetter(entry("H.264", Integer.toString(i), 5.0f));
+        }
+
+        List<PerformanceHistoryDatabase.Entry> entries = db.getAllEntries();
+        assertEquals(PerformanceHistoryDatabase.MAX_ENTRIES, entries.size());
+
+        // The oldest configurations are the ones dropped
+        for (PerformanceHistoryDatabase.Entry entry : entries) {
+            assertTrue(Integer.parseInt(entry.bitrate) >= 10);
+        }
+    }
+}
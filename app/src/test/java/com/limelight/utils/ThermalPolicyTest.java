@@ -0,0 +1,71 @@
+package com.limelight.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThermalPolicyTest {
+    @Test
+    public void staysNormalWhenCool() {
+        ThermalPolicy policy = new ThermalPolicy();
+
+        for (long now = 0; now < 600000; now += 10000) {
+            assertEquals(ThermalPolicy.LEVEL_NORMAL, policy.update(0, 0.4f, 5.0f, now));
+        }
+        assertFalse(policy.isDecodeTimeCreeping());
+    }
+
+    @Test
+    public void reactsToHeadroomBeforeThermalStatus() {
+        ThermalPolicy policy = new ThermalPolicy();
+
+        assertEquals(ThermalPolicy.LEVEL_WARM, policy.update(0, 0.8f, 5.0f, 0));
+        assertEquals(ThermalPolicy.LEVEL_THROTTLING, policy.update(0, 0.95f, 5.0f, 10000));
+        assertEquals(ThermalPolicy.LEVEL_SEVERE, policy.update(ThermalPolicy.STATUS_SEVERE, Float.NaN, 5.0f, 20000));
+    }
+
+    @Test
+    public void decodeTimeCreepRaisesLevel() {
+        ThermalPolicy policy = new ThermalPolicy();
+        long now = 0;
+
+        for (int i = 0; i < 10; i++, now += 10000) {
+            policy.update(0, Float.NaN, 5.0f, now);
+        }
+        assertEquals(ThermalPolicy.LEVEL_NORMAL, policy.getLevel());
+
+        for (int i = 0; i < 20; i++, now += 10000) {
+            policy.update(0, Float.NaN, 12.0f, now);
+        }
+        assertTrue(policy.isDecodeTimeCreeping());
+        assertEquals(ThermalPolicy.LEVEL_WARM, policy.getLevel());
+
+        // Creep with some heat means throttling has started
+        assertEquals(ThermalPolicy.LEVEL_THROTTLING, policy.update(ThermalPolicy.STATUS_LIGHT, Float.NaN, 12.0f, now));
+    }
+
+    @Test
+    public void stepsDownOnlyAfterCoolingOff() {
+        ThermalPolicy policy = new ThermalPolicy();
+
+        assertEquals(ThermalPolicy.LEVEL_THROTTLING, policy.update(ThermalPolicy.STATUS_MODERATE, 0.9f, 0, 0));
+        assertEquals(ThermalPolicy.LEVEL_THROTTLING, policy.update(0, 0.5f, 0, 10000));
+        assertEquals(ThermalPolicy.LEVEL_THROTTLING, policy.update(0, 0.5f, 0, 29999));
+        assertEquals(ThermalPolicy.LEVEL_NORMAL, policy.update(0, 0.5f, 0, 30000));
+    }
+
+    @Test
+    public void timelineCoversLongSessions() {
+        ThermalPolicy policy = new ThermalPolicy();
+
+        // 3 hours of samples every 10 seconds
+        for (long now = 0; now <= 3 * 3600000; now += 10000) {
+            policy.update(0, now / (float) (3 * 3600000), 0, now);
+        }
+
+        assertTrue(policy.getTimelineCount() <= 60);
+        assertEquals(240000, policy.getTimelineIntervalMs());
+        assertEquals(1.0f, policy.getPeakHeadroom(), 0.001f);
+        assertTrue(policy.getTimelineSummary().startsWith("Peak status 0, peak headroom 1.00, every 4 min:"));
+    }
+}